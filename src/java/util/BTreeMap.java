@@ -0,0 +1,1999 @@
+/*
+ * Copyright (c) 2017, Oracle and/or its affiliates. All rights reserved.
+ * ORACLE PROPRIETARY/CONFIDENTIAL. Use is subject to license terms.
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ */
+
+package java.util;
+
+import java.io.Serializable;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+
+/**
+ * A B+tree based {@link NavigableMap} implementation.  Like {@link
+ * TreeMap}, the map is sorted according to the {@linkplain Comparable
+ * natural ordering} of its keys, or by a {@link Comparator} provided at
+ * map creation time, depending on which constructor is used, and it
+ * supports the same views, including bounded and descending sub-maps.
+ *
+ * <p>Instead of one node per mapping, keys and values are stored in
+ * arrays in wide leaf nodes, which are linked in key order, above which
+ * inner nodes of up to 64 keys direct the search.  A lookup therefore
+ * visits a handful of nodes rather than one per level of a binary
+ * tree, iteration and range scans proceed sequentially through the leaf
+ * arrays, and the per-mapping memory overhead is about two array slots.
+ * {@code containsKey}, {@code get}, {@code put} and {@code remove} take
+ * log(n) time.  Unlike with {@code TreeMap}, the {@code size} of a
+ * bounded view takes time proportional to the number of leaves it
+ * spans.
+ *
+ * <p>The entries returned by this class's navigation methods, such as
+ * {@code firstEntry}, are snapshots that do not support {@code
+ * setValue}.  The entries returned by the iterators of {@code
+ * entrySet()} views write through to the map.
+ *
+ * <p>The ordering must be <em>consistent with {@code equals}</em> for
+ * this map to correctly implement the {@code Map} interface, as
+ * described in {@link TreeMap}.
+ *
+ * <p><strong>Note that this implementation is not synchronized.</strong>
+ * If multiple threads access a map concurrently, and at least one of the
+ * threads modifies the map structurally, it <em>must</em> be synchronized
+ * externally.  The iterators returned by the collection views of this
+ * map and its sub-maps are <em>fail-fast</em>, as described in {@link
+ * TreeMap}.
+ *
+ * @param <K> the type of keys maintained by this map
+ * @param <V> the type of mapped values
+ *
+ * @see TreeMap
+ */
+public class BTreeMap<K,V>
+    extends AbstractMap<K,V>
+    implements NavigableMap<K,V>, Cloneable, java.io.Serializable
+{
+    /*
+     * Overview:
+     *
+     * Every leaf holds its mappings in keys[0, size) and vals[0, size),
+     * sorted.  Every inner node holds size keys and size + 1 children;
+     * keys[i] separates children[i] from children[i + 1], every key
+     * below children[i + 1] comparing greater than or equal to it.  A
+     * key equal to a separator therefore descends to its right.  All
+     * leaves are at depth height, and are doubly linked in key order
+     * from head to tail.
+     *
+     * Every leaf other than the root holds at least MIN_KEYS mappings,
+     * every inner node other than the root at least MIN_KEYS - 1 keys
+     * (bulk loading may leave that many), and an empty map has no nodes
+     * at all.  The one exception is the tail leaf: a key appended at
+     * the end of the map splits a full tail leaf into a full leaf and a
+     * new leaf holding only that key, so that maps built by ascending
+     * insertion end up with full leaves.  Removal rebalances an
+     * underfull node whatever its position; since a node is merged only
+     * when its sibling holds at most MIN_KEYS keys, merged nodes always
+     * fit.
+     *
+     * Insertion and removal first descend without recording the path,
+     * which is all that is needed unless the leaf has to split or is
+     * left underfull; only then do they descend again keeping the path
+     * in arrays, and split or merge upward.  Separators are not updated
+     * when the least key of a subtree is removed, since they remain
+     * valid bounds.
+     *
+     * Positions within the tree are represented by Cursors (a leaf and
+     * an index), which the navigation methods and sub-maps build on.
+     * Iterators keep a position of their own; removal through an
+     * iterator may restructure the leaves, so the iterator afterwards
+     * looks up the position of its next key again.
+     */
+
+    private static final long serialVersionUID = 3386418232419316475L;
+
+    /**
+     * The maximum number of keys in a node.
+     */
+    static final int NODE_CAPACITY = 64;
+
+    /**
+     * The minimum number of keys in a node other than the root.
+     */
+    static final int MIN_KEYS = NODE_CAPACITY / 2;
+
+    /** Relations for findNear */
+    private static final int EQ = 1;
+    private static final int LT = 2;
+    private static final int GT = 0; // Actually checked as !LT
+
+    /**
+     * The comparator used to maintain order in this map, or
+     * null if it uses the natural ordering of its keys.
+     *
+     * @serial
+     */
+    private final Comparator<? super K> comparator;
+
+    private transient Node<K,V> root;
+
+    /** The leftmost and rightmost leaves; null when empty. */
+    private transient Leaf<K,V> head, tail;
+
+    /** The number of inner levels above the leaves. */
+    private transient int height;
+
+    /**
+     * The number of entries in the tree
+     */
+    private transient int size = 0;
+
+    /**
+     * The number of structural modifications to the tree.
+     */
+    private transient int modCount = 0;
+
+    /**
+     * Constructs a new, empty map, using the natural ordering of its
+     * keys.  All keys inserted into the map must implement the {@link
+     * Comparable} interface, as for {@link TreeMap#TreeMap()}.
+     */
+    public BTreeMap() {
+        comparator = null;
+    }
+
+    /**
+     * Constructs a new, empty map, ordered according to the given
+     * comparator.
+     *
+     * @param comparator the comparator that will be used to order this map.
+     *        If {@code null}, the {@linkplain Comparable natural
+     *        ordering} of the keys will be used.
+     */
+    public BTreeMap(Comparator<? super K> comparator) {
+        this.comparator = comparator;
+    }
+
+    /**
+     * Constructs a new map containing the same mappings as the given
+     * map, ordered according to the <em>natural ordering</em> of its
+     * keys.
+     *
+     * @param  m the map whose mappings are to be placed in this map
+     * @throws ClassCastException if the keys in m are not {@link Comparable},
+     *         or are not mutually comparable
+     * @throws NullPointerException if the specified map is null
+     */
+    public BTreeMap(Map<? extends K, ? extends V> m) {
+        comparator = null;
+        putAll(m);
+    }
+
+    /**
+     * Constructs a new map containing the same mappings and using the
+     * same ordering as the specified sorted map.  This method runs in
+     * linear time.
+     *
+     * @param  m the sorted map whose mappings are to be placed in this map,
+     *         and whose comparator is to be used to sort this map
+     * @throws NullPointerException if the specified map is null
+     */
+    public BTreeMap(SortedMap<K, ? extends V> m) {
+        comparator = m.comparator();
+        try {
+            buildFromSorted(m.size(), m.entrySet().iterator(), null);
+        } catch (java.io.IOException cannotHappen) {
+        } catch (ClassNotFoundException cannotHappen) {
+        }
+    }
+
+    // Nodes
+
+    /**
+     * A node of the tree.  Leaves and inner nodes share the key array.
+     */
+    abstract static class Node<K,V> {
+        final Object[] keys = new Object[NODE_CAPACITY];
+        int size;
+    }
+
+    static final class Leaf<K,V> extends Node<K,V> {
+        final Object[] vals = new Object[NODE_CAPACITY];
+        Leaf<K,V> prev, next;
+
+        void insert(int i, Object key, Object value) {
+            int n = size;
+            if (i < n) {
+                System.arraycopy(keys, i, keys, i + 1, n - i);
+                System.arraycopy(vals, i, vals, i + 1, n - i);
+            }
+            keys[i] = key;
+            vals[i] = value;
+            size = n + 1;
+        }
+
+        void remove(int i) {
+            int n = size - 1;
+            if (i < n) {
+                System.arraycopy(keys, i + 1, keys, i, n - i);
+                System.arraycopy(vals, i + 1, vals, i, n - i);
+            }
+            keys[n] = null;
+            vals[n] = null;
+            size = n;
+        }
+
+        /**
+         * Splits this full leaf while inserting a mapping at index i,
+         * and returns the new right sibling, linked after this leaf.
+         * If append is true and i is at the end, the right sibling
+         * receives only the new mapping.
+         */
+        Leaf<K,V> split(int i, Object key, Object value, boolean append) {
+            int n = size;
+            int lc = (append && i == n) ? n : (n + 1) >>> 1; // left count
+            Leaf<K,V> r = new Leaf<>();
+            if (i < lc) {
+                int m = n - (lc - 1);
+                System.arraycopy(keys, lc - 1, r.keys, 0, m);
+                System.arraycopy(vals, lc - 1, r.vals, 0, m);
+                Arrays.fill(keys, lc - 1, n, null);
+                Arrays.fill(vals, lc - 1, n, null);
+                r.size = m;
+                size = lc - 1;
+                insert(i, key, value);
+            } else {
+                int j = i - lc;
+                System.arraycopy(keys, lc, r.keys, 0, j);
+                System.arraycopy(vals, lc, r.vals, 0, j);
+                r.keys[j] = key;
+                r.vals[j] = value;
+                System.arraycopy(keys, i, r.keys, j + 1, n - i);
+                System.arraycopy(vals, i, r.vals, j + 1, n - i);
+                Arrays.fill(keys, lc, n, null);
+                Arrays.fill(vals, lc, n, null);
+                r.size = n - lc + 1;
+                size = lc;
+            }
+            Leaf<K,V> nx = next;
+            r.prev = this;
+            r.next = nx;
+            if (nx != null)
+                nx.prev = r;
+            next = r;
+            return r;
+        }
+    }
+
+    static final class Inner<K,V> extends Node<K,V> {
+        @SuppressWarnings("unchecked")
+        final Node<K,V>[] children = (Node<K,V>[])new Node<?,?>[NODE_CAPACITY + 1];
+
+        /**
+         * Inserts separator key at i, with child to its right.
+         */
+        void insert(int i, Object key, Node<K,V> child) {
+            int n = size;
+            if (i < n) {
+                System.arraycopy(keys, i, keys, i + 1, n - i);
+                System.arraycopy(children, i + 1, children, i + 2, n - i);
+            }
+            keys[i] = key;
+            children[i + 1] = child;
+            size = n + 1;
+        }
+
+        /**
+         * Removes separator key i and the child to its right.
+         */
+        void remove(int i) {
+            int n = size - 1;
+            if (i < n) {
+                System.arraycopy(keys, i + 1, keys, i, n - i);
+                System.arraycopy(children, i + 2, children, i + 1, n - i);
+            }
+            keys[n] = null;
+            children[n + 1] = null;
+            size = n;
+        }
+
+        /**
+         * Splits this full node while inserting separator key at i
+         * with child to its right.  Moves the upper half into r and
+         * returns the separator to insert above, between this node
+         * and r.
+         */
+        Object split(int i, Object key, Node<K,V> child, Inner<K,V> r) {
+            int n = size;
+            Object[] ks = new Object[n + 1];
+            Object[] cs = new Object[n + 2];
+            System.arraycopy(keys, 0, ks, 0, i);
+            ks[i] = key;
+            System.arraycopy(keys, i, ks, i + 1, n - i);
+            System.arraycopy(children, 0, cs, 0, i + 1);
+            cs[i + 1] = child;
+            System.arraycopy(children, i + 1, cs, i + 2, n - i);
+            int mid = (n + 1) >>> 1;
+            Arrays.fill(keys, null);
+            Arrays.fill(children, null);
+            System.arraycopy(ks, 0, keys, 0, mid);
+            System.arraycopy(cs, 0, children, 0, mid + 1);
+            size = mid;
+            int rn = n - mid;
+            System.arraycopy(ks, mid + 1, r.keys, 0, rn);
+            System.arraycopy(cs, mid + 1, r.children, 0, rn + 1);
+            r.size = rn;
+            return ks[mid];
+        }
+    }
+
+    /**
+     * A position in a leaf.
+     */
+    static final class Cursor<K,V> {
+        final Leaf<K,V> leaf;
+        final int index;
+        Cursor(Leaf<K,V> leaf, int index) {
+            this.leaf = leaf;
+            this.index = index;
+        }
+        @SuppressWarnings("unchecked")
+        K key() { return (K)leaf.keys[index]; }
+        @SuppressWarnings("unchecked")
+        V value() { return (V)leaf.vals[index]; }
+    }
+
+    // Query Operations
+
+    /**
+     * Returns the number of key-value mappings in this map.
+     *
+     * @return the number of key-value mappings in this map
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns {@code true} if this map contains a mapping for the specified
+     * key.
+     *
+     * @param key key whose presence in this map is to be tested
+     * @return {@code true} if this map contains a mapping for the
+     *         specified key
+     * @throws ClassCastException if the specified key cannot be compared
+     *         with the keys currently in the map
+     * @throws NullPointerException if the specified key is null
+     *         and this map uses natural ordering, or its comparator
+     *         does not permit null keys
+     */
+    public boolean containsKey(Object key) {
+        return getCursor(key) != null;
+    }
+
+    /**
+     * Returns {@code true} if this map maps one or more keys to the
+     * specified value.  This scans the leaves sequentially, in time
+     * linear in the size of the map.
+     *
+     * @param value value whose presence in this map is to be tested
+     * @return {@code true} if a mapping to {@code value} exists;
+     *         {@code false} otherwise
+     */
+    public boolean containsValue(Object value) {
+        for (Leaf<K,V> l = head; l != null; l = l.next) {
+            Object[] vs = l.vals;
+            for (int i = 0, n = l.size; i < n; ++i) {
+                if (valEquals(value, vs[i]))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the value to which the specified key is mapped,
+     * or {@code null} if this map contains no mapping for the key.
+     *
+     * @throws ClassCastException if the specified key cannot be compared
+     *         with the keys currently in the map
+     * @throws NullPointerException if the specified key is null
+     *         and this map uses natural ordering, or its comparator
+     *         does not permit null keys
+     */
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        Leaf<K,V> l = findLeaf(key);
+        int i;
+        return (l == null || (i = search(l, key)) < 0) ? null : (V)l.vals[i];
+    }
+
+    public Comparator<? super K> comparator() {
+        return comparator;
+    }
+
+    /**
+     * @throws NoSuchElementException {@inheritDoc}
+     */
+    public K firstKey() {
+        return key(firstCursor());
+    }
+
+    /**
+     * @throws NoSuchElementException {@inheritDoc}
+     */
+    public K lastKey() {
+        return key(lastCursor());
+    }
+
+    /**
+     * Copies all of the mappings from the specified map to this map.
+     * If this map is empty and the specified map is a sorted map with
+     * the same ordering, the tree is bulk loaded in linear time.
+     *
+     * @param  map mappings to be stored in this map
+     * @throws ClassCastException if the class of a key or value in
+     *         the specified map prevents it from being stored in this map
+     * @throws NullPointerException if the specified map is null or
+     *         the specified map contains a null key and this map does not
+     *         permit null keys
+     */
+    public void putAll(Map<? extends K, ? extends V> map) {
+        int mapSize = map.size();
+        if (size==0 && mapSize!=0 && map instanceof SortedMap) {
+            Comparator<?> c = ((SortedMap<?,?>)map).comparator();
+            if (c == comparator || (c != null && c.equals(comparator))) {
+                ++modCount;
+                try {
+                    buildFromSorted(mapSize, map.entrySet().iterator(), null);
+                } catch (java.io.IOException cannotHappen) {
+                } catch (ClassNotFoundException cannotHappen) {
+                }
+                return;
+            }
+        }
+        super.putAll(map);
+    }
+
+    // Search
+
+    /**
+     * Returns the leaf that holds or would hold the given key, or
+     * null if the map is empty.
+     */
+    final Leaf<K,V> findLeaf(Object key) {
+        if (key == null && comparator == null)
+            throw new NullPointerException();
+        Node<K,V> x = root;
+        if (x == null)
+            return null;
+        for (int h = height; h > 0; --h) {
+            Inner<K,V> in = (Inner<K,V>)x;
+            x = in.children[childIndex(in, key)];
+        }
+        return (Leaf<K,V>)x;
+    }
+
+    /**
+     * Returns the index of the child of in whose subtree holds or
+     * would hold the given key.
+     */
+    final int childIndex(Inner<K,V> in, Object key) {
+        int i = search(in, key);
+        return (i >= 0) ? i + 1 : -(i + 1);
+    }
+
+    /**
+     * Binary search for key in the keys of node x, returning its index
+     * if present, else (-(insertion point) - 1).  Uses the comparable
+     * or comparator path, as TreeMap does.
+     */
+    @SuppressWarnings("unchecked")
+    final int search(Node<K,V> x, Object key) {
+        Object[] ks = x.keys;
+        int lo = 0, hi = x.size - 1;
+        Comparator<? super K> cpr = comparator;
+        if (cpr == null) {
+            Comparable<? super K> k = (Comparable<? super K>) key;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int c = k.compareTo((K)ks[mid]);
+                if (c > 0)
+                    lo = mid + 1;
+                else if (c < 0)
+                    hi = mid - 1;
+                else
+                    return mid;
+            }
+        } else {
+            K k = (K) key;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int c = cpr.compare(k, (K)ks[mid]);
+                if (c > 0)
+                    lo = mid + 1;
+                else if (c < 0)
+                    hi = mid - 1;
+                else
+                    return mid;
+            }
+        }
+        return -(lo + 1);
+    }
+
+    /**
+     * Returns the position of the given key, or null if absent.
+     */
+    final Cursor<K,V> getCursor(Object key) {
+        Leaf<K,V> l = findLeaf(key);
+        int i;
+        return (l == null || (i = search(l, key)) < 0) ? null :
+            new Cursor<K,V>(l, i);
+    }
+
+    final Cursor<K,V> firstCursor() {
+        Leaf<K,V> l = head;
+        return (l == null) ? null : new Cursor<K,V>(l, 0);
+    }
+
+    final Cursor<K,V> lastCursor() {
+        Leaf<K,V> l = tail;
+        return (l == null) ? null : new Cursor<K,V>(l, l.size - 1);
+    }
+
+    /**
+     * Returns the position of the key nearest to the given key in the
+     * given relation: LT for lower, LT|EQ for floor, GT for higher and
+     * GT|EQ for ceiling; or null if there is none.
+     */
+    final Cursor<K,V> findNear(Object key, int rel) {
+        Leaf<K,V> l = findLeaf(key);
+        if (l == null)
+            return null;
+        int i = search(l, key);
+        if (i >= 0) {
+            if ((rel & EQ) != 0)
+                return new Cursor<K,V>(l, i);
+            i = ((rel & LT) != 0) ? i - 1 : i + 1;
+        }
+        else {
+            i = -(i + 1);
+            if ((rel & LT) != 0)
+                --i;
+        }
+        if (i < 0) {
+            if ((l = l.prev) == null)
+                return null;
+            i = l.size - 1;
+        }
+        else if (i >= l.size) {
+            if ((l = l.next) == null)
+                return null;
+            i = 0;
+        }
+        return new Cursor<K,V>(l, i);
+    }
+
+    // Modification Operations
+
+    /**
+     * Associates the specified value with the specified key in this map.
+     * If the map previously contained a mapping for the key, the old
+     * value is replaced.
+     *
+     * @param key key with which the specified value is to be associated
+     * @param value value to be associated with the specified key
+     *
+     * @return the previous value associated with {@code key}, or
+     *         {@code null} if there was no mapping for {@code key}.
+     *         (A {@code null} return can also indicate that the map
+     *         previously associated {@code null} with {@code key}.)
+     * @throws ClassCastException if the specified key cannot be compared
+     *         with the keys currently in the map
+     * @throws NullPointerException if the specified key is null
+     *         and this map uses natural ordering, or its comparator
+     *         does not permit null keys
+     */
+    @SuppressWarnings("unchecked")
+    public V put(K key, V value) {
+        Leaf<K,V> l = findLeaf(key);
+        if (l == null) {
+            compare(key, key); // type (and possibly null) check
+
+            l = new Leaf<>();
+            l.keys[0] = key;
+            l.vals[0] = value;
+            l.size = 1;
+            root = head = tail = l;
+            height = 0;
+            size = 1;
+            modCount++;
+            return null;
+        }
+        int i = search(l, key);
+        if (i >= 0) {
+            V oldValue = (V)l.vals[i];
+            l.vals[i] = value;
+            return oldValue;
+        }
+        i = -(i + 1);
+        if (l.size < NODE_CAPACITY)
+            l.insert(i, key, value);
+        else
+            splitInsert(key, value);
+        size++;
+        modCount++;
+        return null;
+    }
+
+    /**
+     * Inserts an absent key whose leaf is full, splitting nodes upward
+     * as needed.
+     */
+    @SuppressWarnings("unchecked")
+    private void splitInsert(K key, V value) {
+        int h = height;
+        Inner<K,V>[] path = (Inner<K,V>[])new Inner<?,?>[h];
+        int[] idx = new int[h];
+        Node<K,V> x = root;
+        for (int d = 0; d < h; ++d) {
+            Inner<K,V> in = (Inner<K,V>)x;
+            int c = childIndex(in, key);
+            path[d] = in;
+            idx[d] = c;
+            x = in.children[c];
+        }
+        Leaf<K,V> l = (Leaf<K,V>)x;
+        Leaf<K,V> r = l.split(-(search(l, key) + 1), key, value, l == tail);
+        if (l == tail)
+            tail = r;
+        Object sep = r.keys[0];
+        Node<K,V> child = r;
+        for (int d = h - 1; d >= 0; --d) {
+            Inner<K,V> p = path[d];
+            if (p.size < NODE_CAPACITY) {
+                p.insert(idx[d], sep, child);
+                return;
+            }
+            Inner<K,V> pr = new Inner<>();
+            sep = p.split(idx[d], sep, child, pr);
+            child = pr;
+        }
+        Inner<K,V> nr = new Inner<>();
+        nr.keys[0] = sep;
+        nr.children[0] = root;
+        nr.children[1] = child;
+        nr.size = 1;
+        root = nr;
+        height = h + 1;
+    }
+
+    /**
+     * Removes the mapping for this key from this map if present.
+     *
+     * @param  key key for which mapping should be removed
+     * @return the previous value associated with {@code key}, or
+     *         {@code null} if there was no mapping for {@code key}.
+     *         (A {@code null} return can also indicate that the map
+     *         previously associated {@code null} with {@code key}.)
+     * @throws ClassCastException if the specified key cannot be compared
+     *         with the keys currently in the map
+     * @throws NullPointerException if the specified key is null
+     *         and this map uses natural ordering, or its comparator
+     *         does not permit null keys
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(Object key) {
+        Leaf<K,V> l = findLeaf(key);
+        int i;
+        if (l == null || (i = search(l, key)) < 0)
+            return null;
+        V oldValue = (V)l.vals[i];
+        if (l == root || l.size > MIN_KEYS)
+            l.remove(i);
+        else
+            removeAndRebalance(key);
+        modCount++;
+        if (--size == 0)
+            clearTree();
+        return oldValue;
+    }
+
+    /**
+     * Removes a present key whose leaf would become underfull,
+     * borrowing from or merging with siblings upward as needed.
+     */
+    @SuppressWarnings("unchecked")
+    private void removeAndRebalance(Object key) {
+        int h = height;
+        Inner<K,V>[] path = (Inner<K,V>[])new Inner<?,?>[h];
+        int[] idx = new int[h];
+        Node<K,V> x = root;
+        for (int d = 0; d < h; ++d) {
+            Inner<K,V> in = (Inner<K,V>)x;
+            int c = childIndex(in, key);
+            path[d] = in;
+            idx[d] = c;
+            x = in.children[c];
+        }
+        Leaf<K,V> l = (Leaf<K,V>)x;
+        l.remove(search(l, key));
+        for (int d = h - 1; d >= 0; --d) {
+            if (x.size >= MIN_KEYS)
+                return;
+            Inner<K,V> p = path[d];
+            int c = idx[d];
+            if (c > 0) {
+                Node<K,V> s = p.children[c - 1];
+                if (s.size > MIN_KEYS) {
+                    borrowFromLeft(p, c, s, x);
+                    return;
+                }
+                merge(p, c - 1, s, x);
+            } else {
+                Node<K,V> s = p.children[1];
+                if (s.size > MIN_KEYS) {
+                    borrowFromRight(p, 0, x, s);
+                    return;
+                }
+                merge(p, 0, x, s);
+            }
+            x = p;
+        }
+        if (h > 0 && root.size == 0) {
+            root = ((Inner<K,V>)root).children[0];
+            height = h - 1;
+        }
+    }
+
+    /**
+     * Moves the last key of s, the left sibling of x = p.children[c],
+     * into x.
+     */
+    private static <K,V> void borrowFromLeft(Inner<K,V> p, int c,
+                                             Node<K,V> s, Node<K,V> x) {
+        int sn = s.size - 1, n = x.size;
+        System.arraycopy(x.keys, 0, x.keys, 1, n);
+        if (x instanceof Leaf) {
+            Leaf<K,V> sl = (Leaf<K,V>)s, xl = (Leaf<K,V>)x;
+            System.arraycopy(xl.vals, 0, xl.vals, 1, n);
+            xl.keys[0] = sl.keys[sn];
+            xl.vals[0] = sl.vals[sn];
+            sl.vals[sn] = null;
+            p.keys[c - 1] = xl.keys[0];
+        } else {
+            Inner<K,V> si = (Inner<K,V>)s, xi = (Inner<K,V>)x;
+            System.arraycopy(xi.children, 0, xi.children, 1, n + 1);
+            xi.keys[0] = p.keys[c - 1];
+            xi.children[0] = si.children[sn + 1];
+            si.children[sn + 1] = null;
+            p.keys[c - 1] = si.keys[sn];
+        }
+        s.keys[sn] = null;
+        s.size = sn;
+        x.size = n + 1;
+    }
+
+    /**
+     * Moves the first key of s, the right sibling of x = p.children[c],
+     * into x.
+     */
+    private static <K,V> void borrowFromRight(Inner<K,V> p, int c,
+                                              Node<K,V> x, Node<K,V> s) {
+        int sn = s.size - 1, n = x.size;
+        if (x instanceof Leaf) {
+            Leaf<K,V> sl = (Leaf<K,V>)s, xl = (Leaf<K,V>)x;
+            xl.keys[n] = sl.keys[0];
+            xl.vals[n] = sl.vals[0];
+            System.arraycopy(sl.keys, 1, sl.keys, 0, sn);
+            System.arraycopy(sl.vals, 1, sl.vals, 0, sn);
+            sl.vals[sn] = null;
+            sl.keys[sn] = null;
+            p.keys[c] = sl.keys[0];
+        } else {
+            Inner<K,V> si = (Inner<K,V>)s, xi = (Inner<K,V>)x;
+            xi.keys[n] = p.keys[c];
+            xi.children[n + 1] = si.children[0];
+            p.keys[c] = si.keys[0];
+            System.arraycopy(si.keys, 1, si.keys, 0, sn);
+            System.arraycopy(si.children, 1, si.children, 0, sn + 1);
+            si.keys[sn] = null;
+            si.children[sn + 1] = null;
+        }
+        s.size = sn;
+        x.size = n + 1;
+    }
+
+    /**
+     * Appends r = p.children[k + 1] to its left sibling l and removes
+     * r and the separator between them from p.
+     */
+    private void merge(Inner<K,V> p, int k, Node<K,V> l, Node<K,V> r) {
+        int ln = l.size, rn = r.size;
+        if (l instanceof Leaf) {
+            Leaf<K,V> ll = (Leaf<K,V>)l, rl = (Leaf<K,V>)r;
+            System.arraycopy(rl.keys, 0, ll.keys, ln, rn);
+            System.arraycopy(rl.vals, 0, ll.vals, ln, rn);
+            ll.size = ln + rn;
+            Leaf<K,V> nx = rl.next;
+            ll.next = nx;
+            if (nx != null)
+                nx.prev = ll;
+            else
+                tail = ll;
+        } else {
+            Inner<K,V> li = (Inner<K,V>)l, ri = (Inner<K,V>)r;
+            li.keys[ln] = p.keys[k];
+            System.arraycopy(ri.keys, 0, li.keys, ln + 1, rn);
+            System.arraycopy(ri.children, 0, li.children, ln + 1, rn + 1);
+            li.size = ln + 1 + rn;
+        }
+        p.remove(k);
+    }
+
+    /**
+     * Removes all of the mappings from this map.
+     * The map will be empty after this call returns.
+     */
+    public void clear() {
+        modCount++;
+        size = 0;
+        clearTree();
+    }
+
+    private void clearTree() {
+        root = head = tail = null;
+        height = 0;
+    }
+
+    /**
+     * Returns a shallow copy of this {@code BTreeMap} instance. (The keys and
+     * values themselves are not cloned.)
+     *
+     * @return a shallow copy of this map
+     */
+    public Object clone() {
+        BTreeMap<?,?> clone;
+        try {
+            clone = (BTreeMap<?,?>) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new InternalError(e);
+        }
+
+        // Put clone into "virgin" state (except for comparator)
+        clone.root = null;
+        clone.head = null;
+        clone.tail = null;
+        clone.height = 0;
+        clone.size = 0;
+        clone.modCount = 0;
+        clone.entrySet = null;
+        clone.navigableKeySet = null;
+        clone.descendingMap = null;
+
+        // Initialize clone with our mappings
+        try {
+            clone.buildFromSorted(size, entrySet().iterator(), null);
+        } catch (java.io.IOException cannotHappen) {
+        } catch (ClassNotFoundException cannotHappen) {
+        }
+
+        return clone;
+    }
+
+    // NavigableMap API methods
+
+    public Map.Entry<K,V> firstEntry() {
+        return exportEntry(firstCursor());
+    }
+
+    public Map.Entry<K,V> lastEntry() {
+        return exportEntry(lastCursor());
+    }
+
+    public Map.Entry<K,V> pollFirstEntry() {
+        Map.Entry<K,V> result = exportEntry(firstCursor());
+        if (result != null)
+            remove(result.getKey());
+        return result;
+    }
+
+    public Map.Entry<K,V> pollLastEntry() {
+        Map.Entry<K,V> result = exportEntry(lastCursor());
+        if (result != null)
+            remove(result.getKey());
+        return result;
+    }
+
+    /**
+     * @throws ClassCastException {@inheritDoc}
+     * @throws NullPointerException if the specified key is null
+     *         and this map uses natural ordering, or its comparator
+     *         does not permit null keys
+     */
+    public Map.Entry<K,V> lowerEntry(K key) {
+        return exportEntry(findNear(key, LT));
+    }
+
+    /**
+     * @throws ClassCastException {@inheritDoc}
+     * @throws NullPointerException if the specified key is null
+     *         and this map uses natural ordering, or its comparator
+     *         does not permit null keys
+     */
+    public K lowerKey(K key) {
+        return keyOrNull(findNear(key, LT));
+    }
+
+    /**
+     * @throws ClassCastException {@inheritDoc}
+     * @throws NullPointerException if the specified key is null
+     *         and this map uses natural ordering, or its comparator
+     *         does not permit null keys
+     */
+    public Map.Entry<K,V> floorEntry(K key) {
+        return exportEntry(findNear(key, LT|EQ));
+    }
+
+    /**
+     * @throws ClassCastException {@inheritDoc}
+     * @throws NullPointerException if the specified key is null
+     *         and this map uses natural ordering, or its comparator
+     *         does not permit null keys
+     */
+    public K floorKey(K key) {
+        return keyOrNull(findNear(key, LT|EQ));
+    }
+
+    /**
+     * @throws ClassCastException {@inheritDoc}
+     * @throws NullPointerException if the specified key is null
+     *         and this map uses natural ordering, or its comparator
+     *         does not permit null keys
+     */
+    public Map.Entry<K,V> ceilingEntry(K key) {
+        return exportEntry(findNear(key, GT|EQ));
+    }
+
+    /**
+     * @throws ClassCastException {@inheritDoc}
+     * @throws NullPointerException if the specified key is null
+     *         and this map uses natural ordering, or its comparator
+     *         does not permit null keys
+     */
+    public K ceilingKey(K key) {
+        return keyOrNull(findNear(key, GT|EQ));
+    }
+
+    /**
+     * @throws ClassCastException {@inheritDoc}
+     * @throws NullPointerException if the specified key is null
+     *         and this map uses natural ordering, or its comparator
+     *         does not permit null keys
+     */
+    public Map.Entry<K,V> higherEntry(K key) {
+        return exportEntry(findNear(key, GT));
+    }
+
+    /**
+     * @throws ClassCastException {@inheritDoc}
+     * @throws NullPointerException if the specified key is null
+     *         and this map uses natural ordering, or its comparator
+     *         does not permit null keys
+     */
+    public K higherKey(K key) {
+        return keyOrNull(findNear(key, GT));
+    }
+
+    // Views
+
+    /**
+     * Fields initialized to contain an instance of the entry set view
+     * the first time this view is requested.  Views are stateless, so
+     * there's no reason to create more than one.
+     */
+    private transient EntrySet entrySet;
+    private transient KeySet<K> navigableKeySet;
+    private transient NavigableMap<K,V> descendingMap;
+
+    /**
+     * Returns a {@link Set} view of the keys contained in this map, in
+     * ascending order.  The set is backed by the map, as for {@link
+     * TreeMap#keySet}.
+     */
+    public Set<K> keySet() {
+        return navigableKeySet();
+    }
+
+    public NavigableSet<K> navigableKeySet() {
+        KeySet<K> nks = navigableKeySet;
+        return (nks != null) ? nks : (navigableKeySet = new KeySet<>(this));
+    }
+
+    public NavigableSet<K> descendingKeySet() {
+        return descendingMap().navigableKeySet();
+    }
+
+    /**
+     * Returns a {@link Collection} view of the values contained in this
+     * map, in ascending order of the corresponding keys.  The collection
+     * is backed by the map, as for {@link TreeMap#values}.
+     */
+    public Collection<V> values() {
+        Collection<V> vs = values;
+        if (vs == null) {
+            vs = new Values();
+            values = vs;
+        }
+        return vs;
+    }
+
+    /**
+     * Returns a {@link Set} view of the mappings contained in this map,
+     * in ascending key order.  The set is backed by the map, as for
+     * {@link TreeMap#entrySet}; the {@code setValue} method of its
+     * iterators' entries writes through to the map.
+     */
+    public Set<Map.Entry<K,V>> entrySet() {
+        EntrySet es = entrySet;
+        return (es != null) ? es : (entrySet = new EntrySet());
+    }
+
+    public NavigableMap<K, V> descendingMap() {
+        NavigableMap<K, V> km = descendingMap;
+        return (km != null) ? km :
+            (descendingMap = new SubMap<>(this,
+                                          true, null, true,
+                                          true, null, true, true));
+    }
+
+    /**
+     * @throws ClassCastException       {@inheritDoc}
+     * @throws NullPointerException if {@code fromKey} or {@code toKey} is
+     *         null and this map uses natural ordering, or its comparator
+     *         does not permit null keys
+     * @throws IllegalArgumentException {@inheritDoc}
+     */
+    public NavigableMap<K,V> subMap(K fromKey, boolean fromInclusive,
+                                    K toKey,   boolean toInclusive) {
+        return new SubMap<>(this,
+                            false, fromKey, fromInclusive,
+                            false, toKey,   toInclusive, false);
+    }
+
+    /**
+     * @throws ClassCastException       {@inheritDoc}
+     * @throws NullPointerException if {@code toKey} is null
+     *         and this map uses natural ordering, or its comparator
+     *         does not permit null keys
+     * @throws IllegalArgumentException {@inheritDoc}
+     */
+    public NavigableMap<K,V> headMap(K toKey, boolean inclusive) {
+        return new SubMap<>(this,
+                            true,  null,  true,
+                            false, toKey, inclusive, false);
+    }
+
+    /**
+     * @throws ClassCastException       {@inheritDoc}
+     * @throws NullPointerException if {@code fromKey} is null
+     *         and this map uses natural ordering, or its comparator
+     *         does not permit null keys
+     * @throws IllegalArgumentException {@inheritDoc}
+     */
+    public NavigableMap<K,V> tailMap(K fromKey, boolean inclusive) {
+        return new SubMap<>(this,
+                            false, fromKey, inclusive,
+                            true,  null,    true, false);
+    }
+
+    /**
+     * @throws ClassCastException       {@inheritDoc}
+     * @throws NullPointerException if {@code fromKey} or {@code toKey} is
+     *         null and this map uses natural ordering, or its comparator
+     *         does not permit null keys
+     * @throws IllegalArgumentException {@inheritDoc}
+     */
+    public SortedMap<K,V> subMap(K fromKey, K toKey) {
+        return subMap(fromKey, true, toKey, false);
+    }
+
+    /**
+     * @throws ClassCastException       {@inheritDoc}
+     * @throws NullPointerException if {@code toKey} is null
+     *         and this map uses natural ordering, or its comparator
+     *         does not permit null keys
+     * @throws IllegalArgumentException {@inheritDoc}
+     */
+    public SortedMap<K,V> headMap(K toKey) {
+        return headMap(toKey, false);
+    }
+
+    /**
+     * @throws ClassCastException       {@inheritDoc}
+     * @throws NullPointerException if {@code fromKey} is null
+     *         and this map uses natural ordering, or its comparator
+     *         does not permit null keys
+     * @throws IllegalArgumentException {@inheritDoc}
+     */
+    public SortedMap<K,V> tailMap(K fromKey) {
+        return tailMap(fromKey, true);
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        Objects.requireNonNull(action);
+        int expectedModCount = modCount;
+        for (Leaf<K,V> l = head; l != null; l = l.next) {
+            Object[] ks = l.keys, vs = l.vals;
+            for (int i = 0; i < l.size; ++i) {
+                @SuppressWarnings("unchecked") K k = (K)ks[i];
+                @SuppressWarnings("unchecked") V v = (V)vs[i];
+                action.accept(k, v);
+                if (expectedModCount != modCount)
+                    throw new ConcurrentModificationException();
+            }
+        }
+    }
+
+    @Override
+    public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function) {
+        Objects.requireNonNull(function);
+        int expectedModCount = modCount;
+        for (Leaf<K,V> l = head; l != null; l = l.next) {
+            Object[] ks = l.keys, vs = l.vals;
+            for (int i = 0; i < l.size; ++i) {
+                @SuppressWarnings("unchecked") K k = (K)ks[i];
+                @SuppressWarnings("unchecked") V v = (V)vs[i];
+                vs[i] = function.apply(k, v);
+                if (expectedModCount != modCount)
+                    throw new ConcurrentModificationException();
+            }
+        }
+    }
+
+    // View class support
+
+    class Values extends AbstractCollection<V> {
+        public Iterator<V> iterator() {
+            return new ValueIterator(firstCursor(), false, null);
+        }
+
+        public int size() {
+            return BTreeMap.this.size();
+        }
+
+        public boolean contains(Object o) {
+            return BTreeMap.this.containsValue(o);
+        }
+
+        public void clear() {
+            BTreeMap.this.clear();
+        }
+    }
+
+    class EntrySet extends AbstractSet<Map.Entry<K,V>> {
+        public Iterator<Map.Entry<K,V>> iterator() {
+            return new EntryIterator(firstCursor(), false, null);
+        }
+
+        public boolean contains(Object o) {
+            if (!(o instanceof Map.Entry))
+                return false;
+            Map.Entry<?,?> entry = (Map.Entry<?,?>) o;
+            Cursor<K,V> p = getCursor(entry.getKey());
+            return p != null && valEquals(p.value(), entry.getValue());
+        }
+
+        public boolean remove(Object o) {
+            if (!(o instanceof Map.Entry))
+                return false;
+            Map.Entry<?,?> entry = (Map.Entry<?,?>) o;
+            Object key = entry.getKey();
+            Cursor<K,V> p = getCursor(key);
+            if (p != null && valEquals(p.value(), entry.getValue())) {
+                BTreeMap.this.remove(key);
+                return true;
+            }
+            return false;
+        }
+
+        public int size() {
+            return BTreeMap.this.size();
+        }
+
+        public void clear() {
+            BTreeMap.this.clear();
+        }
+    }
+
+    /*
+     * Unlike Values and EntrySet, the KeySet class is static,
+     * delegating to a NavigableMap to allow use by SubMaps, which
+     * outweighs the ugliness of needing type-tests for the following
+     * Iterator methods that are defined appropriately in main versus
+     * submap classes.
+     */
+
+    Iterator<K> keyIterator() {
+        return new KeyIterator(firstCursor(), false, null);
+    }
+
+    Iterator<K> descendingKeyIterator() {
+        return new KeyIterator(lastCursor(), true, null);
+    }
+
+    static final class KeySet<E> extends AbstractSet<E> implements NavigableSet<E> {
+        private final NavigableMap<E, ?> m;
+        KeySet(NavigableMap<E,?> map) { m = map; }
+
+        public Iterator<E> iterator() {
+            if (m instanceof BTreeMap)
+                return ((BTreeMap<E,?>)m).keyIterator();
+            else
+                return ((SubMap<E,?>)m).keyIterator();
+        }
+
+        public Iterator<E> descendingIterator() {
+            if (m instanceof BTreeMap)
+                return ((BTreeMap<E,?>)m).descendingKeyIterator();
+            else
+                return ((SubMap<E,?>)m).descendingKeyIterator();
+        }
+
+        public int size() { return m.size(); }
+        public boolean isEmpty() { return m.isEmpty(); }
+        public boolean contains(Object o) { return m.containsKey(o); }
+        public void clear() { m.clear(); }
+        public E lower(E e) { return m.lowerKey(e); }
+        public E floor(E e) { return m.floorKey(e); }
+        public E ceiling(E e) { return m.ceilingKey(e); }
+        public E higher(E e) { return m.higherKey(e); }
+        public E first() { return m.firstKey(); }
+        public E last() { return m.lastKey(); }
+        public Comparator<? super E> comparator() { return m.comparator(); }
+        public E pollFirst() {
+            Map.Entry<E,?> e = m.pollFirstEntry();
+            return (e == null) ? null : e.getKey();
+        }
+        public E pollLast() {
+            Map.Entry<E,?> e = m.pollLastEntry();
+            return (e == null) ? null : e.getKey();
+        }
+        public boolean remove(Object o) {
+            int oldSize = size();
+            m.remove(o);
+            return size() != oldSize;
+        }
+        public NavigableSet<E> subSet(E fromElement, boolean fromInclusive,
+                                      E toElement,   boolean toInclusive) {
+            return new KeySet<>(m.subMap(fromElement, fromInclusive,
+                                          toElement,   toInclusive));
+        }
+        public NavigableSet<E> headSet(E toElement, boolean inclusive) {
+            return new KeySet<>(m.headMap(toElement, inclusive));
+        }
+        public NavigableSet<E> tailSet(E fromElement, boolean inclusive) {
+            return new KeySet<>(m.tailMap(fromElement, inclusive));
+        }
+        public SortedSet<E> subSet(E fromElement, E toElement) {
+            return subSet(fromElement, true, toElement, false);
+        }
+        public SortedSet<E> headSet(E toElement) {
+            return headSet(toElement, false);
+        }
+        public SortedSet<E> tailSet(E fromElement) {
+            return tailSet(fromElement, true);
+        }
+        public NavigableSet<E> descendingSet() {
+            return new KeySet<>(m.descendingMap());
+        }
+    }
+
+    /**
+     * Base class for BTreeMap Iterators.  Walks the leaf arrays in
+     * either direction, stopping at the bounds of range if non-null.
+     */
+    abstract class PrivateIterator<T> implements Iterator<T> {
+        Leaf<K,V> leaf;           // position of next element; null if none
+        int index;
+        final boolean descending;
+        final SubMap<K,V> range;
+        Object lastKey;
+        boolean canRemove;
+        int expectedModCount;
+
+        PrivateIterator(Cursor<K,V> first, boolean descending,
+                        SubMap<K,V> range) {
+            this.descending = descending;
+            this.range = range;
+            expectedModCount = modCount;
+            if (first != null) {
+                leaf = first.leaf;
+                index = first.index;
+                checkBound();
+            }
+        }
+
+        /** Ends the iteration if the next key is outside the range. */
+        private void checkBound() {
+            SubMap<K,V> r;
+            if (leaf != null && (r = range) != null) {
+                Object k = leaf.keys[index];
+                if (descending ? r.tooLow(k) : r.tooHigh(k))
+                    leaf = null;
+            }
+        }
+
+        public final boolean hasNext() {
+            return leaf != null;
+        }
+
+        /**
+         * Returns the index of the next element in leaf, which the
+         * caller reads before calling advance.
+         */
+        final int nextIndex() {
+            if (leaf == null)
+                throw new NoSuchElementException();
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            lastKey = leaf.keys[index];
+            canRemove = true;
+            return index;
+        }
+
+        final void advance() {
+            Leaf<K,V> l = leaf;
+            if (descending) {
+                if (--index < 0 && (leaf = l.prev) != null)
+                    index = leaf.size - 1;
+            } else if (++index >= l.size) {
+                leaf = l.next;
+                index = 0;
+            }
+            checkBound();
+        }
+
+        public void remove() {
+            if (!canRemove)
+                throw new IllegalStateException();
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            canRemove = false;
+            Leaf<K,V> l = leaf;
+            Object nextKey = (l == null) ? null : l.keys[index];
+            BTreeMap.this.remove(lastKey);
+            expectedModCount = modCount;
+            if (l != null) {
+                // leaves may have been merged or rebalanced; look again
+                Cursor<K,V> c = getCursor(nextKey);
+                leaf = c.leaf;
+                index = c.index;
+            }
+        }
+    }
+
+    final class EntryIterator extends PrivateIterator<Map.Entry<K,V>> {
+        EntryIterator(Cursor<K,V> first, boolean descending, SubMap<K,V> range) {
+            super(first, descending, range);
+        }
+        @SuppressWarnings("unchecked")
+        public Map.Entry<K,V> next() {
+            int i = nextIndex();
+            Leaf<K,V> l = leaf;
+            Map.Entry<K,V> e = new WriteThroughEntry((K)l.keys[i], (V)l.vals[i]);
+            advance();
+            return e;
+        }
+    }
+
+    final class ValueIterator extends PrivateIterator<V> {
+        ValueIterator(Cursor<K,V> first, boolean descending, SubMap<K,V> range) {
+            super(first, descending, range);
+        }
+        @SuppressWarnings("unchecked")
+        public V next() {
+            int i = nextIndex();
+            V v = (V)leaf.vals[i];
+            advance();
+            return v;
+        }
+    }
+
+    final class KeyIterator extends PrivateIterator<K> {
+        KeyIterator(Cursor<K,V> first, boolean descending, SubMap<K,V> range) {
+            super(first, descending, range);
+        }
+        @SuppressWarnings("unchecked")
+        public K next() {
+            int i = nextIndex();
+            K k = (K)leaf.keys[i];
+            advance();
+            return k;
+        }
+    }
+
+    /**
+     * An entry returned by entry set iterators; setValue writes
+     * through to the map if the key is still present.
+     */
+    final class WriteThroughEntry extends AbstractMap.SimpleEntry<K,V> {
+        private static final long serialVersionUID = -1728436617287093853L;
+        WriteThroughEntry(K key, V value) { super(key, value); }
+        public V setValue(V value) {
+            V v = super.setValue(value);
+            Cursor<K,V> p = getCursor(getKey());
+            if (p != null)
+                p.leaf.vals[p.index] = value;
+            return v;
+        }
+    }
+
+    // Little utilities
+
+    /**
+     * Compares two keys using the correct comparison method for this map.
+     */
+    @SuppressWarnings("unchecked")
+    final int compare(Object k1, Object k2) {
+        return comparator==null ? ((Comparable<? super K>)k1).compareTo((K)k2)
+            : comparator.compare((K)k1, (K)k2);
+    }
+
+    /**
+     * Test two values for equality.  Differs from o1.equals(o2) only in
+     * that it copes with {@code null} o1 properly.
+     */
+    static final boolean valEquals(Object o1, Object o2) {
+        return (o1==null ? o2==null : o1.equals(o2));
+    }
+
+    /**
+     * Return SimpleImmutableEntry for the mapping at c, or null if null
+     */
+    static <K,V> Map.Entry<K,V> exportEntry(Cursor<K,V> c) {
+        return (c == null) ? null :
+            new AbstractMap.SimpleImmutableEntry<>(c.key(), c.value());
+    }
+
+    /**
+     * Return key at c, or null if c is null
+     */
+    static <K,V> K keyOrNull(Cursor<K,V> c) {
+        return (c == null) ? null : c.key();
+    }
+
+    /**
+     * Returns the key at c, or throws NoSuchElementException if c is null.
+     */
+    static <K> K key(Cursor<K,?> c) {
+        if (c==null)
+            throw new NoSuchElementException();
+        return c.key();
+    }
+
+    // SubMaps
+
+    /**
+     * A bounded and/or descending view of the backing map.  Endpoints
+     * are represented as in TreeMap.NavigableSubMap; descending views
+     * share this class, swapping the absolute lowest and highest
+     * operations in the view's relative methods.
+     */
+    static final class SubMap<K,V> extends AbstractMap<K,V>
+        implements NavigableMap<K,V>, Serializable {
+        private static final long serialVersionUID = -7141723745034997872L;
+
+        /**
+         * The backing map.
+         */
+        final BTreeMap<K,V> m;
+
+        final K lo, hi;
+        final boolean fromStart, toEnd;
+        final boolean loInclusive, hiInclusive;
+        final boolean descending;
+
+        SubMap(BTreeMap<K,V> m,
+               boolean fromStart, K lo, boolean loInclusive,
+               boolean toEnd,     K hi, boolean hiInclusive,
+               boolean descending) {
+            if (!fromStart && !toEnd) {
+                if (m.compare(lo, hi) > 0)
+                    throw new IllegalArgumentException("fromKey > toKey");
+            } else {
+                if (!fromStart) // type check
+                    m.compare(lo, lo);
+                if (!toEnd)
+                    m.compare(hi, hi);
+            }
+
+            this.m = m;
+            this.fromStart = fromStart;
+            this.lo = lo;
+            this.loInclusive = loInclusive;
+            this.toEnd = toEnd;
+            this.hi = hi;
+            this.hiInclusive = hiInclusive;
+            this.descending = descending;
+        }
+
+        // internal utilities
+
+        final boolean tooLow(Object key) {
+            if (!fromStart) {
+                int c = m.compare(key, lo);
+                if (c < 0 || (c == 0 && !loInclusive))
+                    return true;
+            }
+            return false;
+        }
+
+        final boolean tooHigh(Object key) {
+            if (!toEnd) {
+                int c = m.compare(key, hi);
+                if (c > 0 || (c == 0 && !hiInclusive))
+                    return true;
+            }
+            return false;
+        }
+
+        final boolean inRange(Object key) {
+            return !tooLow(key) && !tooHigh(key);
+        }
+
+        final boolean inClosedRange(Object key) {
+            return (fromStart || m.compare(key, lo) >= 0)
+                && (toEnd || m.compare(hi, key) >= 0);
+        }
+
+        final boolean inRange(Object key, boolean inclusive) {
+            return inclusive ? inRange(key) : inClosedRange(key);
+        }
+
+        /*
+         * Absolute versions of relation operations.
+         */
+
+        final Cursor<K,V> absLowest() {
+            Cursor<K,V> c =
+                (fromStart ?  m.firstCursor() :
+                 m.findNear(lo, loInclusive ? GT|EQ : GT));
+            return (c == null || tooHigh(c.key())) ? null : c;
+        }
+
+        final Cursor<K,V> absHighest() {
+            Cursor<K,V> c =
+                (toEnd ?  m.lastCursor() :
+                 m.findNear(hi, hiInclusive ? LT|EQ : LT));
+            return (c == null || tooLow(c.key())) ? null : c;
+        }
+
+        final Cursor<K,V> absCeiling(K key) {
+            if (tooLow(key))
+                return absLowest();
+            Cursor<K,V> c = m.findNear(key, GT|EQ);
+            return (c == null || tooHigh(c.key())) ? null : c;
+        }
+
+        final Cursor<K,V> absHigher(K key) {
+            if (tooLow(key))
+                return absLowest();
+            Cursor<K,V> c = m.findNear(key, GT);
+            return (c == null || tooHigh(c.key())) ? null : c;
+        }
+
+        final Cursor<K,V> absFloor(K key) {
+            if (tooHigh(key))
+                return absHighest();
+            Cursor<K,V> c = m.findNear(key, LT|EQ);
+            return (c == null || tooLow(c.key())) ? null : c;
+        }
+
+        final Cursor<K,V> absLower(K key) {
+            if (tooHigh(key))
+                return absHighest();
+            Cursor<K,V> c = m.findNear(key, LT);
+            return (c == null || tooLow(c.key())) ? null : c;
+        }
+
+        /*
+         * Relative versions, in the order of this view.
+         */
+
+        final Cursor<K,V> subLowest()  { return descending ? absHighest() : absLowest(); }
+        final Cursor<K,V> subHighest() { return descending ? absLowest() : absHighest(); }
+        final Cursor<K,V> subCeiling(K key) { return descending ? absFloor(key) : absCeiling(key); }
+        final Cursor<K,V> subHigher(K key)  { return descending ? absLower(key) : absHigher(key); }
+        final Cursor<K,V> subFloor(K key)   { return descending ? absCeiling(key) : absFloor(key); }
+        final Cursor<K,V> subLower(K key)   { return descending ? absHigher(key) : absLower(key); }
+
+        Iterator<K> keyIterator() {
+            return m.new KeyIterator(subLowest(), descending, this);
+        }
+
+        Iterator<K> descendingKeyIterator() {
+            return m.new KeyIterator(subHighest(), !descending, this);
+        }
+
+        // public methods
+
+        public boolean isEmpty() {
+            return (fromStart && toEnd) ? m.isEmpty() : absLowest() == null;
+        }
+
+        /**
+         * Returns the number of mappings in this view, counting whole
+         * leaves between its bounds.
+         */
+        public int size() {
+            if (fromStart && toEnd)
+                return m.size();
+            Cursor<K,V> a = absLowest(), b;
+            if (a == null || (b = absHighest()) == null)
+                return 0;
+            int n = 0, i = a.index;
+            for (Leaf<K,V> l = a.leaf; l != b.leaf; l = l.next) {
+                n += l.size - i;
+                i = 0;
+            }
+            return n + b.index - i + 1;
+        }
+
+        public final boolean containsKey(Object key) {
+            return inRange(key) && m.containsKey(key);
+        }
+
+        public final V put(K key, V value) {
+            if (!inRange(key))
+                throw new IllegalArgumentException("key out of range");
+            return m.put(key, value);
+        }
+
+        public final V get(Object key) {
+            return !inRange(key) ? null :  m.get(key);
+        }
+
+        public final V remove(Object key) {
+            return !inRange(key) ? null : m.remove(key);
+        }
+
+        public final Map.Entry<K,V> ceilingEntry(K key) {
+            return exportEntry(subCeiling(key));
+        }
+
+        public final K ceilingKey(K key) {
+            return keyOrNull(subCeiling(key));
+        }
+
+        public final Map.Entry<K,V> higherEntry(K key) {
+            return exportEntry(subHigher(key));
+        }
+
+        public final K higherKey(K key) {
+            return keyOrNull(subHigher(key));
+        }
+
+        public final Map.Entry<K,V> floorEntry(K key) {
+            return exportEntry(subFloor(key));
+        }
+
+        public final K floorKey(K key) {
+            return keyOrNull(subFloor(key));
+        }
+
+        public final Map.Entry<K,V> lowerEntry(K key) {
+            return exportEntry(subLower(key));
+        }
+
+        public final K lowerKey(K key) {
+            return keyOrNull(subLower(key));
+        }
+
+        public final K firstKey() {
+            return key(subLowest());
+        }
+
+        public final K lastKey() {
+            return key(subHighest());
+        }
+
+        public final Map.Entry<K,V> firstEntry() {
+            return exportEntry(subLowest());
+        }
+
+        public final Map.Entry<K,V> lastEntry() {
+            return exportEntry(subHighest());
+        }
+
+        public final Map.Entry<K,V> pollFirstEntry() {
+            Map.Entry<K,V> result = exportEntry(subLowest());
+            if (result != null)
+                m.remove(result.getKey());
+            return result;
+        }
+
+        public final Map.Entry<K,V> pollLastEntry() {
+            Map.Entry<K,V> result = exportEntry(subHighest());
+            if (result != null)
+                m.remove(result.getKey());
+            return result;
+        }
+
+        public Comparator<? super K> comparator() {
+            return descending ? Collections.reverseOrder(m.comparator()) :
+                m.comparator();
+        }
+
+        // Views
+        transient NavigableMap<K,V> descendingMapView;
+        transient EntrySetView entrySetView;
+        transient KeySet<K> navigableKeySetView;
+
+        public final NavigableSet<K> navigableKeySet() {
+            KeySet<K> nksv = navigableKeySetView;
+            return (nksv != null) ? nksv :
+                (navigableKeySetView = new BTreeMap.KeySet<>(this));
+        }
+
+        public final Set<K> keySet() {
+            return navigableKeySet();
+        }
+
+        public NavigableSet<K> descendingKeySet() {
+            return descendingMap().navigableKeySet();
+        }
+
+        public Set<Map.Entry<K,V>> entrySet() {
+            EntrySetView es = entrySetView;
+            return (es != null) ? es : (entrySetView = new EntrySetView());
+        }
+
+        public NavigableMap<K,V> descendingMap() {
+            NavigableMap<K,V> mv = descendingMapView;
+            return (mv != null) ? mv :
+                (descendingMapView =
+                 new SubMap<>(m,
+                              fromStart, lo, loInclusive,
+                              toEnd,     hi, hiInclusive, !descending));
+        }
+
+        public NavigableMap<K,V> subMap(K fromKey, boolean fromInclusive,
+                                        K toKey,   boolean toInclusive) {
+            if (!inRange(fromKey, fromInclusive))
+                throw new IllegalArgumentException("fromKey out of range");
+            if (!inRange(toKey, toInclusive))
+                throw new IllegalArgumentException("toKey out of range");
+            if (descending)
+                return new SubMap<>(m,
+                                    false, toKey,   toInclusive,
+                                    false, fromKey, fromInclusive, true);
+            return new SubMap<>(m,
+                                false, fromKey, fromInclusive,
+                                false, toKey,   toInclusive, false);
+        }
+
+        public NavigableMap<K,V> headMap(K toKey, boolean inclusive) {
+            if (!inRange(toKey, inclusive))
+                throw new IllegalArgumentException("toKey out of range");
+            if (descending)
+                return new SubMap<>(m,
+                                    false, toKey, inclusive,
+                                    toEnd, hi,    hiInclusive, true);
+            return new SubMap<>(m,
+                                fromStart, lo,    loInclusive,
+                                false,     toKey, inclusive, false);
+        }
+
+        public NavigableMap<K,V> tailMap(K fromKey, boolean inclusive) {
+            if (!inRange(fromKey, inclusive))
+                throw new IllegalArgumentException("fromKey out of range");
+            if (descending)
+                return new SubMap<>(m,
+                                    fromStart, lo,      loInclusive,
+                                    false,     fromKey, inclusive, true);
+            return new SubMap<>(m,
+                                false, fromKey, inclusive,
+                                toEnd, hi,      hiInclusive, false);
+        }
+
+        public final SortedMap<K,V> subMap(K fromKey, K toKey) {
+            return subMap(fromKey, true, toKey, false);
+        }
+
+        public final SortedMap<K,V> headMap(K toKey) {
+            return headMap(toKey, false);
+        }
+
+        public final SortedMap<K,V> tailMap(K fromKey) {
+            return tailMap(fromKey, true);
+        }
+
+        final class EntrySetView extends AbstractSet<Map.Entry<K,V>> {
+            public int size() {
+                return SubMap.this.size();
+            }
+
+            public boolean isEmpty() {
+                return SubMap.this.isEmpty();
+            }
+
+            public boolean contains(Object o) {
+                if (!(o instanceof Map.Entry))
+                    return false;
+                Map.Entry<?,?> entry = (Map.Entry<?,?>) o;
+                Object key = entry.getKey();
+                if (!inRange(key))
+                    return false;
+                Cursor<K,V> p = m.getCursor(key);
+                return p != null && valEquals(p.value(), entry.getValue());
+            }
+
+            public boolean remove(Object o) {
+                if (!(o instanceof Map.Entry))
+                    return false;
+                Map.Entry<?,?> entry = (Map.Entry<?,?>) o;
+                Object key = entry.getKey();
+                if (!inRange(key))
+                    return false;
+                Cursor<K,V> p = m.getCursor(key);
+                if (p != null && valEquals(p.value(), entry.getValue())) {
+                    m.remove(key);
+                    return true;
+                }
+                return false;
+            }
+
+            public Iterator<Map.Entry<K,V>> iterator() {
+                return m.new EntryIterator(subLowest(), descending, SubMap.this);
+            }
+        }
+    }
+
+    /**
+     * Save the state of the {@code BTreeMap} instance to a stream (i.e.,
+     * serialize it).
+     *
+     * @serialData The <em>size</em> of the BTreeMap (the number of key-value
+     *             mappings) is emitted (int), followed by the key (Object)
+     *             and value (Object) for each key-value mapping represented
+     *             by the BTreeMap. The key-value mappings are emitted in
+     *             key-order (as determined by the BTreeMap's Comparator,
+     *             or by the keys' natural ordering if the BTreeMap has no
+     *             Comparator).
+     */
+    private void writeObject(java.io.ObjectOutputStream s)
+        throws java.io.IOException {
+        // Write out the Comparator and any hidden stuff
+        s.defaultWriteObject();
+
+        // Write out size (number of Mappings)
+        s.writeInt(size);
+
+        // Write out keys and values (alternating)
+        for (Leaf<K,V> l = head; l != null; l = l.next) {
+            for (int i = 0; i < l.size; ++i) {
+                s.writeObject(l.keys[i]);
+                s.writeObject(l.vals[i]);
+            }
+        }
+    }
+
+    /**
+     * Reconstitute the {@code BTreeMap} instance from a stream (i.e.,
+     * deserialize it).
+     */
+    private void readObject(final java.io.ObjectInputStream s)
+        throws java.io.IOException, ClassNotFoundException {
+        // Read in the Comparator and any hidden stuff
+        s.defaultReadObject();
+
+        // Read in size
+        int size = s.readInt();
+
+        buildFromSorted(size, null, s);
+    }
+
+    /**
+     * Linear time tree building algorithm from sorted data.  Can accept
+     * keys and values from either an iterator of Map.Entries or a stream
+     * of alternating serialized keys and values, as in TreeMap.
+     *
+     * <p>Leaves are filled with as even a share of the mappings as
+     * possible, at least MIN_KEYS each unless there is a single leaf,
+     * and each inner level is then built over the level below in the
+     * same way, using the least key of each subtree as separator.
+     *
+     * @param size the number of key-value pairs to be read from the
+     *        iterator or stream
+     * @param it If non-null, new entries are created from entries read
+     *        from this iterator.
+     * @param str If non-null, new entries are created from keys and
+     *        values read from this stream in serialized form.
+     *        Exactly one of it and str should be non-null.
+     * @throws java.io.IOException propagated from stream reads. This cannot
+     *         occur if str is null.
+     * @throws ClassNotFoundException propagated from readObject.
+     *         This cannot occur if str is null.
+     */
+    @SuppressWarnings("unchecked")
+    private void buildFromSorted(int size, Iterator<?> it,
+                                 java.io.ObjectInputStream str)
+        throws  java.io.IOException, ClassNotFoundException {
+        this.size = size;
+        clearTree();
+        if (size == 0)
+            return;
+        int count = (size + NODE_CAPACITY - 1) / NODE_CAPACITY;
+        Node<K,V>[] level = (Node<K,V>[])new Node<?,?>[count];
+        Object[] mins = new Object[count];
+        int share = size / count, extra = size % count;
+        Leaf<K,V> prev = null;
+        for (int j = 0; j < count; ++j) {
+            Leaf<K,V> l = new Leaf<>();
+            int n = share + ((j < extra) ? 1 : 0);
+            for (int i = 0; i < n; ++i) {
+                if (it != null) {
+                    Map.Entry<?,?> entry = (Map.Entry<?,?>)it.next();
+                    l.keys[i] = entry.getKey();
+                    l.vals[i] = entry.getValue();
+                } else { // use stream
+                    l.keys[i] = str.readObject();
+                    l.vals[i] = str.readObject();
+                }
+            }
+            l.size = n;
+            if ((l.prev = prev) == null)
+                head = l;
+            else
+                prev.next = l;
+            prev = l;
+            level[j] = l;
+            mins[j] = l.keys[0];
+        }
+        tail = prev;
+        int h = 0;
+        while (count > 1) {
+            int groups = (count + NODE_CAPACITY) / (NODE_CAPACITY + 1);
+            Node<K,V>[] up = (Node<K,V>[])new Node<?,?>[groups];
+            Object[] upMins = new Object[groups];
+            share = count / groups;
+            extra = count % groups;
+            for (int g = 0, c = 0; g < groups; ++g) {
+                Inner<K,V> in = new Inner<>();
+                int n = share + ((g < extra) ? 1 : 0);
+                System.arraycopy(level, c, in.children, 0, n);
+                System.arraycopy(mins, c + 1, in.keys, 0, n - 1);
+                in.size = n - 1;
+                up[g] = in;
+                upMins[g] = mins[c];
+                c += n;
+            }
+            level = up;
+            mins = upMins;
+            count = groups;
+            ++h;
+        }
+        root = level[0];
+        height = h;
+    }
+}
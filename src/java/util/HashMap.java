@@ -98,6 +98,26 @@ public class HashMap<K,V> extends AbstractMap<K,V>
      */
     static final int MIN_TREEIFY_CAPACITY = 64;
 
+    /**
+     * 开启并行扩容后，旧表长度达到该值才真正并行迁移，较小的表顺序迁移更快
+     */
+    static final int MIN_PARALLEL_RESIZE_CAPACITY = 1 << 16;
+
+    /**
+     * 并行扩容时每个任务最少迁移的桶数，与ConcurrentHashMap.transfer相同
+     */
+    private static final int MIN_TRANSFER_STRIDE = 16;
+
+    /**
+     * 开启渐进式扩容后，旧表长度达到该值才分摊迁移，较小的表一次迁移完
+     */
+    static final int MIN_INCREMENTAL_RESIZE_CAPACITY = 1 << 10;
+
+    /**
+     * 渐进式扩容时，每次插入或删除最多迁移的非空桶数；最多连续检查其10倍的空桶
+     */
+    static final int INCREMENTAL_RESIZE_STEPS = 4;
+
     /**
      * 节点
      */
@@ -254,6 +274,28 @@ public class HashMap<K,V> extends AbstractMap<K,V>
      */
     final float loadFactor;
 
+    /**
+     * 是否开启并行扩容，见{@link #setParallelResize(boolean)}；不参与序列化
+     */
+    transient boolean parallelResize;
+
+    /**
+     * 是否开启渐进式扩容，见{@link #setIncrementalResize(boolean)}；不参与序列化
+     */
+    transient boolean incrementalResize;
+
+    /**
+     * 渐进式扩容期间的旧表，迁移完成后为null。
+     * 下标小于rehashIndex的桶都已迁移；其余桶中的节点要么整桶还在旧表，要么已被迁移（桶为null）。
+     * 一个key只会出现在两个表中的一个里，新插入的节点总是放进table。
+     */
+    transient Node<K,V>[] oldTable;
+
+    /**
+     * 渐进式扩容时下一个要迁移的旧表下标
+     */
+    transient int rehashIndex;
+
     /* ---------------- 公共操作 -------------- */
 
     /**
@@ -385,6 +427,9 @@ public class HashMap<K,V> extends AbstractMap<K,V>
      */
     final Node<K,V> getNode(int hash, Object key) {
         Node<K,V>[] tab; Node<K,V> first, e; int n; K k;
+        //渐进式扩容期间，先查找旧表中尚未迁移的桶
+        if (oldTable != null && (e = getOldNode(hash, key)) != null)
+            return e;
         //table不为空,长度大于0,在桶中的位置有值
         if ((tab = table) != null && (n = tab.length) > 0 &&
             (first = tab[(n - 1) & hash]) != null) {
@@ -408,6 +453,23 @@ public class HashMap<K,V> extends AbstractMap<K,V>
         return null;
     }
 
+    /**
+     * 在渐进式扩容的旧表中查找key，调用前oldTable不为null
+     */
+    final Node<K,V> getOldNode(int hash, Object key) {
+        Node<K,V>[] old = oldTable; Node<K,V> e; K k;
+        if ((e = old[(old.length - 1) & hash]) != null) {
+            if (e instanceof TreeNode)
+                return ((TreeNode<K,V>)e).getTreeNode(hash, key);
+            do {
+                if (e.hash == hash &&
+                    ((k = e.key) == key || (key != null && key.equals(k))))
+                    return e;
+            } while ((e = e.next) != null);
+        }
+        return null;
+    }
+
     /**
      * 如果map中含有key为指定参数key的键值对，返回true
      * @param   key   The key whose presence in this map is to be tested
@@ -462,6 +524,14 @@ public class HashMap<K,V> extends AbstractMap<K,V>
                    boolean evict) {
         //tab存放 当前的哈希桶， p用作临时链表节点
         Node<K,V>[] tab; Node<K,V> p; int n, i;
+        //渐进式扩容期间，key可能还在旧表未迁移的桶中，此时原地覆盖
+        if (oldTable != null && (p = getOldNode(hash, key)) != null) {
+            V oldValue = p.value;
+            if (!onlyIfAbsent || oldValue == null)
+                p.value = value;
+            afterNodeAccess(p);
+            return oldValue;
+        }
         //没有初始化或长度为0,扩容初始化
         if ((tab = table) == null || (n = tab.length) == 0)
             n = (tab = resize()).length;
@@ -512,8 +582,15 @@ public class HashMap<K,V> extends AbstractMap<K,V>
         //修改modCount
         ++modCount;
         //更新size，并判断是否需要扩容
-        if (++size > threshold)
-            resize();
+        if (++size > threshold) {
+            if (incrementalResize)
+                resizeIncrementally();
+            else
+                resize();
+        }
+        //渐进式扩容期间，每次插入顺带迁移几个桶
+        else if (oldTable != null)
+            rehashStep();
         //这是一个空实现的函数，用作LinkedHashMap重写使用。
         afterNodeInsertion(evict);
         return null;
@@ -531,6 +608,9 @@ public class HashMap<K,V> extends AbstractMap<K,V>
      * @return the table
      */
     final Node<K,V>[] resize() {
+        //渐进式扩容还没完成时，先把剩余的桶迁移完
+        if (oldTable != null)
+            completeRehash();
         //新建oldTab数组保存扩容前的数组table
         Node<K,V>[] oldTab = table;
         //原table的长度
@@ -571,60 +651,193 @@ public class HashMap<K,V> extends AbstractMap<K,V>
         table = newTab;
         //把旧值弄到新table
         if (oldTab != null) {
-            for (int j = 0; j < oldCap; ++j) {
-                Node<K,V> e;
-                if ((e = oldTab[j]) != null) {
-                    //原值设成null
-                    oldTab[j] = null;
-                    //没有next
-                    if (e.next == null)
-                        //找到在新table中的位置
-                        newTab[e.hash & (newCap - 1)] = e;
-                    //链表已经转成红黑树
-                    else if (e instanceof TreeNode)
-                        ////把此树进行转移到newCap中
-                        ((TreeNode<K,V>)e).split(this, newTab, j, oldCap);
-                    //还是链表,同样把链表转移到newCap中
-                    else { // preserve order
-                        //因为扩容是容量翻倍，所以原链表上的每个节点，现在可能存放在原来的下标，即low位， 或者扩容后的下标，即high位。 high位=  low位+原哈希桶容量
-                        //低位链表的头结点、尾节点
-                        Node<K,V> loHead = null, loTail = null;
-                        //高位链表的头节点、尾节点
-                        Node<K,V> hiHead = null, hiTail = null;
-                        //临时节点 存放e的下一个节点
-                        Node<K,V> next;
-                        do {
-                            next = e.next;
-                            //这里又是一个利用位运算 代替常规运算的高效点： 利用哈希值 与 旧的容量，可以得到哈希值去模后，是大于等于oldCap还是小于oldCap，等于0代表小于oldCap，应该存放在低位，否则存放在高位
-                            //1111 & 10000 小于旧容量,放原索引位置
-                            if ((e.hash & oldCap) == 0) {
-                                if (loTail == null)
-                                    loHead = e;
-                                else
-                                    loTail.next = e;
-                                loTail = e;
-                            }
-                            else {
-                                if (hiTail == null)
-                                    hiHead = e;
-                                else
-                                    hiTail.next = e;
-                                hiTail = e;
-                            }
-                        } while ((e = next) != null);
-                        if (loTail != null) {
-                            loTail.next = null;
-                            newTab[j] = loHead;
-                        }
-                        if (hiTail != null) {
-                            hiTail.next = null;
-                            newTab[j + oldCap] = hiHead;
-                        }
+            if (parallelResize && oldCap >= MIN_PARALLEL_RESIZE_CAPACITY &&
+                !(this instanceof LinkedHashMap)) {
+                //大表分段交给ForkJoin公共池并行迁移
+                int stride = (oldCap >>> 3) /
+                    java.util.concurrent.ForkJoinPool.getCommonPoolParallelism();
+                if (stride < MIN_TRANSFER_STRIDE)
+                    stride = MIN_TRANSFER_STRIDE;
+                new TransferTask<>(this, oldTab, newTab, 0, oldCap, stride).invoke();
+            }
+            else {
+                for (int j = 0; j < oldCap; ++j)
+                    transferBin(oldTab, newTab, j);
+            }
+        }
+        return newTab;
+    }
+
+    /**
+     * 把旧表第j个桶的节点迁移到容量翻倍的新表：节点要么留在下标j（低位），要么移到j+oldCap（高位），
+     * 链表保持原有顺序，红黑树通过TreeNode.split拆分。
+     * 不同的桶之间互不影响，因此并行扩容时各个任务可以各自迁移不相交的下标区间。
+     */
+    final void transferBin(Node<K,V>[] oldTab, Node<K,V>[] newTab, int j) {
+        int oldCap = oldTab.length, newCap = newTab.length;
+        Node<K,V> e;
+        if ((e = oldTab[j]) != null) {
+            //原值设成null
+            oldTab[j] = null;
+            //没有next
+            if (e.next == null)
+                //找到在新table中的位置
+                newTab[e.hash & (newCap - 1)] = e;
+            //链表已经转成红黑树
+            else if (e instanceof TreeNode)
+                ////把此树进行转移到newCap中
+                ((TreeNode<K,V>)e).split(this, newTab, j, oldCap);
+            //还是链表,同样把链表转移到newCap中
+            else { // preserve order
+                //因为扩容是容量翻倍，所以原链表上的每个节点，现在可能存放在原来的下标，即low位， 或者扩容后的下标，即high位。 high位=  low位+原哈希桶容量
+                //低位链表的头结点、尾节点
+                Node<K,V> loHead = null, loTail = null;
+                //高位链表的头节点、尾节点
+                Node<K,V> hiHead = null, hiTail = null;
+                //临时节点 存放e的下一个节点
+                Node<K,V> next;
+                do {
+                    next = e.next;
+                    //这里又是一个利用位运算 代替常规运算的高效点： 利用哈希值 与 旧的容量，可以得到哈希值去模后，是大于等于oldCap还是小于oldCap，等于0代表小于oldCap，应该存放在低位，否则存放在高位
+                    //1111 & 10000 小于旧容量,放原索引位置
+                    if ((e.hash & oldCap) == 0) {
+                        if (loTail == null)
+                            loHead = e;
+                        else
+                            loTail.next = e;
+                        loTail = e;
+                    }
+                    else {
+                        if (hiTail == null)
+                            hiHead = e;
+                        else
+                            hiTail.next = e;
+                        hiTail = e;
                     }
+                } while ((e = next) != null);
+                if (loTail != null) {
+                    loTail.next = null;
+                    newTab[j] = loHead;
+                }
+                if (hiTail != null) {
+                    hiTail.next = null;
+                    newTab[j + oldCap] = hiHead;
                 }
             }
         }
-        return newTab;
+    }
+
+    /**
+     * 并行扩容任务：把旧表的[lo, hi)区间二分，直到不超过stride个桶后顺序迁移
+     */
+    @SuppressWarnings("serial")
+    static final class TransferTask<K,V> extends java.util.concurrent.RecursiveAction {
+        final HashMap<K,V> map;
+        final Node<K,V>[] oldTab, newTab;
+        final int lo, hi, stride;
+
+        TransferTask(HashMap<K,V> map, Node<K,V>[] oldTab, Node<K,V>[] newTab,
+                     int lo, int hi, int stride) {
+            this.map = map;
+            this.oldTab = oldTab;
+            this.newTab = newTab;
+            this.lo = lo;
+            this.hi = hi;
+            this.stride = stride;
+        }
+
+        protected void compute() {
+            if (hi - lo > stride) {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new TransferTask<>(map, oldTab, newTab, lo, mid, stride),
+                          new TransferTask<>(map, oldTab, newTab, mid, hi, stride));
+            }
+            else {
+                for (int j = lo; j < hi; ++j)
+                    map.transferBin(oldTab, newTab, j);
+            }
+        }
+    }
+
+    /**
+     * 渐进式扩容：只分配容量翻倍的新表，旧表留在oldTable中，
+     * 之后每次插入、删除时调用rehashStep迁移几个桶，把一次O(n)的扩容分摊到后续操作上。
+     * 表太小、已达最大容量或是LinkedHashMap时，退化为一次性的resize()。
+     */
+    final void resizeIncrementally() {
+        Node<K,V>[] oldTab;
+        if (oldTable != null)
+            completeRehash();
+        if ((oldTab = table) == null || oldTab.length < MIN_INCREMENTAL_RESIZE_CAPACITY ||
+            oldTab.length >= (MAXIMUM_CAPACITY >>> 1) || this instanceof LinkedHashMap) {
+            resize();
+            return;
+        }
+        threshold = threshold << 1;
+        @SuppressWarnings({"rawtypes","unchecked"})
+        Node<K,V>[] newTab = (Node<K,V>[])new Node[oldTab.length << 1];
+        table = newTab;
+        oldTable = oldTab;
+        rehashIndex = 0;
+        rehashStep();
+    }
+
+    /**
+     * 从rehashIndex开始迁移至多INCREMENTAL_RESIZE_STEPS个非空桶，全部迁移完后清空oldTable。
+     * 迁移会移动节点，所以只在结构性修改（modCount改变）的操作中调用，不影响迭代器的fail-fast语义。
+     */
+    final void rehashStep() {
+        Node<K,V>[] old = oldTable;
+        int n = old.length, i = rehashIndex;
+        int moved = 0, visits = INCREMENTAL_RESIZE_STEPS * 10;
+        for (; i < n && moved < INCREMENTAL_RESIZE_STEPS && --visits >= 0; ++i) {
+            if (old[i] != null) {
+                migrateBin(old, i);
+                ++moved;
+            }
+        }
+        if ((rehashIndex = i) >= n)
+            oldTable = null;
+    }
+
+    /**
+     * 把oldTable剩余的桶全部迁移到table
+     */
+    final void completeRehash() {
+        Node<K,V>[] old = oldTable;
+        for (int i = rehashIndex; i < old.length; ++i) {
+            if (old[i] != null)
+                migrateBin(old, i);
+        }
+        oldTable = null;
+    }
+
+    /**
+     * 迁移旧表的第j个桶。新表对应的两个桶里可能已有迁移开始后插入的节点，
+     * 所以逐个节点追加到新桶的尾部（新桶是红黑树时插入树中），链表过长时树化。
+     */
+    final void migrateBin(Node<K,V>[] old, int j) {
+        Node<K,V>[] tab = table;
+        Node<K,V> e = old[j], next;
+        old[j] = null;
+        for (; e != null; e = next) {
+            next = e.next;
+            int hash = e.hash, i = (tab.length - 1) & hash;
+            Node<K,V> p = (e instanceof TreeNode) ? replacementNode(e, null) : e, f;
+            p.next = null;
+            if ((f = tab[i]) == null)
+                tab[i] = p;
+            else if (f instanceof TreeNode)
+                ((TreeNode<K,V>)f).putTreeVal(this, tab, hash, p.key, p.value);
+            else {
+                int binCount = 1;
+                for (; f.next != null; f = f.next)
+                    ++binCount;
+                f.next = p;
+                if (binCount >= TREEIFY_THRESHOLD)
+                    treeifyBin(tab, hash);
+            }
+        }
     }
 
     /**
@@ -667,6 +880,209 @@ public class HashMap<K,V> extends AbstractMap<K,V>
         putMapEntries(m, true);
     }
 
+    /**
+     * 批量插入，语义与putAll相同，用于一次性装载大量键值对（例如重建配置表）。
+     * 与putAll的区别：
+     * 1.按 size + m.size() 一次性确定table大小，本map非空时也只扩容一次（直接扩到该大小），
+     *   插入过程中不再检查 ++size > threshold，也不会扩容；
+     * 2.modCount只在结束时修改一次，不调用afterNodeAccess/afterNodeInsertion；
+     * 3.如果m也是HashMap，则按桶遍历m的节点，直接使用节点中的hash，不再经过entrySet和hash()；
+     *   本map为空且两个table长度相同时，直接按桶拷贝链表，不再逐个计算下标。
+     * LinkedHashMap等子类依赖上述回调维护双向链表和淘汰策略，对它们退化为putAll。
+     *
+     * @param m mappings to be stored in this map
+     * @throws NullPointerException if the specified map is null
+     */
+    public void putAllBulk(Map<? extends K, ? extends V> m) {
+        int s = m.size();
+        if (s <= 0 || m == this)
+            return;
+        if (getClass() != HashMap.class) {
+            putMapEntries(m, true);
+            return;
+        }
+        // 一次性计算所需容量
+        float ft = ((float)(size + s) / loadFactor) + 1.0F;
+        int cap = tableSizeFor((ft < (float)MAXIMUM_CAPACITY) ?
+                               (int)ft : MAXIMUM_CAPACITY);
+        Node<K,V>[] tab;
+        //渐进式扩容还没完成时，先迁移完，之后按单表插入
+        if (oldTable != null)
+            completeRehash();
+        if ((tab = table) == null || tab.length == 0) {
+            if (cap > threshold)
+                threshold = cap;
+            tab = resize();
+        }
+        else if (tab.length < cap)
+            //非空时直接扩到所需大小，只迁移一次
+            tab = resizeTo(cap);
+        Node<?,?>[] src;
+        if (m.getClass() == HashMap.class && ((HashMap<?,?>)m).oldTable == null &&
+            (src = ((HashMap<?,?>)m).table) != null) {
+            @SuppressWarnings("unchecked") Node<K,V>[] st = (Node<K,V>[])src;
+            if (size == 0 && src.length == tab.length) {
+                // 容量相同，每个节点在两个表中的下标相同，按桶拷贝
+                copyBins(st, tab);
+                size = s;
+            }
+            else {
+                // 按桶遍历，直接使用节点中已算好的hash
+                int added = 0;
+                for (Node<K,V> e : st) {
+                    for (; e != null; e = e.next) {
+                        if (putValBulk(e.hash, e.key, e.value))
+                            ++added;
+                    }
+                }
+                size += added;
+            }
+        }
+        else {
+            int added = 0;
+            for (Entry<? extends K, ? extends V> e : m.entrySet()) {
+                K key = e.getKey();
+                if (putValBulk(hash(key), key, e.getValue()))
+                    ++added;
+            }
+            size += added;
+        }
+        ++modCount;
+    }
+
+    /**
+     * 开启或关闭并行扩容，默认关闭。
+     * 开启后，旧表长度不小于{@value #MIN_PARALLEL_RESIZE_CAPACITY}的扩容会像ConcurrentHashMap.transfer
+     * 一样把旧表分成若干段（每段至少16个桶），交给{@link java.util.concurrent.ForkJoinPool#commonPool()}
+     * 并行迁移，调用线程等待全部完成后返回。每个桶的拆分方式与顺序扩容完全相同，
+     * 所以扩容结果和迭代顺序不受影响。HashMap本身仍然不是线程安全的。
+     * LinkedHashMap迁移树形桶时需要修改双向链表，因此总是顺序扩容。
+     * 该设置不参与序列化。
+     *
+     * @param parallelResize 是否并行扩容
+     */
+    public void setParallelResize(boolean parallelResize) {
+        this.parallelResize = parallelResize;
+    }
+
+    /**
+     * 开启或关闭渐进式扩容，默认关闭。
+     * 开启后，旧表长度不小于{@value #MIN_INCREMENTAL_RESIZE_CAPACITY}的扩容不再一次迁移全部节点，
+     * 而是像Redis的渐进式rehash一样同时保留新旧两个表：新节点插入新表，
+     * 之后每次插入、删除迁移至多{@value #INCREMENTAL_RESIZE_STEPS}个旧桶，从而限制单次put的最长耗时。
+     * 迁移期间的查找会同时检查两个表；迭代器、spliterator和forEach等先遍历新表再遍历旧表。
+     * 与Redis不同，get不执行迁移步骤，只读操作不修改map，多个线程只读共享一个map仍然安全。
+     * 关闭时如有未完成的迁移会立即完成。LinkedHashMap总是一次性扩容。该设置不参与序列化。
+     *
+     * @param incrementalResize 是否渐进式扩容
+     */
+    public void setIncrementalResize(boolean incrementalResize) {
+        if (!(this.incrementalResize = incrementalResize) && oldTable != null)
+            completeRehash();
+    }
+
+    /**
+     * putAllBulk的一次性扩容：直接分配newCap大小的新表，把旧表的节点逐个挂到新桶的尾部，
+     * 桶内保持原有顺序，不像resize()那样每次只翻倍。红黑树桶的节点换成普通节点，
+     * 新桶超过TREEIFY_THRESHOLD时树化，已树化的新桶用putTreeVal插入。
+     * 只用于HashMap本身，调用前不能有未完成的渐进式扩容。
+     */
+    private Node<K,V>[] resizeTo(int newCap) {
+        Node<K,V>[] oldTab = table;
+        float ft = (float)newCap * loadFactor;
+        threshold = (newCap < MAXIMUM_CAPACITY && ft < (float)MAXIMUM_CAPACITY ?
+                     (int)ft : Integer.MAX_VALUE);
+        @SuppressWarnings({"rawtypes","unchecked"})
+        Node<K,V>[] newTab = (Node<K,V>[])new Node[newCap];
+        table = newTab;
+        boolean treeify = newCap >= MIN_TREEIFY_CAPACITY;
+        for (Node<K,V> e : oldTab) {
+            for (Node<K,V> next; e != null; e = next) {
+                next = e.next;
+                int i = e.hash & (newCap - 1);
+                Node<K,V> t = newTab[i];
+                if (t instanceof TreeNode) {
+                    ((TreeNode<K,V>)t).putTreeVal(this, newTab, e.hash, e.key, e.value);
+                    continue;
+                }
+                Node<K,V> p = (e instanceof TreeNode) ? replacementNode(e, null) : e;
+                p.next = null;
+                if (t == null) {
+                    newTab[i] = p;
+                    continue;
+                }
+                int binCount = 1;
+                for (; t.next != null; t = t.next)
+                    ++binCount;
+                t.next = p;
+                if (treeify && binCount >= TREEIFY_THRESHOLD)
+                    treeifyBin(newTab, p.hash);
+            }
+        }
+        return newTab;
+    }
+
+    /**
+     * putAllBulk的按桶拷贝：保持链表顺序复制节点，原来是红黑树的桶复制后重新树化。
+     * 调用前dst为空且与src长度相同。
+     */
+    private void copyBins(Node<K,V>[] src, Node<K,V>[] dst) {
+        for (int i = 0; i < src.length; ++i) {
+            Node<K,V> e;
+            if ((e = src[i]) != null) {
+                Node<K,V> hd = null, tl = null;
+                do {
+                    Node<K,V> p = newNode(e.hash, e.key, e.value, null);
+                    if (tl == null)
+                        hd = p;
+                    else
+                        tl.next = p;
+                    tl = p;
+                } while ((e = e.next) != null);
+                dst[i] = hd;
+                if (src[i] instanceof TreeNode)
+                    treeifyBin(dst, hd.hash);
+            }
+        }
+    }
+
+    /**
+     * putAllBulk的单个插入：与putVal相同地查找和覆盖，但不修改size和modCount，
+     * 不检查扩容阈值（table已预先分配），插入了新节点时返回true。
+     */
+    private boolean putValBulk(int hash, K key, V value) {
+        Node<K,V>[] tab = table; Node<K,V> p; int i;
+        if ((p = tab[i = (tab.length - 1) & hash]) == null) {
+            tab[i] = newNode(hash, key, value, null);
+            return true;
+        }
+        Node<K,V> e; K k;
+        if (p.hash == hash &&
+            ((k = p.key) == key || (key != null && key.equals(k))))
+            e = p;
+        else if (p instanceof TreeNode)
+            e = ((TreeNode<K,V>)p).putTreeVal(this, tab, hash, key, value);
+        else {
+            for (int binCount = 0; ; ++binCount) {
+                if ((e = p.next) == null) {
+                    p.next = newNode(hash, key, value, null);
+                    if (binCount >= TREEIFY_THRESHOLD - 1) // -1 for 1st
+                        treeifyBin(tab, hash);
+                    break;
+                }
+                if (e.hash == hash &&
+                    ((k = e.key) == key || (key != null && key.equals(k))))
+                    break;
+                p = e;
+            }
+        }
+        if (e != null) {
+            e.value = value;
+            return false;
+        }
+        return true;
+    }
+
     /**
      * 删除hashMap中key映射的node
      * remove方法的实现可以分为三个步骤：
@@ -705,9 +1121,25 @@ public class HashMap<K,V> extends AbstractMap<K,V>
      */
     final Node<K,V> removeNode(int hash, Object key, Object value,
                                boolean matchValue, boolean movable) {
-        Node<K,V>[] tab; Node<K,V> p; int n, index;
+        Node<K,V> node = removeNode(table, hash, key, value, matchValue, movable);
+        //渐进式扩容期间，key可能在旧表中；迭代器删除（movable为false）时不迁移，以免打乱遍历
+        if (oldTable != null) {
+            if (node == null)
+                node = removeNode(oldTable, hash, key, value, matchValue, movable);
+            if (node != null && movable && oldTable != null)
+                rehashStep();
+        }
+        return node;
+    }
+
+    /**
+     * 从指定的表（table或渐进式扩容中的oldTable）中删除节点
+     */
+    private Node<K,V> removeNode(Node<K,V>[] tab, int hash, Object key, Object value,
+                                 boolean matchValue, boolean movable) {
+        Node<K,V> p; int n, index;
         //如果数组table不为空且key映射到的桶不为空
-        if ((tab = table) != null && (n = tab.length) > 0 &&
+        if (tab != null && (n = tab.length) > 0 &&
             (p = tab[index = (n - 1) & hash]) != null) {
             Node<K,V> node = null, e; K k; V v;
             //如果桶上第一个node的就是要删除的node
@@ -768,6 +1200,7 @@ public class HashMap<K,V> extends AbstractMap<K,V>
         Node<K,V>[] tab;
         //结构性修改次数+1
         modCount++;
+        oldTable = null;
         if ((tab = table) != null && size > 0) {
             size = 0;
             for (int i = 0; i < tab.length; ++i)
@@ -785,12 +1218,15 @@ public class HashMap<K,V> extends AbstractMap<K,V>
         Node<K,V>[] tab; V v;
         if ((tab = table) != null && size > 0) {
             //遍历数组table
-            for (int i = 0; i < tab.length; ++i) {
-                //遍历桶中的node,红黑树也转换成Node遍历
-                for (Node<K,V> e = tab[i]; e != null; e = e.next) {
-                    if ((v = e.value) == value ||
-                        (value != null && value.equals(v)))
-                        return true;
+            //渐进式扩容期间，依次遍历table和oldTable
+            for (Node<K,V>[] t = tab; t != null; t = (t == oldTable) ? null : oldTable) {
+                for (int i = 0; i < t.length; ++i) {
+                    //遍历桶中的node,红黑树也转换成Node遍历
+                    for (Node<K,V> e = t[i]; e != null; e = e.next) {
+                        if ((v = e.value) == value ||
+                            (value != null && value.equals(v)))
+                            return true;
+                    }
                 }
             }
         }
@@ -837,9 +1273,12 @@ public class HashMap<K,V> extends AbstractMap<K,V>
                 throw new NullPointerException();
             if (size > 0 && (tab = table) != null) {
                 int mc = modCount;
-                for (int i = 0; i < tab.length; ++i) {
-                    for (Node<K,V> e = tab[i]; e != null; e = e.next)
-                        action.accept(e.key);
+                //渐进式扩容期间，依次遍历table和oldTable
+                for (Node<K,V>[] t = tab; t != null; t = (t == oldTable) ? null : oldTable) {
+                    for (int i = 0; i < t.length; ++i) {
+                        for (Node<K,V> e = t[i]; e != null; e = e.next)
+                            action.accept(e.key);
+                    }
                 }
                 if (modCount != mc)
                     throw new ConcurrentModificationException();
@@ -881,9 +1320,12 @@ public class HashMap<K,V> extends AbstractMap<K,V>
                 throw new NullPointerException();
             if (size > 0 && (tab = table) != null) {
                 int mc = modCount;
-                for (int i = 0; i < tab.length; ++i) {
-                    for (Node<K,V> e = tab[i]; e != null; e = e.next)
-                        action.accept(e.value);
+                //渐进式扩容期间，依次遍历table和oldTable
+                for (Node<K,V>[] t = tab; t != null; t = (t == oldTable) ? null : oldTable) {
+                    for (int i = 0; i < t.length; ++i) {
+                        for (Node<K,V> e = t[i]; e != null; e = e.next)
+                            action.accept(e.value);
+                    }
                 }
                 if (modCount != mc)
                     throw new ConcurrentModificationException();
@@ -939,9 +1381,12 @@ public class HashMap<K,V> extends AbstractMap<K,V>
                 throw new NullPointerException();
             if (size > 0 && (tab = table) != null) {
                 int mc = modCount;
-                for (int i = 0; i < tab.length; ++i) {
-                    for (Node<K,V> e = tab[i]; e != null; e = e.next)
-                        action.accept(e);
+                //渐进式扩容期间，依次遍历table和oldTable
+                for (Node<K,V>[] t = tab; t != null; t = (t == oldTable) ? null : oldTable) {
+                    for (int i = 0; i < t.length; ++i) {
+                        for (Node<K,V> e = t[i]; e != null; e = e.next)
+                            action.accept(e);
+                    }
                 }
                 if (modCount != mc)
                     throw new ConcurrentModificationException();
@@ -1038,6 +1483,24 @@ public class HashMap<K,V> extends AbstractMap<K,V>
         int binCount = 0;
         TreeNode<K,V> t = null;
         Node<K,V> old = null;
+        //渐进式扩容期间，key可能在任一个表中，通过getNode和putVal完成
+        if (oldTable != null) {
+            V oldValue;
+            if ((old = getNode(hash, key)) != null && (oldValue = old.value) != null) {
+                afterNodeAccess(old);
+                return oldValue;
+            }
+            V v = mappingFunction.apply(key);
+            if (v == null)
+                return null;
+            else if (old != null) {
+                old.value = v;
+                afterNodeAccess(old);
+            }
+            else
+                putVal(hash, key, v, false, true);
+            return v;
+        }
         //扩容
         if (size > threshold || (tab = table) == null ||
             (n = tab.length) == 0)
@@ -1134,6 +1597,22 @@ public class HashMap<K,V> extends AbstractMap<K,V>
         int binCount = 0;
         TreeNode<K,V> t = null;
         Node<K,V> old = null;
+        //渐进式扩容期间，key可能在任一个表中，通过getNode、putVal和removeNode完成
+        if (oldTable != null) {
+            V oldValue = ((old = getNode(hash, key)) == null) ? null : old.value;
+            V v = remappingFunction.apply(key, oldValue);
+            if (old != null) {
+                if (v != null) {
+                    old.value = v;
+                    afterNodeAccess(old);
+                }
+                else
+                    removeNode(hash, key, null, false, true);
+            }
+            else if (v != null)
+                putVal(hash, key, v, false, true);
+            return v;
+        }
         if (size > threshold || (tab = table) == null ||
             (n = tab.length) == 0)
             n = (tab = resize()).length;
@@ -1196,6 +1675,22 @@ public class HashMap<K,V> extends AbstractMap<K,V>
         int binCount = 0;
         TreeNode<K,V> t = null;
         Node<K,V> old = null;
+        //渐进式扩容期间，key可能在任一个表中，通过getNode、putVal和removeNode完成
+        if (oldTable != null) {
+            if ((old = getNode(hash, key)) == null) {
+                putVal(hash, key, value, false, true);
+                return value;
+            }
+            V v = (old.value == null) ? value :
+                remappingFunction.apply(old.value, value);
+            if (v != null) {
+                old.value = v;
+                afterNodeAccess(old);
+            }
+            else
+                removeNode(hash, key, null, false, true);
+            return v;
+        }
         if (size > threshold || (tab = table) == null ||
             (n = tab.length) == 0)
             n = (tab = resize()).length;
@@ -1253,9 +1748,12 @@ public class HashMap<K,V> extends AbstractMap<K,V>
             throw new NullPointerException();
         if (size > 0 && (tab = table) != null) {
             int mc = modCount;
-            for (int i = 0; i < tab.length; ++i) {
-                for (Node<K,V> e = tab[i]; e != null; e = e.next)
-                    action.accept(e.key, e.value);
+            //渐进式扩容期间，依次遍历table和oldTable
+            for (Node<K,V>[] t = tab; t != null; t = (t == oldTable) ? null : oldTable) {
+                for (int i = 0; i < t.length; ++i) {
+                    for (Node<K,V> e = t[i]; e != null; e = e.next)
+                        action.accept(e.key, e.value);
+                }
             }
             if (modCount != mc)
                 throw new ConcurrentModificationException();
@@ -1270,9 +1768,12 @@ public class HashMap<K,V> extends AbstractMap<K,V>
             throw new NullPointerException();
         if (size > 0 && (tab = table) != null) {
             int mc = modCount;
-            for (int i = 0; i < tab.length; ++i) {
-                for (Node<K,V> e = tab[i]; e != null; e = e.next) {
-                    e.value = function.apply(e.key, e.value);
+            //渐进式扩容期间，依次遍历table和oldTable
+            for (Node<K,V>[] t = tab; t != null; t = (t == oldTable) ? null : oldTable) {
+                for (int i = 0; i < t.length; ++i) {
+                    for (Node<K,V> e = t[i]; e != null; e = e.next) {
+                        e.value = function.apply(e.key, e.value);
+                    }
                 }
             }
             if (modCount != mc)
@@ -1416,9 +1917,23 @@ public class HashMap<K,V> extends AbstractMap<K,V>
             if (t != null && size > 0) {
                 //寻找第一个包含链表节点引用的桶
                 do {} while (index < t.length && (next = t[index++]) == null);
+                if (next == null && oldTable != null)
+                    next = nextOldBin();
             }
         }
 
+        /**
+         * 渐进式扩容期间，table遍历完后继续遍历oldTable，index是两个表首尾相接后的下标
+         */
+        final Node<K,V> nextOldBin() {
+            Node<K,V>[] o = oldTable;
+            Node<K,V> n = null;
+            int base = table.length;
+            while (n == null && index - base < o.length)
+                n = o[index++ - base];
+            return n;
+        }
+
         public final boolean hasNext() {
             return next != null;
         }
@@ -1435,6 +1950,8 @@ public class HashMap<K,V> extends AbstractMap<K,V>
             // 这里利用了index的初始值为0，从0开始依次向后遍历，直到找到不为null的元素就退出循环。
             if ((next = (current = e).next) == null && (t = table) != null) {
                 do {} while (index < t.length && (next = t[index++]) == null);
+                if (next == null && oldTable != null)
+                    next = nextOldBin();
             }
             return e;
         }
@@ -1496,12 +2013,23 @@ public class HashMap<K,V> extends AbstractMap<K,V>
                 HashMap<K,V> m = map;
                 est = m.size;
                 expectedModCount = m.modCount;
-                Node<K,V>[] tab = m.table;
-                hi = fence = (tab == null) ? 0 : tab.length;
+                hi = fence = binCount(m.table, m.oldTable);
             }
             return hi;
         }
 
+        /**
+         * 渐进式扩容期间，下标[0, table.length)对应table，其后的下标对应oldTable
+         */
+        static int binCount(Node<?,?>[] tab, Node<?,?>[] old) {
+            return ((tab == null) ? 0 : tab.length) + ((old == null) ? 0 : old.length);
+        }
+
+        static <K,V> Node<K,V> binAt(Node<K,V>[] tab, Node<K,V>[] old, int i) {
+            int n = tab.length;
+            return (i < n) ? tab[i] : old[i - n];
+        }
+
         public final long estimateSize() {
             getFence(); // force init
             return (long) est;
@@ -1528,20 +2056,20 @@ public class HashMap<K,V> extends AbstractMap<K,V>
             if (action == null)
                 throw new NullPointerException();
             HashMap<K,V> m = map;
-            Node<K,V>[] tab = m.table;
+            Node<K,V>[] tab = m.table, old = m.oldTable;
             if ((hi = fence) < 0) {
                 mc = expectedModCount = m.modCount;
-                hi = fence = (tab == null) ? 0 : tab.length;
+                hi = fence = binCount(tab, old);
             }
             else
                 mc = expectedModCount;
-            if (tab != null && tab.length >= hi &&
+            if (tab != null && binCount(tab, old) >= hi &&
                 (i = index) >= 0 && (i < (index = hi) || current != null)) {
                 Node<K,V> p = current;
                 current = null;
                 do {
                     if (p == null)
-                        p = tab[i++];
+                        p = binAt(tab, old, i++);
                     else {
                         action.accept(p.key);
                         p = p.next;
@@ -1556,11 +2084,11 @@ public class HashMap<K,V> extends AbstractMap<K,V>
             int hi;
             if (action == null)
                 throw new NullPointerException();
-            Node<K,V>[] tab = map.table;
-            if (tab != null && tab.length >= (hi = getFence()) && index >= 0) {
+            Node<K,V>[] tab = map.table, old = map.oldTable;
+            if (tab != null && binCount(tab, old) >= (hi = getFence()) && index >= 0) {
                 while (current != null || index < hi) {
                     if (current == null)
-                        current = tab[index++];
+                        current = binAt(tab, old, index++);
                     else {
                         K k = current.key;
                         current = current.next;
@@ -1600,20 +2128,20 @@ public class HashMap<K,V> extends AbstractMap<K,V>
             if (action == null)
                 throw new NullPointerException();
             HashMap<K,V> m = map;
-            Node<K,V>[] tab = m.table;
+            Node<K,V>[] tab = m.table, old = m.oldTable;
             if ((hi = fence) < 0) {
                 mc = expectedModCount = m.modCount;
-                hi = fence = (tab == null) ? 0 : tab.length;
+                hi = fence = binCount(tab, old);
             }
             else
                 mc = expectedModCount;
-            if (tab != null && tab.length >= hi &&
+            if (tab != null && binCount(tab, old) >= hi &&
                 (i = index) >= 0 && (i < (index = hi) || current != null)) {
                 Node<K,V> p = current;
                 current = null;
                 do {
                     if (p == null)
-                        p = tab[i++];
+                        p = binAt(tab, old, i++);
                     else {
                         action.accept(p.value);
                         p = p.next;
@@ -1628,11 +2156,11 @@ public class HashMap<K,V> extends AbstractMap<K,V>
             int hi;
             if (action == null)
                 throw new NullPointerException();
-            Node<K,V>[] tab = map.table;
-            if (tab != null && tab.length >= (hi = getFence()) && index >= 0) {
+            Node<K,V>[] tab = map.table, old = map.oldTable;
+            if (tab != null && binCount(tab, old) >= (hi = getFence()) && index >= 0) {
                 while (current != null || index < hi) {
                     if (current == null)
-                        current = tab[index++];
+                        current = binAt(tab, old, index++);
                     else {
                         V v = current.value;
                         current = current.next;
@@ -1671,20 +2199,20 @@ public class HashMap<K,V> extends AbstractMap<K,V>
             if (action == null)
                 throw new NullPointerException();
             HashMap<K,V> m = map;
-            Node<K,V>[] tab = m.table;
+            Node<K,V>[] tab = m.table, old = m.oldTable;
             if ((hi = fence) < 0) {
                 mc = expectedModCount = m.modCount;
-                hi = fence = (tab == null) ? 0 : tab.length;
+                hi = fence = binCount(tab, old);
             }
             else
                 mc = expectedModCount;
-            if (tab != null && tab.length >= hi &&
+            if (tab != null && binCount(tab, old) >= hi &&
                 (i = index) >= 0 && (i < (index = hi) || current != null)) {
                 Node<K,V> p = current;
                 current = null;
                 do {
                     if (p == null)
-                        p = tab[i++];
+                        p = binAt(tab, old, i++);
                     else {
                         action.accept(p);
                         p = p.next;
@@ -1699,11 +2227,11 @@ public class HashMap<K,V> extends AbstractMap<K,V>
             int hi;
             if (action == null)
                 throw new NullPointerException();
-            Node<K,V>[] tab = map.table;
-            if (tab != null && tab.length >= (hi = getFence()) && index >= 0) {
+            Node<K,V>[] tab = map.table, old = map.oldTable;
+            if (tab != null && binCount(tab, old) >= (hi = getFence()) && index >= 0) {
                 while (current != null || index < hi) {
                     if (current == null)
-                        current = tab[index++];
+                        current = binAt(tab, old, index++);
                     else {
                         Node<K,V> e = current;
                         current = current.next;
@@ -1760,6 +2288,8 @@ public class HashMap<K,V> extends AbstractMap<K,V>
      */
     void reinitialize() {
         table = null;
+        oldTable = null;
+        rehashIndex = 0;
         entrySet = null;
         keySet = null;
         values = null;
@@ -1778,10 +2308,13 @@ public class HashMap<K,V> extends AbstractMap<K,V>
     void internalWriteEntries(java.io.ObjectOutputStream s) throws IOException {
         Node<K,V>[] tab;
         if (size > 0 && (tab = table) != null) {
-            for (int i = 0; i < tab.length; ++i) {
-                for (Node<K,V> e = tab[i]; e != null; e = e.next) {
-                    s.writeObject(e.key);
-                    s.writeObject(e.value);
+            //渐进式扩容期间，依次遍历table和oldTable
+            for (Node<K,V>[] t = tab; t != null; t = (t == oldTable) ? null : oldTable) {
+                for (int i = 0; i < t.length; ++i) {
+                    for (Node<K,V> e = t[i]; e != null; e = e.next) {
+                        s.writeObject(e.key);
+                        s.writeObject(e.value);
+                    }
                 }
             }
         }
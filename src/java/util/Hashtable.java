@@ -141,6 +141,67 @@ public class Hashtable<K,V>
         return count;
     }
 
+    /**
+     * 是否允许不加锁的读操作，默认返回false。
+     * 返回true时，rehash()不再原地重排Entry链表，而是把所有Entry拷贝到新数组后再发布，
+     * 这样并发读线程遍历的旧链表永远保持完整；table、槽位、next、value的写入改为
+     * 有序写（release），配合下面的getLockFree等方法的volatile读，
+     * 保证读线程不会看到未初始化完的Entry。返回false时这些写入都是普通写，
+     * 普通的Hashtable不需要为此付出任何代价。
+     *
+     * @return 子类不加锁读时返回true
+     * @see LockFreeReadHashtable
+     */
+    boolean lockFreeReads() {
+        return false;
+    }
+
+    /**
+     * 不加锁的get，只能在{@link #lockFreeReads()}返回true时使用
+     */
+    @SuppressWarnings("unchecked")
+    final V getLockFree(Object key) {
+        Entry<?,?> tab[] = tableVolatile();
+        int hash = key.hashCode();
+        int index = (hash & 0x7FFFFFFF) % tab.length;
+        for (Entry<?,?> e = tabAt(tab, index) ; e != null ; e = e.nextVolatile()) {
+            if ((e.hash == hash) && e.key.equals(key)) {
+                // 并发remove会先把value置为null，此时视为key已不存在
+                return (V)e.valueVolatile();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 不加锁的containsKey，只能在{@link #lockFreeReads()}返回true时使用
+     */
+    final boolean containsKeyLockFree(Object key) {
+        Entry<?,?> tab[] = tableVolatile();
+        int hash = key.hashCode();
+        int index = (hash & 0x7FFFFFFF) % tab.length;
+        for (Entry<?,?> e = tabAt(tab, index) ; e != null ; e = e.nextVolatile()) {
+            if ((e.hash == hash) && e.key.equals(key)) {
+                return e.valueVolatile() != null;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 不加锁地读取Entry数量（volatile读）
+     */
+    final int countLockFree() {
+        return U.getIntVolatile(this, COUNT);
+    }
+
+    /**
+     * 以volatile方式读取table
+     */
+    private Entry<?,?>[] tableVolatile() {
+        return (Entry<?,?>[])U.getObjectVolatile(this, TABLE);
+    }
+
     /**
      * 判空
      *
@@ -300,6 +361,19 @@ public class Hashtable<K,V>
 
         modCount++;
         threshold = (int)Math.min(newCapacity * loadFactor, MAX_ARRAY_SIZE + 1);
+        if (lockFreeReads()) {
+            // 不加锁的读线程可能正在遍历旧链表，因此拷贝Entry而不是修改其next，
+            // 新数组填充完毕后再通过有序写发布
+            for (int i = oldCapacity ; i-- > 0 ;) {
+                for (Entry<K,V> e = (Entry<K,V>)oldMap[i] ; e != null ; e = e.next) {
+                    int index = (e.hash & 0x7FFFFFFF) % newCapacity;
+                    newMap[index] = new Entry<>(e.hash, e.key, e.value,
+                                                (Entry<K,V>)newMap[index]);
+                }
+            }
+            U.putOrderedObject(this, TABLE, newMap);
+            return;
+        }
         table = newMap;
         // 拷贝每个Entry链表
         for (int i = oldCapacity ; i-- > 0 ;) {
@@ -316,6 +390,44 @@ public class Hashtable<K,V>
         }
     }
 
+    /**
+     * 以volatile方式读取数组槽位
+     */
+    static final Entry<?,?> tabAt(Entry<?,?>[] tab, int i) {
+        return (Entry<?,?>)U.getObjectVolatile(tab, ((long)i << ASHIFT) + ABASE);
+    }
+
+    /**
+     * 设置数组槽位。允许不加锁的读操作时以有序写（release）方式写入，
+     * 保证Entry在初始化完成后才对读线程可见，否则为普通写
+     */
+    final void setTabAt(Entry<?,?>[] tab, int i, Entry<?,?> e) {
+        if (lockFreeReads())
+            U.putOrderedObject(tab, ((long)i << ASHIFT) + ABASE, e);
+        else
+            tab[i] = e;
+    }
+
+    /**
+     * 设置Entry的value，写入方式同{@link #setTabAt}
+     */
+    final <X,Y> void setEntryValue(Entry<X,Y> e, Y value) {
+        if (lockFreeReads())
+            e.lazySetValue(value);
+        else
+            e.value = value;
+    }
+
+    /**
+     * 设置Entry的next，写入方式同{@link #setTabAt}
+     */
+    final <X,Y> void setEntryNext(Entry<X,Y> e, Entry<X,Y> next) {
+        if (lockFreeReads())
+            e.lazySetNext(next);
+        else
+            e.next = next;
+    }
+
     /**
      * 当键值对个数超过阈值，先进行rehash然后添加entry，否则直接添加entry
      */
@@ -335,7 +447,7 @@ public class Hashtable<K,V>
         // Creates the new entry.
         @SuppressWarnings("unchecked")
         Entry<K,V> e = (Entry<K,V>) tab[index];
-        tab[index] = new Entry<>(hash, key, value, e);
+        setTabAt(tab, index, new Entry<>(hash, key, value, e));
         count++;
     }
 
@@ -371,7 +483,7 @@ public class Hashtable<K,V>
         for(; entry != null ; entry = entry.next) {
             if ((entry.hash == hash) && entry.key.equals(key)) {
                 V old = entry.value;
-                entry.value = value;
+                setEntryValue(entry, value);
                 return old;
             }
         }
@@ -399,13 +511,13 @@ public class Hashtable<K,V>
             if ((e.hash == hash) && e.key.equals(key)) {
                 modCount++;
                 if (prev != null) {
-                    prev.next = e.next;
+                    setEntryNext(prev, e.next);
                 } else {
-                    tab[index] = e.next;
+                    setTabAt(tab, index, e.next);
                 }
                 count--;
                 V oldValue = e.value;
-                e.value = null;
+                setEntryValue(e, null);
                 return oldValue;
             }
         }
@@ -433,7 +545,7 @@ public class Hashtable<K,V>
         Entry<?,?> tab[] = table;
         modCount++;
         for (int index = tab.length; --index >= 0; )
-            tab[index] = null;
+            setTabAt(tab, index, null);
         count = 0;
     }
 
@@ -624,12 +736,12 @@ public class Hashtable<K,V>
                 if (e.hash==hash && e.equals(entry)) {
                     modCount++;
                     if (prev != null)
-                        prev.next = e.next;
+                        setEntryNext(prev, e.next);
                     else
-                        tab[index] = e.next;
+                        setTabAt(tab, index, e.next);
 
                     count--;
-                    e.value = null;
+                    setEntryValue(e, null);
                     return true;
                 }
             }
@@ -798,8 +910,8 @@ public class Hashtable<K,V>
         Entry<K, V>[] tab = (Entry<K, V>[])table;
         for (Entry<K, V> entry : tab) {
             while (entry != null) {
-                entry.value = Objects.requireNonNull(
-                    function.apply(entry.key, entry.value));
+                setEntryValue(entry, Objects.requireNonNull(
+                    function.apply(entry.key, entry.value)));
                 entry = entry.next;
 
                 if (expectedModCount != modCount) {
@@ -823,7 +935,7 @@ public class Hashtable<K,V>
             if ((entry.hash == hash) && entry.key.equals(key)) {
                 V old = entry.value;
                 if (old == null) {
-                    entry.value = value;
+                    setEntryValue(entry, value);
                 }
                 return old;
             }
@@ -846,12 +958,12 @@ public class Hashtable<K,V>
             if ((e.hash == hash) && e.key.equals(key) && e.value.equals(value)) {
                 modCount++;
                 if (prev != null) {
-                    prev.next = e.next;
+                    setEntryNext(prev, e.next);
                 } else {
-                    tab[index] = e.next;
+                    setTabAt(tab, index, e.next);
                 }
                 count--;
-                e.value = null;
+                setEntryValue(e, null);
                 return true;
             }
         }
@@ -870,7 +982,7 @@ public class Hashtable<K,V>
         for (; e != null; e = e.next) {
             if ((e.hash == hash) && e.key.equals(key)) {
                 if (e.value.equals(oldValue)) {
-                    e.value = newValue;
+                    setEntryValue(e, newValue);
                     return true;
                 } else {
                     return false;
@@ -891,7 +1003,7 @@ public class Hashtable<K,V>
         for (; e != null; e = e.next) {
             if ((e.hash == hash) && e.key.equals(key)) {
                 V oldValue = e.value;
-                e.value = value;
+                setEntryValue(e, value);
                 return oldValue;
             }
         }
@@ -937,13 +1049,13 @@ public class Hashtable<K,V>
                 if (newValue == null) {
                     modCount++;
                     if (prev != null) {
-                        prev.next = e.next;
+                        setEntryNext(prev, e.next);
                     } else {
-                        tab[index] = e.next;
+                        setTabAt(tab, index, e.next);
                     }
                     count--;
                 } else {
-                    e.value = newValue;
+                    setEntryValue(e, newValue);
                 }
                 return newValue;
             }
@@ -966,13 +1078,13 @@ public class Hashtable<K,V>
                 if (newValue == null) {
                     modCount++;
                     if (prev != null) {
-                        prev.next = e.next;
+                        setEntryNext(prev, e.next);
                     } else {
-                        tab[index] = e.next;
+                        setTabAt(tab, index, e.next);
                     }
                     count--;
                 } else {
-                    e.value = newValue;
+                    setEntryValue(e, newValue);
                 }
                 return newValue;
             }
@@ -1001,13 +1113,13 @@ public class Hashtable<K,V>
                 if (newValue == null) {
                     modCount++;
                     if (prev != null) {
-                        prev.next = e.next;
+                        setEntryNext(prev, e.next);
                     } else {
-                        tab[index] = e.next;
+                        setTabAt(tab, index, e.next);
                     }
                     count--;
                 } else {
-                    e.value = newValue;
+                    setEntryValue(e, newValue);
                 }
                 return newValue;
             }
@@ -1213,6 +1325,45 @@ public class Hashtable<K,V>
         public String toString() {
             return key.toString()+"="+value.toString();
         }
+
+        // 以下方法供不加锁的读操作使用：写入为有序写，读取为volatile读；
+        // Hashtable中的写入经由setEntryValue、setEntryNext，只在lockFreeReads()时调用有序写
+
+        final void lazySetValue(V v) {
+            U.putOrderedObject(this, VALUE, v);
+        }
+
+        final void lazySetNext(Entry<K,V> n) {
+            U.putOrderedObject(this, NEXT, n);
+        }
+
+        final Object valueVolatile() {
+            return U.getObjectVolatile(this, VALUE);
+        }
+
+        final Entry<?,?> nextVolatile() {
+            return (Entry<?,?>)U.getObjectVolatile(this, NEXT);
+        }
+    }
+
+    /**
+     * 允许不加锁的读操作时，entrySet的迭代器返回的Entry。
+     * setValue通过put写回本表，与ConcurrentHashMap的MapEntry相同
+     */
+    private final class WriteThroughEntry extends AbstractMap.SimpleEntry<K,V> {
+        private static final long serialVersionUID = 7138329143949025153L;
+
+        WriteThroughEntry(K key, V value) {
+            super(key, value);
+        }
+
+        public V setValue(V value) {
+            if (value == null)
+                throw new NullPointerException();
+            V oldValue = super.setValue(value);
+            put(getKey(), value);
+            return oldValue;
+        }
     }
 
     // Types of Enumerations/Iterations
@@ -1285,6 +1436,9 @@ public class Hashtable<K,V>
             if (et != null) {
                 Entry<?,?> e = lastReturned = entry;
                 entry = e.next;
+                if (type == ENTRIES && lockFreeReads())
+                    // 不直接交出Entry，使其value只在锁内以有序写更新
+                    return (T)new WriteThroughEntry((K)e.key, (V)e.value);
                 return type == KEYS ? (T)e.key : (type == VALUES ? (T)e.value : (T)e);
             }
             throw new NoSuchElementException("Hashtable Enumerator");
@@ -1330,9 +1484,9 @@ public class Hashtable<K,V>
                         expectedModCount++;
                         //删除上一个元素
                         if (prev == null)
-                            tab[index] = e.next;
+                            setTabAt(tab, index, e.next);
                         else
-                            prev.next = e.next;
+                            setEntryNext(prev, e.next);
                         count--;
                         lastReturned = null;
                         return;
@@ -1342,4 +1496,37 @@ public class Hashtable<K,V>
             }
         }
     }
+
+    // Unsafe mechanics
+    private static final sun.misc.Unsafe U;
+    private static final long TABLE;
+    private static final long COUNT;
+    private static final long VALUE;
+    private static final long NEXT;
+    private static final long ABASE;
+    private static final int ASHIFT;
+
+    static {
+        try {
+            U = sun.misc.Unsafe.getUnsafe();
+            Class<?> k = Hashtable.class;
+            TABLE = U.objectFieldOffset
+                (k.getDeclaredField("table"));
+            COUNT = U.objectFieldOffset
+                (k.getDeclaredField("count"));
+            Class<?> ek = Entry.class;
+            VALUE = U.objectFieldOffset
+                (ek.getDeclaredField("value"));
+            NEXT = U.objectFieldOffset
+                (ek.getDeclaredField("next"));
+            Class<?> ak = Entry[].class;
+            ABASE = U.arrayBaseOffset(ak);
+            int scale = U.arrayIndexScale(ak);
+            if ((scale & (scale - 1)) != 0)
+                throw new Error("data type scale not a power of two");
+            ASHIFT = 31 - Integer.numberOfLeadingZeros(scale);
+        } catch (Exception e) {
+            throw new Error(e);
+        }
+    }
 }
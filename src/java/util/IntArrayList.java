@@ -0,0 +1,1071 @@
+/*
+ * Copyright (c) 2017, Oracle and/or its affiliates. All rights reserved.
+ * ORACLE PROPRIETARY/CONFIDENTIAL. Use is subject to license terms.
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ */
+
+package java.util;
+
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+import java.util.function.IntUnaryOperator;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
+import sun.misc.SharedSecrets;
+
+/**
+ * 元素为基本类型int的ArrayList。ArrayList的elementData是Object[]，每个元素都要装箱成Integer，
+ * 一个元素除了数组里的引用，还要额外占用一个对象头；IntArrayList直接把元素存放在int[]中，不分配任何包装对象。
+ * 1.扩容规则与ArrayList相同：默认容量10，首次添加时才分配数组，之后每次扩容至原来的1.5倍，
+ *   超过MAX_ARRAY_SIZE时由hugeCapacity()处理；
+ * 2.提供subList视图、延迟绑定(late-binding)的spliterator、removeIf、sort，以及{@link #stream()}；
+ * 3.{@link #wrap(int[], int)}、{@link #elements()}、{@link #setSize(int)}可以直接读写底层数组，
+ *   批量I/O时不需要再拷贝一次。
+ * 因为get(int)返回int，IntArrayList不实现List&lt;Integer&gt;；需要List时可以通过stream().boxed()转换。
+ * 与ArrayList一样，IntArrayList不是线程安全的，迭代器和spliterator是fail-fast的。
+ *
+ * @see     ArrayList
+ */
+public class IntArrayList implements RandomAccess, Cloneable, java.io.Serializable
+{
+    private static final long serialVersionUID = -3204913766421436157L;
+
+    /**
+     * 默认初始容量
+     */
+    private static final int DEFAULT_CAPACITY = 10;
+
+    /**
+     * 指定容量为0时使用的空数组
+     */
+    private static final int[] EMPTY_ELEMENTDATA = {};
+
+    /**
+     * 无参构造时使用的空数组，首次添加元素时扩容到DEFAULT_CAPACITY
+     */
+    private static final int[] DEFAULTCAPACITY_EMPTY_ELEMENTDATA = {};
+
+    /**
+     * 存放元素的数组，下标[size, elementData.length)的部分是预留空间
+     */
+    transient int[] elementData; // non-private to simplify nested class access
+
+    /**
+     * 元素个数
+     *
+     * @serial
+     */
+    private int size;
+
+    /**
+     * 结构被修改的次数，fail-fast机制
+     */
+    protected transient int modCount = 0;
+
+    /**
+     * 指定初始容量的构造函数
+     *
+     * @param  initialCapacity  初始容量
+     * @throws IllegalArgumentException 如果初始容量为负
+     */
+    public IntArrayList(int initialCapacity) {
+        if (initialCapacity > 0) {
+            this.elementData = new int[initialCapacity];
+        } else if (initialCapacity == 0) {
+            this.elementData = EMPTY_ELEMENTDATA;
+        } else {
+            throw new IllegalArgumentException("Illegal Capacity: "+
+                                               initialCapacity);
+        }
+    }
+
+    /**
+     * 无参构造方法
+     */
+    public IntArrayList() {
+        this.elementData = DEFAULTCAPACITY_EMPTY_ELEMENTDATA;
+    }
+
+    /**
+     * 拷贝指定数组中元素的构造方法
+     *
+     * @param a 其元素将被放入此列表中的数组
+     * @throws NullPointerException 如果指定的数组为null
+     */
+    public IntArrayList(int[] a) {
+        if ((size = a.length) != 0)
+            elementData = a.clone();
+        else
+            elementData = EMPTY_ELEMENTDATA;
+    }
+
+    /**
+     * 直接使用指定数组的前size个元素作为列表内容，不拷贝。
+     * 之后对列表的修改会写入该数组，直到列表扩容换成新数组为止。
+     *
+     * @param a    作为底层数组的数组
+     * @param size 列表的元素个数
+     * @return 以a为底层数组的列表
+     * @throws NullPointerException 如果指定的数组为null
+     * @throws IllegalArgumentException 如果size为负或大于a.length
+     */
+    public static IntArrayList wrap(int[] a, int size) {
+        if (size < 0 || size > a.length)
+            throw new IllegalArgumentException("Illegal Size: " + size);
+        IntArrayList l = new IntArrayList(0);
+        l.elementData = a;
+        l.size = size;
+        return l;
+    }
+
+    /**
+     * 返回底层数组本身，不拷贝。数组长度是容量，只有下标[0, size())的元素有意义；
+     * 列表扩容或trimToSize后，之前返回的数组不再与列表关联。
+     * 可以配合{@link #ensureCapacity(int)}和{@link #setSize(int)}直接在数组中批量读入元素。
+     *
+     * @return 底层数组
+     */
+    public int[] elements() {
+        return elementData;
+    }
+
+    /**
+     * 设置列表的元素个数，与Vector.setSize相同：
+     * 变大时新增的元素为0（扩容规则与add相同），变小时丢弃下标不小于newSize的元素。
+     *
+     * @param newSize 新的元素个数
+     * @throws IllegalArgumentException 如果newSize为负
+     */
+    public void setSize(int newSize) {
+        if (newSize < 0)
+            throw new IllegalArgumentException("Illegal Size: " + newSize);
+        if (newSize > size) {
+            ensureCapacityInternal(newSize);
+            Arrays.fill(elementData, size, newSize, 0);
+        } else {
+            modCount++;
+        }
+        size = newSize;
+    }
+
+    /**
+     * 调整容量为元素实际数量，节约空间
+     */
+    public void trimToSize() {
+        modCount++;
+        if (size < elementData.length) {
+            elementData = (size == 0)
+              ? EMPTY_ELEMENTDATA
+              : Arrays.copyOf(elementData, size);
+        }
+    }
+
+    /**
+     * 使用指定参数设置数组容量
+     *
+     * @param   minCapacity   所需的最小容量
+     */
+    public void ensureCapacity(int minCapacity) {
+        int minExpand = (elementData != DEFAULTCAPACITY_EMPTY_ELEMENTDATA)
+            ? 0 : DEFAULT_CAPACITY;
+
+        if (minCapacity > minExpand) {
+            ensureExplicitCapacity(minCapacity);
+        }
+    }
+
+    /**
+     * 空数组时最小扩容量
+     */
+    private static int calculateCapacity(int[] elementData, int minCapacity) {
+        if (elementData == DEFAULTCAPACITY_EMPTY_ELEMENTDATA) {
+            return Math.max(DEFAULT_CAPACITY, minCapacity);
+        }
+        return minCapacity;
+    }
+
+    /**
+     * 得到最小扩容量
+     */
+    private void ensureCapacityInternal(int minCapacity) {
+        ensureExplicitCapacity(calculateCapacity(elementData, minCapacity));
+    }
+
+    /**
+     * 判断是否需要扩容
+     */
+    private void ensureExplicitCapacity(int minCapacity) {
+        modCount++;
+
+        if (minCapacity - elementData.length > 0)
+            grow(minCapacity);
+    }
+
+    /**
+     * 数组的最大容量，可能会导致内存溢出(VM内存限制)
+     */
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+    /**
+     * 扩容至原来的1.5倍，且至少为minCapacity
+     */
+    private void grow(int minCapacity) {
+        int oldCapacity = elementData.length;
+        int newCapacity = oldCapacity + (oldCapacity >> 1);
+        if (newCapacity - minCapacity < 0)
+            newCapacity = minCapacity;
+        if (newCapacity - MAX_ARRAY_SIZE > 0)
+            newCapacity = hugeCapacity(minCapacity);
+        elementData = Arrays.copyOf(elementData, newCapacity);
+    }
+
+    /**
+     * 检查是否溢出，若没有溢出，返回最大整数值或默认最大值
+     */
+    private static int hugeCapacity(int minCapacity) {
+        if (minCapacity < 0) // overflow
+            throw new OutOfMemoryError();
+        return (minCapacity > MAX_ARRAY_SIZE) ?
+            Integer.MAX_VALUE :
+            MAX_ARRAY_SIZE;
+    }
+
+    /**
+     * 返回元素个数
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 是否为空
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * 是否包含某个元素
+     */
+    public boolean contains(int o) {
+        return indexOf(o) >= 0;
+    }
+
+    /**
+     * 返回第一个等于指定元素的下标，没有返回-1
+     */
+    public int indexOf(int o) {
+        return indexOfRange(o, 0, size);
+    }
+
+    int indexOfRange(int o, int start, int end) {
+        int[] es = elementData;
+        for (int i = start; i < end; i++)
+            if (o == es[i])
+                return i;
+        return -1;
+    }
+
+    /**
+     * 返回最后一个等于指定元素的下标，没有返回-1
+     */
+    public int lastIndexOf(int o) {
+        return lastIndexOfRange(o, 0, size);
+    }
+
+    int lastIndexOfRange(int o, int start, int end) {
+        int[] es = elementData;
+        for (int i = end - 1; i >= start; i--)
+            if (o == es[i])
+                return i;
+        return -1;
+    }
+
+    /**
+     * 返回副本，底层数组按元素个数拷贝
+     */
+    public IntArrayList clone() {
+        try {
+            IntArrayList v = (IntArrayList) super.clone();
+            v.elementData = Arrays.copyOf(elementData, size);
+            v.modCount = 0;
+            return v;
+        } catch (CloneNotSupportedException e) {
+            // this shouldn't happen, since we are Cloneable
+            throw new InternalError(e);
+        }
+    }
+
+    /**
+     * 返回包含全部元素的新数组
+     */
+    public int[] toArray() {
+        return Arrays.copyOf(elementData, size);
+    }
+
+    /**
+     * 返回指定位置的元素
+     *
+     * @param  index 下标
+     * @return 指定位置的元素
+     * @throws IndexOutOfBoundsException 下标越界
+     */
+    public int get(int index) {
+        rangeCheck(index);
+
+        return elementData[index];
+    }
+
+    /**
+     * 替换指定位置的元素，返回原来的元素
+     *
+     * @param index   下标
+     * @param element 新元素
+     * @return 原来的元素
+     * @throws IndexOutOfBoundsException 下标越界
+     */
+    public int set(int index, int element) {
+        rangeCheck(index);
+
+        int oldValue = elementData[index];
+        elementData[index] = element;
+        return oldValue;
+    }
+
+    /**
+     * 在末尾添加元素
+     */
+    public boolean add(int e) {
+        ensureCapacityInternal(size + 1);  // Increments modCount!!
+        elementData[size++] = e;
+        return true;
+    }
+
+    /**
+     * 在指定位置插入元素，原来该位置及之后的元素后移
+     *
+     * @throws IndexOutOfBoundsException 下标越界
+     */
+    public void add(int index, int element) {
+        rangeCheckForAdd(index);
+
+        ensureCapacityInternal(size + 1);  // Increments modCount!!
+        System.arraycopy(elementData, index, elementData, index + 1,
+                         size - index);
+        elementData[index] = element;
+        size++;
+    }
+
+    /**
+     * 删除指定位置的元素并返回，之后的元素前移。
+     * 与ArrayList&lt;Integer&gt;.remove(int)一样，参数是下标；按值删除请使用{@link #removeValue(int)}
+     *
+     * @throws IndexOutOfBoundsException 下标越界
+     */
+    public int remove(int index) {
+        rangeCheck(index);
+
+        modCount++;
+        int oldValue = elementData[index];
+
+        int numMoved = size - index - 1;
+        if (numMoved > 0)
+            System.arraycopy(elementData, index+1, elementData, index,
+                             numMoved);
+        --size;
+
+        return oldValue;
+    }
+
+    /**
+     * 删除第一个等于指定元素的元素，存在时返回true
+     */
+    public boolean removeValue(int o) {
+        int index = indexOf(o);
+        if (index < 0)
+            return false;
+        remove(index);
+        return true;
+    }
+
+    /**
+     * 清空列表，容量不变
+     */
+    public void clear() {
+        modCount++;
+        size = 0;
+    }
+
+    /**
+     * 在末尾添加指定数组的全部元素
+     *
+     * @throws NullPointerException 如果指定的数组为null
+     */
+    public boolean addAll(int[] a) {
+        return addAll(a, 0, a.length);
+    }
+
+    /**
+     * 在末尾添加指定数组下标[off, off + len)的元素，一次扩容、一次拷贝
+     *
+     * @throws NullPointerException 如果指定的数组为null
+     * @throws IndexOutOfBoundsException 如果off、len越界
+     */
+    public boolean addAll(int[] a, int off, int len) {
+        if (off < 0 || len < 0 || len > a.length - off)
+            throw new IndexOutOfBoundsException("off: " + off + ", len: " + len);
+        ensureCapacityInternal(size + len);  // Increments modCount
+        System.arraycopy(a, off, elementData, size, len);
+        size += len;
+        return len != 0;
+    }
+
+    /**
+     * 在末尾添加另一个列表的全部元素
+     *
+     * @throws NullPointerException 如果指定的列表为null
+     */
+    public boolean addAll(IntArrayList l) {
+        return addAll(l.elementData, 0, l.size);
+    }
+
+    /**
+     * 在指定位置插入指定数组的全部元素
+     *
+     * @throws IndexOutOfBoundsException 下标越界
+     * @throws NullPointerException 如果指定的数组为null
+     */
+    public boolean addAll(int index, int[] a) {
+        rangeCheckForAdd(index);
+
+        int numNew = a.length;
+        ensureCapacityInternal(size + numNew);  // Increments modCount
+
+        int numMoved = size - index;
+        if (numMoved > 0)
+            System.arraycopy(elementData, index, elementData, index + numNew,
+                             numMoved);
+
+        System.arraycopy(a, 0, elementData, index, numNew);
+        size += numNew;
+        return numNew != 0;
+    }
+
+    /**
+     * 删除下标[fromIndex, toIndex)的元素
+     */
+    protected void removeRange(int fromIndex, int toIndex) {
+        modCount++;
+        int numMoved = size - toIndex;
+        System.arraycopy(elementData, toIndex, elementData, fromIndex,
+                         numMoved);
+        size = size - (toIndex-fromIndex);
+    }
+
+    /**
+     * 检查下标是否越界，负数下标由数组访问抛出ArrayIndexOutOfBoundsException
+     */
+    private void rangeCheck(int index) {
+        if (index >= size)
+            throw new IndexOutOfBoundsException(outOfBoundsMsg(index));
+    }
+
+    /**
+     * add和addAll使用的下标检查
+     */
+    private void rangeCheckForAdd(int index) {
+        if (index > size || index < 0)
+            throw new IndexOutOfBoundsException(outOfBoundsMsg(index));
+    }
+
+    private String outOfBoundsMsg(int index) {
+        return "Index: "+index+", Size: "+size;
+    }
+
+    /**
+     * 与List&lt;Integer&gt;的hashCode相同
+     */
+    public int hashCode() {
+        int expectedModCount = modCount;
+        int hash = hashCodeRange(0, size);
+        if (modCount != expectedModCount)
+            throw new ConcurrentModificationException();
+        return hash;
+    }
+
+    int hashCodeRange(int from, int to) {
+        int[] es = elementData;
+        int hashCode = 1;
+        for (int i = from; i < to; i++)
+            hashCode = 31 * hashCode + Integer.hashCode(es[i]);
+        return hashCode;
+    }
+
+    /**
+     * 另一个IntArrayList元素个数相同、对应位置的元素都相等时返回true
+     */
+    public boolean equals(Object o) {
+        if (o == this)
+            return true;
+        if (!(o instanceof IntArrayList))
+            return false;
+        IntArrayList other = (IntArrayList) o;
+        int s = size;
+        if (other.size != s)
+            return false;
+        int[] es = elementData, os = other.elementData;
+        for (int i = 0; i < s; i++)
+            if (!(es[i] == os[i]))
+                return false;
+        return true;
+    }
+
+    public String toString() {
+        return toString(elementData, 0, size);
+    }
+
+    static String toString(int[] es, int from, int to) {
+        if (from == to)
+            return "[]";
+        StringBuilder sb = new StringBuilder();
+        sb.append('[');
+        for (int i = from; ; ) {
+            sb.append(es[i]);
+            if (++i == to)
+                return sb.append(']').toString();
+            sb.append(',').append(' ');
+        }
+    }
+
+    /**
+     * 序列化：写出size和全部元素
+     *
+     * @serialData The length of the array backing the <tt>IntArrayList</tt>
+     *             instance is emitted (int), followed by all of its elements
+     *             (each an <tt>int</tt>) in the proper order.
+     */
+    private void writeObject(java.io.ObjectOutputStream s)
+        throws java.io.IOException{
+        int expectedModCount = modCount;
+        s.defaultWriteObject();
+
+        s.writeInt(size);
+
+        for (int i=0; i<size; i++) {
+            s.writeInt(elementData[i]);
+        }
+        if (modCount != expectedModCount) {
+            throw new ConcurrentModificationException();
+        }
+    }
+
+    /**
+     * 从流中重构IntArrayList实例（即反序列化）
+     */
+    private void readObject(java.io.ObjectInputStream s)
+        throws java.io.IOException, ClassNotFoundException {
+        elementData = EMPTY_ELEMENTDATA;
+
+        s.defaultReadObject();
+
+        s.readInt(); // ignored
+
+        if (size > 0) {
+            int capacity = calculateCapacity(elementData, size);
+            SharedSecrets.getJavaOISAccess().checkArray(s, int[].class, capacity);
+            ensureCapacityInternal(size);
+
+            int[] a = elementData;
+            for (int i=0; i<size; i++) {
+                a[i] = s.readInt();
+            }
+        } else if (size < 0) {
+            throw new java.io.InvalidObjectException("Invalid size: " + size);
+        }
+    }
+
+    /**
+     * 返回按顺序遍历的迭代器，支持remove，fail-fast
+     */
+    public PrimitiveIterator.OfInt iterator() {
+        return new Itr();
+    }
+
+    private class Itr implements PrimitiveIterator.OfInt {
+        int cursor;       // index of next element to return
+        int lastRet = -1; // index of last element returned; -1 if no such
+        int expectedModCount = modCount;
+
+        public boolean hasNext() {
+            return cursor != size;
+        }
+
+        public int nextInt() {
+            checkForComodification();
+            int i = cursor;
+            if (i >= size)
+                throw new NoSuchElementException();
+            int[] elementData = IntArrayList.this.elementData;
+            if (i >= elementData.length)
+                throw new ConcurrentModificationException();
+            cursor = i + 1;
+            return elementData[lastRet = i];
+        }
+
+        public void remove() {
+            if (lastRet < 0)
+                throw new IllegalStateException();
+            checkForComodification();
+
+            try {
+                IntArrayList.this.remove(lastRet);
+                cursor = lastRet;
+                lastRet = -1;
+                expectedModCount = modCount;
+            } catch (IndexOutOfBoundsException ex) {
+                throw new ConcurrentModificationException();
+            }
+        }
+
+        @Override
+        public void forEachRemaining(IntConsumer consumer) {
+            Objects.requireNonNull(consumer);
+            final int size = IntArrayList.this.size;
+            int i = cursor;
+            if (i >= size) {
+                return;
+            }
+            final int[] elementData = IntArrayList.this.elementData;
+            if (i >= elementData.length) {
+                throw new ConcurrentModificationException();
+            }
+            while (i != size && modCount == expectedModCount) {
+                consumer.accept(elementData[i++]);
+            }
+            cursor = i;
+            lastRet = i - 1;
+            checkForComodification();
+        }
+
+        final void checkForComodification() {
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+        }
+    }
+
+    /**
+     * 返回下标[fromIndex, toIndex)的视图，对视图的修改会反映到本列表，反之亦然。
+     * 本列表被视图以外的方式结构性修改后，再使用视图会抛出ConcurrentModificationException。
+     *
+     * @throws IndexOutOfBoundsException 下标越界
+     * @throws IllegalArgumentException fromIndex大于toIndex
+     */
+    public SubList subList(int fromIndex, int toIndex) {
+        subListRangeCheck(fromIndex, toIndex, size);
+        return new SubList(null, 0, fromIndex, toIndex);
+    }
+
+    static void subListRangeCheck(int fromIndex, int toIndex, int size) {
+        if (fromIndex < 0)
+            throw new IndexOutOfBoundsException("fromIndex = " + fromIndex);
+        if (toIndex > size)
+            throw new IndexOutOfBoundsException("toIndex = " + toIndex);
+        if (fromIndex > toIndex)
+            throw new IllegalArgumentException("fromIndex(" + fromIndex +
+                                               ") > toIndex(" + toIndex + ")");
+    }
+
+    /**
+     * subList返回的视图。所有修改都直接作用在外部列表的elementData上，
+     * 元素个数的变化沿parent链同步到每一层视图
+     */
+    public class SubList implements RandomAccess {
+        //上一层视图，直接由外部列表创建时为null
+        private final SubList parent;
+        //在外部列表elementData中的起始下标
+        private final int offset;
+        int size;
+        int modCount;
+
+        SubList(SubList parent, int parentOffset, int fromIndex, int toIndex) {
+            this.parent = parent;
+            this.offset = parentOffset + fromIndex;
+            this.size = toIndex - fromIndex;
+            this.modCount = IntArrayList.this.modCount;
+        }
+
+        public int size() {
+            checkForComodification();
+            return this.size;
+        }
+
+        public boolean isEmpty() {
+            return size() == 0;
+        }
+
+        public int get(int index) {
+            rangeCheck(index);
+            checkForComodification();
+            return IntArrayList.this.elementData[offset + index];
+        }
+
+        public int set(int index, int e) {
+            rangeCheck(index);
+            checkForComodification();
+            int oldValue = IntArrayList.this.elementData[offset + index];
+            IntArrayList.this.elementData[offset + index] = e;
+            return oldValue;
+        }
+
+        public boolean add(int e) {
+            add(this.size, e);
+            return true;
+        }
+
+        public void add(int index, int e) {
+            rangeCheckForAdd(index);
+            checkForComodification();
+            IntArrayList.this.add(offset + index, e);
+            updateSizeAndModCount(1);
+        }
+
+        public int remove(int index) {
+            rangeCheck(index);
+            checkForComodification();
+            int result = IntArrayList.this.remove(offset + index);
+            updateSizeAndModCount(-1);
+            return result;
+        }
+
+        public boolean addAll(int[] a) {
+            return addAll(this.size, a);
+        }
+
+        public boolean addAll(int index, int[] a) {
+            rangeCheckForAdd(index);
+            checkForComodification();
+            if (a.length == 0)
+                return false;
+            IntArrayList.this.addAll(offset + index, a);
+            updateSizeAndModCount(a.length);
+            return true;
+        }
+
+        /**
+         * 清空视图，即删除外部列表中对应的元素
+         */
+        public void clear() {
+            checkForComodification();
+            IntArrayList.this.removeRange(offset, offset + size);
+            updateSizeAndModCount(-size);
+        }
+
+        public boolean removeIf(IntPredicate filter) {
+            checkForComodification();
+            int oldSize = IntArrayList.this.size;
+            boolean modified = IntArrayList.this.removeIf(filter, offset, offset + size);
+            if (modified)
+                updateSizeAndModCount(IntArrayList.this.size - oldSize);
+            return modified;
+        }
+
+        public int indexOf(int o) {
+            checkForComodification();
+            int index = indexOfRange(o, offset, offset + size);
+            return index >= 0 ? index - offset : -1;
+        }
+
+        public int lastIndexOf(int o) {
+            checkForComodification();
+            int index = lastIndexOfRange(o, offset, offset + size);
+            return index >= 0 ? index - offset : -1;
+        }
+
+        public boolean contains(int o) {
+            return indexOf(o) >= 0;
+        }
+
+        public int[] toArray() {
+            checkForComodification();
+            return Arrays.copyOfRange(IntArrayList.this.elementData, offset, offset + size);
+        }
+
+        public void forEach(IntConsumer action) {
+            Objects.requireNonNull(action);
+            checkForComodification();
+            int[] es = IntArrayList.this.elementData;
+            for (int i = offset, end = offset + size; i < end; i++)
+                action.accept(es[i]);
+            checkForComodification();
+        }
+
+        /**
+         * 对视图范围内的元素升序排序，不属于结构性修改
+         */
+        public void sort() {
+            checkForComodification();
+            Arrays.sort(IntArrayList.this.elementData, offset, offset + size);
+        }
+
+        public SubList subList(int fromIndex, int toIndex) {
+            subListRangeCheck(fromIndex, toIndex, size);
+            return new SubList(this, offset, fromIndex, toIndex);
+        }
+
+        public Spliterator.OfInt spliterator() {
+            checkForComodification();
+            return new IntArrayListSpliterator(IntArrayList.this, offset,
+                                               offset + this.size, this.modCount);
+        }
+
+        public IntStream stream() {
+            return StreamSupport.intStream(spliterator(), false);
+        }
+
+        public String toString() {
+            checkForComodification();
+            return IntArrayList.toString(IntArrayList.this.elementData, offset, offset + size);
+        }
+
+        private void rangeCheck(int index) {
+            if (index < 0 || index >= this.size)
+                throw new IndexOutOfBoundsException(outOfBoundsMsg(index));
+        }
+
+        private void rangeCheckForAdd(int index) {
+            if (index < 0 || index > this.size)
+                throw new IndexOutOfBoundsException(outOfBoundsMsg(index));
+        }
+
+        private String outOfBoundsMsg(int index) {
+            return "Index: "+index+", Size: "+this.size;
+        }
+
+        private void checkForComodification() {
+            if (IntArrayList.this.modCount != this.modCount)
+                throw new ConcurrentModificationException();
+        }
+
+        /**
+         * 结构性修改后，更新本视图及所有上层视图的size和modCount
+         */
+        private void updateSizeAndModCount(int sizeChange) {
+            SubList slist = this;
+            do {
+                slist.size += sizeChange;
+                slist.modCount = IntArrayList.this.modCount;
+                slist = slist.parent;
+            } while (slist != null);
+        }
+    }
+
+    /**
+     * 对每个元素执行给定的动作
+     */
+    public void forEach(IntConsumer action) {
+        Objects.requireNonNull(action);
+        final int expectedModCount = modCount;
+        final int[] elementData = this.elementData;
+        final int size = this.size;
+        for (int i=0; modCount == expectedModCount && i < size; i++) {
+            action.accept(elementData[i]);
+        }
+        if (modCount != expectedModCount) {
+            throw new ConcurrentModificationException();
+        }
+    }
+
+    /**
+     * 返回延迟绑定的spliterator：第一次遍历、拆分或估算大小时才确定fence和expectedModCount
+     */
+    public Spliterator.OfInt spliterator() {
+        return new IntArrayListSpliterator(this, 0, -1, 0);
+    }
+
+    /**
+     * 返回元素的顺序流，不装箱
+     */
+    public IntStream stream() {
+        return StreamSupport.intStream(spliterator(), false);
+    }
+
+    /**
+     * 返回元素的并行流，不装箱
+     */
+    public IntStream parallelStream() {
+        return StreamSupport.intStream(spliterator(), true);
+    }
+
+    /** Index-based split-by-two, lazily initialized Spliterator */
+    static final class IntArrayListSpliterator implements Spliterator.OfInt {
+
+        //用于存放列表对象
+        private final IntArrayList list;
+        //起始位置（包含），advance/split操作时会修改
+        private int index;
+        //结束位置（不包含），-1 表示到最后一个元素
+        private int fence;
+        //用于存放list的modCount
+        private int expectedModCount;
+
+        /** Create new spliterator covering the given  range */
+        IntArrayListSpliterator(IntArrayList list, int origin, int fence,
+                             int expectedModCount) {
+            this.list = list;
+            this.index = origin;
+            this.fence = fence;
+            this.expectedModCount = expectedModCount;
+        }
+
+        //首次使用时把fence初始化为size
+        private int getFence() {
+            int hi;
+            if ((hi = fence) < 0) {
+                expectedModCount = list.modCount;
+                hi = fence = list.size;
+            }
+            return hi;
+        }
+
+        public IntArrayListSpliterator trySplit() {
+            int hi = getFence(), lo = index, mid = (lo + hi) >>> 1;
+            return (lo >= mid) ? null :
+                new IntArrayListSpliterator(list, lo, index = mid,
+                                            expectedModCount);
+        }
+
+        public boolean tryAdvance(IntConsumer action) {
+            if (action == null)
+                throw new NullPointerException();
+            int hi = getFence(), i = index;
+            if (i < hi) {
+                index = i + 1;
+                action.accept(list.elementData[i]);
+                if (list.modCount != expectedModCount)
+                    throw new ConcurrentModificationException();
+                return true;
+            }
+            return false;
+        }
+
+        public void forEachRemaining(IntConsumer action) {
+            int i, hi, mc; // hoist accesses and checks from loop
+            IntArrayList lst = list; int[] a;
+            if (action == null)
+                throw new NullPointerException();
+            if ((a = lst.elementData) != null) {
+                if ((hi = fence) < 0) {
+                    mc = lst.modCount;
+                    hi = lst.size;
+                }
+                else
+                    mc = expectedModCount;
+                if ((i = index) >= 0 && (index = hi) <= a.length) {
+                    for (; i < hi; ++i)
+                        action.accept(a[i]);
+                    if (lst.modCount == mc)
+                        return;
+                }
+            }
+            throw new ConcurrentModificationException();
+        }
+
+        public long estimateSize() {
+            return (long) (getFence() - index);
+        }
+
+        public int characteristics() {
+            return Spliterator.ORDERED | Spliterator.SIZED | Spliterator.SUBSIZED;
+        }
+    }
+
+    /**
+     * 删除满足条件的元素，存在被删除的元素时返回true
+     *
+     * @throws NullPointerException 如果filter为null
+     */
+    public boolean removeIf(IntPredicate filter) {
+        return removeIf(filter, 0, size);
+    }
+
+    /**
+     * 删除下标[from, to)中满足条件的元素。先用BitSet记下要删除的下标，
+     * filter抛出异常时列表保持不变；再把保留的元素前移
+     */
+    boolean removeIf(IntPredicate filter, int from, int to) {
+        Objects.requireNonNull(filter);
+        int removeCount = 0;
+        final BitSet removeSet = new BitSet(to - from);
+        final int expectedModCount = modCount;
+        final int[] es = elementData;
+        for (int i = from; modCount == expectedModCount && i < to; i++) {
+            if (filter.test(es[i])) {
+                removeSet.set(i - from);
+                removeCount++;
+            }
+        }
+        if (modCount != expectedModCount) {
+            throw new ConcurrentModificationException();
+        }
+
+        final boolean anyToRemove = removeCount > 0;
+        if (anyToRemove) {
+            for (int i = 0, j = from, n = to - from; i < n; i++) {
+                if (!removeSet.get(i))
+                    es[j++] = es[from + i];
+            }
+            System.arraycopy(es, to, es, to - removeCount, size - to);
+            size -= removeCount;
+            modCount++;
+        }
+
+        return anyToRemove;
+    }
+
+    /**
+     * 用operator的结果替换每个元素
+     */
+    public void replaceAll(IntUnaryOperator operator) {
+        Objects.requireNonNull(operator);
+        final int expectedModCount = modCount;
+        final int size = this.size;
+        for (int i=0; modCount == expectedModCount && i < size; i++) {
+            elementData[i] = operator.applyAsInt(elementData[i]);
+        }
+        if (modCount != expectedModCount) {
+            throw new ConcurrentModificationException();
+        }
+        modCount++;
+    }
+
+    /**
+     * 升序排序
+     */
+    public void sort() {
+        final int expectedModCount = modCount;
+        Arrays.sort(elementData, 0, size);
+        if (modCount != expectedModCount) {
+            throw new ConcurrentModificationException();
+        }
+        modCount++;
+    }
+}
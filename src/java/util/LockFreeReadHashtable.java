@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2017, Oracle and/or its affiliates. All rights reserved.
+ * ORACLE PROPRIETARY/CONFIDENTIAL. Use is subject to license terms.
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ */
+
+package java.util;
+
+/**
+ * 读操作不加锁的Hashtable，可直接替换读多写少场景下的Hashtable。
+ * get、getOrDefault、containsKey、size、isEmpty不再获取对象监视器，
+ * 而是通过volatile的table引用和有序发布的Entry链表读取；
+ * put、remove、rehash等写操作仍然和Hashtable一样在this上同步，写写之间互斥不变。
+ *
+ * <p>与Hashtable的区别：
+ * <ul>
+ * <li>读操作不加锁，因此读到的是某个写操作完成前后的结果，不能再通过
+ * synchronized(table)把读和写组合成原子操作；需要这种组合时请使用
+ * putIfAbsent、replace、compute等方法。</li>
+ * <li>rehash时拷贝全部Entry而不是原地重排链表，扩容的开销略大。
+ * 扩容前创建的keys()、elements()枚举继续遍历旧数组，看到的是扩容时刻的快照，
+ * 而不会像Hashtable那样漏掉或重复元素。</li>
+ * <li>entrySet迭代器返回的Map.Entry是迭代时刻键值对的拷贝，其setValue通过put写回本表，
+ * 因此即使该key已被删除，也会被重新加入。</li>
+ * </ul>
+ *
+ * @param <K> the type of keys maintained by this map
+ * @param <V> the type of mapped values
+ * @see Hashtable
+ * @see java.util.concurrent.ConcurrentHashMap
+ */
+public class LockFreeReadHashtable<K,V> extends Hashtable<K,V> {
+
+    private static final long serialVersionUID = -3479386206455361421L;
+
+    /**
+     * 指定容量大小和加载因子的构造函数
+     *
+     * @param initialCapacity 容量大小
+     * @param loadFactor      负载因子
+     * @throws IllegalArgumentException if the initial capacity is less
+     *                                  than zero, or if the load factor is nonpositive.
+     */
+    public LockFreeReadHashtable(int initialCapacity, float loadFactor) {
+        super(initialCapacity, loadFactor);
+    }
+
+    /**
+     * 指定容量大小的构造函数
+     *
+     * @param     initialCapacity   the initial capacity of the hashtable.
+     * @exception IllegalArgumentException if the initial capacity is less
+     *              than zero.
+     */
+    public LockFreeReadHashtable(int initialCapacity) {
+        super(initialCapacity);
+    }
+
+    /**
+     * 默认构造函数,指定的容量大小是11；负载因子是0.75
+     */
+    public LockFreeReadHashtable() {
+        super();
+    }
+
+    /**
+     * 包含子Map的构造函数
+     *
+     * @param t the map whose mappings are to be placed in this map.
+     * @throws NullPointerException if the specified map is null.
+     */
+    public LockFreeReadHashtable(Map<? extends K, ? extends V> t) {
+        super(t);
+    }
+
+    @Override
+    boolean lockFreeReads() {
+        return true;
+    }
+
+    /**
+     * 返回容量大小，不加锁
+     *
+     * @return  the number of keys in this hashtable.
+     */
+    @Override
+    public int size() {
+        return countLockFree();
+    }
+
+    /**
+     * 判空，不加锁
+     *
+     * @return  <code>true</code> if this hashtable maps no keys to values;
+     *          <code>false</code> otherwise.
+     */
+    @Override
+    public boolean isEmpty() {
+        return countLockFree() == 0;
+    }
+
+    /**
+     * 判断是否包含key键值对象，不加锁
+     *
+     * @param   key   possible key
+     * @return  <code>true</code> if and only if the specified object
+     *          is a key in this hashtable, as determined by the
+     *          <tt>equals</tt> method; <code>false</code> otherwise.
+     * @throws  NullPointerException  if the key is <code>null</code>
+     */
+    @Override
+    public boolean containsKey(Object key) {
+        return containsKeyLockFree(key);
+    }
+
+    /**
+     * 根据指定key查找对应value，不加锁
+     *
+     * @param key the key whose associated value is to be returned
+     * @return the value to which the specified key is mapped, or
+     *         {@code null} if this map contains no mapping for the key
+     * @throws NullPointerException if the specified key is null
+     */
+    @Override
+    public V get(Object key) {
+        return getLockFree(key);
+    }
+
+    @Override
+    public V getOrDefault(Object key, V defaultValue) {
+        V result = getLockFree(key);
+        return (null == result) ? defaultValue : result;
+    }
+}
@@ -0,0 +1,669 @@
+/*
+ * Copyright (c) 1997, 2017, Oracle and/or its affiliates. All rights reserved.
+ * ORACLE PROPRIETARY/CONFIDENTIAL. Use is subject to license terms.
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ */
+
+package java.util;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.Serializable;
+import java.util.function.LongFunction;
+import sun.misc.SharedSecrets;
+
+/**
+ * 以基本类型long为key的哈希表，是HashMap在"long -> Object"场景下的开放寻址版本。
+ * HashMap中每个键值对都是一个Node对象，key还要装箱成Long，一个条目大约占48字节，
+ * 而且getNode()每次都要沿着Node的引用跳转。LongObjectHashMap把key放在long[]中，
+ * value放在平行的Object[]中，插入时不分配任何对象，GC也不需要扫描大量Node。
+ * 1.容量规则与HashMap相同：容量总是2的幂，由HashMap.tableSizeFor()计算，扩容阈值 = 容量 * 加载因子。
+ * 2.hash沿用HashMap.hash()的高16位异或低16位，只是先把long折叠成int并乘以黄金分割常数，
+ *   因为线性探测对聚集非常敏感，连续的id不能直接落在连续的槽位上。
+ * 3.冲突用线性探测解决，删除时采用"向后移位"(backward shift)，不留墓碑，探测链始终是紧凑的。
+ * 4.value不允许为null，value为null的槽位就是空槽，因此任何long值(包括0)都可以作为key。
+ * 与HashMap一样，LongObjectHashMap不是线程安全的，遍历时被结构性修改会抛出ConcurrentModificationException。
+ *
+ * @param <V> the type of mapped values
+ *
+ * @see     HashMap
+ * @see     IntObjectHashMap
+ */
+public class LongObjectHashMap<V> implements Cloneable, Serializable {
+
+    private static final long serialVersionUID = -4352876547212412085L;
+
+    /* ---------------- 类常量 -------------- */
+
+    /**
+     * 默认初始容量16，必须是2的幂
+     */
+    static final int DEFAULT_INITIAL_CAPACITY = 1 << 4;
+
+    /**
+     * 最大容量，与HashMap相同
+     */
+    static final int MAXIMUM_CAPACITY = HashMap.MAXIMUM_CAPACITY;
+
+    /**
+     * 默认加载因子0.5。开放寻址的探测长度随装填率急剧上升，不能像HashMap那样用0.75
+     */
+    static final float DEFAULT_LOAD_FACTOR = 0.5f;
+
+    /**
+     * 允许的最大加载因子，表中至少要留一个空槽，探测才能终止
+     */
+    static final float MAXIMUM_LOAD_FACTOR = 0.9f;
+
+    /**
+     * 用于打散key的黄金分割常数 2^32 / phi
+     */
+    private static final int HASH_MULTIPLIER = 0x9E3779B9;
+
+    /* ---------------- 静态工具 -------------- */
+
+    /**
+     * 计算long类型key的hash:
+     * 1.高32位异或低32位，与Long.hashCode()相同
+     * 2.乘以黄金分割常数，打散连续的key
+     * 3.与HashMap.hash()相同，高16位异或低16位
+     */
+    static int hash(long key) {
+        int h = (int)(key ^ (key >>> 32)) * HASH_MULTIPLIER;
+        return h ^ (h >>> 16);
+    }
+
+    /* ---------------- 实例变量 -------------- */
+
+    /**
+     * key数组，长度始终是2的幂，首次使用时初始化
+     */
+    transient long[] keys;
+
+    /**
+     * value数组，与keys一一对应，null表示空槽
+     */
+    transient Object[] vals;
+
+    /**
+     * 实际存储的键值对个数
+     */
+    transient int size;
+
+    /**
+     * 结构被修改的次数，fail-fast机制
+     */
+    transient int modCount;
+
+    /**
+     * 扩容阈值，键值对个数超过这个值时容量翻倍。
+     * 表还没有分配时，保存的是初始容量
+     * @serial
+     */
+    int threshold;
+
+    /**
+     * 加载因子
+     * @serial
+     */
+    final float loadFactor;
+
+    /* ---------------- 公共操作 -------------- */
+
+    /**
+     * 使用指定的初始容量和加载因子构造一个空的LongObjectHashMap
+     *
+     * @param  initialCapacity the initial capacity
+     * @param  loadFactor      the load factor
+     * @throws IllegalArgumentException if the initial capacity is negative
+     *         or the load factor is not in the range (0, 0.9]
+     */
+    public LongObjectHashMap(int initialCapacity, float loadFactor) {
+        if (initialCapacity < 0)
+            throw new IllegalArgumentException("Illegal initial capacity: " +
+                                               initialCapacity);
+        if (initialCapacity > MAXIMUM_CAPACITY)
+            initialCapacity = MAXIMUM_CAPACITY;
+        if (!(loadFactor > 0) || loadFactor > MAXIMUM_LOAD_FACTOR)
+            throw new IllegalArgumentException("Illegal load factor: " +
+                                               loadFactor);
+        this.loadFactor = loadFactor;
+        // 与HashMap一样，在第一次put之前threshold暂存初始容量
+        this.threshold = HashMap.tableSizeFor(initialCapacity);
+    }
+
+    /**
+     * 使用指定的初始容量和默认加载因子(0.5)构造一个空的LongObjectHashMap
+     *
+     * @param  initialCapacity the initial capacity.
+     * @throws IllegalArgumentException if the initial capacity is negative.
+     */
+    public LongObjectHashMap(int initialCapacity) {
+        this(initialCapacity, DEFAULT_LOAD_FACTOR);
+    }
+
+    /**
+     * 使用默认初始容量(16)和默认加载因子(0.5)构造一个空的LongObjectHashMap
+     */
+    public LongObjectHashMap() {
+        this.loadFactor = DEFAULT_LOAD_FACTOR;
+    }
+
+    /**
+     * 返回键值对的个数
+     * @return the number of key-value mappings in this map
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 没有键值对时返回true
+     * @return <tt>true</tt> if this map contains no key-value mappings
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * 返回key对应的value，不存在时返回null
+     *
+     * @param key the key whose associated value is to be returned
+     * @return the value to which the specified key is mapped, or
+     *         {@code null} if this map contains no mapping for the key
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        int i = indexOf(key);
+        return (i < 0) ? null : (V)vals[i];
+    }
+
+    /**
+     * 返回key对应的value，不存在时返回defaultValue
+     *
+     * @param key the key whose associated value is to be returned
+     * @param defaultValue the default mapping of the key
+     * @return the value to which the specified key is mapped, or
+     *         {@code defaultValue} if this map contains no mapping for the key
+     */
+    @SuppressWarnings("unchecked")
+    public V getOrDefault(long key, V defaultValue) {
+        int i = indexOf(key);
+        return (i < 0) ? defaultValue : (V)vals[i];
+    }
+
+    /**
+     * 如果包含指定的key，返回true
+     *
+     * @param key The key whose presence in this map is to be tested
+     * @return <tt>true</tt> if this map contains a mapping for the specified key
+     */
+    public boolean containsKey(long key) {
+        return indexOf(key) >= 0;
+    }
+
+    /**
+     * 查找key所在的槽位，不存在时返回-1
+     * 从hash对应的槽位开始线性探测，遇到空槽即可断定key不存在
+     */
+    final int indexOf(long key) {
+        Object[] vt; int n;
+        if ((vt = vals) != null && (n = vt.length) > 0) {
+            long[] kt = keys;
+            int mask = n - 1;
+            for (int i = hash(key) & mask; vt[i] != null; i = (i + 1) & mask) {
+                if (kt[i] == key)
+                    return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 将key和value关联起来，如果key已经存在，则替换旧value
+     *
+     * @param key key with which the specified value is to be associated
+     * @param value value to be associated with the specified key
+     * @return the previous value associated with <tt>key</tt>, or
+     *         <tt>null</tt> if there was no mapping for <tt>key</tt>
+     * @throws NullPointerException if the value is null
+     */
+    public V put(long key, V value) {
+        return putVal(key, value, false);
+    }
+
+    /**
+     * key不存在时才插入
+     *
+     * @param key key with which the specified value is to be associated
+     * @param value value to be associated with the specified key
+     * @return the current value associated with <tt>key</tt>, or
+     *         <tt>null</tt> if there was no mapping for <tt>key</tt>
+     * @throws NullPointerException if the value is null
+     */
+    public V putIfAbsent(long key, V value) {
+        return putVal(key, value, true);
+    }
+
+    /**
+     * 插入键值对
+     * 1.表为空时先初始化
+     * 2.线性探测，找到相同的key则替换value(onlyIfAbsent为true时不替换)
+     * 3.遇到空槽则在该槽位插入，插入后超过阈值时扩容
+     */
+    @SuppressWarnings("unchecked")
+    final V putVal(long key, V value, boolean onlyIfAbsent) {
+        if (value == null)
+            throw new NullPointerException();
+        Object[] vt; int n;
+        if ((vt = vals) == null || (n = vt.length) == 0)
+            n = (vt = resize()).length;
+        long[] kt = keys;
+        int mask = n - 1;
+        int i = hash(key) & mask;
+        for (Object v; (v = vt[i]) != null; i = (i + 1) & mask) {
+            if (kt[i] == key) {
+                if (!onlyIfAbsent)
+                    vt[i] = value;
+                return (V)v;
+            }
+        }
+        kt[i] = key;
+        vt[i] = value;
+        ++modCount;
+        if (++size > threshold)
+            resize();
+        return null;
+    }
+
+    /**
+     * key不存在时，用mappingFunction计算value并插入；计算结果为null时不插入
+     *
+     * @param key key with which the specified value is to be associated
+     * @param mappingFunction the function to compute a value
+     * @return the current (existing or computed) value associated with
+     *         the specified key, or null if the computed value is null
+     * @throws ConcurrentModificationException if it is detected that the
+     *         mapping function modified this map
+     */
+    @SuppressWarnings("unchecked")
+    public V computeIfAbsent(long key,
+                             LongFunction<? extends V> mappingFunction) {
+        if (mappingFunction == null)
+            throw new NullPointerException();
+        int i = indexOf(key);
+        if (i >= 0)
+            return (V)vals[i];
+        int mc = modCount;
+        V v = mappingFunction.apply(key);
+        if (mc != modCount)
+            throw new ConcurrentModificationException();
+        if (v != null)
+            putVal(key, v, false);
+        return v;
+    }
+
+    /**
+     * 删除key对应的键值对
+     *
+     * @param  key key whose mapping is to be removed from the map
+     * @return the previous value associated with <tt>key</tt>, or
+     *         <tt>null</tt> if there was no mapping for <tt>key</tt>
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        int i = indexOf(key);
+        if (i < 0)
+            return null;
+        V oldValue = (V)vals[i];
+        removeAt(i);
+        return oldValue;
+    }
+
+    /**
+     * 只有key当前映射到value时才删除
+     *
+     * @param key key with which the specified value is associated
+     * @param value value expected to be associated with the specified key
+     * @return {@code true} if the value was removed
+     */
+    public boolean remove(long key, Object value) {
+        int i = indexOf(key);
+        if (i < 0 || !Objects.equals(vals[i], value))
+            return false;
+        removeAt(i);
+        return true;
+    }
+
+    /**
+     * 删除槽位i上的键值对，并把后面同一探测链上的元素向前移动(backward shift)，
+     * 使得任何key都能从它的理想槽位开始不间断地探测到。
+     * 槽位j上的元素理想槽位为k，若k在循环区间(i, j]内，说明它不需要越过i，保持不动；
+     * 否则把它移动到i，再以j作为新的空洞继续处理。
+     */
+    final void removeAt(int i) {
+        long[] kt = keys;
+        Object[] vt = vals;
+        int mask = vt.length - 1;
+        for (int j = i;;) {
+            j = (j + 1) & mask;
+            if (vt[j] == null)
+                break;
+            int k = hash(kt[j]) & mask;
+            if ((i <= j) ? (i < k && k <= j) : (i < k || k <= j))
+                continue;
+            kt[i] = kt[j];
+            vt[i] = vt[j];
+            i = j;
+        }
+        kt[i] = 0L;
+        vt[i] = null;
+        ++modCount;
+        --size;
+    }
+
+    /**
+     * 清空所有键值对，保留已分配的数组
+     */
+    public void clear() {
+        Object[] vt;
+        modCount++;
+        if ((vt = vals) != null && size > 0) {
+            size = 0;
+            Arrays.fill(vt, null);
+            Arrays.fill(keys, 0L);
+        }
+    }
+
+    /**
+     * 如果有一个或多个key映射到指定value，返回true
+     *
+     * @param value value whose presence in this map is to be tested
+     * @return <tt>true</tt> if this map maps one or more keys to the
+     *         specified value
+     */
+    public boolean containsValue(Object value) {
+        Object[] vt;
+        if (value != null && (vt = vals) != null && size > 0) {
+            for (Object v : vt) {
+                if (v != null && (v == value || value.equals(v)))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 以数组形式返回所有key，顺序与遍历顺序相同
+     *
+     * @return a newly allocated array of the keys in this map
+     */
+    public long[] keys() {
+        long[] result = new long[size];
+        Object[] vt;
+        if ((vt = vals) != null && size > 0) {
+            long[] kt = keys;
+            int k = 0;
+            for (int i = 0; i < vt.length; ++i) {
+                if (vt[i] != null)
+                    result[k++] = kt[i];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 对每个键值对执行action，key以long的形式传入，不会装箱
+     *
+     * @param action The action to be performed for each entry
+     * @throws ConcurrentModificationException if the map is structurally
+     *         modified during the traversal
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(LongObjConsumer<? super V> action) {
+        Object[] vt;
+        if (action == null)
+            throw new NullPointerException();
+        if (size > 0 && (vt = vals) != null) {
+            long[] kt = keys;
+            int mc = modCount;
+            for (int i = 0; i < vt.length; ++i) {
+                Object v;
+                if ((v = vt[i]) != null)
+                    action.accept(kt[i], (V)v);
+            }
+            if (modCount != mc)
+                throw new ConcurrentModificationException();
+        }
+    }
+
+    /**
+     * 接收一个long类型key和一个对象类型value的操作，forEach使用
+     *
+     * @param <V> the type of the value argument
+     */
+    @FunctionalInterface
+    public interface LongObjConsumer<V> {
+        /**
+         * Performs this operation on the given arguments.
+         *
+         * @param key the key
+         * @param value the value
+         */
+        void accept(long key, V value);
+    }
+
+    /**
+     * 初始化或扩容(容量翻倍)
+     * 开放寻址没有HashMap那样的lo/hi链表拆分，所有元素都要按新的掩码重新探测插入
+     */
+    final Object[] resize() {
+        Object[] oldVals = vals;
+        long[] oldKeys = keys;
+        int oldCap = (oldVals == null) ? 0 : oldVals.length;
+        int oldThr = threshold;
+        int newCap;
+        if (oldCap > 0) {
+            if (oldCap >= MAXIMUM_CAPACITY) {
+                // 开放寻址不能超过容量，最多只能填到剩一个空槽
+                if (size >= MAXIMUM_CAPACITY - 1)
+                    throw new IllegalStateException("LongObjectHashMap is full");
+                threshold = MAXIMUM_CAPACITY - 2;
+                return oldVals;
+            }
+            newCap = oldCap << 1;
+        }
+        else if (oldThr > 0) // 初始容量存放在threshold中
+            newCap = oldThr;
+        else
+            newCap = DEFAULT_INITIAL_CAPACITY;
+        float ft = (float)newCap * loadFactor;
+        int newThr = (int)ft;
+        threshold = (newCap < MAXIMUM_CAPACITY && newThr < newCap) ?
+            newThr : MAXIMUM_CAPACITY - 2;
+        long[] newKeys = new long[newCap];
+        Object[] newVals = new Object[newCap];
+        keys = newKeys;
+        vals = newVals;
+        if (oldVals != null) {
+            int mask = newCap - 1;
+            for (int j = 0; j < oldCap; ++j) {
+                Object v;
+                if ((v = oldVals[j]) != null) {
+                    long k = oldKeys[j];
+                    int i = hash(k) & mask;
+                    while (newVals[i] != null)
+                        i = (i + 1) & mask;
+                    newKeys[i] = k;
+                    newVals[i] = v;
+                }
+            }
+        }
+        return newVals;
+    }
+
+    /**
+     * 浅拷贝，key和value本身不会被复制
+     *
+     * @return a shallow copy of this map
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public LongObjectHashMap<V> clone() {
+        LongObjectHashMap<V> result;
+        try {
+            result = (LongObjectHashMap<V>)super.clone();
+        } catch (CloneNotSupportedException e) {
+            // this shouldn't happen, since we are Cloneable
+            throw new InternalError(e);
+        }
+        // 数组直接复制，不需要重新探测
+        if (vals != null) {
+            result.keys = keys.clone();
+            result.vals = vals.clone();
+        }
+        result.modCount = 0;
+        return result;
+    }
+
+    /**
+     * 两个map包含完全相同的键值对时相等
+     */
+    public boolean equals(Object o) {
+        if (o == this)
+            return true;
+        if (!(o instanceof LongObjectHashMap))
+            return false;
+        LongObjectHashMap<?> m = (LongObjectHashMap<?>)o;
+        if (m.size != size)
+            return false;
+        Object[] vt;
+        if ((vt = vals) != null) {
+            long[] kt = keys;
+            for (int i = 0; i < vt.length; ++i) {
+                Object v;
+                if ((v = vt[i]) != null && !v.equals(m.get(kt[i])))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 与HashMap相同，所有条目hashCode之和，每个条目为 Long.hashCode(key) ^ value.hashCode()
+     */
+    public int hashCode() {
+        int h = 0;
+        Object[] vt;
+        if ((vt = vals) != null) {
+            long[] kt = keys;
+            for (int i = 0; i < vt.length; ++i) {
+                Object v;
+                if ((v = vt[i]) != null)
+                    h += Long.hashCode(kt[i]) ^ v.hashCode();
+            }
+        }
+        return h;
+    }
+
+    public String toString() {
+        if (size == 0)
+            return "{}";
+        StringBuilder sb = new StringBuilder();
+        sb.append('{');
+        Object[] vt = vals;
+        long[] kt = keys;
+        boolean first = true;
+        for (int i = 0; i < vt.length; ++i) {
+            Object v;
+            if ((v = vt[i]) != null) {
+                if (!first)
+                    sb.append(',').append(' ');
+                first = false;
+                sb.append(kt[i]).append('=').append(v == this ? "(this Map)" : v);
+            }
+        }
+        return sb.append('}').toString();
+    }
+
+    /**
+     * 序列化：先写出容量和键值对个数，再依次写出每个key和value
+     *
+     * @serialData The <i>capacity</i> of the LongObjectHashMap (the length of
+     *             the key array) is emitted (int), followed by the
+     *             <i>size</i> (an int, the number of key-value
+     *             mappings), followed by the key (long) and value (Object)
+     *             for each key-value mapping.
+     */
+    private void writeObject(java.io.ObjectOutputStream s)
+        throws IOException {
+        Object[] vt = vals;
+        int capacity = (vt != null) ? vt.length :
+            (threshold > 0) ? threshold : DEFAULT_INITIAL_CAPACITY;
+        s.defaultWriteObject();
+        s.writeInt(capacity);
+        s.writeInt(size);
+        if (vt != null) {
+            long[] kt = keys;
+            for (int i = 0; i < vt.length; ++i) {
+                Object v;
+                if ((v = vt[i]) != null) {
+                    s.writeLong(kt[i]);
+                    s.writeObject(v);
+                }
+            }
+        }
+    }
+
+    /**
+     * 反序列化：按键值对个数和加载因子重新计算容量后逐个插入
+     */
+    @SuppressWarnings("unchecked")
+    private void readObject(java.io.ObjectInputStream s)
+        throws IOException, ClassNotFoundException {
+        s.defaultReadObject();
+        if (!(loadFactor > 0) || loadFactor > MAXIMUM_LOAD_FACTOR)
+            throw new InvalidObjectException("Illegal load factor: " +
+                                             loadFactor);
+        s.readInt();                // 读出并忽略容量
+        int mappings = s.readInt();
+        if (mappings < 0)
+            throw new InvalidObjectException("Illegal mappings count: " +
+                                             mappings);
+        keys = null;
+        vals = null;
+        size = 0;
+        float fc = (float)mappings / loadFactor + 1.0f;
+        int cap = ((fc < DEFAULT_INITIAL_CAPACITY) ?
+                   DEFAULT_INITIAL_CAPACITY :
+                   (fc >= MAXIMUM_CAPACITY) ?
+                   MAXIMUM_CAPACITY :
+                   HashMap.tableSizeFor((int)fc));
+        SharedSecrets.getJavaOISAccess().checkArray(s, Object[].class, cap);
+        threshold = cap;
+        for (int i = 0; i < mappings; i++) {
+            long key = s.readLong();
+            V value = (V) s.readObject();
+            putVal(key, value, false);
+        }
+    }
+}
@@ -0,0 +1,1893 @@
+/*
+ * Copyright (c) 2017, Oracle and/or its affiliates. All rights reserved.
+ * ORACLE PROPRIETARY/CONFIDENTIAL. Use is subject to license terms.
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ */
+
+package java.util;
+
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * A sorted map built on a persistent binary search tree: entries are
+ * never modified once created, and every update copies the O(log n)
+ * entries on the path to the changed key and publishes a new root.
+ * The map is sorted according to the {@linkplain Comparable natural
+ * ordering} of its keys, or by a {@link Comparator} provided at map
+ * creation time, with the same semantics as {@link TreeMap}.
+ *
+ * <p>Every read operation works on the root it reads at its start, so
+ * it sees a consistent version of the map without locking, even while
+ * another thread updates the map.  In particular, the iterators of the
+ * collection views of this map and of its sub-maps traverse the
+ * version of the map current when the iterator was created.  They
+ * never throw {@link ConcurrentModificationException}, and do not
+ * reflect later updates.  Their {@code remove} method removes the key
+ * from the current version of the map.  {@link #clone} and {@link
+ * #snapshot} take constant time, sharing all entries with this map.
+ *
+ * <p>Each update of a single key, including {@code putIfAbsent}, {@code
+ * replace}, the two-argument {@code remove}, and the {@code compute}
+ * and {@code merge} methods, is published atomically by a
+ * compare-and-set of the root, retrying if another update intervened,
+ * so concurrent writers need no external synchronization.  {@code
+ * replaceAll} publishes all of its new values in one version.
+ * Remapping functions may therefore be applied more than once, and
+ * should be free of side effects.  {@code putAll} is performed as a
+ * series of single-key updates and is not atomic as a whole.
+ *
+ * <p>The tree is kept balanced by subtree sizes, which also make the
+ * {@code size} of a sub-map take log(n) time.  Lookups and updates
+ * take log(n) time.  The entries returned by this class's methods and
+ * by its iterators are the immutable tree entries themselves and do
+ * not support {@code setValue}.  This map permits {@code null} values,
+ * and permits a {@code null} key only if its comparator does.
+ *
+ * @param <K> the type of keys maintained by this map
+ * @param <V> the type of mapped values
+ *
+ * @see TreeMap
+ */
+public class SnapshotTreeMap<K,V>
+    extends AbstractMap<K,V>
+    implements NavigableMap<K,V>, Cloneable, java.io.Serializable
+{
+    /*
+     * Overview:
+     *
+     * The tree is a weight-balanced tree as used by Adams' functional
+     * sets: every node records the size of its subtree, and neither
+     * subtree of a node may hold more than DELTA times as many entries
+     * as the other (unless they hold at most one entry together).
+     * Insertion and deletion rebuild the path to the key bottom-up,
+     * restoring balance at each node with a single or double rotation
+     * chosen by RATIO; (DELTA, RATIO) = (3, 2) is the parameter pair
+     * shown by Straka to be correct for these operations.  Compared to
+     * a red-black tree, rebalancing needs no colors and no look-ahead,
+     * which keeps the path-copying code to a few small recursions, and
+     * the sizes give rank queries and constant-time size() for free.
+     *
+     * Nodes have no parent links, so iterators keep an explicit stack
+     * of the nodes whose keys are yet to be returned.
+     */
+
+    private static final long serialVersionUID = -4215739127830461325L;
+
+    /** Balance parameters; see Overview */
+    private static final int DELTA = 3;
+    private static final int RATIO = 2;
+
+    /** Relations for findNear */
+    private static final int EQ = 1;
+    private static final int LT = 2;
+    private static final int GT = 0; // Actually checked as !LT
+
+    /**
+     * The comparator used to maintain order in this map, or
+     * null if it uses the natural ordering of its keys.
+     *
+     * @serial
+     */
+    private final Comparator<? super K> comparator;
+
+    /**
+     * The current version of the tree.  Updated only by casRoot, or
+     * by plain writes before the map is shared.
+     */
+    private transient volatile Node<K,V> root;
+
+    /**
+     * Constructs a new, empty map, using the natural ordering of its
+     * keys.  All keys inserted into the map must implement the {@link
+     * Comparable} interface, as for {@link TreeMap#TreeMap()}.
+     */
+    public SnapshotTreeMap() {
+        comparator = null;
+    }
+
+    /**
+     * Constructs a new, empty map, ordered according to the given
+     * comparator.
+     *
+     * @param comparator the comparator that will be used to order this map.
+     *        If {@code null}, the {@linkplain Comparable natural
+     *        ordering} of the keys will be used.
+     */
+    public SnapshotTreeMap(Comparator<? super K> comparator) {
+        this.comparator = comparator;
+    }
+
+    /**
+     * Constructs a new map containing the same mappings as the given
+     * map, ordered according to the <em>natural ordering</em> of its
+     * keys.
+     *
+     * @param  m the map whose mappings are to be placed in this map
+     * @throws ClassCastException if the keys in m are not {@link Comparable},
+     *         or are not mutually comparable
+     * @throws NullPointerException if the specified map is null
+     */
+    public SnapshotTreeMap(Map<? extends K, ? extends V> m) {
+        comparator = null;
+        putAll(m);
+    }
+
+    /**
+     * Constructs a new map containing the same mappings and using the
+     * same ordering as the specified sorted map.  This method runs in
+     * linear time.
+     *
+     * @param  m the sorted map whose mappings are to be placed in this map,
+     *         and whose comparator is to be used to sort this map
+     * @throws NullPointerException if the specified map is null
+     */
+    public SnapshotTreeMap(SortedMap<K, ? extends V> m) {
+        comparator = m.comparator();
+        try {
+            root = buildFromSorted(0, m.size() - 1, m.entrySet().iterator(), null);
+        } catch (java.io.IOException cannotHappen) {
+        } catch (ClassNotFoundException cannotHappen) {
+        }
+    }
+
+    /**
+     * An immutable tree node.  Nodes are exported directly as map
+     * entries.
+     */
+    static final class Node<K,V> implements Map.Entry<K,V> {
+        final K key;
+        final V value;
+        final Node<K,V> left, right;
+        final int size;
+
+        Node(K key, V value, Node<K,V> left, Node<K,V> right) {
+            this.key = key;
+            this.value = value;
+            this.left = left;
+            this.right = right;
+            this.size = sizeOf(left) + sizeOf(right) + 1;
+        }
+
+        public K getKey() {
+            return key;
+        }
+
+        public V getValue() {
+            return value;
+        }
+
+        /**
+         * Unsupported, since nodes are shared between versions of the map;
+         * values are updated by the map's own methods, such as replaceAll.
+         *
+         * @throws UnsupportedOperationException always
+         */
+        public V setValue(V value) {
+            throw new UnsupportedOperationException();
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry))
+                return false;
+            Map.Entry<?,?> e = (Map.Entry<?,?>)o;
+            return valEquals(key,e.getKey()) && valEquals(value,e.getValue());
+        }
+
+        public int hashCode() {
+            int keyHash = (key==null ? 0 : key.hashCode());
+            int valueHash = (value==null ? 0 : value.hashCode());
+            return keyHash ^ valueHash;
+        }
+
+        public String toString() {
+            return key + "=" + value;
+        }
+    }
+
+    static <K,V> int sizeOf(Node<K,V> p) {
+        return (p == null) ? 0 : p.size;
+    }
+
+    // Query Operations
+
+    /**
+     * Returns the number of key-value mappings in this map.  This takes
+     * constant time.
+     *
+     * @return the number of key-value mappings in this map
+     */
+    public int size() {
+        return sizeOf(root);
+    }
+
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+    /**
+     * Returns {@code true} if this map contains a mapping for the specified
+     * key.
+     *
+     * @param key key whose presence in this map is to be tested
+     * @return {@code true} if this map contains a mapping for the
+     *         specified key
+     * @throws ClassCastException if the specified key cannot be compared
+     *         with the keys currently in the map
+     * @throws NullPointerException if the specified key is null
+     *         and this map uses natural ordering, or its comparator
+     *         does not permit null keys
+     */
+    public boolean containsKey(Object key) {
+        return getNode(root, key) != null;
+    }
+
+    /**
+     * Returns the value to which the specified key is mapped,
+     * or {@code null} if this map contains no mapping for the key.
+     *
+     * @throws ClassCastException if the specified key cannot be compared
+     *         with the keys currently in the map
+     * @throws NullPointerException if the specified key is null
+     *         and this map uses natural ordering, or its comparator
+     *         does not permit null keys
+     */
+    public V get(Object key) {
+        Node<K,V> p = getNode(root, key);
+        return (p==null ? null : p.value);
+    }
+
+    public Comparator<? super K> comparator() {
+        return comparator;
+    }
+
+    /**
+     * @throws NoSuchElementException {@inheritDoc}
+     */
+    public K firstKey() {
+        return key(lowest(root));
+    }
+
+    /**
+     * @throws NoSuchElementException {@inheritDoc}
+     */
+    public K lastKey() {
+        return key(highest(root));
+    }
+
+    /**
+     * Returns an unmodifiable view of the current version of this map,
+     * which is not affected by later updates of this map.  This takes
+     * constant time.
+     *
+     * @return a snapshot of this map
+     */
+    @SuppressWarnings("unchecked")
+    public NavigableMap<K,V> snapshot() {
+        return Collections.unmodifiableNavigableMap((SnapshotTreeMap<K,V>)clone());
+    }
+
+    // Search
+
+    /**
+     * Returns the node for the given key in tree t, or null if absent.
+     */
+    @SuppressWarnings("unchecked")
+    final Node<K,V> getNode(Node<K,V> t, Object key) {
+        Comparator<? super K> cpr = comparator;
+        if (cpr != null) {
+            K k = (K) key;
+            while (t != null) {
+                int cmp = cpr.compare(k, t.key);
+                if (cmp < 0)
+                    t = t.left;
+                else if (cmp > 0)
+                    t = t.right;
+                else
+                    return t;
+            }
+        } else {
+            if (key == null)
+                throw new NullPointerException();
+            Comparable<? super K> k = (Comparable<? super K>) key;
+            while (t != null) {
+                int cmp = k.compareTo(t.key);
+                if (cmp < 0)
+                    t = t.left;
+                else if (cmp > 0)
+                    t = t.right;
+                else
+                    return t;
+            }
+        }
+        return null;
+    }
+
+    static <K,V> Node<K,V> lowest(Node<K,V> t) {
+        if (t != null)
+            while (t.left != null)
+                t = t.left;
+        return t;
+    }
+
+    static <K,V> Node<K,V> highest(Node<K,V> t) {
+        if (t != null)
+            while (t.right != null)
+                t = t.right;
+        return t;
+    }
+
+    /**
+     * Returns the node of tree t whose key is nearest to the given key
+     * in the given relation: LT for lower, LT|EQ for floor, GT for
+     * higher and GT|EQ for ceiling; or null if there is none.
+     */
+    final Node<K,V> findNear(Node<K,V> t, Object key, int rel) {
+        Node<K,V> best = null;
+        while (t != null) {
+            int cmp = compare(key, t.key);
+            if (cmp == 0 && (rel & EQ) != 0)
+                return t;
+            if ((rel & LT) == 0) {
+                if (cmp < 0) {
+                    best = t;
+                    t = t.left;
+                } else
+                    t = t.right;
+            } else {
+                if (cmp > 0) {
+                    best = t;
+                    t = t.right;
+                } else
+                    t = t.left;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns the number of keys of tree t less than the given key, or
+     * less than or equal to it if inclusive.
+     */
+    final int countBelow(Node<K,V> t, Object key, boolean inclusive) {
+        int n = 0;
+        while (t != null) {
+            int cmp = compare(key, t.key);
+            if (cmp < 0)
+                t = t.left;
+            else if (cmp > 0) {
+                n += sizeOf(t.left) + 1;
+                t = t.right;
+            }
+            else
+                return n + sizeOf(t.left) + (inclusive ? 1 : 0);
+        }
+        return n;
+    }
+
+    // Path copying
+
+    /**
+     * Returns a copy of tree t with the given mapping, keeping the
+     * existing key if present, as TreeMap.put does.
+     */
+    final Node<K,V> insert(Node<K,V> t, K key, V value) {
+        if (t == null)
+            return new Node<>(key, value, null, null);
+        int cmp = compare(key, t.key);
+        if (cmp < 0)
+            return balance(t.key, t.value, insert(t.left, key, value), t.right);
+        else if (cmp > 0)
+            return balance(t.key, t.value, t.left, insert(t.right, key, value));
+        else
+            return new Node<>(t.key, value, t.left, t.right);
+    }
+
+    /**
+     * Returns a copy of tree t without the given key, which must be
+     * present.
+     */
+    final Node<K,V> delete(Node<K,V> t, Object key) {
+        int cmp = compare(key, t.key);
+        if (cmp < 0)
+            return balance(t.key, t.value, delete(t.left, key), t.right);
+        else if (cmp > 0)
+            return balance(t.key, t.value, t.left, delete(t.right, key));
+        else
+            return glue(t.left, t.right);
+    }
+
+    /**
+     * Joins the subtrees of a deleted node, which were balanced with
+     * each other, replacing it by the neighbor taken from the larger.
+     */
+    static <K,V> Node<K,V> glue(Node<K,V> l, Node<K,V> r) {
+        if (l == null)
+            return r;
+        if (r == null)
+            return l;
+        if (l.size > r.size) {
+            Node<K,V> m = highest(l);
+            return balance(m.key, m.value, deleteHighest(l), r);
+        } else {
+            Node<K,V> m = lowest(r);
+            return balance(m.key, m.value, l, deleteLowest(r));
+        }
+    }
+
+    static <K,V> Node<K,V> deleteLowest(Node<K,V> t) {
+        return (t.left == null) ? t.right :
+            balance(t.key, t.value, deleteLowest(t.left), t.right);
+    }
+
+    static <K,V> Node<K,V> deleteHighest(Node<K,V> t) {
+        return (t.right == null) ? t.left :
+            balance(t.key, t.value, t.left, deleteHighest(t.right));
+    }
+
+    /**
+     * Creates a node from subtrees l and r, which were balanced before
+     * one of them gained or lost one entry, rotating if needed.
+     */
+    static <K,V> Node<K,V> balance(K key, V value, Node<K,V> l, Node<K,V> r) {
+        int sl = sizeOf(l), sr = sizeOf(r);
+        if (sl + sr > 1) {
+            if (sr > DELTA * sl) {
+                Node<K,V> rl = r.left, rr = r.right;
+                if (sizeOf(rl) < RATIO * sizeOf(rr))
+                    return new Node<>(r.key, r.value,
+                                      new Node<>(key, value, l, rl), rr);
+                return new Node<>(rl.key, rl.value,
+                                  new Node<>(key, value, l, rl.left),
+                                  new Node<>(r.key, r.value, rl.right, rr));
+            }
+            if (sl > DELTA * sr) {
+                Node<K,V> ll = l.left, lr = l.right;
+                if (sizeOf(lr) < RATIO * sizeOf(ll))
+                    return new Node<>(l.key, l.value,
+                                      ll, new Node<>(key, value, lr, r));
+                return new Node<>(lr.key, lr.value,
+                                  new Node<>(l.key, l.value, ll, lr.left),
+                                  new Node<>(key, value, lr.right, r));
+            }
+        }
+        return new Node<>(key, value, l, r);
+    }
+
+    // Modification Operations
+
+    /**
+     * Associates the specified value with the specified key in this map.
+     * If the map previously contained a mapping for the key, the old
+     * value is replaced.
+     *
+     * @param key key with which the specified value is to be associated
+     * @param value value to be associated with the specified key
+     *
+     * @return the previous value associated with {@code key}, or
+     *         {@code null} if there was no mapping for {@code key}.
+     *         (A {@code null} return can also indicate that the map
+     *         previously associated {@code null} with {@code key}.)
+     * @throws ClassCastException if the specified key cannot be compared
+     *         with the keys currently in the map
+     * @throws NullPointerException if the specified key is null
+     *         and this map uses natural ordering, or its comparator
+     *         does not permit null keys
+     */
+    public V put(K key, V value) {
+        compare(key, key); // type (and possibly null) check
+        for (;;) {
+            Node<K,V> r = root;
+            Node<K,V> p = getNode(r, key);
+            if (p != null && p.value == value)
+                return value;
+            if (casRoot(r, insert(r, key, value)))
+                return (p == null) ? null : p.value;
+        }
+    }
+
+    /**
+     * Removes the mapping for this key from this map if present.
+     *
+     * @param  key key for which mapping should be removed
+     * @return the previous value associated with {@code key}, or
+     *         {@code null} if there was no mapping for {@code key}.
+     *         (A {@code null} return can also indicate that the map
+     *         previously associated {@code null} with {@code key}.)
+     * @throws ClassCastException if the specified key cannot be compared
+     *         with the keys currently in the map
+     * @throws NullPointerException if the specified key is null
+     *         and this map uses natural ordering, or its comparator
+     *         does not permit null keys
+     */
+    public V remove(Object key) {
+        for (;;) {
+            Node<K,V> r = root;
+            Node<K,V> p = getNode(r, key);
+            if (p == null)
+                return null;
+            if (casRoot(r, delete(r, key)))
+                return p.value;
+        }
+    }
+
+    /**
+     * {@inheritDoc}  This is performed atomically.
+     *
+     * @throws ClassCastException {@inheritDoc}
+     * @throws NullPointerException if the specified key is null
+     *         and this map uses natural ordering, or its comparator
+     *         does not permit null keys
+     */
+    @Override
+    public V putIfAbsent(K key, V value) {
+        compare(key, key); // type (and possibly null) check
+        for (;;) {
+            Node<K,V> r = root;
+            Node<K,V> p = getNode(r, key);
+            if (p != null)
+                return p.value;
+            if (casRoot(r, insert(r, key, value)))
+                return null;
+        }
+    }
+
+    /**
+     * {@inheritDoc}  This is performed atomically.
+     *
+     * @throws ClassCastException {@inheritDoc}
+     * @throws NullPointerException if the specified key is null
+     *         and this map uses natural ordering, or its comparator
+     *         does not permit null keys
+     */
+    @Override
+    public boolean remove(Object key, Object value) {
+        for (;;) {
+            Node<K,V> r = root;
+            Node<K,V> p = getNode(r, key);
+            if (p == null || !valEquals(p.value, value))
+                return false;
+            if (casRoot(r, delete(r, key)))
+                return true;
+        }
+    }
+
+    /**
+     * {@inheritDoc}  This is performed atomically.
+     *
+     * @throws ClassCastException {@inheritDoc}
+     * @throws NullPointerException if the specified key is null
+     *         and this map uses natural ordering, or its comparator
+     *         does not permit null keys
+     */
+    @Override
+    public boolean replace(K key, V oldValue, V newValue) {
+        for (;;) {
+            Node<K,V> r = root;
+            Node<K,V> p = getNode(r, key);
+            if (p == null || !valEquals(p.value, oldValue))
+                return false;
+            if (casRoot(r, insert(r, key, newValue)))
+                return true;
+        }
+    }
+
+    /**
+     * {@inheritDoc}  This is performed atomically.
+     *
+     * @throws ClassCastException {@inheritDoc}
+     * @throws NullPointerException if the specified key is null
+     *         and this map uses natural ordering, or its comparator
+     *         does not permit null keys
+     */
+    @Override
+    public V replace(K key, V value) {
+        for (;;) {
+            Node<K,V> r = root;
+            Node<K,V> p = getNode(r, key);
+            if (p == null)
+                return null;
+            if (casRoot(r, insert(r, key, value)))
+                return p.value;
+        }
+    }
+
+    /**
+     * {@inheritDoc}  This is performed atomically, and the mapping
+     * function is applied at most once.
+     *
+     * @throws ClassCastException {@inheritDoc}
+     * @throws NullPointerException if the specified key is null
+     *         and this map uses natural ordering, or its comparator
+     *         does not permit null keys, or the mapping function is null
+     */
+    @Override
+    public V computeIfAbsent(K key,
+                             Function<? super K, ? extends V> mappingFunction) {
+        if (mappingFunction == null)
+            throw new NullPointerException();
+        compare(key, key); // type (and possibly null) check
+        V value = null;
+        boolean computed = false;
+        for (;;) {
+            Node<K,V> r = root;
+            Node<K,V> p = getNode(r, key);
+            if (p != null && p.value != null)
+                return p.value;
+            if (!computed) {
+                computed = true;
+                if ((value = mappingFunction.apply(key)) == null)
+                    return null;
+            }
+            if (casRoot(r, insert(r, key, value)))
+                return value;
+        }
+    }
+
+    /**
+     * {@inheritDoc}  This is performed atomically.  If another update
+     * of this map intervenes, the remapping function is applied again
+     * to the new current value.
+     *
+     * @throws ClassCastException {@inheritDoc}
+     * @throws NullPointerException if the specified key is null
+     *         and this map uses natural ordering, or its comparator
+     *         does not permit null keys, or the remapping function is null
+     */
+    @Override
+    public V computeIfPresent(K key,
+                              BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        if (remappingFunction == null)
+            throw new NullPointerException();
+        for (;;) {
+            Node<K,V> r = root;
+            Node<K,V> p = getNode(r, key);
+            if (p == null || p.value == null)
+                return null;
+            V value = remappingFunction.apply(key, p.value);
+            if (casRoot(r, (value == null) ? delete(r, key) : insert(r, key, value)))
+                return value;
+        }
+    }
+
+    /**
+     * {@inheritDoc}  This is performed atomically.  If another update
+     * of this map intervenes, the remapping function is applied again
+     * to the new current value.
+     *
+     * @throws ClassCastException {@inheritDoc}
+     * @throws NullPointerException if the specified key is null
+     *         and this map uses natural ordering, or its comparator
+     *         does not permit null keys, or the remapping function is null
+     */
+    @Override
+    public V compute(K key,
+                     BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        if (remappingFunction == null)
+            throw new NullPointerException();
+        compare(key, key); // type (and possibly null) check
+        for (;;) {
+            Node<K,V> r = root;
+            Node<K,V> p = getNode(r, key);
+            V value = remappingFunction.apply(key, (p == null) ? null : p.value);
+            if (value == null) {
+                if (p == null || casRoot(r, delete(r, key)))
+                    return null;
+            }
+            else if (casRoot(r, insert(r, key, value)))
+                return value;
+        }
+    }
+
+    /**
+     * {@inheritDoc}  This is performed atomically.  If another update
+     * of this map intervenes, the remapping function is applied again
+     * to the new current value.
+     *
+     * @throws ClassCastException {@inheritDoc}
+     * @throws NullPointerException if the specified key is null
+     *         and this map uses natural ordering, or its comparator
+     *         does not permit null keys, or the value or remapping
+     *         function is null
+     */
+    @Override
+    public V merge(K key, V value,
+                   BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        if (value == null || remappingFunction == null)
+            throw new NullPointerException();
+        compare(key, key); // type (and possibly null) check
+        for (;;) {
+            Node<K,V> r = root;
+            Node<K,V> p = getNode(r, key);
+            V newValue = (p == null || p.value == null) ? value :
+                remappingFunction.apply(p.value, value);
+            if (casRoot(r, (newValue == null) ? delete(r, key) :
+                        insert(r, key, newValue)))
+                return newValue;
+        }
+    }
+
+    /**
+     * {@inheritDoc}  The new values are published atomically, in one
+     * new version of the map; if the function throws an exception, the
+     * map is left unchanged.  If another update of this map intervenes,
+     * the function is applied again to all entries of the new version.
+     *
+     * @throws NullPointerException if the function is null
+     */
+    @Override
+    public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function) {
+        if (function == null)
+            throw new NullPointerException();
+        for (;;) {
+            Node<K,V> r = root;
+            if (r == null || casRoot(r, replaceValues(r, function, null, false)))
+                return;
+        }
+    }
+
+    /**
+     * Returns a copy of tree t, of the same shape, in which the value
+     * of each key within the bounds of range, if non-null, is replaced
+     * by the result of the function, applied in ascending or descending
+     * key order.  Subtrees wholly outside the range are shared.
+     */
+    static <K,V> Node<K,V> replaceValues(Node<K,V> t,
+                                         BiFunction<? super K, ? super V, ? extends V> function,
+                                         SubMap<K,V> range, boolean descending) {
+        if (t == null)
+            return null;
+        boolean low = range != null && range.tooLow(t.key);
+        boolean high = range != null && range.tooHigh(t.key);
+        Node<K,V> l = t.left, r = t.right;
+        if (descending && !high)
+            r = replaceValues(r, function, range, true);
+        else if (!descending && !low)
+            l = replaceValues(l, function, range, false);
+        V value = (low || high) ? t.value : function.apply(t.key, t.value);
+        if (descending && !low)
+            l = replaceValues(l, function, range, true);
+        else if (!descending && !high)
+            r = replaceValues(r, function, range, false);
+        return new Node<>(t.key, value, l, r);
+    }
+
+    /**
+     * Copies all of the mappings from the specified map to this map.
+     * If this map is empty and the specified map is a sorted map with
+     * the same ordering, the tree is built in linear time and published
+     * at once; otherwise each mapping is put separately.
+     *
+     * @param  map mappings to be stored in this map
+     * @throws ClassCastException if the class of a key or value in
+     *         the specified map prevents it from being stored in this map
+     * @throws NullPointerException if the specified map is null or
+     *         the specified map contains a null key and this map does not
+     *         permit null keys
+     */
+    public void putAll(Map<? extends K, ? extends V> map) {
+        int mapSize = map.size();
+        if (root == null && mapSize != 0 && map instanceof SortedMap) {
+            Comparator<?> c = ((SortedMap<?,?>)map).comparator();
+            if (c == comparator || (c != null && c.equals(comparator))) {
+                Node<K,V> t = null;
+                try {
+                    t = buildFromSorted(0, mapSize - 1, map.entrySet().iterator(), null);
+                } catch (java.io.IOException cannotHappen) {
+                } catch (ClassNotFoundException cannotHappen) {
+                }
+                if (casRoot(null, t))
+                    return;
+            }
+        }
+        super.putAll(map);
+    }
+
+    /**
+     * Removes all of the mappings from this map.
+     * The map will be empty after this call returns.
+     */
+    public void clear() {
+        root = null;
+    }
+
+    /**
+     * Returns a shallow copy of this {@code SnapshotTreeMap} instance,
+     * sharing the entries of the current version of this map.  This
+     * takes constant time.  (The keys and values themselves are not
+     * cloned.)
+     *
+     * @return a shallow copy of this map
+     */
+    public Object clone() {
+        SnapshotTreeMap<?,?> clone;
+        try {
+            clone = (SnapshotTreeMap<?,?>) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new InternalError(e);
+        }
+        clone.entrySet = null;
+        clone.navigableKeySet = null;
+        clone.descendingMap = null;
+        return clone;
+    }
+
+    // NavigableMap API methods
+
+    public Map.Entry<K,V> firstEntry() {
+        return lowest(root);
+    }
+
+    public Map.Entry<K,V> lastEntry() {
+        return highest(root);
+    }
+
+    public Map.Entry<K,V> pollFirstEntry() {
+        for (;;) {
+            Node<K,V> r = root;
+            Node<K,V> p = lowest(r);
+            if (p == null || casRoot(r, deleteLowest(r)))
+                return p;
+        }
+    }
+
+    public Map.Entry<K,V> pollLastEntry() {
+        for (;;) {
+            Node<K,V> r = root;
+            Node<K,V> p = highest(r);
+            if (p == null || casRoot(r, deleteHighest(r)))
+                return p;
+        }
+    }
+
+    /**
+     * @throws ClassCastException {@inheritDoc}
+     * @throws NullPointerException if the specified key is null
+     *         and this map uses natural ordering, or its comparator
+     *         does not permit null keys
+     */
+    public Map.Entry<K,V> lowerEntry(K key) {
+        return findNear(root, key, LT);
+    }
+
+    /**
+     * @throws ClassCastException {@inheritDoc}
+     * @throws NullPointerException if the specified key is null
+     *         and this map uses natural ordering, or its comparator
+     *         does not permit null keys
+     */
+    public K lowerKey(K key) {
+        return keyOrNull(findNear(root, key, LT));
+    }
+
+    /**
+     * @throws ClassCastException {@inheritDoc}
+     * @throws NullPointerException if the specified key is null
+     *         and this map uses natural ordering, or its comparator
+     *         does not permit null keys
+     */
+    public Map.Entry<K,V> floorEntry(K key) {
+        return findNear(root, key, LT|EQ);
+    }
+
+    /**
+     * @throws ClassCastException {@inheritDoc}
+     * @throws NullPointerException if the specified key is null
+     *         and this map uses natural ordering, or its comparator
+     *         does not permit null keys
+     */
+    public K floorKey(K key) {
+        return keyOrNull(findNear(root, key, LT|EQ));
+    }
+
+    /**
+     * @throws ClassCastException {@inheritDoc}
+     * @throws NullPointerException if the specified key is null
+     *         and this map uses natural ordering, or its comparator
+     *         does not permit null keys
+     */
+    public Map.Entry<K,V> ceilingEntry(K key) {
+        return findNear(root, key, GT|EQ);
+    }
+
+    /**
+     * @throws ClassCastException {@inheritDoc}
+     * @throws NullPointerException if the specified key is null
+     *         and this map uses natural ordering, or its comparator
+     *         does not permit null keys
+     */
+    public K ceilingKey(K key) {
+        return keyOrNull(findNear(root, key, GT|EQ));
+    }
+
+    /**
+     * @throws ClassCastException {@inheritDoc}
+     * @throws NullPointerException if the specified key is null
+     *         and this map uses natural ordering, or its comparator
+     *         does not permit null keys
+     */
+    public Map.Entry<K,V> higherEntry(K key) {
+        return findNear(root, key, GT);
+    }
+
+    /**
+     * @throws ClassCastException {@inheritDoc}
+     * @throws NullPointerException if the specified key is null
+     *         and this map uses natural ordering, or its comparator
+     *         does not permit null keys
+     */
+    public K higherKey(K key) {
+        return keyOrNull(findNear(root, key, GT));
+    }
+
+    // Views
+
+    /**
+     * Fields initialized to contain an instance of the entry set view
+     * the first time this view is requested.  Views are stateless, so
+     * there's no reason to create more than one.
+     */
+    private transient EntrySet entrySet;
+    private transient KeySet<K> navigableKeySet;
+    private transient NavigableMap<K,V> descendingMap;
+
+    /**
+     * Returns a {@link Set} view of the keys contained in this map, in
+     * ascending order.  The set is backed by the map; its iterators
+     * traverse the version of the map current when they are created.
+     */
+    public Set<K> keySet() {
+        return navigableKeySet();
+    }
+
+    public NavigableSet<K> navigableKeySet() {
+        KeySet<K> nks = navigableKeySet;
+        return (nks != null) ? nks : (navigableKeySet = new KeySet<>(this));
+    }
+
+    public NavigableSet<K> descendingKeySet() {
+        return descendingMap().navigableKeySet();
+    }
+
+    /**
+     * Returns a {@link Collection} view of the values contained in this
+     * map, in ascending order of the corresponding keys.  The collection
+     * is backed by the map; its iterators traverse the version of the
+     * map current when they are created.
+     */
+    public Collection<V> values() {
+        Collection<V> vs = values;
+        if (vs == null) {
+            vs = new Values();
+            values = vs;
+        }
+        return vs;
+    }
+
+    /**
+     * Returns a {@link Set} view of the mappings contained in this map,
+     * in ascending key order.  The set is backed by the map; its
+     * iterators traverse the version of the map current when they are
+     * created, and return immutable entries.
+     */
+    public Set<Map.Entry<K,V>> entrySet() {
+        EntrySet es = entrySet;
+        return (es != null) ? es : (entrySet = new EntrySet());
+    }
+
+    public NavigableMap<K, V> descendingMap() {
+        NavigableMap<K, V> km = descendingMap;
+        return (km != null) ? km :
+            (descendingMap = new SubMap<>(this,
+                                          true, null, true,
+                                          true, null, true, true));
+    }
+
+    /**
+     * @throws ClassCastException       {@inheritDoc}
+     * @throws NullPointerException if {@code fromKey} or {@code toKey} is
+     *         null and this map uses natural ordering, or its comparator
+     *         does not permit null keys
+     * @throws IllegalArgumentException {@inheritDoc}
+     */
+    public NavigableMap<K,V> subMap(K fromKey, boolean fromInclusive,
+                                    K toKey,   boolean toInclusive) {
+        return new SubMap<>(this,
+                            false, fromKey, fromInclusive,
+                            false, toKey,   toInclusive, false);
+    }
+
+    /**
+     * @throws ClassCastException       {@inheritDoc}
+     * @throws NullPointerException if {@code toKey} is null
+     *         and this map uses natural ordering, or its comparator
+     *         does not permit null keys
+     * @throws IllegalArgumentException {@inheritDoc}
+     */
+    public NavigableMap<K,V> headMap(K toKey, boolean inclusive) {
+        return new SubMap<>(this,
+                            true,  null,  true,
+                            false, toKey, inclusive, false);
+    }
+
+    /**
+     * @throws ClassCastException       {@inheritDoc}
+     * @throws NullPointerException if {@code fromKey} is null
+     *         and this map uses natural ordering, or its comparator
+     *         does not permit null keys
+     * @throws IllegalArgumentException {@inheritDoc}
+     */
+    public NavigableMap<K,V> tailMap(K fromKey, boolean inclusive) {
+        return new SubMap<>(this,
+                            false, fromKey, inclusive,
+                            true,  null,    true, false);
+    }
+
+    /**
+     * @throws ClassCastException       {@inheritDoc}
+     * @throws NullPointerException if {@code fromKey} or {@code toKey} is
+     *         null and this map uses natural ordering, or its comparator
+     *         does not permit null keys
+     * @throws IllegalArgumentException {@inheritDoc}
+     */
+    public SortedMap<K,V> subMap(K fromKey, K toKey) {
+        return subMap(fromKey, true, toKey, false);
+    }
+
+    /**
+     * @throws ClassCastException       {@inheritDoc}
+     * @throws NullPointerException if {@code toKey} is null
+     *         and this map uses natural ordering, or its comparator
+     *         does not permit null keys
+     * @throws IllegalArgumentException {@inheritDoc}
+     */
+    public SortedMap<K,V> headMap(K toKey) {
+        return headMap(toKey, false);
+    }
+
+    /**
+     * @throws ClassCastException       {@inheritDoc}
+     * @throws NullPointerException if {@code fromKey} is null
+     *         and this map uses natural ordering, or its comparator
+     *         does not permit null keys
+     * @throws IllegalArgumentException {@inheritDoc}
+     */
+    public SortedMap<K,V> tailMap(K fromKey) {
+        return tailMap(fromKey, true);
+    }
+
+    // View class support
+
+    class Values extends AbstractCollection<V> {
+        public Iterator<V> iterator() {
+            return new ValueIterator(root, false, null);
+        }
+
+        public int size() {
+            return SnapshotTreeMap.this.size();
+        }
+
+        public boolean isEmpty() {
+            return SnapshotTreeMap.this.isEmpty();
+        }
+
+        public void clear() {
+            SnapshotTreeMap.this.clear();
+        }
+    }
+
+    class EntrySet extends AbstractSet<Map.Entry<K,V>> {
+        public Iterator<Map.Entry<K,V>> iterator() {
+            return new EntryIterator(root, false, null);
+        }
+
+        public boolean contains(Object o) {
+            if (!(o instanceof Map.Entry))
+                return false;
+            Map.Entry<?,?> entry = (Map.Entry<?,?>) o;
+            Node<K,V> p = getNode(root, entry.getKey());
+            return p != null && valEquals(p.value, entry.getValue());
+        }
+
+        public boolean remove(Object o) {
+            if (!(o instanceof Map.Entry))
+                return false;
+            Map.Entry<?,?> entry = (Map.Entry<?,?>) o;
+            return SnapshotTreeMap.this.remove(entry.getKey(), entry.getValue());
+        }
+
+        public int size() {
+            return SnapshotTreeMap.this.size();
+        }
+
+        public boolean isEmpty() {
+            return SnapshotTreeMap.this.isEmpty();
+        }
+
+        public void clear() {
+            SnapshotTreeMap.this.clear();
+        }
+    }
+
+    /*
+     * As in TreeMap, the KeySet class is static, delegating to a
+     * NavigableMap to allow use by SubMaps, with type-tests for the
+     * iterator methods defined in main versus submap classes.
+     */
+
+    Iterator<K> keyIterator() {
+        return new KeyIterator(root, false, null);
+    }
+
+    Iterator<K> descendingKeyIterator() {
+        return new KeyIterator(root, true, null);
+    }
+
+    static final class KeySet<E> extends AbstractSet<E> implements NavigableSet<E> {
+        private final NavigableMap<E, ?> m;
+        KeySet(NavigableMap<E,?> map) { m = map; }
+
+        public Iterator<E> iterator() {
+            if (m instanceof SnapshotTreeMap)
+                return ((SnapshotTreeMap<E,?>)m).keyIterator();
+            else
+                return ((SubMap<E,?>)m).keyIterator();
+        }
+
+        public Iterator<E> descendingIterator() {
+            if (m instanceof SnapshotTreeMap)
+                return ((SnapshotTreeMap<E,?>)m).descendingKeyIterator();
+            else
+                return ((SubMap<E,?>)m).descendingKeyIterator();
+        }
+
+        public int size() { return m.size(); }
+        public boolean isEmpty() { return m.isEmpty(); }
+        public boolean contains(Object o) { return m.containsKey(o); }
+        public void clear() { m.clear(); }
+        public E lower(E e) { return m.lowerKey(e); }
+        public E floor(E e) { return m.floorKey(e); }
+        public E ceiling(E e) { return m.ceilingKey(e); }
+        public E higher(E e) { return m.higherKey(e); }
+        public E first() { return m.firstKey(); }
+        public E last() { return m.lastKey(); }
+        public Comparator<? super E> comparator() { return m.comparator(); }
+        public E pollFirst() {
+            Map.Entry<E,?> e = m.pollFirstEntry();
+            return (e == null) ? null : e.getKey();
+        }
+        public E pollLast() {
+            Map.Entry<E,?> e = m.pollLastEntry();
+            return (e == null) ? null : e.getKey();
+        }
+        public boolean remove(Object o) {
+            if (!m.containsKey(o))
+                return false;
+            m.remove(o);
+            return true;
+        }
+        public NavigableSet<E> subSet(E fromElement, boolean fromInclusive,
+                                      E toElement,   boolean toInclusive) {
+            return new KeySet<>(m.subMap(fromElement, fromInclusive,
+                                          toElement,   toInclusive));
+        }
+        public NavigableSet<E> headSet(E toElement, boolean inclusive) {
+            return new KeySet<>(m.headMap(toElement, inclusive));
+        }
+        public NavigableSet<E> tailSet(E fromElement, boolean inclusive) {
+            return new KeySet<>(m.tailMap(fromElement, inclusive));
+        }
+        public SortedSet<E> subSet(E fromElement, E toElement) {
+            return subSet(fromElement, true, toElement, false);
+        }
+        public SortedSet<E> headSet(E toElement) {
+            return headSet(toElement, false);
+        }
+        public SortedSet<E> tailSet(E fromElement) {
+            return tailSet(fromElement, true);
+        }
+        public NavigableSet<E> descendingSet() {
+            return new KeySet<>(m.descendingMap());
+        }
+    }
+
+    /**
+     * Base class for SnapshotTreeMap Iterators.  Traverses one version
+     * of the tree in either direction, within the bounds of range if
+     * non-null, using a stack of the nodes whose keys and far subtrees
+     * are yet to be visited.
+     */
+    abstract class PrivateIterator<T> implements Iterator<T> {
+        @SuppressWarnings("unchecked")
+        Node<K,V>[] stack = (Node<K,V>[])new Node<?,?>[16];
+        int depth;
+        Node<K,V> next;
+        Node<K,V> lastReturned;
+        final boolean descending;
+        final SubMap<K,V> range;
+
+        PrivateIterator(Node<K,V> root, boolean descending, SubMap<K,V> range) {
+            this.descending = descending;
+            this.range = range;
+            // push the path to the first node within the starting bound
+            for (Node<K,V> p = root; p != null;) {
+                if (range != null &&
+                    (descending ? range.tooHigh(p.key) : range.tooLow(p.key)))
+                    p = descending ? p.left : p.right;
+                else {
+                    push(p);
+                    p = descending ? p.right : p.left;
+                }
+            }
+            advance();
+        }
+
+        private void push(Node<K,V> p) {
+            if (depth == stack.length)
+                stack = Arrays.copyOf(stack, depth << 1);
+            stack[depth++] = p;
+        }
+
+        private void advance() {
+            if (depth == 0) {
+                next = null;
+                return;
+            }
+            Node<K,V> e = stack[--depth];
+            stack[depth] = null;
+            if (descending) {
+                for (Node<K,V> p = e.left; p != null; p = p.right)
+                    push(p);
+            } else {
+                for (Node<K,V> p = e.right; p != null; p = p.left)
+                    push(p);
+            }
+            if (range != null &&
+                (descending ? range.tooLow(e.key) : range.tooHigh(e.key))) {
+                next = null;
+                depth = 0;
+            } else
+                next = e;
+        }
+
+        public final boolean hasNext() {
+            return next != null;
+        }
+
+        final Node<K,V> nextNode() {
+            Node<K,V> e = next;
+            if (e == null)
+                throw new NoSuchElementException();
+            advance();
+            lastReturned = e;
+            return e;
+        }
+
+        public void remove() {
+            if (lastReturned == null)
+                throw new IllegalStateException();
+            SnapshotTreeMap.this.remove(lastReturned.key);
+            lastReturned = null;
+        }
+    }
+
+    final class EntryIterator extends PrivateIterator<Map.Entry<K,V>> {
+        EntryIterator(Node<K,V> root, boolean descending, SubMap<K,V> range) {
+            super(root, descending, range);
+        }
+        public Map.Entry<K,V> next() {
+            return nextNode();
+        }
+    }
+
+    final class ValueIterator extends PrivateIterator<V> {
+        ValueIterator(Node<K,V> root, boolean descending, SubMap<K,V> range) {
+            super(root, descending, range);
+        }
+        public V next() {
+            return nextNode().value;
+        }
+    }
+
+    final class KeyIterator extends PrivateIterator<K> {
+        KeyIterator(Node<K,V> root, boolean descending, SubMap<K,V> range) {
+            super(root, descending, range);
+        }
+        public K next() {
+            return nextNode().key;
+        }
+    }
+
+    // Little utilities
+
+    /**
+     * Compares two keys using the correct comparison method for this map.
+     */
+    @SuppressWarnings("unchecked")
+    final int compare(Object k1, Object k2) {
+        return comparator==null ? ((Comparable<? super K>)k1).compareTo((K)k2)
+            : comparator.compare((K)k1, (K)k2);
+    }
+
+    /**
+     * Test two values for equality.  Differs from o1.equals(o2) only in
+     * that it copes with {@code null} o1 properly.
+     */
+    static final boolean valEquals(Object o1, Object o2) {
+        return (o1==null ? o2==null : o1.equals(o2));
+    }
+
+    /**
+     * Return key for node, or null if null
+     */
+    static <K,V> K keyOrNull(Node<K,V> e) {
+        return (e == null) ? null : e.key;
+    }
+
+    /**
+     * Returns the key corresponding to the specified node.
+     * @throws NoSuchElementException if the node is null
+     */
+    static <K> K key(Node<K,?> e) {
+        if (e==null)
+            throw new NoSuchElementException();
+        return e.key;
+    }
+
+    // SubMaps
+
+    /**
+     * A bounded and/or descending view of the backing map.  Endpoints
+     * are represented as in TreeMap.NavigableSubMap; descending views
+     * share this class, swapping the absolute lowest and highest
+     * operations in the view's relative methods.  Each operation reads
+     * the root of the backing map once, and works on that version.
+     */
+    static final class SubMap<K,V> extends AbstractMap<K,V>
+        implements NavigableMap<K,V>, java.io.Serializable {
+        private static final long serialVersionUID = 2765629423043303731L;
+
+        /**
+         * The backing map.
+         */
+        final SnapshotTreeMap<K,V> m;
+
+        final K lo, hi;
+        final boolean fromStart, toEnd;
+        final boolean loInclusive, hiInclusive;
+        final boolean descending;
+
+        SubMap(SnapshotTreeMap<K,V> m,
+               boolean fromStart, K lo, boolean loInclusive,
+               boolean toEnd,     K hi, boolean hiInclusive,
+               boolean descending) {
+            if (!fromStart && !toEnd) {
+                if (m.compare(lo, hi) > 0)
+                    throw new IllegalArgumentException("fromKey > toKey");
+            } else {
+                if (!fromStart) // type check
+                    m.compare(lo, lo);
+                if (!toEnd)
+                    m.compare(hi, hi);
+            }
+
+            this.m = m;
+            this.fromStart = fromStart;
+            this.lo = lo;
+            this.loInclusive = loInclusive;
+            this.toEnd = toEnd;
+            this.hi = hi;
+            this.hiInclusive = hiInclusive;
+            this.descending = descending;
+        }
+
+        // internal utilities
+
+        final boolean tooLow(Object key) {
+            if (!fromStart) {
+                int c = m.compare(key, lo);
+                if (c < 0 || (c == 0 && !loInclusive))
+                    return true;
+            }
+            return false;
+        }
+
+        final boolean tooHigh(Object key) {
+            if (!toEnd) {
+                int c = m.compare(key, hi);
+                if (c > 0 || (c == 0 && !hiInclusive))
+                    return true;
+            }
+            return false;
+        }
+
+        final boolean inRange(Object key) {
+            return !tooLow(key) && !tooHigh(key);
+        }
+
+        final boolean inClosedRange(Object key) {
+            return (fromStart || m.compare(key, lo) >= 0)
+                && (toEnd || m.compare(hi, key) >= 0);
+        }
+
+        final boolean inRange(Object key, boolean inclusive) {
+            return inclusive ? inRange(key) : inClosedRange(key);
+        }
+
+        /*
+         * Absolute versions of relation operations, on tree t.
+         */
+
+        final Node<K,V> absLowest(Node<K,V> t) {
+            Node<K,V> e =
+                (fromStart ?  lowest(t) :
+                 m.findNear(t, lo, loInclusive ? GT|EQ : GT));
+            return (e == null || tooHigh(e.key)) ? null : e;
+        }
+
+        final Node<K,V> absHighest(Node<K,V> t) {
+            Node<K,V> e =
+                (toEnd ?  highest(t) :
+                 m.findNear(t, hi, hiInclusive ? LT|EQ : LT));
+            return (e == null || tooLow(e.key)) ? null : e;
+        }
+
+        final Node<K,V> absCeiling(Node<K,V> t, K key) {
+            if (tooLow(key))
+                return absLowest(t);
+            Node<K,V> e = m.findNear(t, key, GT|EQ);
+            return (e == null || tooHigh(e.key)) ? null : e;
+        }
+
+        final Node<K,V> absHigher(Node<K,V> t, K key) {
+            if (tooLow(key))
+                return absLowest(t);
+            Node<K,V> e = m.findNear(t, key, GT);
+            return (e == null || tooHigh(e.key)) ? null : e;
+        }
+
+        final Node<K,V> absFloor(Node<K,V> t, K key) {
+            if (tooHigh(key))
+                return absHighest(t);
+            Node<K,V> e = m.findNear(t, key, LT|EQ);
+            return (e == null || tooLow(e.key)) ? null : e;
+        }
+
+        final Node<K,V> absLower(Node<K,V> t, K key) {
+            if (tooHigh(key))
+                return absHighest(t);
+            Node<K,V> e = m.findNear(t, key, LT);
+            return (e == null || tooLow(e.key)) ? null : e;
+        }
+
+        /*
+         * Relative versions, in the order of this view.
+         */
+
+        final Node<K,V> subLowest(Node<K,V> t) {
+            return descending ? absHighest(t) : absLowest(t);
+        }
+        final Node<K,V> subHighest(Node<K,V> t) {
+            return descending ? absLowest(t) : absHighest(t);
+        }
+        final Node<K,V> subCeiling(Node<K,V> t, K key) {
+            return descending ? absFloor(t, key) : absCeiling(t, key);
+        }
+        final Node<K,V> subHigher(Node<K,V> t, K key) {
+            return descending ? absLower(t, key) : absHigher(t, key);
+        }
+        final Node<K,V> subFloor(Node<K,V> t, K key) {
+            return descending ? absCeiling(t, key) : absFloor(t, key);
+        }
+        final Node<K,V> subLower(Node<K,V> t, K key) {
+            return descending ? absHigher(t, key) : absLower(t, key);
+        }
+
+        Iterator<K> keyIterator() {
+            return m.new KeyIterator(m.root, descending, this);
+        }
+
+        Iterator<K> descendingKeyIterator() {
+            return m.new KeyIterator(m.root, !descending, this);
+        }
+
+        // public methods
+
+        public boolean isEmpty() {
+            return absLowest(m.root) == null;
+        }
+
+        /**
+         * Returns the number of mappings in this view, in log(n) time.
+         */
+        public int size() {
+            Node<K,V> t = m.root;
+            int n = toEnd ? sizeOf(t) : m.countBelow(t, hi, hiInclusive);
+            if (!fromStart)
+                n -= m.countBelow(t, lo, !loInclusive);
+            return (n > 0) ? n : 0; // lo == hi, both exclusive
+        }
+
+        public final boolean containsKey(Object key) {
+            return inRange(key) && m.containsKey(key);
+        }
+
+        public final V put(K key, V value) {
+            if (!inRange(key))
+                throw new IllegalArgumentException("key out of range");
+            return m.put(key, value);
+        }
+
+        public final V get(Object key) {
+            return !inRange(key) ? null :  m.get(key);
+        }
+
+        public final V remove(Object key) {
+            return !inRange(key) ? null : m.remove(key);
+        }
+
+        public final V computeIfAbsent(K key,
+                                       Function<? super K, ? extends V> mappingFunction) {
+            if (!inRange(key))
+                throw new IllegalArgumentException("key out of range");
+            return m.computeIfAbsent(key, mappingFunction);
+        }
+
+        public final V computeIfPresent(K key,
+                                        BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+            if (remappingFunction == null)
+                throw new NullPointerException();
+            return !inRange(key) ? null : m.computeIfPresent(key, remappingFunction);
+        }
+
+        public final V compute(K key,
+                               BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+            if (!inRange(key))
+                throw new IllegalArgumentException("key out of range");
+            return m.compute(key, remappingFunction);
+        }
+
+        public final V merge(K key, V value,
+                             BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+            if (!inRange(key))
+                throw new IllegalArgumentException("key out of range");
+            return m.merge(key, value, remappingFunction);
+        }
+
+        /**
+         * Replaces the values of the keys in this view, in one new
+         * version of the backing map, as SnapshotTreeMap.replaceAll does.
+         */
+        public final void replaceAll(BiFunction<? super K, ? super V, ? extends V> function) {
+            if (function == null)
+                throw new NullPointerException();
+            for (;;) {
+                Node<K,V> t = m.root;
+                if (absLowest(t) == null ||
+                    m.casRoot(t, replaceValues(t, function, this, descending)))
+                    return;
+            }
+        }
+
+        public final Map.Entry<K,V> ceilingEntry(K key) {
+            return subCeiling(m.root, key);
+        }
+
+        public final K ceilingKey(K key) {
+            return keyOrNull(subCeiling(m.root, key));
+        }
+
+        public final Map.Entry<K,V> higherEntry(K key) {
+            return subHigher(m.root, key);
+        }
+
+        public final K higherKey(K key) {
+            return keyOrNull(subHigher(m.root, key));
+        }
+
+        public final Map.Entry<K,V> floorEntry(K key) {
+            return subFloor(m.root, key);
+        }
+
+        public final K floorKey(K key) {
+            return keyOrNull(subFloor(m.root, key));
+        }
+
+        public final Map.Entry<K,V> lowerEntry(K key) {
+            return subLower(m.root, key);
+        }
+
+        public final K lowerKey(K key) {
+            return keyOrNull(subLower(m.root, key));
+        }
+
+        public final K firstKey() {
+            return key(subLowest(m.root));
+        }
+
+        public final K lastKey() {
+            return key(subHighest(m.root));
+        }
+
+        public final Map.Entry<K,V> firstEntry() {
+            return subLowest(m.root);
+        }
+
+        public final Map.Entry<K,V> lastEntry() {
+            return subHighest(m.root);
+        }
+
+        public final Map.Entry<K,V> pollFirstEntry() {
+            for (;;) {
+                Node<K,V> t = m.root;
+                Node<K,V> e = subLowest(t);
+                if (e == null || m.casRoot(t, m.delete(t, e.key)))
+                    return e;
+            }
+        }
+
+        public final Map.Entry<K,V> pollLastEntry() {
+            for (;;) {
+                Node<K,V> t = m.root;
+                Node<K,V> e = subHighest(t);
+                if (e == null || m.casRoot(t, m.delete(t, e.key)))
+                    return e;
+            }
+        }
+
+        public Comparator<? super K> comparator() {
+            return descending ? Collections.reverseOrder(m.comparator()) :
+                m.comparator();
+        }
+
+        // Views
+        transient NavigableMap<K,V> descendingMapView;
+        transient EntrySetView entrySetView;
+        transient KeySet<K> navigableKeySetView;
+
+        public final NavigableSet<K> navigableKeySet() {
+            KeySet<K> nksv = navigableKeySetView;
+            return (nksv != null) ? nksv :
+                (navigableKeySetView = new SnapshotTreeMap.KeySet<>(this));
+        }
+
+        public final Set<K> keySet() {
+            return navigableKeySet();
+        }
+
+        public NavigableSet<K> descendingKeySet() {
+            return descendingMap().navigableKeySet();
+        }
+
+        public Set<Map.Entry<K,V>> entrySet() {
+            EntrySetView es = entrySetView;
+            return (es != null) ? es : (entrySetView = new EntrySetView());
+        }
+
+        public NavigableMap<K,V> descendingMap() {
+            NavigableMap<K,V> mv = descendingMapView;
+            return (mv != null) ? mv :
+                (descendingMapView =
+                 new SubMap<>(m,
+                              fromStart, lo, loInclusive,
+                              toEnd,     hi, hiInclusive, !descending));
+        }
+
+        public NavigableMap<K,V> subMap(K fromKey, boolean fromInclusive,
+                                        K toKey,   boolean toInclusive) {
+            if (!inRange(fromKey, fromInclusive))
+                throw new IllegalArgumentException("fromKey out of range");
+            if (!inRange(toKey, toInclusive))
+                throw new IllegalArgumentException("toKey out of range");
+            if (descending)
+                return new SubMap<>(m,
+                                    false, toKey,   toInclusive,
+                                    false, fromKey, fromInclusive, true);
+            return new SubMap<>(m,
+                                false, fromKey, fromInclusive,
+                                false, toKey,   toInclusive, false);
+        }
+
+        public NavigableMap<K,V> headMap(K toKey, boolean inclusive) {
+            if (!inRange(toKey, inclusive))
+                throw new IllegalArgumentException("toKey out of range");
+            if (descending)
+                return new SubMap<>(m,
+                                    false, toKey, inclusive,
+                                    toEnd, hi,    hiInclusive, true);
+            return new SubMap<>(m,
+                                fromStart, lo,    loInclusive,
+                                false,     toKey, inclusive, false);
+        }
+
+        public NavigableMap<K,V> tailMap(K fromKey, boolean inclusive) {
+            if (!inRange(fromKey, inclusive))
+                throw new IllegalArgumentException("fromKey out of range");
+            if (descending)
+                return new SubMap<>(m,
+                                    fromStart, lo,      loInclusive,
+                                    false,     fromKey, inclusive, true);
+            return new SubMap<>(m,
+                                false, fromKey, inclusive,
+                                toEnd, hi,      hiInclusive, false);
+        }
+
+        public final SortedMap<K,V> subMap(K fromKey, K toKey) {
+            return subMap(fromKey, true, toKey, false);
+        }
+
+        public final SortedMap<K,V> headMap(K toKey) {
+            return headMap(toKey, false);
+        }
+
+        public final SortedMap<K,V> tailMap(K fromKey) {
+            return tailMap(fromKey, true);
+        }
+
+        final class EntrySetView extends AbstractSet<Map.Entry<K,V>> {
+            public int size() {
+                return SubMap.this.size();
+            }
+
+            public boolean isEmpty() {
+                return SubMap.this.isEmpty();
+            }
+
+            public boolean contains(Object o) {
+                if (!(o instanceof Map.Entry))
+                    return false;
+                Map.Entry<?,?> entry = (Map.Entry<?,?>) o;
+                Object key = entry.getKey();
+                if (!inRange(key))
+                    return false;
+                Node<K,V> p = m.getNode(m.root, key);
+                return p != null && valEquals(p.value, entry.getValue());
+            }
+
+            public boolean remove(Object o) {
+                if (!(o instanceof Map.Entry))
+                    return false;
+                Map.Entry<?,?> entry = (Map.Entry<?,?>) o;
+                Object key = entry.getKey();
+                return inRange(key) && m.remove(key, entry.getValue());
+            }
+
+            public Iterator<Map.Entry<K,V>> iterator() {
+                return m.new EntryIterator(m.root, descending, SubMap.this);
+            }
+        }
+    }
+
+    /**
+     * Save the state of the {@code SnapshotTreeMap} instance to a stream
+     * (i.e., serialize it).  The current version of the map is written.
+     *
+     * @serialData The <em>size</em> of the map (the number of key-value
+     *             mappings) is emitted (int), followed by the key (Object)
+     *             and value (Object) for each key-value mapping represented
+     *             by the map. The key-value mappings are emitted in
+     *             key-order (as determined by the map's Comparator,
+     *             or by the keys' natural ordering if the map has no
+     *             Comparator).
+     */
+    private void writeObject(java.io.ObjectOutputStream s)
+        throws java.io.IOException {
+        // Write out the Comparator and any hidden stuff
+        s.defaultWriteObject();
+
+        Node<K,V> t = root;
+
+        // Write out size (number of Mappings)
+        s.writeInt(sizeOf(t));
+
+        // Write out keys and values (alternating)
+        for (Iterator<Map.Entry<K,V>> i = new EntryIterator(t, false, null);
+             i.hasNext(); ) {
+            Map.Entry<K,V> e = i.next();
+            s.writeObject(e.getKey());
+            s.writeObject(e.getValue());
+        }
+    }
+
+    /**
+     * Reconstitute the {@code SnapshotTreeMap} instance from a stream
+     * (i.e., deserialize it).
+     */
+    private void readObject(final java.io.ObjectInputStream s)
+        throws java.io.IOException, ClassNotFoundException {
+        // Read in the Comparator and any hidden stuff
+        s.defaultReadObject();
+
+        // Read in size
+        int size = s.readInt();
+
+        root = buildFromSorted(0, size - 1, null, s);
+    }
+
+    /**
+     * Linear time tree building algorithm from sorted data, reading
+     * the mappings with indices lo to hi from either an iterator of
+     * Map.Entries or a stream of alternating serialized keys and
+     * values, as TreeMap.buildFromSorted does.  Since nodes are
+     * immutable, each node is created after its left subtree and
+     * before its right subtree is built, with the middle mapping read
+     * between the two.  The result is perfectly balanced.
+     */
+    @SuppressWarnings("unchecked")
+    private Node<K,V> buildFromSorted(int lo, int hi, Iterator<?> it,
+                                      java.io.ObjectInputStream str)
+        throws  java.io.IOException, ClassNotFoundException {
+        if (hi < lo)
+            return null;
+        int mid = (lo + hi) >>> 1;
+        Node<K,V> left = buildFromSorted(lo, mid - 1, it, str);
+        K key;
+        V value;
+        if (it != null) {
+            Map.Entry<?,?> entry = (Map.Entry<?,?>)it.next();
+            key = (K)entry.getKey();
+            value = (V)entry.getValue();
+        } else { // use stream
+            key = (K) str.readObject();
+            value = (V) str.readObject();
+        }
+        return new Node<>(key, value, left, buildFromSorted(mid + 1, hi, it, str));
+    }
+
+    // Unsafe mechanics
+    private static final sun.misc.Unsafe U;
+    private static final long ROOT;
+    static {
+        try {
+            U = sun.misc.Unsafe.getUnsafe();
+            Class<?> k = SnapshotTreeMap.class;
+            ROOT = U.objectFieldOffset
+                (k.getDeclaredField("root"));
+        } catch (Exception e) {
+            throw new Error(e);
+        }
+    }
+
+    final boolean casRoot(Node<K,V> cmp, Node<K,V> val) {
+        return U.compareAndSwapObject(this, ROOT, cmp, val);
+    }
+}
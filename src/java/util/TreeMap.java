@@ -29,6 +29,8 @@ import java.io.Serializable;
 import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 /**
  * A Red-Black tree based {@link NavigableMap} implementation.
@@ -39,7 +41,9 @@ import java.util.function.Consumer;
  * <p>This implementation provides guaranteed log(n) time cost for the
  * {@code containsKey}, {@code get}, {@code put} and {@code remove}
  * operations.  Algorithms are adaptations of those in Cormen, Leiserson, and
- * Rivest's <em>Introduction to Algorithms</em>.
+ * Rivest's <em>Introduction to Algorithms</em>.  Each node also records the
+ * size of its subtree, so that {@link #rank}, {@link #select} and the
+ * {@code size} of sub-map views take log(n) time as well.
  *
  * <p>Note that the ordering maintained by a tree map, like any sorted map, and
  * whether or not an explicit comparator is provided, must be <em>consistent
@@ -302,6 +306,11 @@ public class TreeMap<K,V>
      * These mappings replace any mappings that this map had for any
      * of the keys currently in the specified map.
      *
+     * <p>If this map is empty, the mappings are loaded in linear time
+     * when the specified map is a sorted map with the same ordering,
+     * and otherwise, for large maps, by sorting them and building the
+     * tree from the sorted mappings.
+     *
      * @param  map mappings to be stored in this map
      * @throws ClassCastException if the class of a key or value in
      *         the specified map prevents it from being stored in this map
@@ -324,9 +333,39 @@ public class TreeMap<K,V>
                 return;
             }
         }
+        if (size==0 && mapSize >= BULK_LOAD_THRESHOLD) {
+            ++modCount;
+            buildFromUnsorted(map.entrySet().toArray(), null, false);
+            return;
+        }
         super.putAll(map);
     }
 
+    /**
+     * Copies all of the mappings from the specified map to this map, as
+     * {@link #putAll} does, but if this map is empty, sorts the mappings
+     * with {@link Arrays#parallelSort(Object[], Comparator)} and builds
+     * the subtrees of large trees by tasks in the {@link
+     * ForkJoinPool#commonPool() common pool}.  The comparator, or the
+     * {@code compareTo} method of the keys, is then invoked concurrently
+     * from several threads, and must be safe for such use.
+     *
+     * @param  map mappings to be stored in this map
+     * @throws ClassCastException if the class of a key or value in
+     *         the specified map prevents it from being stored in this map
+     * @throws NullPointerException if the specified map is null or
+     *         the specified map contains a null key and this map does not
+     *         permit null keys
+     */
+    public void parallelPutAll(Map<? extends K, ? extends V> map) {
+        if (size==0 && map.size() >= BULK_LOAD_THRESHOLD &&
+            !(map instanceof SortedMap)) {
+            ++modCount;
+            buildFromUnsorted(map.entrySet().toArray(), null, true);
+        } else
+            putAll(map);
+    }
+
     /**
      * Returns this map's entry for the given key, or {@code null} if the map
      * does not contain an entry for the key.
@@ -579,6 +618,8 @@ public class TreeMap<K,V>
             parent.left = e;
         else
             parent.right = e;
+        for (Entry<K,V> p = parent; p != null; p = p.parent)
+            p.size++;
         fixAfterInsertion(e);
         size++;
         modCount++;
@@ -777,6 +818,718 @@ public class TreeMap<K,V>
         return keyOrNull(getHigherEntry(key));
     }
 
+    /**
+     * Returns the number of keys in this map that are strictly less
+     * than the given key, which is the index of the key in ascending
+     * order if it is present.  This takes log(n) time.
+     *
+     * @param key the key
+     * @return the number of keys less than {@code key}
+     * @throws ClassCastException if the specified key cannot be compared
+     *         with the keys currently in the map
+     * @throws NullPointerException if the specified key is null
+     *         and this map uses natural ordering, or its comparator
+     *         does not permit null keys
+     */
+    public int rank(Object key) {
+        return countBelow(key, false);
+    }
+
+    /**
+     * Returns the key-value mapping at the given index in ascending
+     * key order.  This takes log(n) time.
+     *
+     * @param index index of the mapping, from {@code 0} to
+     *        {@code size() - 1}
+     * @return the mapping at {@code index}
+     * @throws IndexOutOfBoundsException if the index is out of range
+     */
+    public Map.Entry<K,V> select(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("Index: "+index+", Size: "+size);
+        Entry<K,V> p = root;
+        for (;;) {
+            int l = sizeOf(p.left);
+            if (index < l)
+                p = p.left;
+            else if (index > l) {
+                index -= l + 1;
+                p = p.right;
+            }
+            else
+                return exportEntry(p);
+        }
+    }
+
+    /**
+     * Returns the number of keys less than the given key, or less than
+     * or equal to it if inclusive.
+     */
+    final int countBelow(Object key, boolean inclusive) {
+        int n = 0;
+        Entry<K,V> p = root;
+        while (p != null) {
+            int cmp = compare(key, p.key);
+            if (cmp < 0)
+                p = p.left;
+            else if (cmp > 0) {
+                n += sizeOf(p.left) + 1;
+                p = p.right;
+            }
+            else
+                return n + sizeOf(p.left) + (inclusive ? 1 : 0);
+        }
+        return n;
+    }
+
+    // Join-based bulk operations
+
+    /**
+     * Removes from this map all mappings whose keys are greater than or
+     * equal to the given key, and returns them in a new map with the same
+     * ordering.  This takes log(n) time.
+     *
+     * @param key the least key of the mappings to move
+     * @return a map containing the mappings removed from this map
+     * @throws ClassCastException if the specified key cannot be compared
+     *         with the keys currently in the map
+     * @throws NullPointerException if the specified key is null
+     *         and this map uses natural ordering, or its comparator
+     *         does not permit null keys
+     */
+    public TreeMap<K,V> split(K key) {
+        compare(key, key); // type (and possibly null) check
+        TreeMap<K,V> tail = new TreeMap<>(comparator);
+        if (root != null) {
+            modCount++;
+            Split<K,V> s = split(root, blackHeight(root), key);
+            setTree(s.left.root);
+            tail.setTree((s.mid == null) ? s.right.root :
+                         join(new Part<>(null, 0), s.mid, s.right).root);
+        }
+        return tail;
+    }
+
+    /**
+     * Moves all of the mappings of the specified map, whose keys must all
+     * be greater than the keys of this map, to this map, leaving the
+     * specified map empty.  If both maps use the same ordering, this
+     * takes log(n) time, where n is the size of the larger map.
+     *
+     * @param other the map whose mappings are to be appended
+     * @throws IllegalArgumentException if a key of the specified map is
+     *         not greater than every key of this map
+     * @throws NullPointerException if the specified map is null
+     */
+    public void join(TreeMap<K,V> other) {
+        if (other.size == 0)
+            return;
+        if (!sameOrdering(other)) {
+            if (root != null) {
+                K last = getLastEntry().key;
+                for (K k : other.keySet())
+                    if (compare(last, k) >= 0)
+                        throw new IllegalArgumentException("key out of range");
+            }
+            putAll(other);
+            other.clear();
+            return;
+        }
+        Entry<K,V> t = other.root;
+        if (root != null) {
+            Entry<K,V> first = other.getFirstEntry();
+            if (other == this || compare(getLastEntry().key, first.key) >= 0)
+                throw new IllegalArgumentException("key out of range");
+            Split<K,V> s = split(t, blackHeight(t), first.key);
+            t = join(new Part<>(root, blackHeight(root)), s.mid, s.right).root;
+        }
+        modCount++;
+        setTree(t);
+        other.modCount++;
+        other.root = null;
+        other.size = 0;
+    }
+
+    /**
+     * Moves all of the mappings of the specified map to this map,
+     * leaving the specified map empty.  If a key is present in both
+     * maps, the key of this map is kept and its value is replaced with
+     * the result of the given merge function applied to the two values,
+     * this map's first, or the mapping is removed if the result is
+     * {@code null}.
+     *
+     * <p>The merge function is applied on the calling thread, in
+     * ascending key order, before either map is modified, so if it
+     * throws an exception, both maps are left unchanged.  If both maps
+     * use the same ordering, the entries of the specified map are then
+     * relinked into this map rather than copied, using a join-based
+     * algorithm that takes O(m log(n/m + 1)) time for maps of sizes m
+     * and n with m &lt;= n.  Independent parts of large maps are
+     * processed in parallel, so the comparator may be invoked
+     * concurrently from several threads.
+     *
+     * @param other the map whose mappings are to be moved to this map
+     * @param mergeFunction the function to recompute a value present in
+     *        both maps
+     * @throws NullPointerException if the specified map or merge function
+     *         is null
+     */
+    public void union(TreeMap<K,V> other,
+                      BiFunction<? super V, ? super V, ? extends V> mergeFunction) {
+        Objects.requireNonNull(mergeFunction);
+        if (other == this)
+            other = new TreeMap<>((SortedMap<K,V>)this);
+        if (!sameOrdering(other)) {
+            unionUnordered(other, mergeFunction);
+            other.clear();
+            return;
+        }
+        Entry<K,V> t = other.root;
+        IdentityHashMap<Entry<K,V>,V> merged = mergeValues(root, t, mergeFunction);
+        other.modCount++;
+        other.root = null;
+        other.size = 0;
+        applySetOp(UNION, t, merged);
+    }
+
+    /**
+     * Implements union for maps with different orderings, with the
+     * same results as calling merge for each mapping of other in turn.
+     * Several keys of other may hit the same entry of this map, so all
+     * results are first computed against working copies: the current
+     * values of the entries hit (keyed by entry), and the mappings to
+     * be added, in this map's ordering.  This map is modified only
+     * once the merge function has been applied to every pair; values
+     * are set before any entry is deleted, since deleteEntry may move
+     * mappings between entries.
+     */
+    @SuppressWarnings("unchecked")
+    private void unionUnordered(TreeMap<K,V> other,
+                                BiFunction<? super V, ? super V, ? extends V> mergeFunction) {
+        final Object removed = new Object();
+        IdentityHashMap<Entry<K,V>,Object> values = new IdentityHashMap<>();
+        TreeMap<K,V> added = new TreeMap<>(comparator);
+        for (Map.Entry<K,V> e : other.entrySet()) {
+            K key = e.getKey();
+            V value = e.getValue();
+            Entry<K,V> a = added.getEntry(key);
+            if (a != null) {
+                V v = mergeFunction.apply(a.value, value);
+                if (v == null)
+                    added.deleteEntry(a);
+                else
+                    a.value = v;
+                continue;
+            }
+            Entry<K,V> p = getEntry(key);
+            Object old = (p == null) ? removed :
+                values.containsKey(p) ? values.get(p) : p.value;
+            if (old == removed)
+                added.put(key, value);
+            else {
+                V v = (old == null) ? value : mergeFunction.apply((V)old, value);
+                values.put(p, (v == null) ? removed : v);
+            }
+        }
+        ArrayList<K> deleted = new ArrayList<>();
+        for (Map.Entry<Entry<K,V>,Object> e : values.entrySet()) {
+            Entry<K,V> p = e.getKey();
+            if (e.getValue() == removed)
+                deleted.add(p.key);
+            else
+                p.value = (V)e.getValue();
+        }
+        for (K key : deleted)
+            deleteEntry(getEntry(key));
+        for (Entry<K,V> a = added.getFirstEntry(); a != null; a = successor(a))
+            put(a.key, a.value);
+    }
+
+    /**
+     * Retains only the mappings of this map whose keys are also present
+     * in the specified map, replacing the value of each with the result
+     * of the given merge function applied to this map's value and the
+     * value in the specified map, or removing the mapping if the result
+     * is {@code null}.  The specified map is not modified.
+     *
+     * <p>The merge function is applied on the calling thread, in
+     * ascending key order, before this map is modified, so if it throws
+     * an exception, this map is left unchanged.  If both maps use the
+     * same ordering, this then uses a join-based algorithm that takes
+     * O(m log(n/m + 1)) time for maps of sizes m and n with m &lt;= n,
+     * as described for {@link #union union}.
+     *
+     * @param other the map whose keys are to be retained
+     * @param mergeFunction the function to recompute a retained value
+     * @throws NullPointerException if the specified map or merge function
+     *         is null
+     */
+    public void intersect(TreeMap<K,V> other,
+                          BiFunction<? super V, ? super V, ? extends V> mergeFunction) {
+        Objects.requireNonNull(mergeFunction);
+        if (other == this)
+            other = new TreeMap<>((SortedMap<K,V>)this);
+        if (!sameOrdering(other)) {
+            ArrayList<V> merged = new ArrayList<>();
+            for (Entry<K,V> e = getFirstEntry(); e != null; e = successor(e)) {
+                Entry<K,V> p = other.getEntry(e.key);
+                merged.add((p == null) ? null : mergeFunction.apply(e.value, p.value));
+            }
+            Iterator<V> vs = merged.iterator();
+            for (Iterator<Map.Entry<K,V>> it = entrySet().iterator(); it.hasNext();) {
+                Map.Entry<K,V> e = it.next();
+                V v = vs.next();
+                if (v == null)
+                    it.remove();
+                else
+                    e.setValue(v);
+            }
+            return;
+        }
+        applySetOp(INTERSECT, other.root, mergeValues(root, other.root, mergeFunction));
+    }
+
+    /**
+     * Removes from this map all mappings whose keys are present in the
+     * specified map, which is not modified.  If both maps use the same
+     * ordering, this uses a join-based algorithm that takes
+     * O(m log(n/m + 1)) time for maps of sizes m and n with m &lt;= n,
+     * as described for {@link #union union}.
+     *
+     * @param other the map whose keys are to be removed from this map
+     * @throws NullPointerException if the specified map is null
+     */
+    @SuppressWarnings("unchecked")
+    public void difference(TreeMap<K,?> other) {
+        if (other == this) {
+            clear();
+            return;
+        }
+        if (!sameOrdering(other)) {
+            for (Iterator<K> it = keyIterator(); it.hasNext();)
+                if (other.containsKey(it.next()))
+                    it.remove();
+            return;
+        }
+        applySetOp(DIFFERENCE, (Entry<K,V>)(Entry<K,?>)other.root, null);
+    }
+
+    /*
+     * The bulk operations above use the join-based algorithms of
+     * Blelloch, Ferizovic and Sun ("Just Join for Parallel Ordered
+     * Sets", SPAA 2016), adapted to this class's mutable, parent-linked
+     * entries.  Subtrees are detached from their parents and passed
+     * around as Parts, together with their black height, so that join
+     * need not recompute it.  join links two trees and a middle entry
+     * by descending the spine of the taller tree to a black entry of
+     * the other's black height, linking the middle entry there in red,
+     * and repairing red-red violations as fixAfterInsertion does.
+     * split and join2 are built on join, and setOp on split and join,
+     * its two recursive halves touching disjoint entries.  Union
+     * relinks the entries of both trees; intersection and difference
+     * only read the entries of the second tree.
+     *
+     * Since the trees are taken apart as setOp proceeds, the merge
+     * function is not called from setOp: mergeValues first applies it
+     * to each pair of entries with equal keys, without modifying either
+     * tree, and setOp only looks up the results.  mergeValues walks the
+     * smaller tree in order and locates each key in the larger one by
+     * a finger search from the previous one, climbing only as far as
+     * the ancestor whose subtree spans both keys.  Since each entry of
+     * the larger tree is such an ancestor for at most one pair of
+     * consecutive keys, and there are O(n/2^h) entries of height h,
+     * this also takes O(m log(n/m + 1)) time.
+     */
+
+    private static final int UNION = 0, INTERSECT = 1, DIFFERENCE = 2;
+
+    /**
+     * A detached subtree and its black height: the number of black
+     * entries on each path from its root, inclusive, down to a null
+     * child.
+     */
+    static final class Part<K,V> {
+        final Entry<K,V> root;
+        final int bh;
+        Part(Entry<K,V> root, int bh) {
+            this.root = root;
+            this.bh = bh;
+        }
+    }
+
+    /**
+     * The result of splitting a subtree at a key: the parts holding the
+     * lesser and the greater keys, and the detached entry for the key,
+     * or null if it is absent.
+     */
+    static final class Split<K,V> {
+        Part<K,V> left, right;
+        final Entry<K,V> mid;
+        Split(Part<K,V> left, Entry<K,V> mid, Part<K,V> right) {
+            this.left = left;
+            this.mid = mid;
+            this.right = right;
+        }
+    }
+
+    private boolean sameOrdering(TreeMap<?,?> other) {
+        Comparator<?> c = other.comparator;
+        return c == comparator || (c != null && c.equals(comparator));
+    }
+
+    /**
+     * Installs t, a detached subtree, as the tree of this map.
+     */
+    private void setTree(Entry<K,V> t) {
+        if (t != null) {
+            t.parent = null;
+            t.color = BLACK;
+        }
+        root = t;
+        size = sizeOf(t);
+    }
+
+    /**
+     * Replaces the tree of this map with the result of setOp on it and
+     * t2.  The map is emptied first, so that it is left empty rather
+     * than corrupt if the comparator throws.
+     */
+    private void applySetOp(int op, Entry<K,V> t2,
+                            IdentityHashMap<Entry<K,V>,V> merged) {
+        Entry<K,V> t1 = root;
+        modCount++;
+        root = null;
+        size = 0;
+        setTree(setOp(op, t1, blackHeight(t1), t2, blackHeight(t2),
+                      merged).root);
+    }
+
+    /**
+     * Applies the merge function to the values of each pair of entries
+     * of trees t1 and t2 with equal keys, the value in t1 first, in
+     * ascending key order, and returns the results keyed by the entries
+     * of t2.  Neither tree is modified.
+     */
+    private IdentityHashMap<Entry<K,V>,V> mergeValues(
+        Entry<K,V> t1, Entry<K,V> t2,
+        BiFunction<? super V, ? super V, ? extends V> mergeFunction) {
+        IdentityHashMap<Entry<K,V>,V> merged = new IdentityHashMap<>();
+        if (t1 == null || t2 == null)
+            return merged;
+        boolean swap = sizeOf(t1) > sizeOf(t2);
+        Entry<K,V> small = swap ? t2 : t1, finger = swap ? t1 : t2;
+        while (small.left != null)
+            small = small.left;
+        while (finger.left != null)
+            finger = finger.left;
+        for (Entry<K,V> e = small; e != null; e = successor(e)) {
+            K key = e.key;
+            if (compare(key, finger.key) < 0)
+                continue;
+            // climb to the root of the subtree spanning finger and key
+            Entry<K,V> p = finger;
+            for (Entry<K,V> q; (q = p.parent) != null; p = q)
+                if (q.left == p && compare(key, q.key) < 0)
+                    break;
+            // descend, leaving finger at the greatest key <= key
+            while (p != null) {
+                int cmp = compare(key, p.key);
+                if (cmp < 0)
+                    p = p.left;
+                else {
+                    finger = p;
+                    if (cmp == 0) {
+                        Entry<K,V> e1 = swap ? p : e, e2 = swap ? e : p;
+                        merged.put(e2, mergeFunction.apply(e1.value, e2.value));
+                        break;
+                    }
+                    p = p.right;
+                }
+            }
+        }
+        return merged;
+    }
+
+    private static <K,V> int blackHeight(Entry<K,V> t) {
+        int h = 0;
+        for (; t != null; t = t.left)
+            if (t.color == BLACK)
+                h++;
+        return h;
+    }
+
+    private static <K,V> Entry<K,V> detach(Entry<K,V> t) {
+        if (t != null)
+            t.parent = null;
+        return t;
+    }
+
+    /**
+     * Computes the union, intersection or difference of subtrees t1 and
+     * t2, with black heights bh1 and bh2, taking the merged value of
+     * each key present in both from the results of mergeValues.  Union
+     * consumes both subtrees; the others consume t1 only.
+     */
+    private Part<K,V> setOp(int op, Entry<K,V> t1, int bh1, Entry<K,V> t2, int bh2,
+                            IdentityHashMap<Entry<K,V>,V> merged) {
+        if (t1 == null)
+            return (op == UNION) ? new Part<>(t2, bh2) : new Part<K,V>(null, 0);
+        if (t2 == null)
+            return (op == INTERSECT) ? new Part<K,V>(null, 0) : new Part<>(t1, bh1);
+        Entry<K,V> l2 = t2.left, r2 = t2.right;
+        int cbh = (t2.color == BLACK) ? bh2 - 1 : bh2;
+        if (op == UNION) {
+            t2.left = t2.right = null;
+            detach(l2);
+            detach(r2);
+        }
+        Split<K,V> s = split(t1, bh1, t2.key);
+        Entry<K,V> m = null;
+        if (s.mid != null) {
+            if (op != DIFFERENCE) {
+                V v = merged.get(t2);
+                if (v != null) {
+                    s.mid.value = v;
+                    m = s.mid;
+                }
+            }
+        } else if (op == UNION)
+            m = t2;
+        Part<K,V> l, r;
+        if (sizeOf(s.left.root) + sizeOf(l2) >= PARALLEL_GRANULARITY &&
+            sizeOf(s.right.root) + sizeOf(r2) >= PARALLEL_GRANULARITY &&
+            ForkJoinPool.getCommonPoolParallelism() > 1) {
+            SetOpTask task = new SetOpTask(op, s.left.root, s.left.bh, l2, cbh,
+                                           merged);
+            task.fork();
+            r = setOp(op, s.right.root, s.right.bh, r2, cbh, merged);
+            l = task.join();
+        } else {
+            l = setOp(op, s.left.root, s.left.bh, l2, cbh, merged);
+            r = setOp(op, s.right.root, s.right.bh, r2, cbh, merged);
+        }
+        return (m != null) ? join(l, m, r) : join2(l, r);
+    }
+
+    /**
+     * Task computing one half of setOp.
+     */
+    final class SetOpTask extends RecursiveTask<Part<K,V>> {
+        private static final long serialVersionUID = 2830917493871465928L;
+        final int op, bh1, bh2;
+        final Entry<K,V> t1, t2;
+        final IdentityHashMap<Entry<K,V>,V> merged;
+
+        SetOpTask(int op, Entry<K,V> t1, int bh1, Entry<K,V> t2, int bh2,
+                  IdentityHashMap<Entry<K,V>,V> merged) {
+            this.op = op;
+            this.t1 = t1;
+            this.bh1 = bh1;
+            this.t2 = t2;
+            this.bh2 = bh2;
+            this.merged = merged;
+        }
+
+        protected Part<K,V> compute() {
+            return setOp(op, t1, bh1, t2, bh2, merged);
+        }
+    }
+
+    /**
+     * Splits subtree t, with black height bh, at the given key.  This
+     * takes log(n) time, since the black heights of the successive
+     * trees joined on each side increase.
+     */
+    private Split<K,V> split(Entry<K,V> t, int bh, Object key) {
+        if (t == null)
+            return new Split<>(new Part<K,V>(null, 0), null, new Part<K,V>(null, 0));
+        int cbh = (t.color == BLACK) ? bh - 1 : bh;
+        Part<K,V> l = new Part<>(detach(t.left), cbh);
+        Part<K,V> r = new Part<>(detach(t.right), cbh);
+        t.left = t.right = null;
+        int cmp = compare(key, t.key);
+        if (cmp == 0)
+            return new Split<>(l, t, r);
+        Split<K,V> s;
+        if (cmp < 0) {
+            s = split(l.root, l.bh, key);
+            s.right = join(s.right, t, r);
+        } else {
+            s = split(r.root, r.bh, key);
+            s.left = join(l, t, s.left);
+        }
+        return s;
+    }
+
+    /**
+     * Joins two parts, all keys of a less than all keys of b.
+     */
+    private Part<K,V> join2(Part<K,V> a, Part<K,V> b) {
+        if (a.root == null)
+            return b;
+        if (b.root == null)
+            return a;
+        Entry<K,V> first = b.root;
+        while (first.left != null)
+            first = first.left;
+        Split<K,V> s = split(b.root, b.bh, first.key);
+        return join(a, s.mid, s.right);
+    }
+
+    /**
+     * Joins two parts and a detached entry m, all keys of a less than
+     * m's key and all keys of b greater.  This takes time proportional
+     * to the difference of their black heights.
+     */
+    private static <K,V> Part<K,V> join(Part<K,V> a, Entry<K,V> m, Part<K,V> b) {
+        Entry<K,V> l = a.root, r = b.root;
+        int lh = a.bh, rh = b.bh;
+        if (colorOf(l) == RED) {
+            l.color = BLACK;
+            lh++;
+        }
+        if (colorOf(r) == RED) {
+            r.color = BLACK;
+            rh++;
+        }
+        m.color = RED;
+        m.parent = null;
+        if (lh == rh) {
+            link(m, l, r);
+            return new Part<>(m, lh);
+        }
+        Entry<K,V> x, p = null;
+        if (lh > rh) {
+            // descend the right spine of l to a black entry of height rh
+            int add = sizeOf(r) + 1, h = lh;
+            for (x = l; h > rh || colorOf(x) == RED; x = x.right) {
+                if (x.color == BLACK)
+                    h--;
+                x.size += add;
+                p = x;
+            }
+            link(m, x, r);
+            m.parent = p;
+            p.right = m;
+            return new Part<>(fixAfterJoin(m, l), lh);
+        } else {
+            int add = sizeOf(l) + 1, h = rh;
+            for (x = r; h > lh || colorOf(x) == RED; x = x.left) {
+                if (x.color == BLACK)
+                    h--;
+                x.size += add;
+                p = x;
+            }
+            link(m, l, x);
+            m.parent = p;
+            p.left = m;
+            return new Part<>(fixAfterJoin(m, r), rh);
+        }
+    }
+
+    private static <K,V> void link(Entry<K,V> m, Entry<K,V> l, Entry<K,V> r) {
+        m.left = l;
+        m.right = r;
+        if (l != null)
+            l.parent = m;
+        if (r != null)
+            r.parent = m;
+        m.size = sizeOf(l) + sizeOf(r) + 1;
+    }
+
+    /**
+     * As fixAfterInsertion, for red entry x linked into the detached
+     * subtree rooted at black entry top.  Returns the new root of the
+     * subtree, which may be red.
+     */
+    private static <K,V> Entry<K,V> fixAfterJoin(Entry<K,V> x, Entry<K,V> top) {
+        while (x != top && x.parent.color == RED) {
+            Entry<K,V> p = x.parent, g = p.parent;
+            if (p == g.left) {
+                Entry<K,V> y = g.right;
+                if (colorOf(y) == RED) {
+                    p.color = BLACK;
+                    y.color = BLACK;
+                    g.color = RED;
+                    x = g;
+                } else {
+                    if (x == p.right)
+                        p = rotateLeftDetached(p);
+                    p.color = BLACK;
+                    g.color = RED;
+                    Entry<K,V> q = rotateRightDetached(g);
+                    if (g == top)
+                        top = q;
+                    break;
+                }
+            } else {
+                Entry<K,V> y = g.left;
+                if (colorOf(y) == RED) {
+                    p.color = BLACK;
+                    y.color = BLACK;
+                    g.color = RED;
+                    x = g;
+                } else {
+                    if (x == p.left)
+                        p = rotateRightDetached(p);
+                    p.color = BLACK;
+                    g.color = RED;
+                    Entry<K,V> q = rotateLeftDetached(g);
+                    if (g == top)
+                        top = q;
+                    break;
+                }
+            }
+        }
+        return top;
+    }
+
+    /**
+     * As rotateLeft, but leaves the root field alone if p has no parent.
+     * Returns the entry rotated into p's place.
+     */
+    private static <K,V> Entry<K,V> rotateLeftDetached(Entry<K,V> p) {
+        Entry<K,V> r = p.right;
+        p.right = r.left;
+        if (r.left != null)
+            r.left.parent = p;
+        r.parent = p.parent;
+        if (p.parent != null) {
+            if (p.parent.left == p)
+                p.parent.left = r;
+            else
+                p.parent.right = r;
+        }
+        r.left = p;
+        p.parent = r;
+        r.size = p.size;
+        p.size = sizeOf(p.left) + sizeOf(p.right) + 1;
+        return r;
+    }
+
+    /**
+     * As rotateRight, but leaves the root field alone if p has no parent.
+     * Returns the entry rotated into p's place.
+     */
+    private static <K,V> Entry<K,V> rotateRightDetached(Entry<K,V> p) {
+        Entry<K,V> l = p.left;
+        p.left = l.right;
+        if (l.right != null)
+            l.right.parent = p;
+        l.parent = p.parent;
+        if (p.parent != null) {
+            if (p.parent.right == p)
+                p.parent.right = l;
+            else
+                p.parent.left = l;
+        }
+        l.right = p;
+        p.parent = l;
+        l.size = p.size;
+        p.size = sizeOf(p.left) + sizeOf(p.right) + 1;
+        return l;
+    }
+
     // Views
 
     /**
@@ -1504,7 +2257,18 @@ public class TreeMap<K,V>
         }
 
         public int size() {
-            return (fromStart && toEnd) ? m.size() : entrySet().size();
+            return (fromStart && toEnd) ? m.size() : rangeSize();
+        }
+
+        /**
+         * Returns the number of entries within the bounds, computed from
+         * the subtree sizes in log(n) time.
+         */
+        final int rangeSize() {
+            int n = toEnd ? m.size() : m.countBelow(hi, hiInclusive);
+            if (!fromStart)
+                n -= m.countBelow(lo, !loInclusive);
+            return (n > 0) ? n : 0; // lo == hi, both exclusive
         }
 
         public final boolean containsKey(Object key) {
@@ -1623,21 +2387,8 @@ public class TreeMap<K,V>
         // View classes
 
         abstract class EntrySetView extends AbstractSet<Entry<K,V>> {
-            private transient int size = -1, sizeModCount;
-
             public int size() {
-                if (fromStart && toEnd)
-                    return m.size();
-                if (size == -1 || sizeModCount != m.modCount) {
-                    sizeModCount = m.modCount;
-                    size = 0;
-                    Iterator<?> i = iterator();
-                    while (i.hasNext()) {
-                        size++;
-                        i.next();
-                    }
-                }
-                return size;
+                return NavigableSubMap.this.size();
             }
 
             public boolean isEmpty() {
@@ -2057,6 +2808,7 @@ public class TreeMap<K,V>
         Entry<K,V> right;
         Entry<K,V> parent;
         boolean color = BLACK;
+        int size = 1;   // number of entries in the subtree rooted here
 
         /**
          * Make a new cell with given key, value, and parent, and with
@@ -2200,6 +2952,10 @@ public class TreeMap<K,V>
         return (p == null ? BLACK : p.color);
     }
 
+    private static <K,V> int sizeOf(Entry<K,V> p) {
+        return (p == null) ? 0 : p.size;
+    }
+
     private static <K,V> Entry<K,V> parentOf(Entry<K,V> p) {
         return (p == null ? null: p.parent);
     }
@@ -2233,6 +2989,8 @@ public class TreeMap<K,V>
                 p.parent.right = r;
             r.left = p;
             p.parent = r;
+            r.size = p.size;
+            p.size = sizeOf(p.left) + sizeOf(p.right) + 1;
         }
     }
 
@@ -2250,6 +3008,8 @@ public class TreeMap<K,V>
             else p.parent.left = l;
             l.right = p;
             p.parent = l;
+            l.size = p.size;
+            p.size = sizeOf(p.left) + sizeOf(p.right) + 1;
         }
     }
 
@@ -2311,6 +3071,10 @@ public class TreeMap<K,V>
             p = s;
         } // p has 2 children
 
+        // p is now the node to unlink; its ancestors lose one entry.
+        for (Entry<K,V> q = p.parent; q != null; q = q.parent)
+            q.size--;
+
         // Start fixup at replacement node, if it exists.
         Entry<K,V> replacement = (p.left != null ? p.left : p.right);
 
@@ -2333,6 +3097,7 @@ public class TreeMap<K,V>
         } else if (p.parent == null) { // return if we are the only node.
             root = null;
         } else { //  No children. Use self as phantom replacement and unlink.
+            p.size = 0; // so that rotations around the phantom ignore it
             if (p.color == BLACK)
                 fixAfterDeletion(p);
 
@@ -2469,6 +3234,76 @@ public class TreeMap<K,V>
         }
     }
 
+    /** Intended to be called only from TreeSet.addAll and parallelAddAll */
+    void addAllUnsortedForTreeSet(Collection<? extends K> c, V defaultVal,
+                                  boolean parallel) {
+        ++modCount;
+        buildFromUnsorted(c.toArray(), defaultVal, parallel);
+    }
+
+    /**
+     * The minimum size of a putAll or TreeSet.addAll argument for which
+     * an empty map is built from a sorted copy rather than by repeated
+     * insertion.
+     */
+    static final int BULK_LOAD_THRESHOLD = 64;
+
+    /**
+     * The minimum number of elements for which a parallel buildFromArray
+     * builds the two subtrees of a node in parallel, and for which the
+     * join-based set operations process both halves in parallel.
+     * Matches the granularity below which Arrays.parallelSort sorts
+     * sequentially.
+     */
+    private static final int PARALLEL_GRANULARITY = 1 << 13;
+
+    /**
+     * Builds the tree from unsorted data: an array of Map.Entries if
+     * defaultVal is null, else an array of keys.  The array is sorted
+     * with Arrays.sort, or Arrays.parallelSort if parallel (both are
+     * stable), and then compacted in place so that of each run of keys
+     * comparing equal, the first key and the last value are kept, as
+     * repeated puts would keep them.  The tree is then built from the
+     * array in linear time, using common pool tasks for large subtrees
+     * if parallel.
+     *
+     * It is assumed that the map is empty and that the comparator is
+     * already set prior to calling this method.  The map is left
+     * unchanged if a key cannot be compared.
+     */
+    private void buildFromUnsorted(Object[] a, V defaultVal, boolean parallel) {
+        int n = a.length;
+        if (n == 0)
+            return;
+        Comparator<Object> c = (defaultVal != null) ? this::compare :
+            (x, y) -> compare(((Map.Entry<?,?>)x).getKey(),
+                              ((Map.Entry<?,?>)y).getKey());
+        if (parallel)
+            Arrays.parallelSort(a, c);
+        else
+            Arrays.sort(a, c);
+        Object k0 = (defaultVal == null) ? ((Map.Entry<?,?>)a[0]).getKey() : a[0];
+        compare(k0, k0); // type (and possibly null) check
+        int m = 1;
+        for (int i = 1; i < n; ++i) {
+            Object x = a[i];
+            if (defaultVal == null) {
+                Map.Entry<?,?> p = (Map.Entry<?,?>)a[m - 1];
+                Map.Entry<?,?> e = (Map.Entry<?,?>)x;
+                if (compare(p.getKey(), e.getKey()) == 0) {
+                    a[m - 1] = new AbstractMap.SimpleImmutableEntry<>(p.getKey(),
+                                                                      e.getValue());
+                    continue;
+                }
+            } else if (compare(a[m - 1], x) == 0)
+                continue;
+            a[m++] = x;
+        }
+        root = buildFromArray(0, 0, m - 1, computeRedLevel(m), a, defaultVal,
+                              parallel);
+        size = m;
+    }
+
 
     /**
      * Linear time tree building algorithm from sorted data.  Can accept keys
@@ -2569,6 +3404,7 @@ public class TreeMap<K,V>
         }
 
         Entry<K,V> middle =  new Entry<>(key, value, null);
+        middle.size = hi - lo + 1;
 
         // color nodes in non-full bottommost level red
         if (level == redLevel)
@@ -2589,6 +3425,85 @@ public class TreeMap<K,V>
         return middle;
     }
 
+    /**
+     * Variant of the recursive buildFromSorted helper that reads keys
+     * and/or values from a[lo..hi], as described for buildFromUnsorted.
+     * Since the array can be indexed, if parallel, the left subtree of
+     * a large subtree is built by a forked task while the right one is
+     * built by the current thread.
+     */
+    @SuppressWarnings("unchecked")
+    private final Entry<K,V> buildFromArray(int level, int lo, int hi,
+                                            int redLevel, Object[] a,
+                                            V defaultVal, boolean parallel) {
+        if (hi < lo) return null;
+
+        int mid = (lo + hi) >>> 1;
+
+        Entry<K,V> middle;
+        if (defaultVal == null) {
+            Map.Entry<?,?> entry = (Map.Entry<?,?>)a[mid];
+            middle = new Entry<>((K)entry.getKey(), (V)entry.getValue(), null);
+        } else
+            middle = new Entry<>((K)a[mid], defaultVal, null);
+        middle.size = hi - lo + 1;
+
+        // color nodes in non-full bottommost level red
+        if (level == redLevel)
+            middle.color = RED;
+
+        Entry<K,V> left, right;
+        if (parallel && hi - lo >= PARALLEL_GRANULARITY &&
+            ForkJoinPool.getCommonPoolParallelism() > 1) {
+            BuildTask task = new BuildTask(level+1, lo, mid - 1, redLevel,
+                                           a, defaultVal);
+            task.fork();
+            right = buildFromArray(level+1, mid+1, hi, redLevel, a,
+                                   defaultVal, true);
+            left = task.join();
+        } else {
+            left = buildFromArray(level+1, lo, mid - 1, redLevel, a,
+                                  defaultVal, parallel);
+            right = buildFromArray(level+1, mid+1, hi, redLevel, a,
+                                   defaultVal, parallel);
+        }
+
+        if (left != null) {
+            middle.left = left;
+            left.parent = middle;
+        }
+        if (right != null) {
+            middle.right = right;
+            right.parent = middle;
+        }
+
+        return middle;
+    }
+
+    /**
+     * Task building one subtree for a parallel buildFromArray.
+     */
+    final class BuildTask extends RecursiveTask<Entry<K,V>> {
+        private static final long serialVersionUID = -5027516238416593370L;
+        final int level, lo, hi, redLevel;
+        final Object[] a;
+        final V defaultVal;
+
+        BuildTask(int level, int lo, int hi, int redLevel,
+                  Object[] a, V defaultVal) {
+            this.level = level;
+            this.lo = lo;
+            this.hi = hi;
+            this.redLevel = redLevel;
+            this.a = a;
+            this.defaultVal = defaultVal;
+        }
+
+        protected Entry<K,V> compute() {
+            return buildFromArray(level, lo, hi, redLevel, a, defaultVal, true);
+        }
+    }
+
     /**
      * Find the level down to which to assign all nodes BLACK.  This is the
      * last `full' level of the complete binary tree produced by
@@ -286,6 +286,8 @@ public class TreeSet<E> extends AbstractSet<E>
 
     /**
      * Adds all of the elements in the specified collection to this set.
+     * If this set is empty, a large collection is added by sorting its
+     * elements and building the tree from them in linear time.
      *
      * @param c collection containing elements to be added to this set
      * @return {@code true} if this set changed as a result of the call
@@ -309,9 +311,163 @@ public class TreeSet<E> extends AbstractSet<E>
                 return true;
             }
         }
+        if (m.size()==0 && c.size() >= TreeMap.BULK_LOAD_THRESHOLD &&
+            m instanceof TreeMap) {
+            ((TreeMap<E,Object>) m).addAllUnsortedForTreeSet(c, PRESENT, false);
+            return true;
+        }
         return super.addAll(c);
     }
 
+    /**
+     * Adds all of the elements in the specified collection to this set,
+     * as {@link #addAll} does, but if this set is empty, sorts the
+     * elements with {@link Arrays#parallelSort(Object[], Comparator)}
+     * and builds the subtrees of large trees by tasks in the {@link
+     * java.util.concurrent.ForkJoinPool#commonPool() common pool}.  The
+     * comparator, or the {@code compareTo} method of the elements, is
+     * then invoked concurrently from several threads, and must be safe
+     * for such use.
+     *
+     * @param c collection containing elements to be added to this set
+     * @return {@code true} if this set changed as a result of the call
+     * @throws ClassCastException if the elements provided cannot be compared
+     *         with the elements currently in the set
+     * @throws NullPointerException if the specified collection is null or
+     *         if any element is null and this set uses natural ordering, or
+     *         its comparator does not permit null elements
+     */
+    public boolean parallelAddAll(Collection<? extends E> c) {
+        if (m.size()==0 && c.size() >= TreeMap.BULK_LOAD_THRESHOLD &&
+            !(c instanceof SortedSet) && m instanceof TreeMap) {
+            ((TreeMap<E,Object>) m).addAllUnsortedForTreeSet(c, PRESENT, true);
+            return true;
+        }
+        return addAll(c);
+    }
+
+    /**
+     * Removes from this set all elements greater than or equal to the
+     * given element, and returns them in a new set with the same
+     * ordering.  If this set is not a view of another set, this takes
+     * log(n) time.
+     *
+     * @param e the least element to move
+     * @return a set containing the elements removed from this set
+     * @throws ClassCastException if the specified element cannot be
+     *         compared with the elements currently in the set
+     * @throws NullPointerException if the specified element is null
+     *         and this set uses natural ordering, or its comparator
+     *         does not permit null elements
+     * @throws IllegalArgumentException if this set has a restricted
+     *         range, and the specified element lies outside it
+     */
+    public TreeSet<E> split(E e) {
+        if (m instanceof TreeMap)
+            return new TreeSet<>(((TreeMap<E,Object>) m).split(e));
+        TreeSet<E> tail = new TreeSet<>(comparator());
+        NavigableSet<E> view = tailSet(e, true);
+        tail.addAll(view);
+        view.clear();
+        return tail;
+    }
+
+    /**
+     * Moves all of the elements of the specified set, which must all be
+     * greater than the elements of this set, to this set, leaving the
+     * specified set empty.  If neither set is a view of another set and
+     * both use the same ordering, this takes log(n) time, where n is
+     * the size of the larger set.
+     *
+     * @param other the set whose elements are to be appended
+     * @throws IllegalArgumentException if an element of the specified set
+     *         is not greater than every element of this set
+     * @throws NullPointerException if the specified set is null
+     */
+    @SuppressWarnings("unchecked")
+    public void join(TreeSet<E> other) {
+        if (m instanceof TreeMap && other.m instanceof TreeMap) {
+            ((TreeMap<E,Object>) m).join((TreeMap<E,Object>) other.m);
+            return;
+        }
+        if (!isEmpty() && !other.isEmpty()) {
+            E last = last();
+            Comparator<? super E> c = comparator();
+            for (E e : other) {
+                int cmp = (c == null) ? ((Comparable<? super E>)last).compareTo(e)
+                    : c.compare(last, e);
+                if (cmp >= 0)
+                    throw new IllegalArgumentException("element out of range");
+            }
+        }
+        addAll(other);
+        other.clear();
+    }
+
+    /**
+     * Moves all of the elements of the specified set to this set, leaving
+     * the specified set empty.  Of elements present in both sets, the one
+     * in this set is kept.  If neither set is a view of another set and
+     * both use the same ordering, the tree entries of the specified set
+     * are relinked into this set, taking O(m log(n/m + 1)) time for sets
+     * of sizes m and n with m &lt;= n, as described for {@link
+     * TreeMap#union TreeMap.union}.
+     *
+     * @param other the set whose elements are to be moved to this set
+     * @throws NullPointerException if the specified set is null
+     */
+    public void union(TreeSet<E> other) {
+        if (m instanceof TreeMap && other.m instanceof TreeMap) {
+            ((TreeMap<E,Object>) m).union((TreeMap<E,Object>) other.m,
+                                          (a, b) -> a);
+            return;
+        }
+        if (other == this)
+            return;
+        addAll(other);
+        other.clear();
+    }
+
+    /**
+     * Retains only the elements of this set that are also present in the
+     * specified set, which is not modified.  If neither set is a view of
+     * another set and both use the same ordering, this takes
+     * O(m log(n/m + 1)) time for sets of sizes m and n with m &lt;= n, as
+     * described for {@link TreeMap#union TreeMap.union}.
+     *
+     * @param other the set whose elements are to be retained
+     * @throws NullPointerException if the specified set is null
+     */
+    public void intersect(TreeSet<E> other) {
+        if (m instanceof TreeMap && other.m instanceof TreeMap) {
+            ((TreeMap<E,Object>) m).intersect((TreeMap<E,Object>) other.m,
+                                              (a, b) -> a);
+            return;
+        }
+        retainAll(other);
+    }
+
+    /**
+     * Removes from this set all of its elements that are present in the
+     * specified set, which is not modified.  If neither set is a view of
+     * another set and both use the same ordering, this takes
+     * O(m log(n/m + 1)) time for sets of sizes m and n with m &lt;= n, as
+     * described for {@link TreeMap#union TreeMap.union}.
+     *
+     * @param other the set whose elements are to be removed from this set
+     * @throws NullPointerException if the specified set is null
+     */
+    public void difference(TreeSet<E> other) {
+        if (m instanceof TreeMap && other.m instanceof TreeMap) {
+            ((TreeMap<E,Object>) m).difference((TreeMap<E,Object>) other.m);
+            return;
+        }
+        if (other == this)
+            clear();
+        else
+            removeAll(other);
+    }
+
     /**
      * @throws ClassCastException {@inheritDoc}
      * @throws NullPointerException if {@code fromElement} or {@code toElement}
@@ -0,0 +1,1227 @@
+/*
+ * Copyright (c) 2017, Oracle and/or its affiliates. All rights reserved.
+ * ORACLE PROPRIETARY/CONFIDENTIAL. Use is subject to license terms.
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ */
+
+package java.util;
+
+import java.util.function.Consumer;
+
+/**
+ * 展开链表(unrolled linked list)：和LinkedList一样实现List和Deque接口，但链表的每个节点是一个块，
+ * 块中用数组连续存放最多blockSize个元素。
+ * LinkedList每个元素对应一个Node对象，node(index)要沿着引用跳转最多size/2次，缓存局部性很差；
+ * 展开链表按块跳转，定位一个下标的开销是O(n/blockSize)，块内是数组访问。
+ * 1.块内元素存放在items[start, end)中，两端都可以留空，所以在首尾添加、删除元素都是O(1)；
+ * 2.在中间插入时，块未满则在块内移动较短的一侧，块已满则分裂成两个各半满的块；
+ * 3.删除后块中元素不超过blockSize/4时，与相邻的块合并（合并后不超过半满），保证块的平均装填率；
+ * 4.记录最近一次定位或修改的块(finger)，相邻下标上的连续get/set/add/remove不需要从头查找。
+ * 允许包括null在内的所有元素。迭代器和spliterator是fail-fast的。
+ * 注意，此实现不是同步的。如果多个线程同时访问一个UnrolledLinkedList实例，而其中至少一个线程从结构上修改了列表，
+ * 那么它必须保持外部同步。
+ *
+ * @param <E> the type of elements held in this collection
+ * @see     LinkedList
+ * @see     ArrayDeque
+ */
+public class UnrolledLinkedList<E>
+    extends AbstractList<E>
+    implements List<E>, Deque<E>, Cloneable, java.io.Serializable
+{
+    /**
+     * 默认的块容量
+     */
+    static final int DEFAULT_BLOCK_SIZE = 64;
+
+    /**
+     * 最小的块容量，合并阈值blockSize/4至少为2
+     */
+    static final int MIN_BLOCK_SIZE = 8;
+
+    //元素数量
+    transient int size = 0;
+
+    /**
+     * 首块引用
+     * Invariant: (first == null && last == null) ||
+     *            (first.prev == null && (first.count() > 0 || first == last))
+     */
+    transient Block<E> first;
+
+    /**
+     * 尾块引用
+     * Invariant: (first == null && last == null) ||
+     *            (last.next == null && (last.count() > 0 || first == last))
+     */
+    transient Block<E> last;
+
+    /**
+     * 最近一次定位或修改的块，null表示无效
+     */
+    private transient Block<E> finger;
+
+    /**
+     * finger块中第一个元素的下标
+     */
+    private transient int fingerIndex;
+
+    /**
+     * 每个块的容量
+     *
+     * @serial
+     */
+    final int blockSize;
+
+    /**
+     * 无参构造方法，块容量为64
+     */
+    public UnrolledLinkedList() {
+        this.blockSize = DEFAULT_BLOCK_SIZE;
+    }
+
+    /**
+     * 指定块容量的构造方法。块越大定位越快、内存越紧凑，但块内插入删除移动的元素越多
+     *
+     * @param  blockSize 每个块最多存放的元素个数
+     * @throws IllegalArgumentException 如果blockSize小于8
+     */
+    public UnrolledLinkedList(int blockSize) {
+        if (blockSize < MIN_BLOCK_SIZE)
+            throw new IllegalArgumentException("Illegal block size: " +
+                                               blockSize);
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * 通过一个集合初始化，元素顺序由这个集合的迭代器返回顺序决定
+     *
+     * @param  c 其元素将被放入此列表中的集合
+     * @throws NullPointerException if the specified collection is null
+     */
+    public UnrolledLinkedList(Collection<? extends E> c) {
+        this();
+        addAll(c);
+    }
+
+    /**
+     * 块：元素存放在items[start, end)中
+     */
+    static final class Block<E> {
+        final Object[] items;
+        int start;
+        int end;
+        Block<E> prev;
+        Block<E> next;
+
+        Block(int capacity, int pos) {
+            this.items = new Object[capacity];
+            this.start = this.end = pos;
+        }
+
+        int count() {
+            return end - start;
+        }
+    }
+
+    /* ---------------- 块操作 -------------- */
+
+    /**
+     * 把块b链接到块pred之后
+     */
+    private void linkBlockAfter(Block<E> b, Block<E> pred) {
+        Block<E> succ = pred.next;
+        b.prev = pred;
+        b.next = succ;
+        pred.next = b;
+        if (succ == null)
+            last = b;
+        else
+            succ.prev = b;
+    }
+
+    /**
+     * 把块b链接到块succ之前
+     */
+    private void linkBlockBefore(Block<E> b, Block<E> succ) {
+        Block<E> pred = succ.prev;
+        b.next = succ;
+        b.prev = pred;
+        succ.prev = b;
+        if (pred == null)
+            first = b;
+        else
+            pred.next = b;
+    }
+
+    /**
+     * 从链表中移除块b
+     */
+    private void unlinkBlock(Block<E> b) {
+        final Block<E> pred = b.prev, succ = b.next;
+        if (pred == null)
+            first = succ;
+        else
+            pred.next = succ;
+        if (succ == null)
+            last = pred;
+        else
+            succ.prev = pred;
+        b.prev = b.next = null;
+    }
+
+    /**
+     * 把b.next的元素追加到b中并移除b.next，调用前两块元素之和不超过blockSize
+     */
+    private void mergeNext(Block<E> b) {
+        Block<E> q = b.next;
+        Object[] a = b.items;
+        int n = b.count(), m = q.count();
+        if (b.end + m > a.length) {
+            //尾部空间不够，先把b的元素移到块头部
+            System.arraycopy(a, b.start, a, 0, n);
+            Arrays.fill(a, Math.max(n, b.start), b.end, null);
+            b.start = 0;
+            b.end = n;
+        }
+        System.arraycopy(q.items, q.start, a, b.end, m);
+        b.end += m;
+        unlinkBlock(q);
+    }
+
+    /**
+     * 返回下标为index的元素所在的块，并把finger设置为该块；
+     * 块中第一个元素的下标保存在fingerIndex中。调用前0 <= index < size
+     */
+    private Block<E> locate(int index) {
+        Block<E> b; int bs;
+        //从首块、尾块、finger中选择离index最近的开始查找
+        if (index < (size >> 1)) {
+            b = first;
+            bs = 0;
+        } else {
+            b = last;
+            bs = size - b.count();
+        }
+        Block<E> f = finger;
+        if (f != null &&
+            Math.abs(index - fingerIndex) < Math.min(index, size - index)) {
+            b = f;
+            bs = fingerIndex;
+        }
+        while (index < bs) {
+            b = b.prev;
+            bs -= b.count();
+        }
+        while (index >= bs + b.count()) {
+            bs += b.count();
+            b = b.next;
+        }
+        finger = b;
+        fingerIndex = bs;
+        return b;
+    }
+
+    /* ---------------- 元素操作 -------------- */
+
+    /**
+     * 在链表头部添加元素
+     */
+    private void linkFirst(E e) {
+        Block<E> f = first;
+        if (f == null)
+            f = first = last = new Block<>(blockSize, blockSize >>> 1);
+        else if (f.start == 0) {
+            Object[] a = f.items;
+            int n = f.count();
+            if (n <= (blockSize >>> 1)) {
+                //首块不超过半满，把元素移到块尾部，腾出至少一半空间
+                int s = blockSize - n;
+                System.arraycopy(a, 0, a, s, n);
+                Arrays.fill(a, 0, Math.min(n, s), null);
+                f.start = s;
+                f.end = blockSize;
+            } else {
+                Block<E> b = new Block<>(blockSize, blockSize);
+                linkBlockBefore(b, f);
+                f = b;
+            }
+        }
+        f.items[--f.start] = e;
+        size++;
+        modCount++;
+        finger = f;
+        fingerIndex = 0;
+    }
+
+    /**
+     * 在链表尾部添加元素
+     */
+    void linkLast(E e) {
+        Block<E> l = last;
+        if (l == null)
+            l = first = last = new Block<>(blockSize, blockSize >>> 1);
+        else if (l.end == blockSize) {
+            Object[] a = l.items;
+            int n = l.count();
+            if (n <= (blockSize >>> 1)) {
+                //尾块不超过半满，把元素移到块头部，腾出至少一半空间
+                System.arraycopy(a, l.start, a, 0, n);
+                Arrays.fill(a, Math.max(n, l.start), blockSize, null);
+                l.start = 0;
+                l.end = n;
+            } else {
+                Block<E> b = new Block<>(blockSize, 0);
+                linkBlockAfter(b, l);
+                l = b;
+            }
+        }
+        l.items[l.end++] = e;
+        size++;
+        modCount++;
+        finger = l;
+        fingerIndex = size - l.count();
+    }
+
+    /**
+     * 在下标index处插入元素，调用前0 < index < size
+     */
+    private void linkBefore(int index, E e) {
+        Block<E> b = locate(index);
+        int bs = fingerIndex, k = index - bs;
+        if (b.count() == blockSize) {
+            //块已满，把后一半元素移到新块中
+            int half = blockSize >>> 1, m = blockSize - half;
+            Block<E> nb = new Block<>(blockSize, 0);
+            System.arraycopy(b.items, half, nb.items, 0, m);
+            Arrays.fill(b.items, half, blockSize, null);
+            b.end = half;
+            nb.end = m;
+            linkBlockAfter(nb, b);
+            if (k > half) {
+                b = nb;
+                bs += half;
+                k -= half;
+            }
+        }
+        Object[] a = b.items;
+        int p = b.start + k;
+        if (b.start > 0 && (b.end == blockSize || k < (b.count() >>> 1))) {
+            //前移前半部分
+            System.arraycopy(a, b.start, a, b.start - 1, k);
+            b.start--;
+            a[p - 1] = e;
+        } else {
+            //后移后半部分
+            System.arraycopy(a, p, a, p + 1, b.end - p);
+            b.end++;
+            a[p] = e;
+        }
+        size++;
+        modCount++;
+        finger = b;
+        fingerIndex = bs;
+    }
+
+    /**
+     * 删除块b中第k个元素并返回，bs为块中第一个元素的下标
+     */
+    @SuppressWarnings("unchecked")
+    private E unlink(Block<E> b, int bs, int k) {
+        Object[] a = b.items;
+        int p = b.start + k;
+        final E element = (E) a[p];
+        if (k < (b.count() >>> 1)) {
+            System.arraycopy(a, b.start, a, b.start + 1, k);
+            a[b.start++] = null;
+        } else {
+            System.arraycopy(a, p + 1, a, p, b.end - p - 1);
+            a[--b.end] = null;
+        }
+        size--;
+        modCount++;
+        int n = b.count();
+        Block<E> pred = b.prev, succ = b.next;
+        if (n == 0) {
+            if (pred == null && succ == null) {
+                //保留唯一的空块，避免作为队列使用时在空与非空之间反复分配块
+                b.start = b.end = blockSize >>> 1;
+                finger = null;
+            } else {
+                unlinkBlock(b);
+                if (pred != null) {
+                    finger = pred;
+                    fingerIndex = bs - pred.count();
+                } else {
+                    finger = succ;
+                    fingerIndex = 0;
+                }
+            }
+        } else if (n <= (blockSize >>> 2) && pred != null &&
+                   pred.count() + n <= (blockSize >>> 1)) {
+            int pc = pred.count();
+            mergeNext(pred);
+            finger = pred;
+            fingerIndex = bs - pc;
+        } else {
+            if (n <= (blockSize >>> 2) && succ != null &&
+                succ.count() + n <= (blockSize >>> 1))
+                mergeNext(b);
+            finger = b;
+            fingerIndex = bs;
+        }
+        return element;
+    }
+
+    /**
+     * 返回第一个元素
+     *
+     * @return the first element in this list
+     * @throws NoSuchElementException if this list is empty
+     */
+    @SuppressWarnings("unchecked")
+    public E getFirst() {
+        if (size == 0)
+            throw new NoSuchElementException();
+        final Block<E> f = first;
+        return (E) f.items[f.start];
+    }
+
+    /**
+     * 返回最后一个元素
+     *
+     * @return the last element in this list
+     * @throws NoSuchElementException if this list is empty
+     */
+    @SuppressWarnings("unchecked")
+    public E getLast() {
+        if (size == 0)
+            throw new NoSuchElementException();
+        final Block<E> l = last;
+        return (E) l.items[l.end - 1];
+    }
+
+    /**
+     * 删除第一个元素并返回
+     *
+     * @return the first element from this list
+     * @throws NoSuchElementException if this list is empty
+     */
+    public E removeFirst() {
+        if (size == 0)
+            throw new NoSuchElementException();
+        return unlink(first, 0, 0);
+    }
+
+    /**
+     * 删除最后一个元素并返回
+     *
+     * @return the last element from this list
+     * @throws NoSuchElementException if this list is empty
+     */
+    public E removeLast() {
+        if (size == 0)
+            throw new NoSuchElementException();
+        final Block<E> l = last;
+        int n = l.count();
+        return unlink(l, size - n, n - 1);
+    }
+
+    /**
+     * 在头部添加元素
+     *
+     * @param e the element to add
+     */
+    public void addFirst(E e) {
+        linkFirst(e);
+    }
+
+    /**
+     * 在尾部添加元素
+     *
+     * @param e the element to add
+     */
+    public void addLast(E e) {
+        linkLast(e);
+    }
+
+    /**
+     * 是否包含指定元素
+     */
+    public boolean contains(Object o) {
+        return indexOf(o) != -1;
+    }
+
+    /**
+     * 返回元素个数
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 在尾部添加元素
+     */
+    public boolean add(E e) {
+        linkLast(e);
+        return true;
+    }
+
+    /**
+     * 删除第一个等于o的元素，存在时返回true
+     */
+    public boolean remove(Object o) {
+        return removeFirstOccurrence(o);
+    }
+
+    /**
+     * 在尾部依次添加集合中的元素
+     *
+     * @param c collection containing elements to be added to this list
+     * @return {@code true} if this list changed as a result of the call
+     * @throws NullPointerException if the specified collection is null
+     */
+    @SuppressWarnings("unchecked")
+    public boolean addAll(Collection<? extends E> c) {
+        Object[] a = c.toArray();
+        for (Object o : a)
+            linkLast((E) o);
+        return a.length != 0;
+    }
+
+    /**
+     * 从指定位置开始依次插入集合中的元素。借助finger，每次插入都从上一次插入的块开始定位
+     *
+     * @param index index at which to insert the first element
+     *              from the specified collection
+     * @param c collection containing elements to be added to this list
+     * @return {@code true} if this list changed as a result of the call
+     * @throws IndexOutOfBoundsException {@inheritDoc}
+     * @throws NullPointerException if the specified collection is null
+     */
+    @SuppressWarnings("unchecked")
+    public boolean addAll(int index, Collection<? extends E> c) {
+        checkPositionIndex(index);
+        if (index == size)
+            return addAll(c);
+        Object[] a = c.toArray();
+        for (Object o : a)
+            add(index++, (E) o);
+        return a.length != 0;
+    }
+
+    /**
+     * 清空列表
+     */
+    public void clear() {
+        //断开块之间的引用，帮助分代GC
+        for (Block<E> b = first; b != null; ) {
+            Block<E> next = b.next;
+            Arrays.fill(b.items, b.start, b.end, null);
+            b.prev = b.next = null;
+            b = next;
+        }
+        first = last = finger = null;
+        size = 0;
+        modCount++;
+    }
+
+    /* ---------------- 按下标操作 -------------- */
+
+    /**
+     * 返回指定位置的元素
+     *
+     * @throws IndexOutOfBoundsException {@inheritDoc}
+     */
+    @SuppressWarnings("unchecked")
+    public E get(int index) {
+        checkElementIndex(index);
+        Block<E> b = locate(index);
+        return (E) b.items[b.start + index - fingerIndex];
+    }
+
+    /**
+     * 替换指定位置的元素，返回原来的元素
+     *
+     * @throws IndexOutOfBoundsException {@inheritDoc}
+     */
+    @SuppressWarnings("unchecked")
+    public E set(int index, E element) {
+        checkElementIndex(index);
+        Block<E> b = locate(index);
+        int p = b.start + index - fingerIndex;
+        E oldVal = (E) b.items[p];
+        b.items[p] = element;
+        return oldVal;
+    }
+
+    /**
+     * 在指定位置插入元素
+     *
+     * @throws IndexOutOfBoundsException {@inheritDoc}
+     */
+    public void add(int index, E element) {
+        checkPositionIndex(index);
+
+        if (index == size)
+            linkLast(element);
+        else if (index == 0)
+            linkFirst(element);
+        else
+            linkBefore(index, element);
+    }
+
+    /**
+     * 删除指定位置的元素并返回
+     *
+     * @throws IndexOutOfBoundsException {@inheritDoc}
+     */
+    public E remove(int index) {
+        checkElementIndex(index);
+        Block<E> b = locate(index);
+        int bs = fingerIndex;
+        return unlink(b, bs, index - bs);
+    }
+
+    /**
+     * 判断下标是否为现有元素的下标
+     */
+    private boolean isElementIndex(int index) {
+        return index >= 0 && index < size;
+    }
+
+    /**
+     * 判断下标是否为迭代器或插入操作的有效位置
+     */
+    private boolean isPositionIndex(int index) {
+        return index >= 0 && index <= size;
+    }
+
+    private String outOfBoundsMsg(int index) {
+        return "Index: "+index+", Size: "+size;
+    }
+
+    private void checkElementIndex(int index) {
+        if (!isElementIndex(index))
+            throw new IndexOutOfBoundsException(outOfBoundsMsg(index));
+    }
+
+    private void checkPositionIndex(int index) {
+        if (!isPositionIndex(index))
+            throw new IndexOutOfBoundsException(outOfBoundsMsg(index));
+    }
+
+    /* ---------------- 查找操作 -------------- */
+
+    /**
+     * 返回第一个等于o的元素的下标，没有返回-1
+     */
+    public int indexOf(Object o) {
+        int index = 0;
+        for (Block<E> b = first; b != null; b = b.next) {
+            Object[] a = b.items;
+            if (o == null) {
+                for (int i = b.start; i < b.end; i++)
+                    if (a[i] == null)
+                        return index + i - b.start;
+            } else {
+                for (int i = b.start; i < b.end; i++)
+                    if (o.equals(a[i]))
+                        return index + i - b.start;
+            }
+            index += b.count();
+        }
+        return -1;
+    }
+
+    /**
+     * 返回最后一个等于o的元素的下标，没有返回-1
+     */
+    public int lastIndexOf(Object o) {
+        int index = size;
+        for (Block<E> b = last; b != null; b = b.prev) {
+            index -= b.count();
+            Object[] a = b.items;
+            if (o == null) {
+                for (int i = b.end - 1; i >= b.start; i--)
+                    if (a[i] == null)
+                        return index + i - b.start;
+            } else {
+                for (int i = b.end - 1; i >= b.start; i--)
+                    if (o.equals(a[i]))
+                        return index + i - b.start;
+            }
+        }
+        return -1;
+    }
+
+    /* ---------------- 队列操作 -------------- */
+
+    /**
+     * 返回第一个元素，列表为空时返回null
+     */
+    @SuppressWarnings("unchecked")
+    public E peek() {
+        final Block<E> f = first;
+        return (size == 0) ? null : (E) f.items[f.start];
+    }
+
+    /**
+     * 返回第一个元素，列表为空时抛出异常
+     */
+    public E element() {
+        return getFirst();
+    }
+
+    /**
+     * 删除并返回第一个元素，列表为空时返回null
+     */
+    public E poll() {
+        return (size == 0) ? null : unlink(first, 0, 0);
+    }
+
+    /**
+     * 删除并返回第一个元素，列表为空时抛出异常
+     */
+    public E remove() {
+        return removeFirst();
+    }
+
+    /**
+     * 在尾部添加元素
+     */
+    public boolean offer(E e) {
+        return add(e);
+    }
+
+    /* ---------------- 双端队列操作 -------------- */
+
+    /**
+     * 在头部添加元素
+     */
+    public boolean offerFirst(E e) {
+        addFirst(e);
+        return true;
+    }
+
+    /**
+     * 在尾部添加元素
+     */
+    public boolean offerLast(E e) {
+        addLast(e);
+        return true;
+    }
+
+    /**
+     * 返回第一个元素，列表为空时返回null
+     */
+    public E peekFirst() {
+        return peek();
+    }
+
+    /**
+     * 返回最后一个元素，列表为空时返回null
+     */
+    @SuppressWarnings("unchecked")
+    public E peekLast() {
+        final Block<E> l = last;
+        return (size == 0) ? null : (E) l.items[l.end - 1];
+    }
+
+    /**
+     * 删除并返回第一个元素，列表为空时返回null
+     */
+    public E pollFirst() {
+        return poll();
+    }
+
+    /**
+     * 删除并返回最后一个元素，列表为空时返回null
+     */
+    public E pollLast() {
+        return (size == 0) ? null : removeLast();
+    }
+
+    /**
+     * 入栈，即在头部添加元素
+     */
+    public void push(E e) {
+        addFirst(e);
+    }
+
+    /**
+     * 出栈，即删除并返回第一个元素
+     */
+    public E pop() {
+        return removeFirst();
+    }
+
+    /**
+     * 删除第一个等于o的元素，存在时返回true
+     */
+    public boolean removeFirstOccurrence(Object o) {
+        int index = indexOf(o);
+        if (index < 0)
+            return false;
+        remove(index);
+        return true;
+    }
+
+    /**
+     * 删除最后一个等于o的元素，存在时返回true
+     */
+    public boolean removeLastOccurrence(Object o) {
+        int index = lastIndexOf(o);
+        if (index < 0)
+            return false;
+        remove(index);
+        return true;
+    }
+
+    /* ---------------- 迭代器 -------------- */
+
+    /**
+     * 返回按顺序遍历的迭代器
+     */
+    public Iterator<E> iterator() {
+        return new ListItr(0);
+    }
+
+    /**
+     * 返回从指定位置开始的ListIterator，fail-fast
+     *
+     * @throws IndexOutOfBoundsException {@inheritDoc}
+     */
+    public ListIterator<E> listIterator(int index) {
+        checkPositionIndex(index);
+        return new ListItr(index);
+    }
+
+    /**
+     * 迭代器在块内按数组下标移动，块的边界处才沿链表跳转。
+     * remove和add之后块可能被分裂或合并，借助finger重新定位到nextIndex，开销是O(1)
+     */
+    private class ListItr implements ListIterator<E> {
+        //下一个元素所在的块，位于末尾时为last
+        private Block<E> block;
+        //下一个元素在block.items中的下标
+        private int pos;
+        //上次返回的元素所在的块及其在items中的下标
+        private Block<E> lastBlock;
+        private int lastPos;
+        private int lastReturned = -1;
+        private int nextIndex;
+        private int expectedModCount = modCount;
+
+        ListItr(int index) {
+            seek(index);
+        }
+
+        private void seek(int index) {
+            nextIndex = index;
+            if (index == size) {
+                block = last;
+                pos = (block == null) ? 0 : block.end;
+            } else {
+                block = locate(index);
+                pos = block.start + index - fingerIndex;
+            }
+        }
+
+        public boolean hasNext() {
+            return nextIndex < size;
+        }
+
+        @SuppressWarnings("unchecked")
+        public E next() {
+            checkForComodification();
+            if (!hasNext())
+                throw new NoSuchElementException();
+            if (pos == block.end) {
+                block = block.next;
+                pos = block.start;
+            }
+            lastBlock = block;
+            lastPos = pos;
+            lastReturned = nextIndex++;
+            return (E) block.items[pos++];
+        }
+
+        public boolean hasPrevious() {
+            return nextIndex > 0;
+        }
+
+        @SuppressWarnings("unchecked")
+        public E previous() {
+            checkForComodification();
+            if (!hasPrevious())
+                throw new NoSuchElementException();
+            if (pos == block.start) {
+                block = block.prev;
+                pos = block.end;
+            }
+            lastBlock = block;
+            lastPos = --pos;
+            lastReturned = --nextIndex;
+            return (E) block.items[pos];
+        }
+
+        public int nextIndex() {
+            return nextIndex;
+        }
+
+        public int previousIndex() {
+            return nextIndex - 1;
+        }
+
+        public void remove() {
+            checkForComodification();
+            if (lastReturned < 0)
+                throw new IllegalStateException();
+            int k = lastPos - lastBlock.start;
+            unlink(lastBlock, lastReturned - k, k);
+            seek((lastReturned < nextIndex) ? nextIndex - 1 : nextIndex);
+            lastReturned = -1;
+            lastBlock = null;
+            expectedModCount = modCount;
+        }
+
+        public void set(E e) {
+            if (lastReturned < 0)
+                throw new IllegalStateException();
+            checkForComodification();
+            lastBlock.items[lastPos] = e;
+        }
+
+        public void add(E e) {
+            checkForComodification();
+            lastReturned = -1;
+            lastBlock = null;
+            UnrolledLinkedList.this.add(nextIndex, e);
+            seek(nextIndex + 1);
+            expectedModCount = modCount;
+        }
+
+        @SuppressWarnings("unchecked")
+        public void forEachRemaining(Consumer<? super E> action) {
+            Objects.requireNonNull(action);
+            while (modCount == expectedModCount && nextIndex < size) {
+                if (pos == block.end) {
+                    block = block.next;
+                    pos = block.start;
+                }
+                lastBlock = block;
+                lastPos = pos;
+                lastReturned = nextIndex++;
+                action.accept((E) block.items[pos++]);
+            }
+            checkForComodification();
+        }
+
+        final void checkForComodification() {
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+        }
+    }
+
+    /**
+     * 返回逆序的迭代器
+     */
+    public Iterator<E> descendingIterator() {
+        return new DescendingIterator();
+    }
+
+    /**
+     * 返回逆序的迭代器对象
+     */
+    private class DescendingIterator implements Iterator<E> {
+        private final ListItr itr = new ListItr(size());
+        public boolean hasNext() {
+            return itr.hasPrevious();
+        }
+        public E next() {
+            return itr.previous();
+        }
+        public void remove() {
+            itr.remove();
+        }
+    }
+
+    /* ---------------- 拷贝、数组和序列化 -------------- */
+
+    //拷贝
+    @SuppressWarnings("unchecked")
+    private UnrolledLinkedList<E> superClone() {
+        try {
+            return (UnrolledLinkedList<E>) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new InternalError(e);
+        }
+    }
+
+    /**
+     * 返回浅拷贝，元素本身不会被拷贝
+     *
+     * @return a shallow copy of this {@code UnrolledLinkedList} instance
+     */
+    @SuppressWarnings("unchecked")
+    public Object clone() {
+        UnrolledLinkedList<E> clone = superClone();
+
+        // Put clone into "virgin" state
+        clone.first = clone.last = clone.finger = null;
+        clone.size = 0;
+        clone.modCount = 0;
+
+        // Initialize clone with our elements
+        for (Block<E> b = first; b != null; b = b.next)
+            for (int i = b.start; i < b.end; i++)
+                clone.linkLast((E) b.items[i]);
+
+        return clone;
+    }
+
+    /**
+     * 转换成数组，按块拷贝
+     *
+     * @return an array containing all of the elements in this list
+     *         in proper sequence
+     */
+    public Object[] toArray() {
+        Object[] result = new Object[size];
+        copyTo(result);
+        return result;
+    }
+
+    /**
+     * 返回指定类型的数组
+     *
+     * @param a the array into which the elements of the list are to
+     *          be stored, if it is big enough; otherwise, a new array of the
+     *          same runtime type is allocated for this purpose.
+     * @return an array containing the elements of the list
+     * @throws ArrayStoreException if the runtime type of the specified array
+     *         is not a supertype of the runtime type of every element in
+     *         this list
+     * @throws NullPointerException if the specified array is null
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T[] toArray(T[] a) {
+        if (a.length < size)
+            a = (T[])java.lang.reflect.Array.newInstance(
+                                a.getClass().getComponentType(), size);
+        copyTo(a);
+
+        if (a.length > size)
+            a[size] = null;
+
+        return a;
+    }
+
+    private void copyTo(Object[] dst) {
+        int i = 0;
+        for (Block<E> b = first; b != null; b = b.next) {
+            int n = b.count();
+            System.arraycopy(b.items, b.start, dst, i, n);
+            i += n;
+        }
+    }
+
+    //序列化/反序列化
+    private static final long serialVersionUID = -6380742617413948723L;
+
+    /**
+     * 保存实例的状态到一个流(序列化)
+     *
+     * @serialData The size of the list (the number of elements it
+     *             contains) is emitted (int), followed by all of its
+     *             elements (each an Object) in the proper order.
+     */
+    private void writeObject(java.io.ObjectOutputStream s)
+        throws java.io.IOException {
+        // Write out blockSize and any hidden serialization magic
+        s.defaultWriteObject();
+
+        // Write out size
+        s.writeInt(size);
+
+        // Write out all elements in the proper order.
+        for (Block<E> b = first; b != null; b = b.next)
+            for (int i = b.start; i < b.end; i++)
+                s.writeObject(b.items[i]);
+    }
+
+    /**
+     * 从流中重构实例（即反序列化）
+     */
+    @SuppressWarnings("unchecked")
+    private void readObject(java.io.ObjectInputStream s)
+        throws java.io.IOException, ClassNotFoundException {
+        // Read in blockSize and any hidden serialization magic
+        s.defaultReadObject();
+        if (blockSize < MIN_BLOCK_SIZE)
+            throw new java.io.InvalidObjectException("Illegal block size: " +
+                                                     blockSize);
+
+        // Read in size
+        int size = s.readInt();
+
+        // Read in all elements in the proper order.
+        for (int i = 0; i < size; i++)
+            linkLast((E)s.readObject());
+    }
+
+    /**
+     * 可分割迭代器，与LinkedList相同，每次拆分出一批逐渐增大的元素数组，
+     * 不同的是按块用System.arraycopy拷贝
+     *
+     * @return a {@code Spliterator} over the elements in this list
+     */
+    @Override
+    public Spliterator<E> spliterator() {
+        return new ULLSpliterator<E>(this, -1, 0);
+    }
+
+    /** A customized variant of Spliterators.IteratorSpliterator */
+    static final class ULLSpliterator<E> implements Spliterator<E> {
+        static final int BATCH_UNIT = 1 << 10;  // batch array size increment
+        static final int MAX_BATCH = 1 << 25;  // max batch array size;
+        final UnrolledLinkedList<E> list; // null OK unless traversed
+        Block<E> current;     // current block; null until initialized
+        int pos;              // index of next element in current.items
+        int est;              // size estimate; -1 until first needed
+        int expectedModCount; // initialized when est set
+        int batch;            // batch size for splits
+
+        ULLSpliterator(UnrolledLinkedList<E> list, int est, int expectedModCount) {
+            this.list = list;
+            this.est = est;
+            this.expectedModCount = expectedModCount;
+        }
+
+        final int getEst() {
+            int s; // force initialization
+            final UnrolledLinkedList<E> lst;
+            if ((s = est) < 0) {
+                if ((lst = list) == null)
+                    s = est = 0;
+                else {
+                    expectedModCount = lst.modCount;
+                    current = lst.first;
+                    pos = (current == null) ? 0 : current.start;
+                    s = est = lst.size;
+                }
+            }
+            return s;
+        }
+
+        public long estimateSize() { return (long) getEst(); }
+
+        public Spliterator<E> trySplit() {
+            Block<E> p;
+            int s = getEst();
+            if (s > 1 && (p = current) != null) {
+                int n = batch + BATCH_UNIT;
+                if (n > s)
+                    n = s;
+                if (n > MAX_BATCH)
+                    n = MAX_BATCH;
+                Object[] a = new Object[n];
+                int j = 0, i = pos;
+                while (j < n) {
+                    if (i == p.end) {
+                        if ((p = p.next) == null)
+                            break;
+                        i = p.start;
+                        continue;
+                    }
+                    int m = Math.min(p.end - i, n - j);
+                    System.arraycopy(p.items, i, a, j, m);
+                    i += m;
+                    j += m;
+                }
+                current = p;
+                pos = i;
+                batch = j;
+                est = s - j;
+                return Spliterators.spliterator(a, 0, j, Spliterator.ORDERED);
+            }
+            return null;
+        }
+
+        @SuppressWarnings("unchecked")
+        public void forEachRemaining(Consumer<? super E> action) {
+            Block<E> p; int n;
+            if (action == null) throw new NullPointerException();
+            if ((n = getEst()) > 0 && (p = current) != null) {
+                int i = pos;
+                current = null;
+                est = 0;
+                while (n > 0) {
+                    if (i == p.end) {
+                        if ((p = p.next) == null)
+                            break;
+                        i = p.start;
+                        continue;
+                    }
+                    Object[] a = p.items;
+                    int end = Math.min(p.end, i + n);
+                    n -= end - i;
+                    while (i < end)
+                        action.accept((E) a[i++]);
+                }
+            }
+            if (list.modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+        }
+
+        @SuppressWarnings("unchecked")
+        public boolean tryAdvance(Consumer<? super E> action) {
+            Block<E> p;
+            if (action == null) throw new NullPointerException();
+            if (getEst() > 0 && (p = current) != null) {
+                int i = pos;
+                while (i == p.end) {
+                    if ((p = p.next) == null) {
+                        current = null;
+                        throw new ConcurrentModificationException();
+                    }
+                    i = p.start;
+                }
+                --est;
+                E e = (E) p.items[i];
+                current = p;
+                pos = i + 1;
+                action.accept(e);
+                if (list.modCount != expectedModCount)
+                    throw new ConcurrentModificationException();
+                return true;
+            }
+            return false;
+        }
+
+        public int characteristics() {
+            return Spliterator.ORDERED | Spliterator.SIZED | Spliterator.SUBSIZED;
+        }
+    }
+
+}
@@ -0,0 +1,1203 @@
+/*
+ * Copyright (c) 2017, Oracle and/or its affiliates. All rights reserved.
+ * ORACLE PROPRIETARY/CONFIDENTIAL. Use is subject to license terms.
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ */
+
+package java.util.concurrent;
+
+import java.util.concurrent.ConcurrentHashMap.CounterCell;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+import java.util.function.LongUnaryOperator;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * A concurrent map from keys to {@code long} counts.  Counts are
+ * stored inline in the table nodes and updated without boxing, so
+ * frequency tables and similar statistics can be maintained without
+ * allocating a {@code Long} or an {@link
+ * java.util.concurrent.atomic.AtomicLong} per update or per key, as
+ * is needed with {@code ConcurrentHashMap<K,Long>.merge} or {@code
+ * ConcurrentHashMap<K,LongAdder>}.
+ *
+ * <p>A key that is not present has a count of zero.  Adding to an
+ * absent key inserts it.  Keys stay in the map, possibly with a zero
+ * count, until they are {@linkplain #remove removed} or the map is
+ * {@linkplain #clear cleared}.  Keys may not be null.
+ *
+ * <p>Retrievals and updates of existing keys usually do not block;
+ * insertion and removal of keys use the same bin-level locking and
+ * cooperative resizing as {@link ConcurrentHashMap}.  Each count is
+ * updated by compare-and-swap; when many threads update the same key
+ * at once, {@link #addTo} spreads the updates over a small set of
+ * cells in the manner of {@link java.util.concurrent.atomic.LongAdder},
+ * so that hot keys do not serialize their updaters.  A count that has
+ * been spread in this way is read as a sum, which is not an atomic
+ * snapshot in the presence of concurrent updates.
+ *
+ * <p>Bulk operations ({@link #forEach(ObjLongConsumer)}, {@link
+ * #sumAll}, {@link #snapshotAndReset} and the parallel {@link
+ * #forEach(long, ObjLongConsumer)} and {@link #reduceValuesToLong})
+ * are weakly consistent in the same sense as {@code
+ * ConcurrentHashMap} traversals: each key present throughout the
+ * operation is visited exactly once.
+ *
+ * @param <K> the type of keys maintained by this map
+ * @see ConcurrentHashMap
+ */
+public class ConcurrentCounterMap<K> {
+
+    /*
+     * Overview:
+     *
+     * The table, resizing protocol (sizeCtl, transferIndex,
+     * ForwardingNodes, helpTransfer) and locking of bins are the same
+     * as in ConcurrentHashMap; see its internal documentation.  The
+     * differences are:
+     *
+     * Nodes hold a mutable count, and updaters hold on to the node
+     * they found while adding to it.  So unlike ConcurrentHashMap,
+     * transfer never copies nodes: it relinks the existing nodes of
+     * each bin into the lo and hi lists, preserving their relative
+     * order.  Because every next pointer always refers to a node that
+     * was later in the original list (or is null), lock-free readers
+     * of the old bin still terminate, but may miss nodes that were
+     * moved behind them.  A lock-free lookup that finds its node is
+     * always right; a miss is trusted only if no resize can have
+     * started since the table was read, that is, if nextTable is null
+     * and table is unchanged (transfer publishes the new table before
+     * clearing nextTable).  Otherwise the lookup is repeated under the
+     * bin lock.  Bulk traversals always lock each bin briefly to copy
+     * its nodes, and then visit them outside the lock.  Bins are never
+     * treeified.
+     *
+     * Counts are added by CAS on node.value.  On CAS failure, addTo
+     * falls back to per-node ConcurrentHashMap.CounterCells, following
+     * addCount/fullAddCount with node.cells and node.cellsBusy in place
+     * of counterCells and cellsBusy.  Counts are read as value plus the
+     * sum of the cells.
+     *
+     * Removal unlinks the node under the bin lock, sets node.removed,
+     * and then drains the node, atomically swapping value and each
+     * cell with zero.  Draining holds node.cellsBusy so that no cell
+     * is attached while it runs.  An updater that may have found the
+     * node before it was unlinked checks node.removed after adding.
+     * If it is set, the updater drains the node itself and adds what
+     * it got back to the map.  Since both the add and the read of
+     * removed are volatile, either the remover's drain or the
+     * updater's sees each amount, and getAndSet ensures that exactly
+     * one of them takes it.  snapshotAndReset drains live nodes the
+     * same way without removing them.
+     */
+
+    /* ---------------- Constants -------------- */
+
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final int MIN_TRANSFER_STRIDE = 16;
+    private static final int RESIZE_STAMP_BITS = 16;
+    private static final int MAX_RESIZERS = (1 << (32 - RESIZE_STAMP_BITS)) - 1;
+    private static final int RESIZE_STAMP_SHIFT = 32 - RESIZE_STAMP_BITS;
+
+    static final int MOVED     = -1; // hash for forwarding nodes
+    static final int HASH_BITS = 0x7fffffff; // usable bits of normal node hash
+
+    static final int NCPU = Runtime.getRuntime().availableProcessors();
+
+    /* ---------------- Nodes -------------- */
+
+    /**
+     * Table entry, holding the key and its count.
+     */
+    static class Node<K> {
+        final int hash;
+        final K key;
+        volatile long value;
+        volatile Node<K> next;
+        volatile CounterCell[] cells;
+        volatile int cellsBusy;
+        volatile boolean removed;
+
+        Node(int hash, K key, long value, Node<K> next) {
+            this.hash = hash;
+            this.key = key;
+            this.value = value;
+            this.next = next;
+        }
+    }
+
+    /**
+     * A node inserted at head of bins during transfer operations.
+     */
+    static final class ForwardingNode<K> extends Node<K> {
+        final Node<K>[] nextTable;
+        ForwardingNode(Node<K>[] tab) {
+            super(MOVED, null, 0L, null);
+            this.nextTable = tab;
+        }
+    }
+
+    /**
+     * A reusable buffer of nodes copied out of bins by traversals.
+     */
+    static final class NodeBuffer<K> {
+        @SuppressWarnings("unchecked")
+        Node<K>[] nodes = (Node<K>[])new Node<?>[8];
+        int size;
+
+        void add(Node<K> p) {
+            if (size == nodes.length)
+                nodes = java.util.Arrays.copyOf(nodes, size << 1);
+            nodes[size++] = p;
+        }
+    }
+
+    /* ---------------- Static utilities -------------- */
+
+    static final int spread(int h) {
+        return (h ^ (h >>> 16)) & HASH_BITS;
+    }
+
+    private static final int tableSizeFor(int c) {
+        int n = c - 1;
+        n |= n >>> 1;
+        n |= n >>> 2;
+        n |= n >>> 4;
+        n |= n >>> 8;
+        n |= n >>> 16;
+        return (n < 0) ? 1 : (n >= MAXIMUM_CAPACITY) ? MAXIMUM_CAPACITY : n + 1;
+    }
+
+    /* ---------------- Table element access -------------- */
+
+    @SuppressWarnings("unchecked")
+    static final <K> Node<K> tabAt(Node<K>[] tab, int i) {
+        return (Node<K>)U.getObjectVolatile(tab, ((long)i << ASHIFT) + ABASE);
+    }
+
+    static final <K> boolean casTabAt(Node<K>[] tab, int i,
+                                      Node<K> c, Node<K> v) {
+        return U.compareAndSwapObject(tab, ((long)i << ASHIFT) + ABASE, c, v);
+    }
+
+    static final <K> void setTabAt(Node<K>[] tab, int i, Node<K> v) {
+        U.putObjectVolatile(tab, ((long)i << ASHIFT) + ABASE, v);
+    }
+
+    /* ---------------- Fields -------------- */
+
+    /** The array of bins. Lazily initialized upon first insertion. */
+    transient volatile Node<K>[] table;
+
+    /** The next table to use; non-null only while resizing. */
+    private transient volatile Node<K>[] nextTable;
+
+    /** Table initialization and resizing control; see ConcurrentHashMap. */
+    private transient volatile int sizeCtl;
+
+    /** The next table index (plus one) to split while resizing. */
+    private transient volatile int transferIndex;
+
+    /** Number of keys. */
+    private final LongAdder counter = new LongAdder();
+
+    /* ---------------- Public operations -------------- */
+
+    /**
+     * Creates a new, empty map with the default initial table size (16).
+     */
+    public ConcurrentCounterMap() {
+    }
+
+    /**
+     * Creates a new, empty map with an initial table size
+     * accommodating the specified number of keys without the need
+     * to dynamically resize.
+     *
+     * @param initialCapacity the initial capacity
+     * @throws IllegalArgumentException if the initial capacity is
+     *         negative
+     */
+    public ConcurrentCounterMap(int initialCapacity) {
+        if (initialCapacity < 0)
+            throw new IllegalArgumentException();
+        this.sizeCtl = ((initialCapacity >= (MAXIMUM_CAPACITY >>> 1)) ?
+                        MAXIMUM_CAPACITY :
+                        tableSizeFor(initialCapacity + (initialCapacity >>> 1) + 1));
+    }
+
+    /**
+     * Returns the number of keys in this map.  If the map contains
+     * more than {@code Integer.MAX_VALUE} keys, returns {@code
+     * Integer.MAX_VALUE}.
+     *
+     * @return the number of keys in this map
+     */
+    public int size() {
+        long n = counter.sum();
+        return ((n < 0L) ? 0 :
+                (n > (long)Integer.MAX_VALUE) ? Integer.MAX_VALUE :
+                (int)n);
+    }
+
+    /**
+     * Returns the number of keys.  This method should be used
+     * instead of {@link #size} because a map may contain more
+     * keys than can be represented as an int.
+     *
+     * @return the number of keys
+     */
+    public long mappingCount() {
+        long n = counter.sum();
+        return (n < 0L) ? 0L : n;
+    }
+
+    /**
+     * Returns {@code true} if this map contains no keys.
+     *
+     * @return {@code true} if this map contains no keys
+     */
+    public boolean isEmpty() {
+        return counter.sum() <= 0L;
+    }
+
+    /**
+     * Returns the count of the specified key, or zero if this map
+     * does not contain the key.
+     *
+     * @param key the key
+     * @return the count of the key
+     * @throws NullPointerException if the specified key is null
+     */
+    public long get(Object key) {
+        Node<K> p = findNode(spread(key.hashCode()), key);
+        return (p == null) ? 0L : sumOf(p);
+    }
+
+    /**
+     * Tests if the specified key is present in this map, possibly
+     * with a count of zero.
+     *
+     * @param key the key
+     * @return {@code true} if the key is present in this map
+     * @throws NullPointerException if the specified key is null
+     */
+    public boolean containsKey(Object key) {
+        Node<K> p = findNode(spread(key.hashCode()), key);
+        return p != null && !p.removed;
+    }
+
+    /**
+     * Adds the given value to the count of the specified key,
+     * inserting the key if it is absent.  Under contention for the
+     * key, the update may be applied to one of several cells that
+     * are summed on retrieval.
+     *
+     * @param key the key
+     * @param delta the value to add
+     * @throws NullPointerException if the specified key is null
+     */
+    public void addTo(K key, long delta) {
+        add(key, delta, false);
+    }
+
+    /**
+     * Adds one to the count of the specified key.  Equivalent to
+     * {@code addTo(key, 1L)}.
+     *
+     * @param key the key
+     * @throws NullPointerException if the specified key is null
+     */
+    public void increment(K key) {
+        add(key, 1L, false);
+    }
+
+    /**
+     * Subtracts one from the count of the specified key.  Equivalent
+     * to {@code addTo(key, -1L)}.
+     *
+     * @param key the key
+     * @throws NullPointerException if the specified key is null
+     */
+    public void decrement(K key) {
+        add(key, -1L, false);
+    }
+
+    /**
+     * Atomically adds the given value to the count of the specified
+     * key, inserting the key if it is absent, and returns the updated
+     * count.  The result is exact unless concurrent {@link #addTo}
+     * calls have spread the count of the key over several cells, in
+     * which case it is a sum read after the update.
+     *
+     * @param key the key
+     * @param delta the value to add
+     * @return the updated count
+     * @throws NullPointerException if the specified key is null
+     */
+    public long addAndGet(K key, long delta) {
+        return add(key, delta, true);
+    }
+
+    /**
+     * Removes the specified key and returns its final count.
+     *
+     * @param key the key
+     * @return the count of the key, or zero if it was not present
+     * @throws NullPointerException if the specified key is null
+     */
+    public long remove(Object key) {
+        int h = spread(key.hashCode());
+        for (Node<K>[] tab = table;;) {
+            Node<K> f; int n, i;
+            if (tab == null || (n = tab.length) == 0 ||
+                (f = tabAt(tab, i = (n - 1) & h)) == null)
+                return 0L;
+            else if (f.hash == MOVED)
+                tab = helpTransfer(tab, f);
+            else {
+                Node<K> r = null;
+                boolean validated = false;
+                synchronized (f) {
+                    if (tabAt(tab, i) == f) {
+                        validated = true;
+                        for (Node<K> e = f, pred = null; e != null;
+                             pred = e, e = e.next) {
+                            K ek;
+                            if (e.hash == h &&
+                                ((ek = e.key) == key || key.equals(ek))) {
+                                if (pred != null)
+                                    pred.next = e.next;
+                                else
+                                    setTabAt(tab, i, e.next);
+                                e.removed = true;
+                                r = e;
+                                break;
+                            }
+                        }
+                    }
+                }
+                if (validated) {
+                    if (r == null)
+                        return 0L;
+                    addCount(-1L, -1);
+                    return drain(r);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes all of the keys from this map.
+     */
+    public void clear() {
+        long delta = 0L; // negative number of deletions
+        int i = 0;
+        Node<K>[] tab = table;
+        while (tab != null && i < tab.length) {
+            Node<K> f = tabAt(tab, i);
+            if (f == null)
+                ++i;
+            else if (f.hash == MOVED) {
+                tab = helpTransfer(tab, f);
+                i = 0; // restart
+            }
+            else {
+                synchronized (f) {
+                    if (tabAt(tab, i) == f) {
+                        for (Node<K> e = f; e != null; e = e.next) {
+                            e.removed = true;
+                            drain(e);
+                            --delta;
+                        }
+                        setTabAt(tab, i++, null);
+                    }
+                }
+            }
+        }
+        if (delta != 0L)
+            addCount(delta, -1);
+    }
+
+    /**
+     * Returns the sum of the counts of all keys.
+     *
+     * @return the sum of all counts
+     */
+    public long sumAll() {
+        long s = 0L;
+        Node<K>[] tab = table;
+        if (tab != null) {
+            NodeBuffer<K> buf = new NodeBuffer<K>();
+            for (int i = 0; i < tab.length; ++i) {
+                buf.size = 0;
+                collectBin(tab, i, buf);
+                for (int j = 0; j < buf.size; ++j)
+                    s += sumOf(buf.nodes[j]);
+            }
+        }
+        return s;
+    }
+
+    /**
+     * Returns a new map holding the counts of all keys, resetting
+     * each count in this map to zero.  Keys remain in this map.
+     * Every update is reflected either in the returned map or in
+     * this map afterwards, never both and never neither, even when
+     * performed concurrently with this method.
+     *
+     * @return a map of the counts taken
+     */
+    public ConcurrentCounterMap<K> snapshotAndReset() {
+        ConcurrentCounterMap<K> m = new ConcurrentCounterMap<K>(size());
+        Node<K>[] tab = table;
+        if (tab != null) {
+            NodeBuffer<K> buf = new NodeBuffer<K>();
+            for (int i = 0; i < tab.length; ++i) {
+                buf.size = 0;
+                collectBin(tab, i, buf);
+                for (int j = 0; j < buf.size; ++j) {
+                    Node<K> p = buf.nodes[j];
+                    if (!p.removed)
+                        m.add(p.key, drain(p), false);
+                }
+            }
+        }
+        return m;
+    }
+
+    /**
+     * Performs the given action for each key and its count.
+     *
+     * @param action the action
+     * @throws NullPointerException if the action is null
+     */
+    public void forEach(ObjLongConsumer<? super K> action) {
+        if (action == null)
+            throw new NullPointerException();
+        Node<K>[] tab = table;
+        if (tab != null)
+            forEachIn(tab, 0, tab.length, action);
+    }
+
+    /**
+     * Performs the given action for each key and its count, in
+     * parallel if the map is large enough.
+     *
+     * @param parallelismThreshold the (estimated) number of keys
+     * needed for this operation to be executed in parallel
+     * @param action the action
+     * @throws NullPointerException if the action is null
+     */
+    public void forEach(long parallelismThreshold,
+                        ObjLongConsumer<? super K> action) {
+        if (action == null)
+            throw new NullPointerException();
+        Node<K>[] tab = table;
+        if (tab != null)
+            new ForEachCountTask<K>
+                (null, batchFor(parallelismThreshold), 0, tab.length, tab,
+                 action).invoke();
+    }
+
+    /**
+     * Returns the result of accumulating the given transformation
+     * of all counts using the given reducer to combine values,
+     * and the given basis as an identity value, in parallel if the
+     * map is large enough.
+     *
+     * @param parallelismThreshold the (estimated) number of keys
+     * needed for this operation to be executed in parallel
+     * @param transformer a function returning the transformation
+     * for a count
+     * @param basis the identity (initial default value) for the reduction
+     * @param reducer a commutative associative combining function
+     * @return the result of accumulating the given transformation
+     * of all counts
+     * @throws NullPointerException if the transformer or reducer is null
+     */
+    public long reduceValuesToLong(long parallelismThreshold,
+                                   LongUnaryOperator transformer,
+                                   long basis,
+                                   LongBinaryOperator reducer) {
+        if (transformer == null || reducer == null)
+            throw new NullPointerException();
+        Node<K>[] tab = table;
+        if (tab == null)
+            return basis;
+        return new ReduceCountsTask<K>
+            (null, batchFor(parallelismThreshold), 0, tab.length, tab,
+             null, transformer, basis, reducer).invoke();
+    }
+
+    /**
+     * Returns a string representation of this map, in the form
+     * {@code {key1=count1, key2=count2}}.
+     *
+     * @return a string representation of this map
+     */
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append('{');
+        forEach(new ObjLongConsumer<K>() {
+                public void accept(K k, long v) {
+                    if (sb.length() > 1)
+                        sb.append(',').append(' ');
+                    sb.append(k).append('=').append(v);
+                }
+            });
+        return sb.append('}').toString();
+    }
+
+    /* ---------------- Lookup and update -------------- */
+
+    /**
+     * Returns the node for the given key, or null if none.
+     */
+    final Node<K> findNode(int h, Object key) {
+        Node<K>[] tab; Node<K> e; int n; K ek;
+        if ((tab = table) == null || (n = tab.length) == 0 ||
+            (e = tabAt(tab, (n - 1) & h)) == null)
+            return null;
+        if (e.hash != MOVED) {
+            do {
+                if (e.hash == h && ((ek = e.key) == key || key.equals(ek)))
+                    return e;
+            } while ((e = e.next) != null);
+            if (nextTable == null && table == tab)
+                return null; // no relinking since the table was read
+        }
+        return lockedFindNode(h, key);
+    }
+
+    /**
+     * Returns the node for the given key, searching bins under
+     * their locks.
+     */
+    private Node<K> lockedFindNode(int h, Object key) {
+        for (Node<K>[] tab = table;;) {
+            Node<K> f; int n, i;
+            if (tab == null || (n = tab.length) == 0 ||
+                (f = tabAt(tab, i = (n - 1) & h)) == null)
+                return null;
+            if (f.hash == MOVED)
+                tab = ((ForwardingNode<K>)f).nextTable;
+            else {
+                synchronized (f) {
+                    if (tabAt(tab, i) == f) {
+                        K ek;
+                        for (Node<K> e = f; e != null; e = e.next) {
+                            if (e.hash == h &&
+                                ((ek = e.key) == key || key.equals(ek)))
+                                return e;
+                        }
+                        return null;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Implementation for addTo and addAndGet.  If exact, adds only
+     * by CAS on the node value and returns the updated count.
+     */
+    final long add(K key, long x, boolean exact) {
+        if (key == null) throw new NullPointerException();
+        int h = spread(key.hashCode());
+        Node<K> p;
+        if ((p = findNode(h, key)) == null &&
+            (p = insertNode(h, key, x)) == null)
+            return x;
+        long v;
+        if (exact) {
+            long b;
+            do {} while (!U.compareAndSwapLong(p, VALUE, b = p.value, b + x));
+            CounterCell[] as = p.cells;
+            v = b + x + ((as == null) ? 0L : sumOf(as));
+        }
+        else {
+            addToNode(p, x);
+            v = 0L;
+        }
+        if (p.removed) {
+            long d = drain(p);
+            if (d != 0L)
+                add(key, d, false);
+        }
+        return v;
+    }
+
+    /**
+     * Inserts a node with the given count unless the key is present.
+     *
+     * @return null if inserted, else the existing node
+     */
+    private Node<K> insertNode(int h, K key, long x) {
+        for (Node<K>[] tab = table;;) {
+            Node<K> f; int n, i;
+            if (tab == null || (n = tab.length) == 0)
+                tab = initTable();
+            else if ((f = tabAt(tab, i = (n - 1) & h)) == null) {
+                if (casTabAt(tab, i, null, new Node<K>(h, key, x, null))) {
+                    addCount(1L, 1);
+                    return null;
+                }
+            }
+            else if (f.hash == MOVED)
+                tab = helpTransfer(tab, f);
+            else {
+                Node<K> found = null;
+                int binCount = 0;
+                synchronized (f) {
+                    if (tabAt(tab, i) == f) {
+                        binCount = 1;
+                        for (Node<K> e = f;; ++binCount) {
+                            K ek; Node<K> next;
+                            if (e.hash == h &&
+                                ((ek = e.key) == key || key.equals(ek))) {
+                                found = e;
+                                break;
+                            }
+                            if ((next = e.next) == null) {
+                                e.next = new Node<K>(h, key, x, null);
+                                break;
+                            }
+                            e = next;
+                        }
+                    }
+                }
+                if (binCount != 0) {
+                    if (found != null)
+                        return found;
+                    addCount(1L, binCount);
+                    return null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds x to the count of p, using its cells if the CAS of its
+     * value fails.
+     */
+    private static <K> void addToNode(Node<K> p, long x) {
+        CounterCell[] as; long b, v; int m; CounterCell a;
+        if ((as = p.cells) != null ||
+            !U.compareAndSwapLong(p, VALUE, b = p.value, b + x)) {
+            boolean uncontended = true;
+            if (as == null || (m = as.length - 1) < 0 ||
+                (a = as[ThreadLocalRandom.getProbe() & m]) == null ||
+                !(uncontended =
+                  U.compareAndSwapLong(a, CELLVALUE, v = a.value, v + x)))
+                fullAddToNode(p, x, uncontended);
+        }
+    }
+
+    // See ConcurrentHashMap.fullAddCount
+    private static <K> void fullAddToNode(Node<K> p, long x,
+                                          boolean wasUncontended) {
+        int h;
+        if ((h = ThreadLocalRandom.getProbe()) == 0) {
+            ThreadLocalRandom.localInit();      // force initialization
+            h = ThreadLocalRandom.getProbe();
+            wasUncontended = true;
+        }
+        boolean collide = false;                // True if last slot nonempty
+        for (;;) {
+            CounterCell[] as; CounterCell a; int n; long v;
+            if ((as = p.cells) != null && (n = as.length) > 0) {
+                if ((a = as[(n - 1) & h]) == null) {
+                    if (p.cellsBusy == 0) {          // Try to attach new Cell
+                        CounterCell r = new CounterCell(x); // Optimistic create
+                        if (p.cellsBusy == 0 &&
+                            U.compareAndSwapInt(p, CELLSBUSY, 0, 1)) {
+                            boolean created = false;
+                            try {               // Recheck under lock
+                                CounterCell[] rs; int m, j;
+                                if ((rs = p.cells) != null &&
+                                    (m = rs.length) > 0 &&
+                                    rs[j = (m - 1) & h] == null) {
+                                    rs[j] = r;
+                                    created = true;
+                                }
+                            } finally {
+                                p.cellsBusy = 0;
+                            }
+                            if (created)
+                                break;
+                            continue;           // Slot is now non-empty
+                        }
+                    }
+                    collide = false;
+                }
+                else if (!wasUncontended)       // CAS already known to fail
+                    wasUncontended = true;      // Continue after rehash
+                else if (U.compareAndSwapLong(a, CELLVALUE, v = a.value, v + x))
+                    break;
+                else if (p.cells != as || n >= NCPU)
+                    collide = false;            // At max size or stale
+                else if (!collide)
+                    collide = true;
+                else if (p.cellsBusy == 0 &&
+                         U.compareAndSwapInt(p, CELLSBUSY, 0, 1)) {
+                    try {
+                        if (p.cells == as) {    // Expand table unless stale
+                            CounterCell[] rs = new CounterCell[n << 1];
+                            for (int i = 0; i < n; ++i)
+                                rs[i] = as[i];
+                            p.cells = rs;
+                        }
+                    } finally {
+                        p.cellsBusy = 0;
+                    }
+                    collide = false;
+                    continue;                   // Retry with expanded table
+                }
+                h = ThreadLocalRandom.advanceProbe(h);
+            }
+            else if (p.cellsBusy == 0 && p.cells == as &&
+                     U.compareAndSwapInt(p, CELLSBUSY, 0, 1)) {
+                boolean init = false;
+                try {                           // Initialize table
+                    if (p.cells == as) {
+                        CounterCell[] rs = new CounterCell[2];
+                        rs[h & 1] = new CounterCell(x);
+                        p.cells = rs;
+                        init = true;
+                    }
+                } finally {
+                    p.cellsBusy = 0;
+                }
+                if (init)
+                    break;
+            }
+            else if (U.compareAndSwapLong(p, VALUE, v = p.value, v + x))
+                break;                          // Fall back on using value
+        }
+    }
+
+    /**
+     * Returns the count of p.
+     */
+    static final <K> long sumOf(Node<K> p) {
+        CounterCell[] as = p.cells;
+        long sum = p.value;
+        return (as == null) ? sum : sum + sumOf(as);
+    }
+
+    static final long sumOf(CounterCell[] as) {
+        long sum = 0L;
+        for (CounterCell a : as) {
+            if (a != null)
+                sum += a.value;
+        }
+        return sum;
+    }
+
+    /**
+     * Atomically takes the count of p, leaving zero.
+     */
+    static final <K> long drain(Node<K> p) {
+        while (!U.compareAndSwapInt(p, CELLSBUSY, 0, 1))
+            Thread.yield(); // cells are attached only briefly
+        try {
+            long sum = U.getAndSetLong(p, VALUE, 0L);
+            CounterCell[] as = p.cells;
+            if (as != null) {
+                for (CounterCell a : as) {
+                    if (a != null)
+                        sum += U.getAndSetLong(a, CELLVALUE, 0L);
+                }
+            }
+            return sum;
+        } finally {
+            p.cellsBusy = 0;
+        }
+    }
+
+    /* ---------------- Traversal -------------- */
+
+    /**
+     * Appends the nodes of bin i of tab to buf, following forwarding
+     * nodes into the bins they were split into.  Each bin is read
+     * under its lock, so that no nodes are missed while they are
+     * being relinked.
+     */
+    static final <K> void collectBin(Node<K>[] tab, int i, NodeBuffer<K> buf) {
+        for (Node<K> f;;) {
+            if ((f = tabAt(tab, i)) == null)
+                return;
+            if (f.hash == MOVED) {
+                Node<K>[] nt = ((ForwardingNode<K>)f).nextTable;
+                collectBin(nt, i, buf);
+                collectBin(nt, i + tab.length, buf);
+                return;
+            }
+            synchronized (f) {
+                if (tabAt(tab, i) == f) {
+                    for (Node<K> e = f; e != null; e = e.next)
+                        buf.add(e);
+                    return;
+                }
+            }
+        }
+    }
+
+    static final <K> void forEachIn(Node<K>[] tab, int from, int to,
+                                    ObjLongConsumer<? super K> action) {
+        NodeBuffer<K> buf = new NodeBuffer<K>();
+        for (int i = from; i < to; ++i) {
+            buf.size = 0;
+            collectBin(tab, i, buf);
+            for (int j = 0; j < buf.size; ++j) {
+                Node<K> p = buf.nodes[j];
+                action.accept(p.key, sumOf(p));
+            }
+        }
+    }
+
+    static final <K> long reduceIn(Node<K>[] tab, int from, int to,
+                                   LongUnaryOperator transformer, long r,
+                                   LongBinaryOperator reducer) {
+        NodeBuffer<K> buf = new NodeBuffer<K>();
+        for (int i = from; i < to; ++i) {
+            buf.size = 0;
+            collectBin(tab, i, buf);
+            for (int j = 0; j < buf.size; ++j)
+                r = reducer.applyAsLong
+                    (r, transformer.applyAsLong(sumOf(buf.nodes[j])));
+        }
+        return r;
+    }
+
+    /* ---------------- Table Initialization and Resizing -------------- */
+
+    static final int resizeStamp(int n) {
+        return Integer.numberOfLeadingZeros(n) | (1 << (RESIZE_STAMP_BITS - 1));
+    }
+
+    /**
+     * Initializes table, using the size recorded in sizeCtl.
+     */
+    private final Node<K>[] initTable() {
+        Node<K>[] tab; int sc;
+        while ((tab = table) == null || tab.length == 0) {
+            if ((sc = sizeCtl) < 0)
+                Thread.yield(); // lost initialization race; just spin
+            else if (U.compareAndSwapInt(this, SIZECTL, sc, -1)) {
+                try {
+                    if ((tab = table) == null || tab.length == 0) {
+                        int n = (sc > 0) ? sc : DEFAULT_CAPACITY;
+                        @SuppressWarnings("unchecked")
+                        Node<K>[] nt = (Node<K>[])new Node<?>[n];
+                        table = tab = nt;
+                        sc = n - (n >>> 2);
+                    }
+                } finally {
+                    sizeCtl = sc;
+                }
+                break;
+            }
+        }
+        return tab;
+    }
+
+    /**
+     * Adds to count, and if table is too small and not already
+     * resizing, initiates transfer. If already resizing, helps
+     * perform transfer if work is available.
+     *
+     * @param x the count to add
+     * @param check if <0, don't check resize
+     */
+    private final void addCount(long x, int check) {
+        counter.add(x);
+        if (check >= 0) {
+            Node<K>[] tab, nt; int n, sc; long s = counter.sum();
+            while (s >= (long)(sc = sizeCtl) && (tab = table) != null &&
+                   (n = tab.length) < MAXIMUM_CAPACITY) {
+                int rs = resizeStamp(n);
+                if (sc < 0) {
+                    if ((sc >>> RESIZE_STAMP_SHIFT) != rs || sc == rs + 1 ||
+                        sc == rs + MAX_RESIZERS || (nt = nextTable) == null ||
+                        transferIndex <= 0)
+                        break;
+                    if (U.compareAndSwapInt(this, SIZECTL, sc, sc + 1))
+                        transfer(tab, nt);
+                }
+                else if (U.compareAndSwapInt(this, SIZECTL, sc,
+                                             (rs << RESIZE_STAMP_SHIFT) + 2))
+                    transfer(tab, null);
+                s = counter.sum();
+            }
+        }
+    }
+
+    /**
+     * Helps transfer if a resize is in progress.
+     */
+    final Node<K>[] helpTransfer(Node<K>[] tab, Node<K> f) {
+        Node<K>[] nextTab; int sc;
+        if (tab != null && (f instanceof ForwardingNode) &&
+            (nextTab = ((ForwardingNode<K>)f).nextTable) != null) {
+            int rs = resizeStamp(tab.length);
+            while (nextTab == nextTable && table == tab &&
+                   (sc = sizeCtl) < 0) {
+                if ((sc >>> RESIZE_STAMP_SHIFT) != rs || sc == rs + 1 ||
+                    sc == rs + MAX_RESIZERS || transferIndex <= 0)
+                    break;
+                if (U.compareAndSwapInt(this, SIZECTL, sc, sc + 1)) {
+                    transfer(tab, nextTab);
+                    break;
+                }
+            }
+            return nextTab;
+        }
+        return table;
+    }
+
+    /**
+     * Relinks the nodes in each bin into the new table.  Nodes are
+     * never copied, since updaters may be holding them.
+     */
+    private final void transfer(Node<K>[] tab, Node<K>[] nextTab) {
+        int n = tab.length, stride;
+        if ((stride = (NCPU > 1) ? (n >>> 3) / NCPU : n) < MIN_TRANSFER_STRIDE)
+            stride = MIN_TRANSFER_STRIDE; // subdivide range
+        if (nextTab == null) {            // initiating
+            try {
+                @SuppressWarnings("unchecked")
+                Node<K>[] nt = (Node<K>[])new Node<?>[n << 1];
+                nextTab = nt;
+            } catch (Throwable ex) {      // try to cope with OOME
+                sizeCtl = Integer.MAX_VALUE;
+                return;
+            }
+            nextTable = nextTab;
+            transferIndex = n;
+        }
+        int nextn = nextTab.length;
+        ForwardingNode<K> fwd = new ForwardingNode<K>(nextTab);
+        boolean advance = true;
+        boolean finishing = false; // to ensure sweep before committing nextTab
+        for (int i = 0, bound = 0;;) {
+            Node<K> f;
+            while (advance) {
+                int nextIndex, nextBound;
+                if (--i >= bound || finishing)
+                    advance = false;
+                else if ((nextIndex = transferIndex) <= 0) {
+                    i = -1;
+                    advance = false;
+                }
+                else if (U.compareAndSwapInt
+                         (this, TRANSFERINDEX, nextIndex,
+                          nextBound = (nextIndex > stride ?
+                                       nextIndex - stride : 0))) {
+                    bound = nextBound;
+                    i = nextIndex - 1;
+                    advance = false;
+                }
+            }
+            if (i < 0 || i >= n || i + n >= nextn) {
+                int sc;
+                if (finishing) {
+                    table = nextTab; // before nextTable; see findNode
+                    nextTable = null;
+                    sizeCtl = (n << 1) - (n >>> 1);
+                    return;
+                }
+                if (U.compareAndSwapInt(this, SIZECTL, sc = sizeCtl, sc - 1)) {
+                    if ((sc - 2) != resizeStamp(n) << RESIZE_STAMP_SHIFT)
+                        return;
+                    finishing = advance = true;
+                    i = n; // recheck before commit
+                }
+            }
+            else if ((f = tabAt(tab, i)) == null)
+                advance = casTabAt(tab, i, null, fwd);
+            else if (f.hash == MOVED)
+                advance = true; // already processed
+            else {
+                synchronized (f) {
+                    if (tabAt(tab, i) == f) {
+                        Node<K> ln = null, lt = null, hn = null, ht = null;
+                        for (Node<K> p = f, next; p != null; p = next) {
+                            next = p.next;
+                            if ((p.hash & n) == 0) {
+                                if (lt == null)
+                                    ln = p;
+                                else
+                                    lt.next = p;
+                                lt = p;
+                            }
+                            else {
+                                if (ht == null)
+                                    hn = p;
+                                else
+                                    ht.next = p;
+                                ht = p;
+                            }
+                        }
+                        if (lt != null)
+                            lt.next = null;
+                        if (ht != null)
+                            ht.next = null;
+                        setTabAt(nextTab, i, ln);
+                        setTabAt(nextTab, i + n, hn);
+                        setTabAt(tab, i, fwd);
+                        advance = true;
+                    }
+                }
+            }
+        }
+    }
+
+    /* ---------------- Bulk tasks -------------- */
+
+    /**
+     * Computes initial batch value for bulk tasks; see
+     * ConcurrentHashMap.batchFor.
+     */
+    final int batchFor(long b) {
+        long n; int sp = ForkJoinPool.getCommonPoolParallelism() << 2;
+        if (b == Long.MAX_VALUE || (n = counter.sum()) <= 1L || n < b)
+            return 0;
+        return (b <= 0L || (n /= b) >= sp) ? sp : (int)n;
+    }
+
+    @SuppressWarnings("serial")
+    static final class ForEachCountTask<K> extends CountedCompleter<Void> {
+        final Node<K>[] tab;
+        final ObjLongConsumer<? super K> action;
+        int batch, baseIndex, baseLimit;
+        ForEachCountTask(CountedCompleter<?> p, int b, int i, int f,
+                         Node<K>[] t, ObjLongConsumer<? super K> action) {
+            super(p);
+            this.batch = b; this.baseIndex = i; this.baseLimit = f;
+            this.tab = t; this.action = action;
+        }
+        public final void compute() {
+            final ObjLongConsumer<? super K> action;
+            if ((action = this.action) != null) {
+                for (int i = baseIndex, f, h; batch > 0 &&
+                         (h = ((f = baseLimit) + i) >>> 1) > i;) {
+                    addToPendingCount(1);
+                    new ForEachCountTask<K>
+                        (this, batch >>>= 1, baseLimit = h, f, tab,
+                         action).fork();
+                }
+                forEachIn(tab, baseIndex, baseLimit, action);
+                propagateCompletion();
+            }
+        }
+    }
+
+    @SuppressWarnings("serial")
+    static final class ReduceCountsTask<K> extends CountedCompleter<Long> {
+        final Node<K>[] tab;
+        final LongUnaryOperator transformer;
+        final LongBinaryOperator reducer;
+        final long basis;
+        int batch, baseIndex, baseLimit;
+        long result;
+        ReduceCountsTask<K> rights, nextRight;
+        ReduceCountsTask(CountedCompleter<?> p, int b, int i, int f,
+                         Node<K>[] t, ReduceCountsTask<K> nextRight,
+                         LongUnaryOperator transformer, long basis,
+                         LongBinaryOperator reducer) {
+            super(p);
+            this.batch = b; this.baseIndex = i; this.baseLimit = f;
+            this.tab = t; this.nextRight = nextRight;
+            this.transformer = transformer;
+            this.basis = basis; this.reducer = reducer;
+        }
+        public final Long getRawResult() { return result; }
+        public final void compute() {
+            final LongUnaryOperator transformer;
+            final LongBinaryOperator reducer;
+            if ((transformer = this.transformer) != null &&
+                (reducer = this.reducer) != null) {
+                long r = this.basis;
+                for (int i = baseIndex, f, h; batch > 0 &&
+                         (h = ((f = baseLimit) + i) >>> 1) > i;) {
+                    addToPendingCount(1);
+                    (rights = new ReduceCountsTask<K>
+                     (this, batch >>>= 1, baseLimit = h, f, tab,
+                      rights, transformer, r, reducer)).fork();
+                }
+                result = reduceIn(tab, baseIndex, baseLimit,
+                                  transformer, r, reducer);
+                CountedCompleter<?> c;
+                for (c = firstComplete(); c != null; c = c.nextComplete()) {
+                    @SuppressWarnings("unchecked")
+                    ReduceCountsTask<K>
+                        t = (ReduceCountsTask<K>)c,
+                        s = t.rights;
+                    while (s != null) {
+                        t.result = reducer.applyAsLong(t.result, s.result);
+                        s = t.rights = s.nextRight;
+                    }
+                }
+            }
+        }
+    }
+
+    // Unsafe mechanics
+    private static final sun.misc.Unsafe U;
+    private static final long SIZECTL;
+    private static final long TRANSFERINDEX;
+    private static final long VALUE;
+    private static final long CELLSBUSY;
+    private static final long CELLVALUE;
+    private static final long ABASE;
+    private static final int ASHIFT;
+
+    static {
+        try {
+            U = sun.misc.Unsafe.getUnsafe();
+            Class<?> k = ConcurrentCounterMap.class;
+            SIZECTL = U.objectFieldOffset
+                (k.getDeclaredField("sizeCtl"));
+            TRANSFERINDEX = U.objectFieldOffset
+                (k.getDeclaredField("transferIndex"));
+            Class<?> nk = Node.class;
+            VALUE = U.objectFieldOffset
+                (nk.getDeclaredField("value"));
+            CELLSBUSY = U.objectFieldOffset
+                (nk.getDeclaredField("cellsBusy"));
+            Class<?> ck = CounterCell.class;
+            CELLVALUE = U.objectFieldOffset
+                (ck.getDeclaredField("value"));
+            Class<?> ak = Node[].class;
+            ABASE = U.arrayBaseOffset(ak);
+            int scale = U.arrayIndexScale(ak);
+            if ((scale & (scale - 1)) != 0)
+                throw new Error("data type scale not a power of two");
+            ASHIFT = 31 - Integer.numberOfLeadingZeros(scale);
+        } catch (Exception e) {
+            throw new Error(e);
+        }
+    }
+}
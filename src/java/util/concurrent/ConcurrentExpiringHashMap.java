@@ -0,0 +1,784 @@
+/*
+ * Copyright (c) 2017, Oracle and/or its affiliates. All rights reserved.
+ * ORACLE PROPRIETARY/CONFIDENTIAL. Use is subject to license terms.
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ */
+
+package java.util.concurrent;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A {@link ConcurrentMap} whose entries expire a fixed time after
+ * they were last written (time-to-live), after they were last read or
+ * written (time-to-idle), or both.  The time-to-live may also be given
+ * per entry with {@link #put(Object, Object, long, TimeUnit)}.
+ *
+ * <p>An expired entry is immediately invisible to retrievals, updates
+ * and iteration, and behaves as if absent.  It is removed from the
+ * backing table later, when the map next performs maintenance.
+ * Expiration times are tracked in a hierarchical timer wheel, so
+ * removing expired entries costs time proportional to the number of
+ * entries that expire, not to the size of the map, and no background
+ * thread or periodic scan of the table is needed.  Maintenance is
+ * performed by writers, by {@link #size}, by reads that encounter an
+ * expired entry, and by {@link #cleanUp}; a map that is neither read
+ * nor written retains its expired entries until then.
+ *
+ * <p>Time is measured with {@link System#nanoTime}, so expiration is
+ * unaffected by changes to the wall clock.  Retrievals do not block.
+ * Iteration is in hash table order and does not count as access.
+ * Neither keys nor values may be null.
+ *
+ * @param <K> the type of keys maintained by this map
+ * @param <V> the type of mapped values
+ * @see ConcurrentLinkedHashMap
+ */
+public class ConcurrentExpiringHashMap<K,V> extends AbstractMap<K,V>
+    implements ConcurrentMap<K,V> {
+
+    /*
+     * Overview:
+     *
+     * Mappings are held in a ConcurrentHashMap from keys to Nodes, as
+     * in ConcurrentLinkedHashMap, and the node's value, state and
+     * expiration times are written under the node's monitor.  A node
+     * expires at the earlier of its write and access deadlines.
+     * Reads compare that against the clock, so an expired node is
+     * invisible as soon as its deadline passes; a time-to-idle read
+     * pushes the access deadline forward without locking, and only
+     * once it has moved by at least a tick, to avoid writing a shared
+     * line on every read.
+     *
+     * The timer wheel is guarded by evictionLock.  Writes that need
+     * the wheel to see a node (a new node with a deadline, a removal,
+     * or a deadline moved earlier) enqueue it in timerBuffer and call
+     * scheduleDrain, which loops on tryLock as in
+     * ConcurrentLinkedHashMap.  Each drain first applies the buffered
+     * nodes and then advances the wheel to the current time.
+     *
+     * The wheel has five levels of 64 buckets, with ticks of 2^20,
+     * 2^26, 2^32, 2^38 and 2^44 nanoseconds (about 1ms, 67ms, 4.3s,
+     * 4.6min and 4.9h), each level spanning one tick of the next.  A
+     * node is placed in the lowest level whose span covers its
+     * remaining time, in the bucket of its deadline; deadlines beyond
+     * the top level's span wrap around.  Advancing the wheel visits,
+     * on each level whose tick changed, the buckets from the previous
+     * tick through the current one.  Each visited bucket is detached
+     * and its nodes either expired or rescheduled, the latter
+     * typically into a lower level.  Deadlines only move later except
+     * through a write, which re-enqueues the node, so a node's bucket
+     * is never later than its deadline and extending a deadline (for
+     * example by reads under time-to-idle) costs nothing until the
+     * bucket fires.  Each node is rescheduled at most once per level
+     * before it expires, so expiring n entries takes O(n) time.
+     *
+     * Expiring a node re-checks its deadline under its monitor and
+     * then removes it from the table with remove(key, node), under
+     * the table's bin lock.  As in ConcurrentLinkedHashMap, buffered
+     * nodes may be applied after they were removed, so the wheel
+     * links a node only if it is still alive.
+     */
+
+    /* ---------------- Constants -------------- */
+
+    /** Deadline of a node that never expires. */
+    static final long NEVER = Long.MAX_VALUE;
+
+    /** Tick shifts of the timer wheel levels, lowest first. */
+    static final int[] SHIFTS = { 20, 26, 32, 38, 44 };
+
+    /** The number of buckets in each level, a power of two. */
+    static final int BUCKETS = 64;
+
+    /** Duration of the lowest level's tick, in nanoseconds. */
+    static final long TICK = 1L << 20;
+
+    /** Drain status values */
+    static final int IDLE       = 0;
+    static final int REQUIRED   = 1;
+    static final int PROCESSING = 2;
+
+    /** Node states */
+    static final int ALIVE   = 0;
+    static final int RETIRED = 1;
+
+    /* ---------------- Nodes -------------- */
+
+    /**
+     * A mapping in the hash table and, if it has a deadline, in a
+     * bucket of the timer wheel.  Bucket heads are sentinel nodes
+     * with null keys.
+     */
+    static final class Node<K,V> {
+        final K key;
+        volatile V value;
+        volatile long timeToLive;   // nanos or NEVER; written under monitor
+        volatile long writeExpiry;  // deadline for time-to-live
+        volatile long accessExpiry; // deadline for time-to-idle
+        volatile int state;         // ALIVE or RETIRED; written under monitor
+        volatile boolean timed;     // whether ever enqueued for the wheel
+
+        // Guarded by evictionLock
+        Node<K,V> prev, next;
+
+        Node(K key, V value, long timeToLive,
+             long writeExpiry, long accessExpiry) {
+            this.key = key;
+            this.value = value;
+            this.timeToLive = timeToLive;
+            this.writeExpiry = writeExpiry;
+            this.accessExpiry = accessExpiry;
+        }
+
+        /** Creates a bucket sentinel. */
+        Node() {
+            this.key = null;
+            prev = next = this;
+        }
+
+        boolean isAlive() { return state == ALIVE; }
+
+        /** Returns the time at which this node expires. */
+        long expiry() { return Math.min(writeExpiry, accessExpiry); }
+    }
+
+    /* ---------------- Fields -------------- */
+
+    /** The backing table. */
+    final ConcurrentHashMap<K,Node<K,V>> data;
+
+    /** Default time-to-live, and time-to-idle, in nanos or NEVER. */
+    final long timeToLive, timeToIdle;
+
+    /** Origin of the map's clock, so that times are non-negative. */
+    final long origin = System.nanoTime();
+
+    final ConcurrentLinkedQueue<Node<K,V>> timerBuffer =
+        new ConcurrentLinkedQueue<Node<K,V>>();
+    volatile int drainStatus;
+
+    final ReentrantLock evictionLock = new ReentrantLock();
+
+    // Guarded by evictionLock (wheelTime is volatile for writers' checks)
+    final Node<K,V>[][] wheel;
+    volatile long wheelTime;
+
+    private transient EntrySetView entrySet;
+
+    /* ---------------- Public operations -------------- */
+
+    /**
+     * Creates a new, empty map with the given time-to-live and
+     * time-to-idle.
+     *
+     * @param timeToLive how long after its last write an entry
+     *        expires, or zero for no limit
+     * @param timeToIdle how long after its last read or write an
+     *        entry expires, or zero for no limit
+     * @param unit the unit of both durations
+     * @throws IllegalArgumentException if either duration is negative
+     * @throws NullPointerException if unit is null
+     */
+    public ConcurrentExpiringHashMap(long timeToLive, long timeToIdle,
+                                     TimeUnit unit) {
+        this(16, timeToLive, timeToIdle, unit);
+    }
+
+    /**
+     * Creates a new, empty map with the given initial capacity,
+     * time-to-live and time-to-idle.
+     *
+     * @param initialCapacity the initial capacity of the backing table
+     * @param timeToLive how long after its last write an entry
+     *        expires, or zero for no limit
+     * @param timeToIdle how long after its last read or write an
+     *        entry expires, or zero for no limit
+     * @param unit the unit of both durations
+     * @throws IllegalArgumentException if the initial capacity or
+     *         either duration is negative
+     * @throws NullPointerException if unit is null
+     */
+    @SuppressWarnings("unchecked")
+    public ConcurrentExpiringHashMap(int initialCapacity, long timeToLive,
+                                     long timeToIdle, TimeUnit unit) {
+        if (initialCapacity < 0 || timeToLive < 0L || timeToIdle < 0L)
+            throw new IllegalArgumentException();
+        this.data = new ConcurrentHashMap<K,Node<K,V>>(initialCapacity);
+        this.timeToLive = toNanos(timeToLive, unit);
+        this.timeToIdle = toNanos(timeToIdle, unit);
+        this.wheel = (Node<K,V>[][])new Node<?,?>[SHIFTS.length][];
+        for (int i = 0; i < SHIFTS.length; ++i) {
+            Node<K,V>[] level = (Node<K,V>[])new Node<?,?>[BUCKETS];
+            for (int j = 0; j < BUCKETS; ++j)
+                level[j] = new Node<K,V>();
+            wheel[i] = level;
+        }
+    }
+
+    /**
+     * Returns the number of mappings, after removing expired entries
+     * if maintenance is not already in progress in another thread.
+     *
+     * @return the number of mappings in this map
+     */
+    public int size() {
+        scheduleDrain();
+        return data.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Returns the value to which the specified key is mapped, or
+     * {@code null} if this map contains no mapping for the key or the
+     * mapping has expired.  If the map has a time-to-idle, the read
+     * restarts it.
+     *
+     * @throws NullPointerException if the specified key is null
+     */
+    public V get(Object key) {
+        return getVal(key, true);
+    }
+
+    /**
+     * Returns the value to which the specified key is mapped, without
+     * recording an access.
+     *
+     * @param key the key whose associated value is to be returned
+     * @return the value, or {@code null} if there is no mapping or
+     *         the mapping has expired
+     * @throws NullPointerException if the specified key is null
+     */
+    public V getQuietly(Object key) {
+        return getVal(key, false);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException if the specified key is null
+     */
+    public boolean containsKey(Object key) {
+        return getVal(key, false) != null;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException if the specified value is null
+     */
+    public boolean containsValue(Object value) {
+        if (value == null)
+            throw new NullPointerException();
+        long now = now();
+        for (Node<K,V> n : data.values()) {
+            if (n.isAlive() && n.expiry() > now && value.equals(n.value))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Maps the specified key to the specified value, with the map's
+     * time-to-live.
+     *
+     * @throws NullPointerException if the specified key or value is null
+     */
+    public V put(K key, V value) {
+        return putVal(key, value, timeToLive, false);
+    }
+
+    /**
+     * Maps the specified key to the specified value, with the given
+     * time-to-live in place of the map's.  The time-to-live applies
+     * until the mapping is next written by a {@code put} method;
+     * {@code replace} restarts it.
+     *
+     * @param key key with which the specified value is to be associated
+     * @param value value to be associated with the specified key
+     * @param timeToLive how long after this write the entry expires,
+     *        or zero for no limit
+     * @param unit the unit of timeToLive
+     * @return the previous value associated with {@code key}, or
+     *         {@code null} if there was no unexpired mapping
+     * @throws IllegalArgumentException if timeToLive is negative
+     * @throws NullPointerException if the specified key, value or
+     *         unit is null
+     */
+    public V put(K key, V value, long timeToLive, TimeUnit unit) {
+        if (timeToLive < 0L)
+            throw new IllegalArgumentException();
+        return putVal(key, value, toNanos(timeToLive, unit), false);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException if the specified key or value is null
+     */
+    public V putIfAbsent(K key, V value) {
+        return putVal(key, value, timeToLive, true);
+    }
+
+    final V putVal(K key, V value, long ttl, boolean onlyIfAbsent) {
+        if (key == null || value == null)
+            throw new NullPointerException();
+        long now = now();
+        Node<K,V> node = new Node<K,V>(key, value, ttl, deadline(now, ttl),
+                                       deadline(now, timeToIdle));
+        for (;;) {
+            Node<K,V> prior = data.putIfAbsent(key, node);
+            if (prior == null) {
+                afterWrite(node, true, now);
+                return null;
+            }
+            V oldValue;
+            boolean sooner;
+            synchronized (prior) {
+                if (!prior.isAlive())
+                    continue;           // removed concurrently; retry
+                long expiry = prior.expiry();
+                oldValue = (expiry > now) ? prior.value : null;
+                if (oldValue != null && onlyIfAbsent)
+                    return oldValue;
+                prior.value = value;
+                prior.timeToLive = ttl;
+                prior.writeExpiry = node.writeExpiry;
+                prior.accessExpiry = node.accessExpiry;
+                sooner = prior.expiry() < expiry;
+            }
+            afterWrite(prior, sooner, now);
+            return oldValue;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException if the specified key is null
+     */
+    public V remove(Object key) {
+        Node<K,V> n = data.remove(key);
+        if (n == null)
+            return null;
+        V oldValue;
+        long now = now();
+        synchronized (n) {
+            oldValue = (n.expiry() > now) ? n.value : null;
+            n.state = RETIRED;
+        }
+        afterRemoval(n);
+        return oldValue;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException if the specified key is null
+     */
+    public boolean remove(Object key, Object value) {
+        Node<K,V> n = data.get(key);
+        if (n == null || value == null)
+            return false;
+        long now = now();
+        synchronized (n) {
+            if (!n.isAlive() || n.expiry() <= now ||
+                !value.equals(n.value) || !data.remove(key, n))
+                return false;
+            n.state = RETIRED;
+        }
+        afterRemoval(n);
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}  The replacement restarts the entry's
+     * time-to-live.
+     *
+     * @throws NullPointerException if the specified key or value is null
+     */
+    public V replace(K key, V value) {
+        if (key == null || value == null)
+            throw new NullPointerException();
+        Node<K,V> n = data.get(key);
+        if (n == null)
+            return null;
+        V oldValue;
+        long now = now();
+        synchronized (n) {
+            if (!n.isAlive() || n.expiry() <= now)
+                return null;
+            oldValue = n.value;
+            n.value = value;
+            n.writeExpiry = deadline(now, n.timeToLive);
+            n.accessExpiry = deadline(now, timeToIdle);
+        }
+        afterWrite(n, false, now);
+        return oldValue;
+    }
+
+    /**
+     * {@inheritDoc}  The replacement restarts the entry's
+     * time-to-live.
+     *
+     * @throws NullPointerException if any of the arguments are null
+     */
+    public boolean replace(K key, V oldValue, V newValue) {
+        if (key == null || oldValue == null || newValue == null)
+            throw new NullPointerException();
+        Node<K,V> n = data.get(key);
+        if (n == null)
+            return false;
+        long now = now();
+        synchronized (n) {
+            if (!n.isAlive() || n.expiry() <= now ||
+                !oldValue.equals(n.value))
+                return false;
+            n.value = newValue;
+            n.writeExpiry = deadline(now, n.timeToLive);
+            n.accessExpiry = deadline(now, timeToIdle);
+        }
+        afterWrite(n, false, now);
+        return true;
+    }
+
+    /**
+     * Removes all of the mappings from this map.
+     */
+    public void clear() {
+        for (K k : data.keySet())
+            remove(k);
+    }
+
+    /**
+     * Removes expired entries from the backing table, waiting for
+     * maintenance in progress in another thread to finish.  Calling
+     * this method is never needed for correctness.
+     */
+    public void cleanUp() {
+        ReentrantLock lock = evictionLock;
+        lock.lock();
+        try {
+            drainBuffers();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns a {@link Set} view of the unexpired mappings contained
+     * in this map.  Iteration is in hash table order and does not
+     * count as access.  The entries' {@code setValue} writes through
+     * to the map.
+     *
+     * @return the set view
+     */
+    public Set<Map.Entry<K,V>> entrySet() {
+        EntrySetView es;
+        return (es = entrySet) != null ? es : (entrySet = new EntrySetView());
+    }
+
+    final class EntrySetView extends AbstractSet<Map.Entry<K,V>> {
+        public int size() { return ConcurrentExpiringHashMap.this.size(); }
+        public void clear() { ConcurrentExpiringHashMap.this.clear(); }
+        public boolean contains(Object o) {
+            Object k, v, r; Map.Entry<?,?> e;
+            return ((o instanceof Map.Entry) &&
+                    (k = (e = (Map.Entry<?,?>)o).getKey()) != null &&
+                    (r = getQuietly(k)) != null &&
+                    (v = e.getValue()) != null &&
+                    (v == r || v.equals(r)));
+        }
+        public boolean remove(Object o) {
+            Object k, v; Map.Entry<?,?> e;
+            return ((o instanceof Map.Entry) &&
+                    (k = (e = (Map.Entry<?,?>)o).getKey()) != null &&
+                    (v = e.getValue()) != null &&
+                    ConcurrentExpiringHashMap.this.remove(k, v));
+        }
+        public Iterator<Map.Entry<K,V>> iterator() {
+            return new EntryIterator();
+        }
+    }
+
+    final class EntryIterator implements Iterator<Map.Entry<K,V>> {
+        final Iterator<Node<K,V>> it = data.values().iterator();
+        K nextKey, lastKey;
+        V nextValue;
+
+        EntryIterator() { advance(); }
+
+        /** Finds the next node that is alive and unexpired. */
+        private void advance() {
+            long now = now();
+            while (it.hasNext()) {
+                Node<K,V> n = it.next();
+                long expiry = n.expiry();
+                V v = n.value;
+                if (n.isAlive() && expiry > now) {
+                    nextKey = n.key;
+                    nextValue = v;
+                    return;
+                }
+            }
+            nextKey = null;
+            nextValue = null;
+        }
+
+        public boolean hasNext() { return nextKey != null; }
+
+        public Map.Entry<K,V> next() {
+            K k; V v;
+            if ((k = nextKey) == null)
+                throw new NoSuchElementException();
+            v = nextValue;
+            lastKey = k;
+            advance();
+            return new WriteThroughEntry(k, v);
+        }
+
+        public void remove() {
+            K k;
+            if ((k = lastKey) == null)
+                throw new IllegalStateException();
+            lastKey = null;
+            ConcurrentExpiringHashMap.this.remove(k);
+        }
+    }
+
+    final class WriteThroughEntry extends AbstractMap.SimpleEntry<K,V> {
+        private static final long serialVersionUID = 2953482186253862317L;
+        WriteThroughEntry(K key, V value) { super(key, value); }
+        public V setValue(V value) {
+            if (value == null) throw new NullPointerException();
+            V v = super.setValue(value);
+            put(getKey(), value);
+            return v;
+        }
+    }
+
+    /* ---------------- Time -------------- */
+
+    /** Returns the current time on the map's clock. */
+    final long now() {
+        return System.nanoTime() - origin;
+    }
+
+    /** Converts a duration to nanos, mapping zero to NEVER. */
+    static long toNanos(long duration, TimeUnit unit) {
+        long nanos = unit.toNanos(duration);
+        return (nanos == 0L) ? NEVER : nanos;
+    }
+
+    /** Returns the deadline a duration after now, saturating at NEVER. */
+    static long deadline(long now, long duration) {
+        return (duration >= NEVER - now) ? NEVER : now + duration;
+    }
+
+    final V getVal(Object key, boolean access) {
+        Node<K,V> n = data.get(key);
+        if (n == null)
+            return null;
+        long expiry = n.expiry();     // writers store the value first
+        V v = n.value;
+        long tti = timeToIdle;
+        if (expiry == NEVER && tti == NEVER)
+            return v;
+        long now = now();
+        if (expiry <= now) {
+            if (now - wheelTime >= TICK)
+                scheduleDrain();
+            return null;
+        }
+        if (access && tti != NEVER) {
+            long a = deadline(now, tti);
+            if (a - n.accessExpiry >= TICK)
+                n.accessExpiry = a;
+        }
+        return v;
+    }
+
+    /* ---------------- Maintenance -------------- */
+
+    /**
+     * Enqueues a written node for the wheel if it has a deadline that
+     * the wheel does not yet account for, and drains if needed.
+     */
+    final void afterWrite(Node<K,V> n, boolean schedule, long now) {
+        if (schedule && n.expiry() != NEVER) {
+            n.timed = true;
+            timerBuffer.add(n);
+            scheduleDrain();
+        }
+        else if (now - wheelTime >= TICK)
+            scheduleDrain();
+    }
+
+    /** Enqueues a removed node so that the wheel unlinks it. */
+    final void afterRemoval(Node<K,V> n) {
+        if (n.timed) {
+            timerBuffer.add(n);
+            scheduleDrain();
+        }
+    }
+
+    /**
+     * Performs maintenance if the eviction lock is available.  A
+     * thread that fails to acquire the lock leaves drainStatus
+     * REQUIRED, which makes the lock holder drain again.
+     */
+    final void scheduleDrain() {
+        ReentrantLock lock = evictionLock;
+        if (lock.isHeldByCurrentThread())
+            return;
+        drainStatus = REQUIRED;
+        while (drainStatus == REQUIRED && lock.tryLock()) {
+            try {
+                drainStatus = PROCESSING;
+                drainBuffers();
+            } finally {
+                U.compareAndSwapInt(this, DRAINSTATUS, PROCESSING, IDLE);
+                lock.unlock();
+            }
+        }
+    }
+
+    /** Applies buffered nodes to the wheel, then advances it. */
+    final void drainBuffers() {
+        Node<K,V> n;
+        while ((n = timerBuffer.poll()) != null) {
+            if (n.isAlive())
+                schedule(n);
+            else if (n.prev != null)
+                unlinkTimer(n);
+        }
+        advance(now());
+    }
+
+    /** Links a node into the bucket of its deadline, if it has one. */
+    final void schedule(Node<K,V> n) {
+        if (n.prev != null)
+            unlinkTimer(n);
+        long t = n.expiry(), base = wheelTime;
+        if (t == NEVER)
+            return;
+        if (t < base)
+            t = base;
+        long d = t - base;
+        int i = 0;
+        while (i < SHIFTS.length - 1 && d >= (1L << SHIFTS[i + 1]))
+            ++i;
+        Node<K,V> s = wheel[i][(int)(t >>> SHIFTS[i]) & (BUCKETS - 1)];
+        Node<K,V> l = s.prev;
+        n.prev = l;
+        n.next = s;
+        l.next = n;
+        s.prev = n;
+    }
+
+    final void unlinkTimer(Node<K,V> n) {
+        Node<K,V> p = n.prev, s = n.next;
+        p.next = s;
+        s.prev = p;
+        n.prev = n.next = null;
+    }
+
+    /**
+     * Advances the wheel to now, expiring or rescheduling the nodes
+     * in every bucket whose tick has been reached.
+     */
+    final void advance(long now) {
+        long prev = wheelTime;
+        if (now <= prev)
+            return;
+        wheelTime = now;
+        for (int i = 0; i < SHIFTS.length; ++i) {
+            long pt = prev >>> SHIFTS[i], ct = now >>> SHIFTS[i];
+            if (ct == pt)
+                break;
+            long steps = Math.min(ct - pt + 1L, (long)BUCKETS);
+            for (long j = 0L; j < steps; ++j)
+                expireBucket(wheel[i][(int)(pt + j) & (BUCKETS - 1)], now);
+        }
+    }
+
+    /** Detaches the nodes of a bucket and expires or reschedules each. */
+    final void expireBucket(Node<K,V> s, long now) {
+        Node<K,V> p = s.next;
+        if (p == s)
+            return;
+        s.prev = s.next = s;
+        while (p != s) {
+            Node<K,V> next = p.next;
+            p.prev = p.next = null;
+            if (p.isAlive()) {
+                if (p.expiry() > now)
+                    schedule(p);
+                else
+                    expireNode(p, now);
+            }
+            p = next;
+        }
+    }
+
+    /**
+     * Removes an expired node from the table, unless it has been
+     * written since its deadline was read.
+     */
+    final void expireNode(Node<K,V> n, long now) {
+        synchronized (n) {
+            if (!n.isAlive())
+                return;
+            if (n.expiry() > now)
+                schedule(n);
+            else if (data.remove(n.key, n))
+                n.state = RETIRED;
+        }
+    }
+
+    // Unsafe mechanics
+    private static final sun.misc.Unsafe U;
+    private static final long DRAINSTATUS;
+
+    static {
+        try {
+            U = sun.misc.Unsafe.getUnsafe();
+            Class<?> k = ConcurrentExpiringHashMap.class;
+            DRAINSTATUS = U.objectFieldOffset
+                (k.getDeclaredField("drainStatus"));
+        } catch (Exception e) {
+            throw new Error(e);
+        }
+    }
+}
@@ -53,7 +53,9 @@ import java.util.Set;
 import java.util.Spliterator;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.BiConsumer;
@@ -317,6 +319,22 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
      * a lock. Locking support for these locks relies on builtin
      * "synchronized" monitors.
      *
+     * A thread that blocks while holding a monitor cannot release its
+     * carrier when running as a virtual thread, so mapping functions
+     * that block inside computeIfAbsent and friends pin it for the
+     * whole call. Maps constructed with parkingLocks therefore run
+     * key-level updates under a striped array of ReentrantLocks
+     * (keyLocks), which wait by parking, and run user functions
+     * outside of any bin monitor: a compute is a lookup, the function
+     * call, and then putVal or replaceNode, all under the key's
+     * stripe. Every key-level write (putVal, replaceNode) takes the
+     * same stripe, so these steps remain atomic per key. Bin monitors
+     * are still used, but only around the short list and tree updates
+     * that never call user code other than equals/hashCode. This
+     * covers TreeBin.lockRoot as well: contendedLock only ever waits
+     * for concurrent readers of the tree, never for a user function.
+     * Reads, counting and transfer are unaffected.
+     *
      * Using the first node of a list as a lock does not by itself
      * suffice though: When a node is locked, any update must first
      * validate that it is still the first node after locking it, and
@@ -416,6 +434,61 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
      * many new TableStack nodes. (Thanks to Peter Levart for
      * suggesting use of a stack here.)
      *
+     * The table never shrinks on its own, but method trimToSize
+     * halves it (repeatedly if needed) using the same protocol, with
+     * the same resize stamp and sizeCtl accounting, so that other
+     * threads help via helpTransfer and addCount exactly as for
+     * growth (see shrinkTransfer). When halving, bins i and i + n/2
+     * of the old table both move to bin i of the new one, so both
+     * are locked (an empty bin is first claimed by installing a
+     * ReservationNode) before the merged bin is published and the
+     * two forwarding nodes are set. Readers and writers handle such
+     * forwarding nodes as usual since they index the next table by
+     * hash. Traversals, which index it by position, go to the merged
+     * bin and skip nodes that came from the other old bin, using a
+     * filter recorded with the TableStack (see Traverser.advance).
+     *
+     * When background resizing is enabled (field resizer), addCount
+     * defers to resizeInBackground, which starts growing the table
+     * at an early high-water mark (half full rather than three
+     * quarters) but hands the migration to a task run by the given
+     * executor instead of calling transfer itself. The initiating
+     * thread still performs the sizeCtl CAS, so the protocol is
+     * unchanged: the background task acts as the first resizer. Until
+     * the task starts, nextTable is null, so no one can help; the
+     * table that is waiting for it is recorded in field pendingResize,
+     * and whoever first clears it (see claimPendingResize) runs the
+     * initiating transfer: the task, or a writer if the executor
+     * rejects the task or falls behind, that is, once the count
+     * reaches the usual threshold. Since pendingResize belongs to
+     * the map rather than to the resizer, a task lost by an executor
+     * that is replaced or shut down cannot wedge the table: when the
+     * resizer is replaced, setBackgroundResizing submits a new task
+     * (the first of the two to claim runs the transfer), and when it
+     * is disabled, the next writer in addCount claims the pending
+     * transfer as it would a rejected one. trimToSize instead claims
+     * and abandons a pending growth. Writers in addCount and
+     * helpTransfer join a growing resize only once the count reaches
+     * the usual threshold of the old table, that is, when the
+     * background migration has fallen behind; until then they merely
+     * follow forwarding nodes. The
+     * initiating transfer timestamps the resize, joining transfers
+     * count themselves as helpers, and the finishing transfer
+     * publishes a ResizeReport.
+     *
+     * Statistics (field stats) are opt-in. All recording sites are
+     * on slow paths (bin locking, failed CASes, treeification,
+     * counter cell creation and resizing) and cost one read of the
+     * null stats field when disabled. Bin retries are counted after
+     * the monitor is acquired, when the bin turns out to have been
+     * replaced meanwhile or when putVal got there only after losing
+     * the CAS into the empty bin, so no extra monitor operations are
+     * needed. Threads that merely waited for the monitor of a bin
+     * that did not change are not counted, so this is not a measure
+     * of lock contention.
+     * Bin lengths and TreeBins are counted by scanning the table only
+     * when a snapshot is requested.
+     *
      * The traversal scheme also applies to partial traversals of
      * ranges of bins (via an alternate Traverser constructor)
      * to support partitioned aggregate operations.  Also, read-only
@@ -599,6 +672,12 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
     /** Number of CPUS, to place bounds on some sizings */
     static final int NCPU = Runtime.getRuntime().availableProcessors();
 
+    /**
+     * The largest number of key locks used by maps constructed with
+     * parkingLocks.
+     */
+    private static final int MAX_KEY_LOCKS = 1 << 16;
+
     /** For serialization compatibility. */
     private static final ObjectStreamField[] serialPersistentFields = {
         new ObjectStreamField("segments", Segment[].class),
@@ -814,6 +893,35 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
     private transient ValuesView<K,V> values;
     private transient EntrySetView<K,V> entrySet;
 
+    /**
+     * In-flight loads started by computeIfAbsentAsync, keyed by the
+     * key being loaded. Created on first use. Not serialized.
+     */
+    private transient volatile ConcurrentHashMap<K,CompletableFuture<V>> loads;
+
+    /**
+     * Striped key locks used in place of bin monitors around user
+     * functions, or null if not constructed with parkingLocks. Length
+     * is a power of two. Not serialized.
+     */
+    private final transient ReentrantLock[] keyLocks;
+
+    /**
+     * Background resizing support, or null if disabled. Not serialized.
+     */
+    private transient volatile BackgroundResizer resizer;
+
+    /**
+     * The table whose growth was started by a background resize but
+     * whose initiating transfer is yet to be claimed, else null.
+     */
+    private transient volatile Node<K,V>[] pendingResize;
+
+    /**
+     * Statistics recorder, or null if disabled. Not serialized.
+     */
+    private transient volatile StatsRecorder stats;
+
 
     /* ---------------- Public operations -------------- */
 
@@ -821,6 +929,7 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
      * Creates a new, empty map with the default initial table size (16).
      */
     public ConcurrentHashMap() {
+        this.keyLocks = null;
     }
 
     /**
@@ -840,6 +949,7 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
                    MAXIMUM_CAPACITY :
                    tableSizeFor(initialCapacity + (initialCapacity >>> 1) + 1));
         this.sizeCtl = cap;
+        this.keyLocks = null;
     }
 
     /**
@@ -849,6 +959,7 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
      */
     public ConcurrentHashMap(Map<? extends K, ? extends V> m) {
         this.sizeCtl = DEFAULT_CAPACITY;
+        this.keyLocks = null;
         putAll(m);
     }
 
@@ -891,6 +1002,48 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
      */
     public ConcurrentHashMap(int initialCapacity,
                              float loadFactor, int concurrencyLevel) {
+        this(initialCapacity, loadFactor, concurrencyLevel, false);
+    }
+
+    /**
+     * Creates a new, empty map with an initial table size based on
+     * the given number of elements ({@code initialCapacity}), table
+     * density ({@code loadFactor}), and number of concurrently
+     * updating threads ({@code concurrencyLevel}), optionally using
+     * parking locks for updates.
+     *
+     * <p>By default, updates that invoke a user function
+     * ({@code computeIfAbsent}, {@code computeIfPresent},
+     * {@code compute} and {@code merge}) hold the monitor of the
+     * first node of the key's bin while the function runs. If
+     * {@code parkingLocks} is true, all key-level updates instead
+     * synchronize on one of a fixed set of {@link ReentrantLock}s
+     * selected by the key's hash, and monitors are held only for
+     * short internal steps. A function that blocks then parks the
+     * calling thread without pinning a virtual thread's carrier. The
+     * functions are still invoked atomically with respect to other
+     * updates of the same key, and retrievals remain non-blocking.
+     * Unrelated keys may share a lock, so the computation should
+     * still be short and must not update other mappings of this map.
+     * This setting is not serialized.
+     *
+     * @param initialCapacity the initial capacity. The implementation
+     * performs internal sizing to accommodate this many elements,
+     * given the specified load factor.
+     * @param loadFactor the load factor (table density) for
+     * establishing the initial table size
+     * @param concurrencyLevel the estimated number of concurrently
+     * updating threads. The implementation uses this value to size
+     * the set of parking locks.
+     * @param parkingLocks whether updates use parking locks instead
+     * of holding monitors while user functions run
+     * @throws IllegalArgumentException if the initial capacity is
+     * negative or the load factor or concurrencyLevel are
+     * nonpositive
+     */
+    public ConcurrentHashMap(int initialCapacity,
+                             float loadFactor, int concurrencyLevel,
+                             boolean parkingLocks) {
         if (!(loadFactor > 0.0f) || initialCapacity < 0 || concurrencyLevel <= 0)
             throw new IllegalArgumentException();
         if (initialCapacity < concurrencyLevel)   // Use at least as many bins
@@ -899,6 +1052,16 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
         int cap = (size >= (long)MAXIMUM_CAPACITY) ?
             MAXIMUM_CAPACITY : tableSizeFor((int)size);
         this.sizeCtl = cap;
+        if (parkingLocks) {
+            int n = tableSizeFor(Math.min(Math.max(concurrencyLevel, NCPU),
+                                          MAX_KEY_LOCKS >>> 2) << 2);
+            ReentrantLock[] ls = new ReentrantLock[n];
+            for (int k = 0; k < ls.length; ++k)
+                ls[k] = new ReentrantLock();
+            this.keyLocks = ls;
+        }
+        else
+            this.keyLocks = null;
     }
 
     // Original (since JDK1.2) Map methods
@@ -1010,7 +1173,98 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
     final V putVal(K key, V value, boolean onlyIfAbsent) {
         if (key == null || value == null) throw new NullPointerException();
         int hash = spread(key.hashCode());
+        ReentrantLock lock;
+        if (keyLocks == null)
+            return putVal(hash, key, value, onlyIfAbsent);
+        (lock = keyLockFor(hash)).lock();
+        try {
+            return putVal(hash, key, value, onlyIfAbsent);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the key lock for the given spread hash. Call only if
+     * keyLocks is non-null.
+     */
+    private ReentrantLock keyLockFor(int h) {
+        ReentrantLock[] ls = keyLocks;
+        return ls[h & (ls.length - 1)];
+    }
+
+    /* ---------------- Parking-lock compute methods -------------- */
+
+    /*
+     * With keyLocks, compute methods hold the key's lock across the
+     * lookup, the user function and the resulting putVal/replaceNode
+     * call. All other writers of the key take the same lock first, so
+     * the bin's current state cannot change underneath the function,
+     * and no bin monitor is held while it runs.
+     */
+
+    /** computeIfAbsent under the key lock */
+    private V lockedComputeIfAbsent(int h, K key,
+                                    Function<? super K, ? extends V> mappingFunction) {
+        V val;
+        if ((val = get(key)) != null)
+            return val;
+        ReentrantLock lock = keyLockFor(h);
+        lock.lock();
+        try {
+            if ((val = get(key)) == null &&
+                (val = mappingFunction.apply(key)) != null)
+                putVal(h, key, val, false);
+        } finally {
+            lock.unlock();
+        }
+        return val;
+    }
+
+    /** compute, or computeIfPresent if onlyIfPresent, under the key lock */
+    private V lockedCompute(int h, K key,
+                            BiFunction<? super K, ? super V, ? extends V> remappingFunction,
+                            boolean onlyIfPresent) {
+        ReentrantLock lock = keyLockFor(h);
+        lock.lock();
+        try {
+            V oldValue = get(key), val;
+            if (oldValue == null && onlyIfPresent)
+                return null;
+            if ((val = remappingFunction.apply(key, oldValue)) != null)
+                putVal(h, key, val, false);
+            else if (oldValue != null)
+                replaceNode(h, key, null, null);
+            return val;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** merge under the key lock */
+    private V lockedMerge(int h, K key, V value,
+                          BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        ReentrantLock lock = keyLockFor(h);
+        lock.lock();
+        try {
+            V oldValue = get(key), val;
+            if (oldValue == null)
+                val = value;
+            else if ((val = remappingFunction.apply(oldValue, value)) == null) {
+                replaceNode(h, key, null, null);
+                return null;
+            }
+            putVal(h, key, val, false);
+            return val;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Implementation for putVal, given the spread hash */
+    final V putVal(int hash, K key, V value, boolean onlyIfAbsent) {
         int binCount = 0;
+        boolean raced = false;
         for (Node<K,V>[] tab = table;;) {
             Node<K,V> f; int n, i, fh;
             if (tab == null || (n = tab.length) == 0)
@@ -1019,13 +1273,17 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
                 if (casTabAt(tab, i, null,
                              new Node<K,V>(hash, key, value, null)))
                     break;                   // no lock when adding to empty bin
+                StatsRecorder st;
+                if ((st = stats) != null)
+                    st.putRetries.increment();
+                raced = true;
             }
             else if ((fh = f.hash) == MOVED)
                 tab = helpTransfer(tab, f);
             else {
                 V oldVal = null;
                 synchronized (f) {
-                    if (tabAt(tab, i) == f) {
+                    if (lockedBin(tab, i, f, raced)) {
                         if (fh >= 0) {
                             binCount = 1;
                             for (Node<K,V> e = f;; ++binCount) {
@@ -1104,6 +1362,19 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
      */
     final V replaceNode(Object key, V value, Object cv) {
         int hash = spread(key.hashCode());
+        ReentrantLock lock;
+        if (keyLocks == null)
+            return replaceNode(hash, key, value, cv);
+        (lock = keyLockFor(hash)).lock();
+        try {
+            return replaceNode(hash, key, value, cv);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Implementation for replaceNode, given the spread hash */
+    final V replaceNode(int hash, Object key, V value, Object cv) {
         for (Node<K,V>[] tab = table;;) {
             Node<K,V> f; int n, i, fh;
             if (tab == null || (n = tab.length) == 0 ||
@@ -1115,7 +1386,7 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
                 V oldVal = null;
                 boolean validated = false;
                 synchronized (f) {
-                    if (tabAt(tab, i) == f) {
+                    if (lockedBin(tab, i, f, false)) {
                         if (fh >= 0) {
                             validated = true;
                             for (Node<K,V> e = f, pred = null;;) {
@@ -1644,6 +1915,8 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
         if (key == null || mappingFunction == null)
             throw new NullPointerException();
         int h = spread(key.hashCode());
+        if (keyLocks != null)
+            return lockedComputeIfAbsent(h, key, mappingFunction);
         V val = null;
         int binCount = 0;
         for (Node<K,V>[] tab = table;;) {
@@ -1672,7 +1945,7 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
             else {
                 boolean added = false;
                 synchronized (f) {
-                    if (tabAt(tab, i) == f) {
+                    if (lockedBin(tab, i, f, false)) {
                         if (fh >= 0) {
                             binCount = 1;
                             for (Node<K,V> e = f;; ++binCount) {
@@ -1721,6 +1994,87 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
         return val;
     }
 
+    /**
+     * If the specified key is not already associated with a value,
+     * returns a future for its value, starting at most one load per
+     * key at a time using the given function. Unlike {@link
+     * #computeIfAbsent}, no lock is held while the function runs or
+     * while its future is pending, so other updates of this map,
+     * including those to keys in the same bin, proceed normally.
+     *
+     * <p>If the key is present, the result is an already completed
+     * future holding its current value. Otherwise, if another call
+     * has a load in flight for an equal key, its future is returned.
+     * Otherwise a new future is registered for the key, the function
+     * is invoked to obtain the loading future, and the returned
+     * future completes when that one does. On normal completion with
+     * a non-null value, the value is entered into this map unless a
+     * mapping was established meanwhile, in which case the existing
+     * value is used; a null value leaves the map unchanged. On
+     * exceptional completion, or if the function itself throws or
+     * returns null, the registration is removed and the returned
+     * future completes exceptionally, so a later call starts a new
+     * load. In-flight loads are not visible to other methods of
+     * this map.
+     *
+     * @param key key with which the value is to be associated
+     * @param mappingFunction the function starting the load of a value
+     * @return a future for the current (existing or loaded) value
+     *         associated with the specified key, completing with null
+     *         if the loaded value is null
+     * @throws NullPointerException if the specified key or
+     *         mappingFunction is null
+     */
+    public CompletableFuture<V> computeIfAbsentAsync(
+        K key, Function<? super K, ? extends CompletableFuture<V>> mappingFunction) {
+        if (key == null || mappingFunction == null)
+            throw new NullPointerException();
+        V val; CompletableFuture<V> p, f;
+        if ((val = get(key)) != null)
+            return CompletableFuture.completedFuture(val);
+        ConcurrentHashMap<K,CompletableFuture<V>> ls;
+        if ((ls = loads) == null &&
+            !U.compareAndSwapObject(this, LOADS, null,
+                                    ls = new ConcurrentHashMap<K,CompletableFuture<V>>()))
+            ls = loads;
+        final ConcurrentHashMap<K,CompletableFuture<V>> pending = ls;
+        if ((p = pending.get(key)) != null ||
+            (p = pending.putIfAbsent(key, f = new CompletableFuture<V>())) != null)
+            return p;
+        if ((val = get(key)) != null) { // established since first check
+            pending.remove(key, f);
+            f.complete(val);
+            return f;
+        }
+        try {
+            if ((p = mappingFunction.apply(key)) == null)
+                throw new NullPointerException();
+        } catch (Throwable ex) {
+            pending.remove(key, f);
+            f.completeExceptionally(ex);
+            return f;
+        }
+        p.whenComplete((v, ex) -> {
+            V r = v;
+            try {
+                if (ex == null && v != null) {
+                    V u = putIfAbsent(key, v);
+                    if (u != null)
+                        r = u;
+                }
+            } catch (Throwable e) {
+                ex = e;
+            } finally {
+                pending.remove(key, f); // after publishing, so no load is missed
+            }
+            if (ex != null)
+                f.completeExceptionally(ex);
+            else
+                f.complete(r);
+        });
+        return f;
+    }
+
     /**
      * If the value for the specified key is present, attempts to
      * compute a new mapping given the key and its current mapped
@@ -1745,6 +2099,8 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
         if (key == null || remappingFunction == null)
             throw new NullPointerException();
         int h = spread(key.hashCode());
+        if (keyLocks != null)
+            return lockedCompute(h, key, remappingFunction, true);
         V val = null;
         int delta = 0;
         int binCount = 0;
@@ -1758,7 +2114,7 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
                 tab = helpTransfer(tab, f);
             else {
                 synchronized (f) {
-                    if (tabAt(tab, i) == f) {
+                    if (lockedBin(tab, i, f, false)) {
                         if (fh >= 0) {
                             binCount = 1;
                             for (Node<K,V> e = f, pred = null;; ++binCount) {
@@ -1836,6 +2192,8 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
         if (key == null || remappingFunction == null)
             throw new NullPointerException();
         int h = spread(key.hashCode());
+        if (keyLocks != null)
+            return lockedCompute(h, key, remappingFunction, false);
         V val = null;
         int delta = 0;
         int binCount = 0;
@@ -1866,7 +2224,7 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
                 tab = helpTransfer(tab, f);
             else {
                 synchronized (f) {
-                    if (tabAt(tab, i) == f) {
+                    if (lockedBin(tab, i, f, false)) {
                         if (fh >= 0) {
                             binCount = 1;
                             for (Node<K,V> e = f, pred = null;; ++binCount) {
@@ -1961,6 +2319,8 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
         if (key == null || value == null || remappingFunction == null)
             throw new NullPointerException();
         int h = spread(key.hashCode());
+        if (keyLocks != null)
+            return lockedMerge(h, key, value, remappingFunction);
         V val = null;
         int delta = 0;
         int binCount = 0;
@@ -1979,7 +2339,7 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
                 tab = helpTransfer(tab, f);
             else {
                 synchronized (f) {
-                    if (tabAt(tab, i) == f) {
+                    if (lockedBin(tab, i, f, false)) {
                         if (fh >= 0) {
                             binCount = 1;
                             for (Node<K,V> e = f, pred = null;; ++binCount) {
@@ -2108,6 +2468,175 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
         return (n < 0L) ? 0L : n; // ignore transient negative values
     }
 
+    /**
+     * Shrinks the table, if it is larger than needed for the current
+     * number of mappings, to about the size that a newly constructed
+     * map of this many elements would use. This can reduce footprint
+     * and traversal cost after many removals, as the table otherwise
+     * never shrinks. Concurrent retrievals and updates remain
+     * possible while entries are moved, and other updating threads
+     * may help with the move. The resulting size is only an estimate
+     * in the presence of concurrent insertions, and a later resize
+     * may grow the table again.
+     */
+    public void trimToSize() {
+        Node<K,V>[] tab, nt; int n, sc;
+        while ((sc = sizeCtl) != -1 && (tab = table) != null) {
+            long s = sumCount();
+            int c = (s >= (long)(MAXIMUM_CAPACITY >>> 1)) ? MAXIMUM_CAPACITY :
+                tableSizeFor((int)s + ((int)s >>> 1) + 1);
+            if ((n = tab.length) <= c || n <= DEFAULT_CAPACITY)
+                break;
+            int rs = resizeStamp(n);
+            if (sc < 0) {
+                if ((sc >>> RESIZE_STAMP_SHIFT) == rs && nextTable == null &&
+                    claimPendingResize(tab, false))
+                    sizeCtl = n - (n >>> 2); // abandon growth yet to start
+                else if ((sc >>> RESIZE_STAMP_SHIFT) != rs || sc == rs + 1 ||
+                    sc == rs + MAX_RESIZERS || (nt = nextTable) == null ||
+                    transferIndex <= 0)
+                    Thread.yield(); // wait for other resize to finish
+                else if (U.compareAndSwapInt(this, SIZECTL, sc, sc + 1))
+                    transfer(tab, nt);
+            }
+            else if (U.compareAndSwapInt(this, SIZECTL, sc,
+                                         (rs << RESIZE_STAMP_SHIFT) + 2))
+                shrinkTransfer(tab, null);
+        }
+    }
+
+    /**
+     * Enables or disables background resizing. By default, the
+     * update that fills the table to its resize threshold starts
+     * moving the entries to a larger table, and other updates that
+     * meet the resize help with it, which can add latency to
+     * unrelated insertions. When enabled, a resize is started as
+     * soon as the table is half full, and is run as a task by the
+     * given executor. Updating threads help only if the table
+     * reaches its usual threshold before the task completes (or if
+     * the executor rejects the task). Explicit presizing by
+     * {@link #putAll} and shrinking by {@link #trimToSize} are
+     * unaffected.
+     *
+     * <p>Each resize started while enabled is described by a
+     * {@link ResizeReport}, available from {@link
+     * #getLastResizeReport} and passed to the given listener, if
+     * non-null, by the thread that completes the resize. The
+     * listener should be quick and should not throw exceptions.
+     * This setting is not serialized.
+     *
+     * <p>A resize that was handed to the previous executor but has
+     * not yet started is handed to the given executor, or, if
+     * background resizing is disabled, run by the calling thread.
+     *
+     * @param executor the executor running resizes, or null to
+     * disable background resizing
+     * @param listener the listener for resize reports, or null
+     */
+    public void setBackgroundResizing(Executor executor,
+                                      Consumer<? super ResizeReport> listener) {
+        BackgroundResizer br = (executor == null) ? null :
+            new BackgroundResizer(executor, listener);
+        resizer = br;
+        Node<K,V>[] t;
+        if ((t = pendingResize) != null) {
+            if (br != null)
+                submitResize(br, t);
+            else if (claimPendingResize(t, false))
+                transfer(t, null);
+        }
+    }
+
+    /**
+     * Returns the report of the most recent resize completed since
+     * background resizing was last enabled, or null if none.
+     *
+     * @return the last resize report, or null
+     */
+    public ResizeReport getLastResizeReport() {
+        BackgroundResizer br = resizer;
+        return (br == null) ? null : br.last;
+    }
+
+    /**
+     * Starts recording statistics about contention and resizing,
+     * discarding any statistics recorded so far. While enabled,
+     * each completed resize (including shrinking by {@link
+     * #trimToSize}) is also described by a {@link ResizeReport}
+     * passed to the given listener, if non-null, by the thread that
+     * completes the resize; the listener may, for example, commit a
+     * flight recorder event. It should be quick and should not throw
+     * exceptions. When disabled, recording costs nearly nothing.
+     * This setting is not serialized.
+     *
+     * @param resizeListener the listener for resize reports, or null
+     * @see #getStatistics
+     */
+    public void enableStatistics(Consumer<? super ResizeReport> resizeListener) {
+        stats = new StatsRecorder(resizeListener);
+    }
+
+    /**
+     * Stops recording statistics.
+     */
+    public void disableStatistics() {
+        stats = null;
+    }
+
+    /**
+     * Returns a snapshot of the statistics recorded since they were
+     * enabled, together with the current distribution of bin lengths,
+     * or null if statistics are not enabled. The bin lengths are
+     * gathered by a traversal of the table, and are only an estimate
+     * if the map is concurrently modified.
+     *
+     * @return the statistics, or null if not enabled
+     * @see #enableStatistics
+     */
+    public Statistics getStatistics() {
+        StatsRecorder st;
+        if ((st = stats) == null)
+            return null;
+        long[] lengths = new long[Statistics.LENGTH_BUCKETS];
+        int treeBins = 0;
+        Node<K,V>[] tab = table;
+        if (tab != null) {
+            for (int i = 0; i < tab.length; ++i) {
+                Node<K,V> f = tabAt(tab, i), e; int c = 0;
+                if (f instanceof TreeBin) {
+                    ++treeBins;
+                    e = ((TreeBin<K,V>)f).first;
+                }
+                else if (f != null && f.hash < 0)
+                    continue;                  // forwarded or reserved
+                else
+                    e = f;
+                for (; e != null; e = e.next)
+                    ++c;
+                ++lengths[Math.min(c, Statistics.LENGTH_BUCKETS - 1)];
+            }
+        }
+        CounterCell[] cs = counterCells;
+        return new Statistics(st, (tab == null) ? 0 : tab.length, lengths,
+                              treeBins, (cs == null) ? 0 : cs.length);
+    }
+
+    /**
+     * Returns whether bin i of tab still holds f. Called with the
+     * monitor of f held. If statistics are enabled, records a bin
+     * retry if the bin was replaced while waiting for the lock, or if
+     * raced, that is, the caller reached the lock only after losing a
+     * CAS for the same bin.
+     */
+    private boolean lockedBin(Node<K,V>[] tab, int i, Node<K,V> f,
+                              boolean raced) {
+        boolean valid = tabAt(tab, i) == f;
+        StatsRecorder st;
+        if ((raced || !valid) && (st = stats) != null)
+            st.binRetries.increment();
+        return valid;
+    }
+
     /**
      * Creates a new {@link Set} backed by a ConcurrentHashMap
      * from the given type to {@code Boolean.TRUE}.
@@ -2257,12 +2786,16 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
         CounterCell[] as; long b, s;
         if ((as = counterCells) != null ||
             !U.compareAndSwapLong(this, BASECOUNT, b = baseCount, s = b + x)) {
-            CounterCell a; long v; int m;
+            CounterCell a; long v; int m; StatsRecorder st;
             boolean uncontended = true;
+            if (as == null && (st = stats) != null)
+                st.countRetries.increment();   // base CAS failed
             if (as == null || (m = as.length - 1) < 0 ||
                 (a = as[ThreadLocalRandom.getProbe() & m]) == null ||
                 !(uncontended =
                   U.compareAndSwapLong(a, CELLVALUE, v = a.value, v + x))) {
+                if (!uncontended && (st = stats) != null)
+                    st.countRetries.increment();
                 fullAddCount(x, uncontended);
                 return;
             }
@@ -2271,16 +2804,27 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
             s = sumCount();
         }
         if (check >= 0) {
-            Node<K,V>[] tab, nt; int n, sc;
+            Node<K,V>[] tab, nt; int n, sc; BackgroundResizer br;
+            if ((br = resizer) != null) {
+                resizeInBackground(br, s);
+                return;
+            }
             while (s >= (long)(sc = sizeCtl) && (tab = table) != null &&
                    (n = tab.length) < MAXIMUM_CAPACITY) {
                 int rs = resizeStamp(n);
                 if (sc < 0) {
                     if ((sc >>> RESIZE_STAMP_SHIFT) != rs || sc == rs + 1 ||
-                        sc == rs + MAX_RESIZERS || (nt = nextTable) == null ||
-                        transferIndex <= 0)
+                        sc == rs + MAX_RESIZERS)
                         break;
-                    if (U.compareAndSwapInt(this, SIZECTL, sc, sc + 1))
+                    if ((nt = nextTable) == null) {
+                        // left pending by background resizing, now disabled
+                        if (!claimPendingResize(tab, false))
+                            break;
+                        transfer(tab, null);
+                    }
+                    else if (transferIndex <= 0)
+                        break;
+                    else if (U.compareAndSwapInt(this, SIZECTL, sc, sc + 1))
                         transfer(tab, nt);
                 }
                 else if (U.compareAndSwapInt(this, SIZECTL, sc,
@@ -2291,6 +2835,95 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
         }
     }
 
+    /**
+     * Version of the resize check in addCount used when background
+     * resizing is enabled: starts a resize at half of the usual
+     * threshold and hands it to the executor, and helps only when
+     * the count has reached the threshold of the table being
+     * resized.
+     *
+     * @param br the resizer
+     * @param s the current count
+     */
+    private final void resizeInBackground(final BackgroundResizer br, long s) {
+        Node<K,V>[] tab, nt; int n, sc;
+        while ((tab = table) != null && (n = tab.length) < MAXIMUM_CAPACITY) {
+            int rs = resizeStamp(n);
+            if ((sc = sizeCtl) < 0) {
+                if (s < (long)(n - (n >>> 2)) ||  // migration is keeping up
+                    (sc >>> RESIZE_STAMP_SHIFT) != rs || sc == rs + 1 ||
+                    sc == rs + MAX_RESIZERS)
+                    break;
+                if ((nt = nextTable) == null) {
+                    if (!claimPendingResize(tab, false)) // task started
+                        break;
+                    transfer(tab, null);
+                }
+                else if (transferIndex <= 0)
+                    break;
+                else if (U.compareAndSwapInt(this, SIZECTL, sc, sc + 1))
+                    transfer(tab, nt);
+            }
+            else if (s < (long)(sc - sc / 3))    // below high-water mark
+                break;
+            else if (U.compareAndSwapInt(this, SIZECTL, sc,
+                                         (rs << RESIZE_STAMP_SHIFT) + 2)) {
+                pendingResize = tab;
+                if (submitResize(br, tab))
+                    break;
+            }
+            s = sumCount();
+        }
+    }
+
+    /**
+     * Submits a task to the executor of br that runs the initiating
+     * transfer of table t, recorded in pendingResize, if it is still
+     * pending when the task starts. If the task is rejected, runs
+     * the transfer instead.
+     *
+     * @return true if the task was submitted
+     */
+    private final boolean submitResize(BackgroundResizer br,
+                                       final Node<K,V>[] t) {
+        try {
+            br.executor.execute(new Runnable() {
+                    public void run() {
+                        if (claimPendingResize(t, true)) {
+                            transfer(t, null);
+                            // resize again if lagging additions
+                            BackgroundResizer r;
+                            if ((r = resizer) != null)
+                                resizeInBackground(r, sumCount());
+                        }
+                    }
+                });
+            return true;
+        } catch (RejectedExecutionException ex) {
+            if (claimPendingResize(t, false))
+                transfer(t, null);
+            return false;
+        }
+    }
+
+    /**
+     * Claims the initiating transfer of the growth of tab left
+     * pending by resizeInBackground, which the caller must then run
+     * (or, in trimToSize, abandon).
+     *
+     * @param byTask whether the caller is a background task
+     * @return true if claimed
+     */
+    private final boolean claimPendingResize(Node<K,V>[] tab, boolean byTask) {
+        if (tab == null ||
+            !U.compareAndSwapObject(this, PENDINGRESIZE, tab, null))
+            return false;
+        BackgroundResizer br;
+        if ((br = resizer) != null)
+            br.background = byTask;
+        return true;
+    }
+
     /**
      * Helps transfer if a resize is in progress.
      */
@@ -2298,7 +2931,11 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
         Node<K,V>[] nextTab; int sc;
         if (tab != null && (f instanceof ForwardingNode) &&
             (nextTab = ((ForwardingNode<K,V>)f).nextTable) != null) {
-            int rs = resizeStamp(tab.length);
+            int n = tab.length;
+            if (resizer != null && nextTab.length > n &&
+                sumCount() < (long)(n - (n >>> 2)))
+                return nextTab; // leave growth to the background task
+            int rs = resizeStamp(n);
             while (nextTab == nextTable && table == tab &&
                    (sc = sizeCtl) < 0) {
                 if ((sc >>> RESIZE_STAMP_SHIFT) != rs || sc == rs + 1 ||
@@ -2365,10 +3002,20 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
      * above for explanation.
      */
     private final void transfer(Node<K,V>[] tab, Node<K,V>[] nextTab) {
+        if (nextTab != null && nextTab.length < tab.length) {
+            shrinkTransfer(tab, nextTab); // helping trimToSize
+            return;
+        }
+        BackgroundResizer br = resizer;
+        StatsRecorder st = stats;
         int n = tab.length, stride;
         if ((stride = (NCPU > 1) ? (n >>> 3) / NCPU : n) < MIN_TRANSFER_STRIDE)
             stride = MIN_TRANSFER_STRIDE; // subdivide range
         if (nextTab == null) {            // initiating
+            if (tab != table) {           // sizeCtl ABA after a trim
+                sizeCtl = n - (n >>> 2);
+                return;
+            }
             try {
                 @SuppressWarnings("unchecked")
                 Node<K,V>[] nt = (Node<K,V>[])new Node<?,?>[n << 1];
@@ -2379,6 +3026,16 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
             }
             nextTable = nextTab;
             transferIndex = n;
+            if (br != null)
+                br.begin();
+            if (st != null)
+                st.beginResize();
+        }
+        else {
+            if (br != null)
+                br.helpers.incrementAndGet();
+            if (st != null)
+                st.resizeHelpers.incrementAndGet();
         }
         int nextn = nextTab.length;
         ForwardingNode<K,V> fwd = new ForwardingNode<K,V>(nextTab);
@@ -2409,6 +3066,11 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
                     nextTable = null;
                     table = nextTab;
                     sizeCtl = (n << 1) - (n >>> 1);
+                    if (st != null)
+                        st.endResize(n, nextn, br != null &&
+                                     br.startTime != 0L && br.background);
+                    if (br != null)
+                        br.finish(n, nextn);
                     return;
                 }
                 if (U.compareAndSwapInt(this, SIZECTL, sc = sizeCtl, sc - 1)) {
@@ -2497,6 +3159,511 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
         }
     }
 
+    /**
+     * Moves the nodes in each pair of bins i and i + n/2 to bin i of
+     * a new table of half the size. Otherwise the same as transfer,
+     * which delegates here when helping.
+     */
+    private final void shrinkTransfer(Node<K,V>[] tab, Node<K,V>[] nextTab) {
+        StatsRecorder st = stats;
+        int n = tab.length, half = n >>> 1, stride;
+        if ((stride = (NCPU > 1) ? (half >>> 3) / NCPU : half) < MIN_TRANSFER_STRIDE)
+            stride = MIN_TRANSFER_STRIDE; // subdivide range
+        if (nextTab == null) {            // initiating
+            if (tab != table) {           // raced with another resize
+                sizeCtl = n - (n >>> 2);
+                return;
+            }
+            try {
+                @SuppressWarnings("unchecked")
+                Node<K,V>[] nt = (Node<K,V>[])new Node<?,?>[half];
+                nextTab = nt;
+            } catch (Throwable ex) {      // try to cope with OOME
+                sizeCtl = n - (n >>> 2);
+                return;
+            }
+            nextTable = nextTab;
+            transferIndex = half;
+            if (st != null)
+                st.beginResize();
+        }
+        else if (st != null)
+            st.resizeHelpers.incrementAndGet();
+        ForwardingNode<K,V> fwd = new ForwardingNode<K,V>(nextTab);
+        boolean advance = true;
+        boolean finishing = false; // to ensure sweep before committing nextTab
+        for (int i = 0, bound = 0;;) {
+            while (advance) {
+                int nextIndex, nextBound;
+                if (--i >= bound || finishing)
+                    advance = false;
+                else if ((nextIndex = transferIndex) <= 0) {
+                    i = -1;
+                    advance = false;
+                }
+                else if (U.compareAndSwapInt
+                         (this, TRANSFERINDEX, nextIndex,
+                          nextBound = (nextIndex > stride ?
+                                       nextIndex - stride : 0))) {
+                    bound = nextBound;
+                    i = nextIndex - 1;
+                    advance = false;
+                }
+            }
+            if (i < 0 || i >= half || half != nextTab.length) {
+                int sc;
+                if (finishing) {
+                    nextTable = null;
+                    table = nextTab;
+                    sizeCtl = half - (half >>> 2);
+                    if (st != null)
+                        st.endResize(n, half, false);
+                    return;
+                }
+                if (U.compareAndSwapInt(this, SIZECTL, sc = sizeCtl, sc - 1)) {
+                    if ((sc - 2) != resizeStamp(n) << RESIZE_STAMP_SHIFT)
+                        return;
+                    finishing = advance = true;
+                    i = half; // recheck before commit
+                }
+            }
+            else {
+                Node<K,V> f;
+                if ((f = tabAt(tab, i)) == null) {
+                    Node<K,V> r = new ReservationNode<K,V>();
+                    synchronized (r) {
+                        if (advance = casTabAt(tab, i, null, r))
+                            mergeBins(tab, nextTab, i, r, fwd);
+                    }
+                }
+                else if (f.hash == MOVED)
+                    advance = true; // already processed
+                else {
+                    synchronized (f) {
+                        if (advance = (tabAt(tab, i) == f))
+                            mergeBins(tab, nextTab, i, f, fwd);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Called by shrinkTransfer while holding the lock of f, the
+     * current first node of bin i. Locks bin i + nextTab.length, then
+     * sets bin i of nextTab to the union of both bins and forwards
+     * both.
+     */
+    private final void mergeBins(Node<K,V>[] tab, Node<K,V>[] nextTab, int i,
+                                 Node<K,V> f, ForwardingNode<K,V> fwd) {
+        int k = i + nextTab.length;
+        for (Node<K,V> g;;) {
+            if ((g = tabAt(tab, k)) == null) {
+                Node<K,V> r = new ReservationNode<K,V>();
+                synchronized (r) {
+                    if (casTabAt(tab, k, null, r)) {
+                        setTabAt(nextTab, i, mergeBin(f, null, nextTab.length));
+                        setTabAt(tab, i, fwd);
+                        setTabAt(tab, k, fwd);
+                        return;
+                    }
+                }
+            }
+            else {
+                synchronized (g) {
+                    if (tabAt(tab, k) == g) {
+                        setTabAt(nextTab, i, mergeBin(f, g, nextTab.length));
+                        setTabAt(tab, i, fwd);
+                        setTabAt(tab, k, fwd);
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns a bin holding the nodes of the (locked) bins f and g,
+     * each of which may be a list, a TreeBin, a ReservationNode or
+     * null, for a table of length n. Reuses a list or TreeBin if
+     * possible.
+     */
+    static <K,V> Node<K,V> mergeBin(Node<K,V> f, Node<K,V> g, int n) {
+        Node<K,V> ef = (f == null) ? null : (f.hash >= 0) ? f :
+            (f instanceof TreeBin) ? ((TreeBin<K,V>)f).first : null;
+        Node<K,V> eg = (g == null) ? null : (g.hash >= 0) ? g :
+            (g instanceof TreeBin) ? ((TreeBin<K,V>)g).first : null;
+        int c = 0;
+        for (Node<K,V> e = ef; e != null; e = e.next)
+            ++c;
+        for (Node<K,V> e = eg; e != null; e = e.next)
+            ++c;
+        if (c > TREEIFY_THRESHOLD && n >= MIN_TREEIFY_CAPACITY) {
+            if (eg == null && f instanceof TreeBin)
+                return f;
+            if (ef == null && g instanceof TreeBin)
+                return g;
+            TreeNode<K,V> hd = null, tl = null;
+            for (int pass = 0; pass < 2; ++pass) {
+                for (Node<K,V> e = (pass == 0) ? ef : eg; e != null; e = e.next) {
+                    TreeNode<K,V> p =
+                        new TreeNode<K,V>(e.hash, e.key, e.val, null, null);
+                    if ((p.prev = tl) == null)
+                        hd = p;
+                    else
+                        tl.next = p;
+                    tl = p;
+                }
+            }
+            return new TreeBin<K,V>(hd);
+        }
+        Node<K,V> ln = null, a = ef, b = eg;
+        if (f != null && f.hash >= 0) {
+            ln = f;                       // reuse plain list
+            a = null;
+        }
+        else if (g != null && g.hash >= 0) {
+            ln = g;
+            b = null;
+        }
+        for (Node<K,V> e = a; e != null; e = e.next)
+            ln = new Node<K,V>(e.hash, e.key, e.val, ln);
+        for (Node<K,V> e = b; e != null; e = e.next)
+            ln = new Node<K,V>(e.hash, e.key, e.val, ln);
+        return ln;
+    }
+
+    /* ---------------- Background resizing -------------- */
+
+    /**
+     * State of background resizing; see resizeInBackground. Resizes
+     * of a map never overlap, so the per-resize fields are simply
+     * reset by begin.
+     */
+    static final class BackgroundResizer {
+        final Executor executor;
+        final Consumer<? super ResizeReport> listener;
+        final AtomicInteger helpers = new AtomicInteger();
+        volatile long startTime;     // System.nanoTime, or 0 if none begun
+        volatile boolean background; // whether the task initiated
+        volatile ResizeReport last;
+
+        BackgroundResizer(Executor executor,
+                          Consumer<? super ResizeReport> listener) {
+            this.executor = executor;
+            this.listener = listener;
+        }
+
+        void begin() {
+            helpers.set(0);
+            startTime = System.nanoTime();
+        }
+
+        void finish(int oldCapacity, int newCapacity) {
+            long t0 = startTime;
+            if (t0 == 0L)     // begun before this resizer was installed
+                return;
+            startTime = 0L;
+            ResizeReport r = new ResizeReport
+                (oldCapacity, newCapacity, System.nanoTime() - t0,
+                 helpers.get(), background);
+            last = r;
+            Consumer<? super ResizeReport> l;
+            if ((l = listener) != null)
+                l.accept(r);
+        }
+    }
+
+    /**
+     * A description of a completed resize, reported when background
+     * resizing or statistics are enabled.
+     *
+     * @see ConcurrentHashMap#setBackgroundResizing
+     * @see ConcurrentHashMap#enableStatistics
+     */
+    public static final class ResizeReport {
+        private final int oldCapacity;
+        private final int newCapacity;
+        private final long durationNanos;
+        private final int helpers;
+        private final boolean background;
+
+        ResizeReport(int oldCapacity, int newCapacity, long durationNanos,
+                     int helpers, boolean background) {
+            this.oldCapacity = oldCapacity;
+            this.newCapacity = newCapacity;
+            this.durationNanos = durationNanos;
+            this.helpers = helpers;
+            this.background = background;
+        }
+
+        /**
+         * Returns the number of bins before the resize.
+         *
+         * @return the old table length
+         */
+        public int getOldCapacity() { return oldCapacity; }
+
+        /**
+         * Returns the number of bins after the resize.
+         *
+         * @return the new table length
+         */
+        public int getNewCapacity() { return newCapacity; }
+
+        /**
+         * Returns the time from the allocation of the new table to
+         * its publication, in nanoseconds.
+         *
+         * @return the duration of the resize
+         */
+        public long getDurationNanos() { return durationNanos; }
+
+        /**
+         * Returns the number of times an updating thread joined the
+         * resize to help move entries.
+         *
+         * @return the number of helper joins
+         */
+        public int getHelpers() { return helpers; }
+
+        /**
+         * Returns true if the resize was started by the background
+         * task, or false if an updating thread had to start it.
+         *
+         * @return whether the resize was started in the background
+         */
+        public boolean isBackground() { return background; }
+
+        public String toString() {
+            return "ResizeReport[" + oldCapacity + " -> " + newCapacity +
+                " bins, " + durationNanos + " ns, " + helpers +
+                " helpers" + (background ? ", background]" : "]");
+        }
+    }
+
+    /* ---------------- Statistics -------------- */
+
+    /**
+     * Counters for enabled statistics. Resizes of a map never
+     * overlap, so the per-resize fields are reset by beginResize and
+     * the totals are only written by the thread finishing a resize.
+     */
+    static final class StatsRecorder {
+        final Consumer<? super ResizeReport> listener;
+        final LongAdder binRetries = new LongAdder();
+        final LongAdder putRetries = new LongAdder();
+        final LongAdder countRetries = new LongAdder();
+        final LongAdder treeifications = new LongAdder();
+        final LongAdder cellsCreated = new LongAdder();
+        final LongAdder cellExpansions = new LongAdder();
+        final AtomicInteger resizeHelpers = new AtomicInteger();
+        volatile long resizeStart;    // System.nanoTime, or 0 if none begun
+        volatile long resizes;
+        volatile long resizeNanos;
+        volatile long maxResizeNanos;
+        volatile long totalResizeHelpers;
+
+        StatsRecorder(Consumer<? super ResizeReport> listener) {
+            this.listener = listener;
+        }
+
+        void beginResize() {
+            resizeHelpers.set(0);
+            resizeStart = System.nanoTime();
+        }
+
+        void endResize(int oldCapacity, int newCapacity, boolean background) {
+            long t0 = resizeStart;
+            if (t0 == 0L)     // begun before statistics were enabled
+                return;
+            resizeStart = 0L;
+            long d = System.nanoTime() - t0;
+            int h = resizeHelpers.get();
+            resizes = resizes + 1L;
+            resizeNanos = resizeNanos + d;
+            if (d > maxResizeNanos)
+                maxResizeNanos = d;
+            totalResizeHelpers = totalResizeHelpers + h;
+            Consumer<? super ResizeReport> l;
+            if ((l = listener) != null)
+                l.accept(new ResizeReport(oldCapacity, newCapacity, d, h,
+                                          background));
+        }
+    }
+
+    /**
+     * A snapshot of the statistics of a map.
+     *
+     * @see ConcurrentHashMap#getStatistics
+     */
+    public static final class Statistics {
+        /** Number of bin length buckets; the last holds longer bins. */
+        static final int LENGTH_BUCKETS = TREEIFY_THRESHOLD + 1;
+
+        private final int capacity;
+        private final long[] binLengths;
+        private final int treeBins;
+        private final int counterCells;
+        private final long binRetries;
+        private final long putRetries;
+        private final long countRetries;
+        private final long treeifications;
+        private final long counterCellsCreated;
+        private final long counterCellExpansions;
+        private final long resizes;
+        private final long resizeNanos;
+        private final long maxResizeNanos;
+        private final long resizeHelpers;
+
+        Statistics(StatsRecorder st, int capacity, long[] binLengths,
+                   int treeBins, int counterCells) {
+            this.capacity = capacity;
+            this.binLengths = binLengths;
+            this.treeBins = treeBins;
+            this.counterCells = counterCells;
+            this.binRetries = st.binRetries.sum();
+            this.putRetries = st.putRetries.sum();
+            this.countRetries = st.countRetries.sum();
+            this.treeifications = st.treeifications.sum();
+            this.counterCellsCreated = st.cellsCreated.sum();
+            this.counterCellExpansions = st.cellExpansions.sum();
+            this.resizes = st.resizes;
+            this.resizeNanos = st.resizeNanos;
+            this.maxResizeNanos = st.maxResizeNanos;
+            this.resizeHelpers = st.totalResizeHelpers;
+        }
+
+        /**
+         * Returns the number of bins in the table.
+         *
+         * @return the table length
+         */
+        public int getCapacity() { return capacity; }
+
+        /**
+         * Returns the distribution of bin lengths: element {@code i}
+         * is the number of bins holding {@code i} mappings, except
+         * for the last element, which counts all bins holding at
+         * least that many. Bins being moved by a resize are not
+         * counted.
+         *
+         * @return the bin length histogram
+         */
+        public long[] getBinLengths() { return binLengths.clone(); }
+
+        /**
+         * Returns the number of bins that are currently trees.
+         *
+         * @return the number of tree bins
+         */
+        public int getTreeBins() { return treeBins; }
+
+        /**
+         * Returns the current number of counter cells used to
+         * count mappings under contention.
+         *
+         * @return the length of the counter cell table
+         */
+        public int getCounterCells() { return counterCells; }
+
+        /**
+         * Returns the number of locked bin updates that raced with
+         * another update of the same bin: the bin was replaced while
+         * waiting for its lock, so the update was retried, or {@code
+         * put} reached the lock only after losing the CAS into the
+         * then empty bin. Updates that only waited for the lock of a
+         * bin that did not change are not counted.
+         *
+         * @return the number of bin retries
+         */
+        public long getBinRetries() { return binRetries; }
+
+        /**
+         * Returns the number of failed CASes installing the first
+         * node of an empty bin in {@code put} and its variants.
+         *
+         * @return the number of insertion CAS retries
+         */
+        public long getPutRetries() { return putRetries; }
+
+        /**
+         * Returns the number of failed CASes updating the mapping
+         * count, each of which moved the update to a counter cell.
+         *
+         * @return the number of count CAS retries
+         */
+        public long getCountRetries() { return countRetries; }
+
+        /**
+         * Returns the number of bins converted into trees.
+         *
+         * @return the number of treeifications
+         */
+        public long getTreeifications() { return treeifications; }
+
+        /**
+         * Returns the number of counter cells created.
+         *
+         * @return the number of counter cells created
+         */
+        public long getCounterCellsCreated() { return counterCellsCreated; }
+
+        /**
+         * Returns the number of times the counter cell table was
+         * doubled.
+         *
+         * @return the number of counter cell table expansions
+         */
+        public long getCounterCellExpansions() { return counterCellExpansions; }
+
+        /**
+         * Returns the number of completed resizes, including shrinks.
+         *
+         * @return the number of resizes
+         */
+        public long getResizes() { return resizes; }
+
+        /**
+         * Returns the total duration of all completed resizes.
+         *
+         * @return the total resize time in nanoseconds
+         */
+        public long getResizeNanos() { return resizeNanos; }
+
+        /**
+         * Returns the duration of the longest completed resize.
+         *
+         * @return the longest resize time in nanoseconds
+         */
+        public long getMaxResizeNanos() { return maxResizeNanos; }
+
+        /**
+         * Returns the total number of times updating threads joined
+         * a resize to help move entries.
+         *
+         * @return the number of resize helper joins
+         */
+        public long getResizeHelpers() { return resizeHelpers; }
+
+        public String toString() {
+            return "Statistics[capacity=" + capacity +
+                ", binLengths=" + Arrays.toString(binLengths) +
+                ", treeBins=" + treeBins +
+                ", counterCells=" + counterCells +
+                ", binRetries=" + binRetries +
+                ", putRetries=" + putRetries +
+                ", countRetries=" + countRetries +
+                ", treeifications=" + treeifications +
+                ", counterCellsCreated=" + counterCellsCreated +
+                ", counterCellExpansions=" + counterCellExpansions +
+                ", resizes=" + resizes +
+                ", resizeNanos=" + resizeNanos +
+                ", maxResizeNanos=" + maxResizeNanos +
+                ", resizeHelpers=" + resizeHelpers + "]";
+        }
+    }
+
     /* ---------------- Counter support -------------- */
 
     /**
@@ -2522,6 +3689,7 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
 
     // See LongAdder version for explanation
     private final void fullAddCount(long x, boolean wasUncontended) {
+        StatsRecorder st = stats;
         int h;
         if ((h = ThreadLocalRandom.getProbe()) == 0) {
             ThreadLocalRandom.localInit();      // force initialization
@@ -2549,8 +3717,11 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
                             } finally {
                                 cellsBusy = 0;
                             }
-                            if (created)
+                            if (created) {
+                                if (st != null)
+                                    st.cellsCreated.increment();
                                 break;
+                            }
                             continue;           // Slot is now non-empty
                         }
                     }
@@ -2572,6 +3743,8 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
                             for (int i = 0; i < n; ++i)
                                 rs[i] = as[i];
                             counterCells = rs;
+                            if (st != null)
+                                st.cellExpansions.increment();
                         }
                     } finally {
                         cellsBusy = 0;
@@ -2594,8 +3767,11 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
                 } finally {
                     cellsBusy = 0;
                 }
-                if (init)
+                if (init) {
+                    if (st != null)
+                        st.cellsCreated.increment();
                     break;
+                }
             }
             else if (U.compareAndSwapLong(this, BASECOUNT, v = baseCount, v + x))
                 break;                          // Fall back on using base
@@ -2609,7 +3785,7 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
      * too small, in which case resizes instead.
      */
     private final void treeifyBin(Node<K,V>[] tab, int index) {
-        Node<K,V> b; int n, sc;
+        Node<K,V> b; int n, sc; StatsRecorder st;
         if (tab != null) {
             if ((n = tab.length) < MIN_TREEIFY_CAPACITY)
                 tryPresize(n << 1);
@@ -2628,6 +3804,8 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
                             tl = p;
                         }
                         setTabAt(tab, index, new TreeBin<K,V>(hd));
+                        if ((st = stats) != null)
+                            st.treeifications.increment();
                     }
                 }
             }
@@ -3264,6 +4442,8 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
     static final class TableStack<K,V> {
         int length;
         int index;
+        int tabMask;            // saved traverser filter
+        int tabBin;
         Node<K,V>[] tab;
         TableStack<K,V> next;
     }
@@ -3288,6 +4468,20 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
      * paranoically cope with potential sharing by users of iterators
      * across threads, iteration terminates if a bounds checks fails
      * for a table read.
+     *
+     * A forwarding node may also lead to a smaller table (see
+     * trimToSize), in which case the bin at the current index modulo
+     * its length holds the nodes of this bin merged with those of
+     * other bins. While processing it, and any tables it forwards
+     * to, the traverser skips nodes whose hash does not select the
+     * bin it came from, as recorded in tabMask and tabBin. If
+     * already filtering, the finer of the two conditions is kept,
+     * and a bin that cannot satisfy both is skipped, since along a
+     * chain of shrinks and growths the same smaller bin may be
+     * reached from different bins. The filter is saved and restored
+     * with the TableStack, and copied to filterMask and filterBin
+     * for the list being returned, as the state moves on as soon as
+     * a bin is read.
      */
     static class Traverser<K,V> {
         Node<K,V>[] tab;        // current table; updated if resized
@@ -3297,6 +4491,10 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
         int baseIndex;          // current index of initial table
         int baseLimit;          // index bound for initial table
         final int baseSize;     // initial table size
+        int tabMask;            // if nonzero, skip nodes whose hash &
+        int tabBin;             //   tabMask is not tabBin in tab
+        int filterMask;         // same, for nodes of the current list
+        int filterBin;
 
         Traverser(Node<K,V>[] tab, int size, int index, int limit) {
             this.tab = tab;
@@ -3315,23 +4513,44 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
                 e = e.next;
             for (;;) {
                 Node<K,V>[] t; int i, n;  // must use locals in checks
-                if (e != null)
-                    return next = e;
+                if (e != null) {
+                    if (filterMask == 0 || (e.hash & filterMask) == filterBin)
+                        return next = e;
+                    e = e.next;
+                    continue;
+                }
                 if (baseIndex >= baseLimit || (t = tab) == null ||
                     (n = t.length) <= (i = index) || i < 0)
                     return next = null;
                 if ((e = tabAt(t, i)) != null && e.hash < 0) {
                     if (e instanceof ForwardingNode) {
-                        tab = ((ForwardingNode<K,V>)e).nextTable;
+                        Node<K,V>[] nt = ((ForwardingNode<K,V>)e).nextTable;
+                        int fm = tabMask, fb = tabBin;
                         e = null;
-                        pushState(t, i, n);
-                        continue;
+                        if (nt == null || nt.length >= n) {
+                            pushState(t, i, n);
+                            tab = nt;
+                            continue;
+                        }
+                        if (fm < n - 1 ? (i & fm) == fb : (fb & (n - 1)) == i) {
+                            pushState(t, i, n);
+                            if (fm < n - 1) {   // narrow filter to this bin
+                                tabMask = n - 1;
+                                tabBin = i;
+                            }
+                            index = i & (nt.length - 1);
+                            tab = nt;
+                            continue;
+                        }
+                        // else no nodes of this bin pass the filter
                     }
                     else if (e instanceof TreeBin)
                         e = ((TreeBin<K,V>)e).first;
                     else
                         e = null;
                 }
+                filterMask = tabMask;
+                filterBin = tabBin;
                 if (stack != null)
                     recoverState(n);
                 else if ((index = i + baseSize) >= n)
@@ -3351,6 +4570,8 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
             s.tab = t;
             s.length = n;
             s.index = i;
+            s.tabMask = tabMask;
+            s.tabBin = tabBin;
             s.next = stack;
             stack = s;
         }
@@ -3366,6 +4587,8 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
                 n = len;
                 index = s.index;
                 tab = s.tab;
+                tabMask = s.tabMask;
+                tabBin = s.tabBin;
                 s.tab = null;
                 TableStack<K,V> next = s.next;
                 s.next = spare; // save for reuse
@@ -3634,10 +4857,17 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
      * two anyway.
      */
     final int batchFor(long b) {
+        return batchFor(b, ForkJoinPool.getCommonPoolParallelism() << 2); // slack of 4
+    }
+
+    /**
+     * Same as batchFor(b), but splitting into at most about sp
+     * batches.
+     */
+    final int batchFor(long b, int sp) {
         long n;
         if (b == Long.MAX_VALUE || (n = sumCount()) <= 1L || n < b)
             return 0;
-        int sp = ForkJoinPool.getCommonPoolParallelism() << 2; // slack of 4
         return (b <= 0L || (n /= b) >= sp) ? sp : (int)n;
     }
 
@@ -4365,6 +5595,593 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
     }
 
 
+    /**
+     * A view of a ConcurrentHashMap that runs the parallel bulk
+     * operations of the map using a given {@link Executor} and a
+     * given maximum number of batches, instead of the {@link
+     * ForkJoinPool#commonPool()}. Each method behaves like the map
+     * method of the same name and signature. Obtain instances via
+     * {@link ConcurrentHashMap#parallelView(Executor, int)}.
+     *
+     * <p>If the executor is a {@link ForkJoinPool}, operations are
+     * invoked in that pool. Otherwise each batch is submitted to
+     * the executor as a separate task, and the calling thread
+     * waits for the operation to complete; the same task classes
+     * as for the common pool are used, so results and traversal
+     * guarantees are the same. This allows using, for example, an
+     * executor that creates a new (possibly virtual) thread per
+     * task. If the executor rejects a batch, the operation
+     * completes abruptly with the {@link RejectedExecutionException}.
+     * Whenever an operation completes abruptly, batches already
+     * submitted but not yet started are skipped, and the exception
+     * is thrown only once those already running have finished.
+     *
+     * @param <K> the type of keys
+     * @param <V> the type of values
+     */
+    public static final class ParallelView<K,V> {
+        private final ConcurrentHashMap<K,V> map;
+        private final ForkJoinPool pool;     // null if not a pool
+        private final Executor executor;
+        private final int maxBatches;
+
+        ParallelView(ConcurrentHashMap<K,V> map, Executor executor,
+                     int maxBatches) {
+            this.map = map;
+            this.executor = executor;
+            if (executor instanceof ForkJoinPool) {
+                this.pool = (ForkJoinPool)executor;
+                if (maxBatches <= 0)
+                    maxBatches = pool.getParallelism() << 2;
+            }
+            else {
+                this.pool = null;
+                if (maxBatches <= 0)
+                    maxBatches = NCPU << 2;
+            }
+            this.maxBatches = maxBatches;
+        }
+
+        /**
+         * Returns the map backing this view.
+         *
+         * @return the map backing this view
+         */
+        public ConcurrentHashMap<K,V> getMap() { return map; }
+
+        /**
+         * Returns the executor used by this view.
+         *
+         * @return the executor used by this view
+         */
+        public Executor getExecutor() { return executor; }
+
+        /**
+         * Returns the maximum number of batches an operation is
+         * split into.
+         *
+         * @return the maximum number of batches
+         */
+        public int getMaxBatches() { return maxBatches; }
+
+        /**
+         * Runs the given root task to completion with this view's
+         * executor.
+         */
+        private <R> R invoke(BulkTask<K,V,R> task) {
+            if (pool != null)
+                return pool.invoke(task);
+            BatchExecutor ex = new BatchExecutor(executor);
+            task.executor = ex;
+            try {
+                return task.invoke();
+            } catch (RuntimeException | Error e) {
+                ex.abort();
+                throw e;
+            }
+        }
+
+        /**
+         * Submits the batches of one operation to the view's
+         * executor, counting those running so that a failed
+         * operation can cancel the rest and wait for them.
+         */
+        static final class BatchExecutor implements Executor {
+            static final int ABORTED = 1 << 31;
+            final Executor executor;
+            final AtomicInteger state = new AtomicInteger(); // running | ABORTED
+
+            BatchExecutor(Executor executor) {
+                this.executor = executor;
+            }
+
+            public void execute(Runnable r) {
+                executor.execute(() -> {
+                    for (int s;;) {
+                        if (((s = state.get()) & ABORTED) != 0)
+                            return;             // cancelled before starting
+                        if (state.compareAndSet(s, s + 1))
+                            break;
+                    }
+                    try {
+                        r.run();
+                    } finally {
+                        if (state.decrementAndGet() == ABORTED) {
+                            synchronized (this) {
+                                notifyAll();
+                            }
+                        }
+                    }
+                });
+            }
+
+            /**
+             * Prevents batches that have not started from running,
+             * then waits until no batch is running.
+             */
+            void abort() {
+                int s;
+                while (((s = state.get()) & ABORTED) == 0 &&
+                       !state.compareAndSet(s, s | ABORTED))
+                    ;
+                boolean interrupted = false;
+                synchronized (this) {
+                    while (state.get() != ABORTED) {
+                        try {
+                            wait();
+                        } catch (InterruptedException ie) {
+                            interrupted = true;
+                        }
+                    }
+                }
+                if (interrupted)
+                    Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Performs {@link ConcurrentHashMap#forEach(long, BiConsumer)}
+         * using this view's executor.
+         */
+        public void forEach(long parallelismThreshold,
+                            BiConsumer<? super K,? super V> action) {
+            if (action == null) throw new NullPointerException();
+            invoke(new ForEachMappingTask<K,V>
+                (null, map.batchFor(parallelismThreshold, maxBatches),
+                 0, 0, map.table, action));
+        }
+
+        /**
+         * Performs {@link ConcurrentHashMap#forEach(long, BiFunction, Consumer)}
+         * using this view's executor.
+         */
+        public <U> void forEach(long parallelismThreshold,
+                                BiFunction<? super K, ? super V, ? extends U> transformer,
+                                Consumer<? super U> action) {
+            if (transformer == null || action == null)
+                throw new NullPointerException();
+            invoke(new ForEachTransformedMappingTask<K,V,U>
+                (null, map.batchFor(parallelismThreshold, maxBatches),
+                 0, 0, map.table, transformer, action));
+        }
+
+        /**
+         * Performs {@link ConcurrentHashMap#search(long, BiFunction)}
+         * using this view's executor.
+         */
+        public <U> U search(long parallelismThreshold,
+                            BiFunction<? super K, ? super V, ? extends U> searchFunction) {
+            if (searchFunction == null) throw new NullPointerException();
+            return invoke(new SearchMappingsTask<K,V,U>
+                (null, map.batchFor(parallelismThreshold, maxBatches),
+                 0, 0, map.table, searchFunction, new AtomicReference<U>()));
+        }
+
+        /**
+         * Performs {@link ConcurrentHashMap#reduce(long, BiFunction, BiFunction)}
+         * using this view's executor.
+         */
+        public <U> U reduce(long parallelismThreshold,
+                            BiFunction<? super K, ? super V, ? extends U> transformer,
+                            BiFunction<? super U, ? super U, ? extends U> reducer) {
+            if (transformer == null || reducer == null)
+                throw new NullPointerException();
+            return invoke(new MapReduceMappingsTask<K,V,U>
+                (null, map.batchFor(parallelismThreshold, maxBatches),
+                 0, 0, map.table, null, transformer, reducer));
+        }
+
+        /**
+         * Performs {@link ConcurrentHashMap#reduceToDouble(long, ToDoubleBiFunction, double, DoubleBinaryOperator)}
+         * using this view's executor.
+         */
+        public double reduceToDouble(long parallelismThreshold,
+                                     ToDoubleBiFunction<? super K, ? super V> transformer,
+                                     double basis,
+                                     DoubleBinaryOperator reducer) {
+            if (transformer == null || reducer == null)
+                throw new NullPointerException();
+            return invoke(new MapReduceMappingsToDoubleTask<K,V>
+                (null, map.batchFor(parallelismThreshold, maxBatches),
+                 0, 0, map.table, null, transformer, basis, reducer));
+        }
+
+        /**
+         * Performs {@link ConcurrentHashMap#reduceToLong(long, ToLongBiFunction, long, LongBinaryOperator)}
+         * using this view's executor.
+         */
+        public long reduceToLong(long parallelismThreshold,
+                                 ToLongBiFunction<? super K, ? super V> transformer,
+                                 long basis,
+                                 LongBinaryOperator reducer) {
+            if (transformer == null || reducer == null)
+                throw new NullPointerException();
+            return invoke(new MapReduceMappingsToLongTask<K,V>
+                (null, map.batchFor(parallelismThreshold, maxBatches),
+                 0, 0, map.table, null, transformer, basis, reducer));
+        }
+
+        /**
+         * Performs {@link ConcurrentHashMap#reduceToInt(long, ToIntBiFunction, int, IntBinaryOperator)}
+         * using this view's executor.
+         */
+        public int reduceToInt(long parallelismThreshold,
+                               ToIntBiFunction<? super K, ? super V> transformer,
+                               int basis,
+                               IntBinaryOperator reducer) {
+            if (transformer == null || reducer == null)
+                throw new NullPointerException();
+            return invoke(new MapReduceMappingsToIntTask<K,V>
+                (null, map.batchFor(parallelismThreshold, maxBatches),
+                 0, 0, map.table, null, transformer, basis, reducer));
+        }
+
+        /**
+         * Performs {@link ConcurrentHashMap#forEachKey(long, Consumer)}
+         * using this view's executor.
+         */
+        public void forEachKey(long parallelismThreshold,
+                               Consumer<? super K> action) {
+            if (action == null) throw new NullPointerException();
+            invoke(new ForEachKeyTask<K,V>
+                (null, map.batchFor(parallelismThreshold, maxBatches),
+                 0, 0, map.table, action));
+        }
+
+        /**
+         * Performs {@link ConcurrentHashMap#forEachKey(long, Function, Consumer)}
+         * using this view's executor.
+         */
+        public <U> void forEachKey(long parallelismThreshold,
+                                   Function<? super K, ? extends U> transformer,
+                                   Consumer<? super U> action) {
+            if (transformer == null || action == null)
+                throw new NullPointerException();
+            invoke(new ForEachTransformedKeyTask<K,V,U>
+                (null, map.batchFor(parallelismThreshold, maxBatches),
+                 0, 0, map.table, transformer, action));
+        }
+
+        /**
+         * Performs {@link ConcurrentHashMap#searchKeys(long, Function)}
+         * using this view's executor.
+         */
+        public <U> U searchKeys(long parallelismThreshold,
+                                Function<? super K, ? extends U> searchFunction) {
+            if (searchFunction == null) throw new NullPointerException();
+            return invoke(new SearchKeysTask<K,V,U>
+                (null, map.batchFor(parallelismThreshold, maxBatches),
+                 0, 0, map.table, searchFunction, new AtomicReference<U>()));
+        }
+
+        /**
+         * Performs {@link ConcurrentHashMap#reduceKeys(long, BiFunction)}
+         * using this view's executor.
+         */
+        public K reduceKeys(long parallelismThreshold,
+                            BiFunction<? super K, ? super K, ? extends K> reducer) {
+            if (reducer == null) throw new NullPointerException();
+            return invoke(new ReduceKeysTask<K,V>
+                (null, map.batchFor(parallelismThreshold, maxBatches),
+                 0, 0, map.table, null, reducer));
+        }
+
+        /**
+         * Performs {@link ConcurrentHashMap#reduceKeys(long, Function, BiFunction)}
+         * using this view's executor.
+         */
+        public <U> U reduceKeys(long parallelismThreshold,
+                                Function<? super K, ? extends U> transformer,
+             BiFunction<? super U, ? super U, ? extends U> reducer) {
+            if (transformer == null || reducer == null)
+                throw new NullPointerException();
+            return invoke(new MapReduceKeysTask<K,V,U>
+                (null, map.batchFor(parallelismThreshold, maxBatches),
+                 0, 0, map.table, null, transformer, reducer));
+        }
+
+        /**
+         * Performs {@link ConcurrentHashMap#reduceKeysToDouble(long, ToDoubleFunction, double, DoubleBinaryOperator)}
+         * using this view's executor.
+         */
+        public double reduceKeysToDouble(long parallelismThreshold,
+                                         ToDoubleFunction<? super K> transformer,
+                                         double basis,
+                                         DoubleBinaryOperator reducer) {
+            if (transformer == null || reducer == null)
+                throw new NullPointerException();
+            return invoke(new MapReduceKeysToDoubleTask<K,V>
+                (null, map.batchFor(parallelismThreshold, maxBatches),
+                 0, 0, map.table, null, transformer, basis, reducer));
+        }
+
+        /**
+         * Performs {@link ConcurrentHashMap#reduceKeysToLong(long, ToLongFunction, long, LongBinaryOperator)}
+         * using this view's executor.
+         */
+        public long reduceKeysToLong(long parallelismThreshold,
+                                     ToLongFunction<? super K> transformer,
+                                     long basis,
+                                     LongBinaryOperator reducer) {
+            if (transformer == null || reducer == null)
+                throw new NullPointerException();
+            return invoke(new MapReduceKeysToLongTask<K,V>
+                (null, map.batchFor(parallelismThreshold, maxBatches),
+                 0, 0, map.table, null, transformer, basis, reducer));
+        }
+
+        /**
+         * Performs {@link ConcurrentHashMap#reduceKeysToInt(long, ToIntFunction, int, IntBinaryOperator)}
+         * using this view's executor.
+         */
+        public int reduceKeysToInt(long parallelismThreshold,
+                                   ToIntFunction<? super K> transformer,
+                                   int basis,
+                                   IntBinaryOperator reducer) {
+            if (transformer == null || reducer == null)
+                throw new NullPointerException();
+            return invoke(new MapReduceKeysToIntTask<K,V>
+                (null, map.batchFor(parallelismThreshold, maxBatches),
+                 0, 0, map.table, null, transformer, basis, reducer));
+        }
+
+        /**
+         * Performs {@link ConcurrentHashMap#forEachValue(long, Consumer)}
+         * using this view's executor.
+         */
+        public void forEachValue(long parallelismThreshold,
+                                 Consumer<? super V> action) {
+            if (action == null)
+                throw new NullPointerException();
+            invoke(new ForEachValueTask<K,V>
+                (null, map.batchFor(parallelismThreshold, maxBatches),
+                 0, 0, map.table, action));
+        }
+
+        /**
+         * Performs {@link ConcurrentHashMap#forEachValue(long, Function, Consumer)}
+         * using this view's executor.
+         */
+        public <U> void forEachValue(long parallelismThreshold,
+                                     Function<? super V, ? extends U> transformer,
+                                     Consumer<? super U> action) {
+            if (transformer == null || action == null)
+                throw new NullPointerException();
+            invoke(new ForEachTransformedValueTask<K,V,U>
+                (null, map.batchFor(parallelismThreshold, maxBatches),
+                 0, 0, map.table, transformer, action));
+        }
+
+        /**
+         * Performs {@link ConcurrentHashMap#searchValues(long, Function)}
+         * using this view's executor.
+         */
+        public <U> U searchValues(long parallelismThreshold,
+                                  Function<? super V, ? extends U> searchFunction) {
+            if (searchFunction == null) throw new NullPointerException();
+            return invoke(new SearchValuesTask<K,V,U>
+                (null, map.batchFor(parallelismThreshold, maxBatches),
+                 0, 0, map.table, searchFunction, new AtomicReference<U>()));
+        }
+
+        /**
+         * Performs {@link ConcurrentHashMap#reduceValues(long, BiFunction)}
+         * using this view's executor.
+         */
+        public V reduceValues(long parallelismThreshold,
+                              BiFunction<? super V, ? super V, ? extends V> reducer) {
+            if (reducer == null) throw new NullPointerException();
+            return invoke(new ReduceValuesTask<K,V>
+                (null, map.batchFor(parallelismThreshold, maxBatches),
+                 0, 0, map.table, null, reducer));
+        }
+
+        /**
+         * Performs {@link ConcurrentHashMap#reduceValues(long, Function, BiFunction)}
+         * using this view's executor.
+         */
+        public <U> U reduceValues(long parallelismThreshold,
+                                  Function<? super V, ? extends U> transformer,
+                                  BiFunction<? super U, ? super U, ? extends U> reducer) {
+            if (transformer == null || reducer == null)
+                throw new NullPointerException();
+            return invoke(new MapReduceValuesTask<K,V,U>
+                (null, map.batchFor(parallelismThreshold, maxBatches),
+                 0, 0, map.table, null, transformer, reducer));
+        }
+
+        /**
+         * Performs {@link ConcurrentHashMap#reduceValuesToDouble(long, ToDoubleFunction, double, DoubleBinaryOperator)}
+         * using this view's executor.
+         */
+        public double reduceValuesToDouble(long parallelismThreshold,
+                                           ToDoubleFunction<? super V> transformer,
+                                           double basis,
+                                           DoubleBinaryOperator reducer) {
+            if (transformer == null || reducer == null)
+                throw new NullPointerException();
+            return invoke(new MapReduceValuesToDoubleTask<K,V>
+                (null, map.batchFor(parallelismThreshold, maxBatches),
+                 0, 0, map.table, null, transformer, basis, reducer));
+        }
+
+        /**
+         * Performs {@link ConcurrentHashMap#reduceValuesToLong(long, ToLongFunction, long, LongBinaryOperator)}
+         * using this view's executor.
+         */
+        public long reduceValuesToLong(long parallelismThreshold,
+                                       ToLongFunction<? super V> transformer,
+                                       long basis,
+                                       LongBinaryOperator reducer) {
+            if (transformer == null || reducer == null)
+                throw new NullPointerException();
+            return invoke(new MapReduceValuesToLongTask<K,V>
+                (null, map.batchFor(parallelismThreshold, maxBatches),
+                 0, 0, map.table, null, transformer, basis, reducer));
+        }
+
+        /**
+         * Performs {@link ConcurrentHashMap#reduceValuesToInt(long, ToIntFunction, int, IntBinaryOperator)}
+         * using this view's executor.
+         */
+        public int reduceValuesToInt(long parallelismThreshold,
+                                     ToIntFunction<? super V> transformer,
+                                     int basis,
+                                     IntBinaryOperator reducer) {
+            if (transformer == null || reducer == null)
+                throw new NullPointerException();
+            return invoke(new MapReduceValuesToIntTask<K,V>
+                (null, map.batchFor(parallelismThreshold, maxBatches),
+                 0, 0, map.table, null, transformer, basis, reducer));
+        }
+
+        /**
+         * Performs {@link ConcurrentHashMap#forEachEntry(long, Consumer)}
+         * using this view's executor.
+         */
+        public void forEachEntry(long parallelismThreshold,
+                                 Consumer<? super Entry<K,V>> action) {
+            if (action == null) throw new NullPointerException();
+            invoke(new ForEachEntryTask<K,V>(null, map.batchFor(parallelismThreshold, maxBatches),
+                 0, 0, map.table,                      action));
+        }
+
+        /**
+         * Performs {@link ConcurrentHashMap#forEachEntry(long, Function, Consumer)}
+         * using this view's executor.
+         */
+        public <U> void forEachEntry(long parallelismThreshold,
+                                     Function<Entry<K,V>, ? extends U> transformer,
+                                     Consumer<? super U> action) {
+            if (transformer == null || action == null)
+                throw new NullPointerException();
+            invoke(new ForEachTransformedEntryTask<K,V,U>
+                (null, map.batchFor(parallelismThreshold, maxBatches),
+                 0, 0, map.table, transformer, action));
+        }
+
+        /**
+         * Performs {@link ConcurrentHashMap#searchEntries(long, Function)}
+         * using this view's executor.
+         */
+        public <U> U searchEntries(long parallelismThreshold,
+                                   Function<Entry<K,V>, ? extends U> searchFunction) {
+            if (searchFunction == null) throw new NullPointerException();
+            return invoke(new SearchEntriesTask<K,V,U>
+                (null, map.batchFor(parallelismThreshold, maxBatches),
+                 0, 0, map.table, searchFunction, new AtomicReference<U>()));
+        }
+
+        /**
+         * Performs {@link ConcurrentHashMap#reduceEntries(long, BiFunction)}
+         * using this view's executor.
+         */
+        public Entry<K,V> reduceEntries(long parallelismThreshold,
+                                            BiFunction<Entry<K,V>, Entry<K,V>, ? extends Entry<K,V>> reducer) {
+            if (reducer == null) throw new NullPointerException();
+            return invoke(new ReduceEntriesTask<K,V>
+                (null, map.batchFor(parallelismThreshold, maxBatches),
+                 0, 0, map.table, null, reducer));
+        }
+
+        /**
+         * Performs {@link ConcurrentHashMap#reduceEntries(long, Function, BiFunction)}
+         * using this view's executor.
+         */
+        public <U> U reduceEntries(long parallelismThreshold,
+                                   Function<Entry<K,V>, ? extends U> transformer,
+                                   BiFunction<? super U, ? super U, ? extends U> reducer) {
+            if (transformer == null || reducer == null)
+                throw new NullPointerException();
+            return invoke(new MapReduceEntriesTask<K,V,U>
+                (null, map.batchFor(parallelismThreshold, maxBatches),
+                 0, 0, map.table, null, transformer, reducer));
+        }
+
+        /**
+         * Performs {@link ConcurrentHashMap#reduceEntriesToDouble(long, ToDoubleFunction, double, DoubleBinaryOperator)}
+         * using this view's executor.
+         */
+        public double reduceEntriesToDouble(long parallelismThreshold,
+                                            ToDoubleFunction<Entry<K,V>> transformer,
+                                            double basis,
+                                            DoubleBinaryOperator reducer) {
+            if (transformer == null || reducer == null)
+                throw new NullPointerException();
+            return invoke(new MapReduceEntriesToDoubleTask<K,V>
+                (null, map.batchFor(parallelismThreshold, maxBatches),
+                 0, 0, map.table, null, transformer, basis, reducer));
+        }
+
+        /**
+         * Performs {@link ConcurrentHashMap#reduceEntriesToLong(long, ToLongFunction, long, LongBinaryOperator)}
+         * using this view's executor.
+         */
+        public long reduceEntriesToLong(long parallelismThreshold,
+                                        ToLongFunction<Entry<K,V>> transformer,
+                                        long basis,
+                                        LongBinaryOperator reducer) {
+            if (transformer == null || reducer == null)
+                throw new NullPointerException();
+            return invoke(new MapReduceEntriesToLongTask<K,V>
+                (null, map.batchFor(parallelismThreshold, maxBatches),
+                 0, 0, map.table, null, transformer, basis, reducer));
+        }
+
+        /**
+         * Performs {@link ConcurrentHashMap#reduceEntriesToInt(long, ToIntFunction, int, IntBinaryOperator)}
+         * using this view's executor.
+         */
+        public int reduceEntriesToInt(long parallelismThreshold,
+                                      ToIntFunction<Entry<K,V>> transformer,
+                                      int basis,
+                                      IntBinaryOperator reducer) {
+            if (transformer == null || reducer == null)
+                throw new NullPointerException();
+            return invoke(new MapReduceEntriesToIntTask<K,V>
+                (null, map.batchFor(parallelismThreshold, maxBatches),
+                 0, 0, map.table, null, transformer, basis, reducer));
+        }
+    }
+
+    /**
+     * Returns a view of this map whose parallel bulk operations run
+     * using the given executor instead of the {@link
+     * ForkJoinPool#commonPool()}, split into at most about {@code
+     * maxBatches} batches. See {@link ParallelView} for details.
+     *
+     * @param executor the executor, typically a {@link ForkJoinPool}
+     * @param maxBatches the maximum number of batches, or zero or
+     * negative for a default based on the executor's parallelism
+     * @return the view
+     * @throws NullPointerException if the executor is null
+     */
+    public ParallelView<K,V> parallelView(Executor executor, int maxBatches) {
+        if (executor == null)
+            throw new NullPointerException();
+        return new ParallelView<K,V>(this, executor, maxBatches);
+    }
+
     /* ----------------Views -------------- */
 
     /**
@@ -4813,11 +6630,18 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
         int baseIndex;
         int baseLimit;
         final int baseSize;
+        int tabMask;            // same as Traverser
+        int tabBin;
+        int filterMask;
+        int filterBin;
         int batch;              // split control
+        Executor executor;      // runs subtasks if non-null, else fork
 
         BulkTask(BulkTask<K,V,?> par, int b, int i, int f, Node<K,V>[] t) {
             super(par);
             this.batch = b;
+            if (par != null)
+                this.executor = par.executor;
             this.index = this.baseIndex = i;
             if ((this.tab = t) == null)
                 this.baseSize = this.baseLimit = 0;
@@ -4829,6 +6653,18 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
             }
         }
 
+        /**
+         * Arranges to run this subtask asynchronously: in the
+         * executor if one is set, else by forking.
+         */
+        final void spawn() {
+            Executor ex;
+            if ((ex = executor) == null)
+                fork();
+            else
+                ex.execute(this::doExec);
+        }
+
         /**
          * Same as Traverser version
          */
@@ -4838,23 +6674,44 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
                 e = e.next;
             for (;;) {
                 Node<K,V>[] t; int i, n;
-                if (e != null)
-                    return next = e;
+                if (e != null) {
+                    if (filterMask == 0 || (e.hash & filterMask) == filterBin)
+                        return next = e;
+                    e = e.next;
+                    continue;
+                }
                 if (baseIndex >= baseLimit || (t = tab) == null ||
                     (n = t.length) <= (i = index) || i < 0)
                     return next = null;
                 if ((e = tabAt(t, i)) != null && e.hash < 0) {
                     if (e instanceof ForwardingNode) {
-                        tab = ((ForwardingNode<K,V>)e).nextTable;
+                        Node<K,V>[] nt = ((ForwardingNode<K,V>)e).nextTable;
+                        int fm = tabMask, fb = tabBin;
                         e = null;
-                        pushState(t, i, n);
-                        continue;
+                        if (nt == null || nt.length >= n) {
+                            pushState(t, i, n);
+                            tab = nt;
+                            continue;
+                        }
+                        if (fm < n - 1 ? (i & fm) == fb : (fb & (n - 1)) == i) {
+                            pushState(t, i, n);
+                            if (fm < n - 1) {   // narrow filter to this bin
+                                tabMask = n - 1;
+                                tabBin = i;
+                            }
+                            index = i & (nt.length - 1);
+                            tab = nt;
+                            continue;
+                        }
+                        // else no nodes of this bin pass the filter
                     }
                     else if (e instanceof TreeBin)
                         e = ((TreeBin<K,V>)e).first;
                     else
                         e = null;
                 }
+                filterMask = tabMask;
+                filterBin = tabBin;
                 if (stack != null)
                     recoverState(n);
                 else if ((index = i + baseSize) >= n)
@@ -4871,6 +6728,8 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
             s.tab = t;
             s.length = n;
             s.index = i;
+            s.tabMask = tabMask;
+            s.tabBin = tabBin;
             s.next = stack;
             stack = s;
         }
@@ -4881,6 +6740,8 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
                 n = len;
                 index = s.index;
                 tab = s.tab;
+                tabMask = s.tabMask;
+                tabBin = s.tabBin;
                 s.tab = null;
                 TableStack<K,V> next = s.next;
                 s.next = spare; // save for reuse
@@ -4917,7 +6778,7 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
                     addToPendingCount(1);
                     new ForEachKeyTask<K,V>
                         (this, batch >>>= 1, baseLimit = h, f, tab,
-                         action).fork();
+                         action).spawn();
                 }
                 for (Node<K,V> p; (p = advance()) != null;)
                     action.accept(p.key);
@@ -4944,7 +6805,7 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
                     addToPendingCount(1);
                     new ForEachValueTask<K,V>
                         (this, batch >>>= 1, baseLimit = h, f, tab,
-                         action).fork();
+                         action).spawn();
                 }
                 for (Node<K,V> p; (p = advance()) != null;)
                     action.accept(p.val);
@@ -4971,7 +6832,7 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
                     addToPendingCount(1);
                     new ForEachEntryTask<K,V>
                         (this, batch >>>= 1, baseLimit = h, f, tab,
-                         action).fork();
+                         action).spawn();
                 }
                 for (Node<K,V> p; (p = advance()) != null; )
                     action.accept(p);
@@ -4998,7 +6859,7 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
                     addToPendingCount(1);
                     new ForEachMappingTask<K,V>
                         (this, batch >>>= 1, baseLimit = h, f, tab,
-                         action).fork();
+                         action).spawn();
                 }
                 for (Node<K,V> p; (p = advance()) != null; )
                     action.accept(p.key, p.val);
@@ -5028,7 +6889,7 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
                     addToPendingCount(1);
                     new ForEachTransformedKeyTask<K,V,U>
                         (this, batch >>>= 1, baseLimit = h, f, tab,
-                         transformer, action).fork();
+                         transformer, action).spawn();
                 }
                 for (Node<K,V> p; (p = advance()) != null; ) {
                     U u;
@@ -5061,7 +6922,7 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
                     addToPendingCount(1);
                     new ForEachTransformedValueTask<K,V,U>
                         (this, batch >>>= 1, baseLimit = h, f, tab,
-                         transformer, action).fork();
+                         transformer, action).spawn();
                 }
                 for (Node<K,V> p; (p = advance()) != null; ) {
                     U u;
@@ -5094,7 +6955,7 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
                     addToPendingCount(1);
                     new ForEachTransformedEntryTask<K,V,U>
                         (this, batch >>>= 1, baseLimit = h, f, tab,
-                         transformer, action).fork();
+                         transformer, action).spawn();
                 }
                 for (Node<K,V> p; (p = advance()) != null; ) {
                     U u;
@@ -5128,7 +6989,7 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
                     addToPendingCount(1);
                     new ForEachTransformedMappingTask<K,V,U>
                         (this, batch >>>= 1, baseLimit = h, f, tab,
-                         transformer, action).fork();
+                         transformer, action).spawn();
                 }
                 for (Node<K,V> p; (p = advance()) != null; ) {
                     U u;
@@ -5165,7 +7026,7 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
                     addToPendingCount(1);
                     new SearchKeysTask<K,V,U>
                         (this, batch >>>= 1, baseLimit = h, f, tab,
-                         searchFunction, result).fork();
+                         searchFunction, result).spawn();
                 }
                 while (result.get() == null) {
                     U u;
@@ -5209,7 +7070,7 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
                     addToPendingCount(1);
                     new SearchValuesTask<K,V,U>
                         (this, batch >>>= 1, baseLimit = h, f, tab,
-                         searchFunction, result).fork();
+                         searchFunction, result).spawn();
                 }
                 while (result.get() == null) {
                     U u;
@@ -5253,7 +7114,7 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
                     addToPendingCount(1);
                     new SearchEntriesTask<K,V,U>
                         (this, batch >>>= 1, baseLimit = h, f, tab,
-                         searchFunction, result).fork();
+                         searchFunction, result).spawn();
                 }
                 while (result.get() == null) {
                     U u;
@@ -5297,7 +7158,7 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
                     addToPendingCount(1);
                     new SearchMappingsTask<K,V,U>
                         (this, batch >>>= 1, baseLimit = h, f, tab,
-                         searchFunction, result).fork();
+                         searchFunction, result).spawn();
                 }
                 while (result.get() == null) {
                     U u;
@@ -5338,7 +7199,7 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
                     addToPendingCount(1);
                     (rights = new ReduceKeysTask<K,V>
                      (this, batch >>>= 1, baseLimit = h, f, tab,
-                      rights, reducer)).fork();
+                      rights, reducer)).spawn();
                 }
                 K r = null;
                 for (Node<K,V> p; (p = advance()) != null; ) {
@@ -5386,7 +7247,7 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
                     addToPendingCount(1);
                     (rights = new ReduceValuesTask<K,V>
                      (this, batch >>>= 1, baseLimit = h, f, tab,
-                      rights, reducer)).fork();
+                      rights, reducer)).spawn();
                 }
                 V r = null;
                 for (Node<K,V> p; (p = advance()) != null; ) {
@@ -5434,7 +7295,7 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
                     addToPendingCount(1);
                     (rights = new ReduceEntriesTask<K,V>
                      (this, batch >>>= 1, baseLimit = h, f, tab,
-                      rights, reducer)).fork();
+                      rights, reducer)).spawn();
                 }
                 Entry<K,V> r = null;
                 for (Node<K,V> p; (p = advance()) != null; )
@@ -5485,7 +7346,7 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
                     addToPendingCount(1);
                     (rights = new MapReduceKeysTask<K,V,U>
                      (this, batch >>>= 1, baseLimit = h, f, tab,
-                      rights, transformer, reducer)).fork();
+                      rights, transformer, reducer)).spawn();
                 }
                 U r = null;
                 for (Node<K,V> p; (p = advance()) != null; ) {
@@ -5539,7 +7400,7 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
                     addToPendingCount(1);
                     (rights = new MapReduceValuesTask<K,V,U>
                      (this, batch >>>= 1, baseLimit = h, f, tab,
-                      rights, transformer, reducer)).fork();
+                      rights, transformer, reducer)).spawn();
                 }
                 U r = null;
                 for (Node<K,V> p; (p = advance()) != null; ) {
@@ -5593,7 +7454,7 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
                     addToPendingCount(1);
                     (rights = new MapReduceEntriesTask<K,V,U>
                      (this, batch >>>= 1, baseLimit = h, f, tab,
-                      rights, transformer, reducer)).fork();
+                      rights, transformer, reducer)).spawn();
                 }
                 U r = null;
                 for (Node<K,V> p; (p = advance()) != null; ) {
@@ -5647,7 +7508,7 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
                     addToPendingCount(1);
                     (rights = new MapReduceMappingsTask<K,V,U>
                      (this, batch >>>= 1, baseLimit = h, f, tab,
-                      rights, transformer, reducer)).fork();
+                      rights, transformer, reducer)).spawn();
                 }
                 U r = null;
                 for (Node<K,V> p; (p = advance()) != null; ) {
@@ -5704,7 +7565,7 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
                     addToPendingCount(1);
                     (rights = new MapReduceKeysToDoubleTask<K,V>
                      (this, batch >>>= 1, baseLimit = h, f, tab,
-                      rights, transformer, r, reducer)).fork();
+                      rights, transformer, r, reducer)).spawn();
                 }
                 for (Node<K,V> p; (p = advance()) != null; )
                     r = reducer.applyAsDouble(r, transformer.applyAsDouble(p.key));
@@ -5754,7 +7615,7 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
                     addToPendingCount(1);
                     (rights = new MapReduceValuesToDoubleTask<K,V>
                      (this, batch >>>= 1, baseLimit = h, f, tab,
-                      rights, transformer, r, reducer)).fork();
+                      rights, transformer, r, reducer)).spawn();
                 }
                 for (Node<K,V> p; (p = advance()) != null; )
                     r = reducer.applyAsDouble(r, transformer.applyAsDouble(p.val));
@@ -5804,7 +7665,7 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
                     addToPendingCount(1);
                     (rights = new MapReduceEntriesToDoubleTask<K,V>
                      (this, batch >>>= 1, baseLimit = h, f, tab,
-                      rights, transformer, r, reducer)).fork();
+                      rights, transformer, r, reducer)).spawn();
                 }
                 for (Node<K,V> p; (p = advance()) != null; )
                     r = reducer.applyAsDouble(r, transformer.applyAsDouble(p));
@@ -5854,7 +7715,7 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
                     addToPendingCount(1);
                     (rights = new MapReduceMappingsToDoubleTask<K,V>
                      (this, batch >>>= 1, baseLimit = h, f, tab,
-                      rights, transformer, r, reducer)).fork();
+                      rights, transformer, r, reducer)).spawn();
                 }
                 for (Node<K,V> p; (p = advance()) != null; )
                     r = reducer.applyAsDouble(r, transformer.applyAsDouble(p.key, p.val));
@@ -5904,7 +7765,7 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
                     addToPendingCount(1);
                     (rights = new MapReduceKeysToLongTask<K,V>
                      (this, batch >>>= 1, baseLimit = h, f, tab,
-                      rights, transformer, r, reducer)).fork();
+                      rights, transformer, r, reducer)).spawn();
                 }
                 for (Node<K,V> p; (p = advance()) != null; )
                     r = reducer.applyAsLong(r, transformer.applyAsLong(p.key));
@@ -5954,7 +7815,7 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
                     addToPendingCount(1);
                     (rights = new MapReduceValuesToLongTask<K,V>
                      (this, batch >>>= 1, baseLimit = h, f, tab,
-                      rights, transformer, r, reducer)).fork();
+                      rights, transformer, r, reducer)).spawn();
                 }
                 for (Node<K,V> p; (p = advance()) != null; )
                     r = reducer.applyAsLong(r, transformer.applyAsLong(p.val));
@@ -6004,7 +7865,7 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
                     addToPendingCount(1);
                     (rights = new MapReduceEntriesToLongTask<K,V>
                      (this, batch >>>= 1, baseLimit = h, f, tab,
-                      rights, transformer, r, reducer)).fork();
+                      rights, transformer, r, reducer)).spawn();
                 }
                 for (Node<K,V> p; (p = advance()) != null; )
                     r = reducer.applyAsLong(r, transformer.applyAsLong(p));
@@ -6054,7 +7915,7 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
                     addToPendingCount(1);
                     (rights = new MapReduceMappingsToLongTask<K,V>
                      (this, batch >>>= 1, baseLimit = h, f, tab,
-                      rights, transformer, r, reducer)).fork();
+                      rights, transformer, r, reducer)).spawn();
                 }
                 for (Node<K,V> p; (p = advance()) != null; )
                     r = reducer.applyAsLong(r, transformer.applyAsLong(p.key, p.val));
@@ -6104,7 +7965,7 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
                     addToPendingCount(1);
                     (rights = new MapReduceKeysToIntTask<K,V>
                      (this, batch >>>= 1, baseLimit = h, f, tab,
-                      rights, transformer, r, reducer)).fork();
+                      rights, transformer, r, reducer)).spawn();
                 }
                 for (Node<K,V> p; (p = advance()) != null; )
                     r = reducer.applyAsInt(r, transformer.applyAsInt(p.key));
@@ -6154,7 +8015,7 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
                     addToPendingCount(1);
                     (rights = new MapReduceValuesToIntTask<K,V>
                      (this, batch >>>= 1, baseLimit = h, f, tab,
-                      rights, transformer, r, reducer)).fork();
+                      rights, transformer, r, reducer)).spawn();
                 }
                 for (Node<K,V> p; (p = advance()) != null; )
                     r = reducer.applyAsInt(r, transformer.applyAsInt(p.val));
@@ -6204,7 +8065,7 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
                     addToPendingCount(1);
                     (rights = new MapReduceEntriesToIntTask<K,V>
                      (this, batch >>>= 1, baseLimit = h, f, tab,
-                      rights, transformer, r, reducer)).fork();
+                      rights, transformer, r, reducer)).spawn();
                 }
                 for (Node<K,V> p; (p = advance()) != null; )
                     r = reducer.applyAsInt(r, transformer.applyAsInt(p));
@@ -6254,7 +8115,7 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
                     addToPendingCount(1);
                     (rights = new MapReduceMappingsToIntTask<K,V>
                      (this, batch >>>= 1, baseLimit = h, f, tab,
-                      rights, transformer, r, reducer)).fork();
+                      rights, transformer, r, reducer)).spawn();
                 }
                 for (Node<K,V> p; (p = advance()) != null; )
                     r = reducer.applyAsInt(r, transformer.applyAsInt(p.key, p.val));
@@ -6278,8 +8139,10 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
     private static final sun.misc.Unsafe U;
     private static final long SIZECTL;
     private static final long TRANSFERINDEX;
+    private static final long PENDINGRESIZE;
     private static final long BASECOUNT;
     private static final long CELLSBUSY;
+    private static final long LOADS;
     private static final long CELLVALUE;
     private static final long ABASE;
     private static final int ASHIFT;
@@ -6292,10 +8155,14 @@ public class ConcurrentHashMap<K,V> extends AbstractMap<K,V>
                 (k.getDeclaredField("sizeCtl"));
             TRANSFERINDEX = U.objectFieldOffset
                 (k.getDeclaredField("transferIndex"));
+            PENDINGRESIZE = U.objectFieldOffset
+                (k.getDeclaredField("pendingResize"));
             BASECOUNT = U.objectFieldOffset
                 (k.getDeclaredField("baseCount"));
             CELLSBUSY = U.objectFieldOffset
                 (k.getDeclaredField("cellsBusy"));
+            LOADS = U.objectFieldOffset
+                (k.getDeclaredField("loads"));
             Class<?> ck = CounterCell.class;
             CELLVALUE = U.objectFieldOffset
                 (ck.getDeclaredField("value"));
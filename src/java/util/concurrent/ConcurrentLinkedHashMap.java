@@ -0,0 +1,990 @@
+/*
+ * Copyright (c) 2017, Oracle and/or its affiliates. All rights reserved.
+ * ORACLE PROPRIETARY/CONFIDENTIAL. Use is subject to license terms.
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ */
+
+package java.util.concurrent;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded {@link ConcurrentMap} with the eviction contract of a
+ * {@link java.util.LinkedHashMap} used as a cache: entries are kept in
+ * access order (or insertion order), the least recently used entry is
+ * evicted once the capacity is exceeded, and {@link #removeEldestEntry}
+ * may be overridden to impose an additional policy.
+ *
+ * <p>Unlike a {@code LinkedHashMap} wrapped in a lock, retrievals do
+ * not reorder the eviction list directly.  Mappings live in a {@link
+ * ConcurrentHashMap}; each read records the accessed entry in one of
+ * several striped, bounded buffers, and each write enqueues a task.
+ * The buffers are replayed in batches against the eviction policy by
+ * whichever thread manages to acquire the policy lock, so readers
+ * never block and writers block only on their hash bin.  Because read
+ * buffers are lossy, access order is approximate under heavy load;
+ * writes are never lost.  The bound may be temporarily exceeded until
+ * the pending writes are replayed.
+ *
+ * <p>The capacity is expressed as a maximum <em>weight</em>.  By
+ * default every entry weighs 1, so the bound is a maximum size; a
+ * {@link Weigher} may be supplied to bound, for example, the total
+ * number of bytes held.
+ *
+ * <p>Optionally, a W-TinyLFU admission policy may be enabled.  New
+ * entries then enter a small admission window (1% of the capacity).
+ * When an entry falls out of the window while the cache is full, it
+ * is admitted into the main region only if it has been used more
+ * often recently than the main region's eviction victim, as estimated
+ * by a compact count-min sketch of access frequencies.  This protects
+ * frequently used entries from being flushed by scans of entries that
+ * are used once.
+ *
+ * <p>Iteration over the collection views is in hash table order, not
+ * in eviction order, and does not count as access.  Neither keys nor
+ * values may be null.
+ *
+ * @param <K> the type of keys maintained by this map
+ * @param <V> the type of mapped values
+ * @see java.util.LinkedHashMap#removeEldestEntry
+ */
+public class ConcurrentLinkedHashMap<K,V> extends AbstractMap<K,V>
+    implements ConcurrentMap<K,V> {
+
+    /*
+     * Overview:
+     *
+     * The eviction policy (the window and main lists, the weights and
+     * the frequency sketch) is guarded by evictionLock.  Each read
+     * offers its node to a ReadBuffer selected by the thread's probe,
+     * as in ConcurrentHashMap's counter cells; a full buffer drops
+     * the event.  Each write applies its change to the hash table
+     * first and then enqueues an AddTask, UpdateTask or RemovalTask in
+     * the unbounded writeBuffer.  drainStatus records whether a drain
+     * is needed; scheduleDrain loops on tryLock so that a task added
+     * just as another thread releases the lock is not stranded.
+     *
+     * A node is ALIVE while mapped and RETIRED once removed from the
+     * table; both transitions and value updates happen under the
+     * node's monitor so that a writer racing with removal either
+     * completes first or retries.  Because tasks for a node may be
+     * replayed out of order relative to its removal (an insert can be
+     * enqueued after a concurrent remove of the same node), the
+     * policy links a node only if it is still alive, and unlinks it
+     * only if linked.  Likewise the tasks carry no weights: AddTask
+     * and UpdateTask account the node's weight as it is when they are
+     * replayed, so that racing updates of one node cannot leave a
+     * stale weight behind.
+     */
+
+    /* ---------------- Constants -------------- */
+
+    static final int NCPU = Runtime.getRuntime().availableProcessors();
+
+    /** The number of read buffers, a power of two at least NCPU. */
+    static final int NUMBER_OF_READ_BUFFERS = ceilingPowerOfTwo(NCPU);
+
+    /** Mask used to select a read buffer. */
+    static final int READ_BUFFERS_MASK = NUMBER_OF_READ_BUFFERS - 1;
+
+    /** The number of pending reads in a buffer that triggers a drain. */
+    static final int READ_BUFFER_THRESHOLD = ReadBuffer.BUFFER_SIZE >>> 1;
+
+    /** The share of the maximum weight given to the admission window. */
+    static final double WINDOW_PERCENT = 0.01;
+
+    /** Drain status values */
+    static final int IDLE       = 0;
+    static final int REQUIRED   = 1;
+    static final int PROCESSING = 2;
+
+    /** Node states */
+    static final int ALIVE   = 0;
+    static final int RETIRED = 1;
+
+    /** Node queues */
+    static final int NONE   = 0;
+    static final int WINDOW = 1;
+    static final int MAIN   = 2;
+
+    /* ---------------- Weigher -------------- */
+
+    /**
+     * Computes the weight of an entry, in units of the map's maximum
+     * weight.  Weights are computed once, when the value is stored.
+     *
+     * @param <K> the type of keys
+     * @param <V> the type of values
+     */
+    @FunctionalInterface
+    public interface Weigher<K,V> {
+        /**
+         * Returns the weight of the given entry.
+         *
+         * @param key the key
+         * @param value the value
+         * @return the non-negative weight of the entry
+         */
+        int weightOf(K key, V value);
+    }
+
+    static final class SingletonWeigher implements Weigher<Object,Object> {
+        static final SingletonWeigher INSTANCE = new SingletonWeigher();
+        public int weightOf(Object key, Object value) { return 1; }
+    }
+
+    /* ---------------- Nodes -------------- */
+
+    /**
+     * A mapping in the hash table and, once its AddTask is replayed,
+     * in one of the policy lists.
+     */
+    static final class Node<K,V> {
+        final K key;
+        volatile V value;
+        volatile int weight;  // weight of value; written under monitor
+        volatile int state;   // ALIVE or RETIRED; written under monitor
+
+        // Guarded by evictionLock
+        Node<K,V> prev, next;
+        int queue;            // NONE, WINDOW or MAIN
+        int policyWeight;     // weight as accounted by the policy
+
+        Node(K key, V value, int weight) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+        }
+
+        boolean isAlive() { return state == ALIVE; }
+    }
+
+    /**
+     * An intrusive doubly-linked list of nodes, eldest first.
+     */
+    static final class NodeList<K,V> {
+        Node<K,V> first, last;
+
+        void addLast(Node<K,V> n) {
+            Node<K,V> l = last;
+            n.prev = l;
+            n.next = null;
+            last = n;
+            if (l == null)
+                first = n;
+            else
+                l.next = n;
+        }
+
+        void unlink(Node<K,V> n) {
+            Node<K,V> p = n.prev, s = n.next;
+            if (p == null)
+                first = s;
+            else
+                p.next = s;
+            if (s == null)
+                last = p;
+            else
+                s.prev = p;
+            n.prev = n.next = null;
+        }
+
+        void moveToLast(Node<K,V> n) {
+            if (n != last) {
+                unlink(n);
+                addLast(n);
+            }
+        }
+    }
+
+    /* ---------------- Buffers -------------- */
+
+    /**
+     * A bounded, lossy, multiple-producer single-consumer ring of
+     * accessed nodes.  Producers claim a slot by CAS of the write
+     * counter and publish into it lazily; the consumer (holding the
+     * eviction lock) stops at the first slot not yet published.
+     */
+    static final class ReadBuffer<K,V> {
+        static final int BUFFER_SIZE = 16;
+        static final int BUFFER_MASK = BUFFER_SIZE - 1;
+
+        final AtomicReferenceArray<Node<K,V>> buffer =
+            new AtomicReferenceArray<Node<K,V>>(BUFFER_SIZE);
+        final AtomicLong writeCounter = new AtomicLong();
+        volatile long readCounter;
+
+        /**
+         * Returns the number of pending reads including this one, or
+         * -1 if the slot was lost to another producer; when the buffer
+         * is full, returns BUFFER_SIZE without recording.
+         */
+        int offer(Node<K,V> n) {
+            long w = writeCounter.get();
+            long size = w - readCounter;
+            if (size >= BUFFER_SIZE)
+                return BUFFER_SIZE;
+            if (!writeCounter.compareAndSet(w, w + 1))
+                return -1;
+            buffer.lazySet((int)w & BUFFER_MASK, n);
+            return (int)size + 1;
+        }
+
+        void drainTo(ConcurrentLinkedHashMap<K,V> map) {
+            long r = readCounter, w = writeCounter.get();
+            for (; r < w; ++r) {
+                int i = (int)r & BUFFER_MASK;
+                Node<K,V> n = buffer.get(i);
+                if (n == null)
+                    break;              // claimed but not yet published
+                buffer.lazySet(i, null);
+                map.onAccess(n);
+            }
+            readCounter = r;
+        }
+    }
+
+    /**
+     * Adds a newly mapped node to the policy, with the weight it has
+     * when the task is replayed.
+     */
+    final class AddTask implements Runnable {
+        final Node<K,V> node;
+        AddTask(Node<K,V> node) { this.node = node; }
+        public void run() {
+            Node<K,V> n = node;
+            if (n.queue == NONE && n.isAlive()) {
+                int weight = n.weight;
+                n.policyWeight = weight;
+                weightedSize += weight;
+                if (sketch != null) {
+                    n.queue = WINDOW;
+                    windowWeight += weight;
+                    window.addLast(n);
+                    sketch.increment(n.key.hashCode());
+                    long count = data.mappingCount();
+                    // with unit weights the bound is the number of entries
+                    if (weigher == SingletonWeigher.INSTANCE)
+                        count = Math.min(count, maximumWeight);
+                    sketch.ensureCapacity(count);
+                }
+                else {
+                    n.queue = MAIN;
+                    main.addLast(n);
+                }
+                evict();
+                Node<K,V> eldest;
+                if ((eldest = eldest()) != null &&
+                    removeEldestEntry(new SimpleImmutableEntry<K,V>
+                                      (eldest.key, eldest.value)) &&
+                    eldest.queue != NONE)
+                    evictNode(eldest);
+            }
+        }
+    }
+
+    /**
+     * Adjusts the policy after a value was replaced. The weight
+     * accounted is brought up to the node's current weight, so tasks
+     * of racing writers may be replayed in any order.
+     */
+    final class UpdateTask implements Runnable {
+        final Node<K,V> node;
+        UpdateTask(Node<K,V> node) { this.node = node; }
+        public void run() {
+            Node<K,V> n = node;
+            if (n.queue != NONE) {
+                int weightDifference = n.weight - n.policyWeight;
+                n.policyWeight += weightDifference;
+                weightedSize += weightDifference;
+                if (n.queue == WINDOW)
+                    windowWeight += weightDifference;
+                onAccess(n);            // replacement counts as access
+                evict();
+            }
+        }
+    }
+
+    /** Removes a node that was removed from the table. */
+    final class RemovalTask implements Runnable {
+        final Node<K,V> node;
+        RemovalTask(Node<K,V> node) { this.node = node; }
+        public void run() {
+            if (node.queue != NONE)
+                unlinkNode(node);
+        }
+    }
+
+    /* ---------------- Fields -------------- */
+
+    /** The backing table. */
+    final ConcurrentHashMap<K,Node<K,V>> data;
+
+    final Weigher<? super K, ? super V> weigher;
+    final boolean accessOrder;
+    final long maximumWeight;
+
+    final ReadBuffer<K,V>[] readBuffers;
+    final ConcurrentLinkedQueue<Runnable> writeBuffer =
+        new ConcurrentLinkedQueue<Runnable>();
+    volatile int drainStatus;
+
+    final ReentrantLock evictionLock = new ReentrantLock();
+
+    // Guarded by evictionLock (weightedSize is volatile for monitoring)
+    final NodeList<K,V> window = new NodeList<K,V>();
+    final NodeList<K,V> main = new NodeList<K,V>();
+    final FrequencySketch sketch; // null unless admission is enabled
+    final long windowMaximum;
+    volatile long weightedSize;
+    long windowWeight;
+
+    private transient EntrySetView entrySet;
+
+    /* ---------------- Public operations -------------- */
+
+    /**
+     * Creates a new, empty map in access order that holds at most the
+     * given number of entries.
+     *
+     * @param maximumSize the maximum number of entries
+     * @throws IllegalArgumentException if maximumSize is negative
+     */
+    public ConcurrentLinkedHashMap(long maximumSize) {
+        this(16, maximumSize, true, null, false);
+    }
+
+    /**
+     * Creates a new, empty map that holds at most the given number of
+     * entries, in access order or insertion order.
+     *
+     * @param maximumSize the maximum number of entries
+     * @param accessOrder the ordering mode - {@code true} for
+     *        access-order, {@code false} for insertion-order
+     * @throws IllegalArgumentException if maximumSize is negative
+     */
+    public ConcurrentLinkedHashMap(long maximumSize, boolean accessOrder) {
+        this(16, maximumSize, accessOrder, null, false);
+    }
+
+    /**
+     * Creates a new, empty map.
+     *
+     * @param initialCapacity the initial capacity of the backing table
+     * @param maximumWeight the maximum total weight of the entries;
+     *        {@code Long.MAX_VALUE} leaves the map bounded only by
+     *        {@link #removeEldestEntry}
+     * @param accessOrder the ordering mode - {@code true} for
+     *        access-order, {@code false} for insertion-order
+     * @param weigher computes entry weights, or {@code null} to give
+     *        every entry a weight of 1
+     * @param admission whether to enable the W-TinyLFU admission policy
+     * @throws IllegalArgumentException if the initial capacity or the
+     *         maximum weight is negative
+     */
+    @SuppressWarnings("unchecked")
+    public ConcurrentLinkedHashMap(int initialCapacity, long maximumWeight,
+                                   boolean accessOrder,
+                                   Weigher<? super K, ? super V> weigher,
+                                   boolean admission) {
+        if (initialCapacity < 0 || maximumWeight < 0L)
+            throw new IllegalArgumentException();
+        this.data = new ConcurrentHashMap<K,Node<K,V>>(initialCapacity);
+        this.maximumWeight = maximumWeight;
+        this.accessOrder = accessOrder;
+        this.weigher = (weigher != null) ? weigher : SingletonWeigher.INSTANCE;
+        this.readBuffers = (ReadBuffer<K,V>[])new ReadBuffer<?,?>[NUMBER_OF_READ_BUFFERS];
+        for (int i = 0; i < NUMBER_OF_READ_BUFFERS; ++i)
+            readBuffers[i] = new ReadBuffer<K,V>();
+        if (admission) {
+            // sized for the initial table; AddTask grows it with the map
+            this.sketch = new FrequencySketch();
+            this.sketch.ensureCapacity(initialCapacity);
+            this.windowMaximum = Math.max(1L, (long)(maximumWeight * WINDOW_PERCENT));
+        }
+        else {
+            this.sketch = null;
+            this.windowMaximum = 0L;
+        }
+    }
+
+    /**
+     * Returns {@code true} if this map should remove its eldest entry.
+     * This method is invoked once for each newly added mapping, after
+     * the weight bound has been enforced, when the insertion is
+     * replayed against the eviction policy; it may therefore run on a
+     * thread other than the inserting one, and while the policy lock
+     * is held.  As in {@link java.util.LinkedHashMap}, the eldest
+     * entry is the least recently accessed (in access order) or
+     * inserted (in insertion order) one, or the next admission
+     * victim when the admission policy is enabled.  If it returns
+     * {@code true}, that entry is removed.
+     *
+     * <p>The default implementation returns {@code false}.  The map
+     * itself may be modified from this method, but the effects on
+     * the eviction order are only seen after it returns.
+     *
+     * @param eldest a snapshot of the eldest entry
+     * @return {@code true} if the eldest entry should be removed
+     */
+    protected boolean removeEldestEntry(Map.Entry<K,V> eldest) {
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int size() {
+        return data.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isEmpty() {
+        return data.isEmpty();
+    }
+
+    /**
+     * Returns the total weight of the entries, as last accounted by
+     * the eviction policy.
+     *
+     * @return the weighted size
+     */
+    public long weightedSize() {
+        return Math.max(0L, weightedSize);
+    }
+
+    /**
+     * Returns the maximum total weight of the entries.
+     *
+     * @return the maximum weight
+     */
+    public long maximumWeight() {
+        return maximumWeight;
+    }
+
+    /**
+     * Returns the value to which the specified key is mapped, or
+     * {@code null} if this map contains no mapping for the key.  In
+     * access order the entry becomes the most recently used one.
+     *
+     * @throws NullPointerException if the specified key is null
+     */
+    public V get(Object key) {
+        Node<K,V> n = data.get(key);
+        if (n == null)
+            return null;
+        afterRead(n);
+        return n.value;
+    }
+
+    /**
+     * Returns the value to which the specified key is mapped, without
+     * recording an access.
+     *
+     * @param key the key whose associated value is to be returned
+     * @return the value, or {@code null} if there is no mapping
+     * @throws NullPointerException if the specified key is null
+     */
+    public V getQuietly(Object key) {
+        Node<K,V> n = data.get(key);
+        return (n == null) ? null : n.value;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException if the specified key is null
+     */
+    public boolean containsKey(Object key) {
+        return data.containsKey(key);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException if the specified value is null
+     */
+    public boolean containsValue(Object value) {
+        if (value == null)
+            throw new NullPointerException();
+        for (Node<K,V> n : data.values()) {
+            if (n.isAlive() && value.equals(n.value))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException if the specified key or value is null
+     */
+    public V put(K key, V value) {
+        return putVal(key, value, false);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException if the specified key or value is null
+     */
+    public V putIfAbsent(K key, V value) {
+        return putVal(key, value, true);
+    }
+
+    final V putVal(K key, V value, boolean onlyIfAbsent) {
+        if (key == null || value == null)
+            throw new NullPointerException();
+        int weight = weigh(key, value);
+        Node<K,V> node = new Node<K,V>(key, value, weight);
+        for (;;) {
+            Node<K,V> prior = data.putIfAbsent(key, node);
+            if (prior == null) {
+                afterWrite(new AddTask(node));
+                return null;
+            }
+            if (onlyIfAbsent) {
+                afterRead(prior);
+                return prior.value;
+            }
+            V oldValue;
+            synchronized (prior) {
+                if (!prior.isAlive())
+                    continue;           // removed concurrently; retry
+                oldValue = prior.value;
+                prior.value = value;
+                prior.weight = weight;
+            }
+            afterWrite(new UpdateTask(prior));
+            return oldValue;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException if the specified key is null
+     */
+    public V remove(Object key) {
+        Node<K,V> n = data.remove(key);
+        if (n == null)
+            return null;
+        V oldValue;
+        synchronized (n) {
+            oldValue = n.value;
+            n.state = RETIRED;
+        }
+        afterWrite(new RemovalTask(n));
+        return oldValue;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException if the specified key is null
+     */
+    public boolean remove(Object key, Object value) {
+        Node<K,V> n = data.get(key);
+        if (n == null || value == null)
+            return false;
+        synchronized (n) {
+            if (!n.isAlive() || !value.equals(n.value) ||
+                !data.remove(key, n))
+                return false;
+            n.state = RETIRED;
+        }
+        afterWrite(new RemovalTask(n));
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException if the specified key or value is null
+     */
+    public V replace(K key, V value) {
+        if (key == null || value == null)
+            throw new NullPointerException();
+        int weight = weigh(key, value);
+        Node<K,V> n = data.get(key);
+        if (n == null)
+            return null;
+        V oldValue;
+        synchronized (n) {
+            if (!n.isAlive())
+                return null;
+            oldValue = n.value;
+            n.value = value;
+            n.weight = weight;
+        }
+        afterWrite(new UpdateTask(n));
+        return oldValue;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException if any of the arguments are null
+     */
+    public boolean replace(K key, V oldValue, V newValue) {
+        if (key == null || oldValue == null || newValue == null)
+            throw new NullPointerException();
+        int weight = weigh(key, newValue);
+        Node<K,V> n = data.get(key);
+        if (n == null)
+            return false;
+        synchronized (n) {
+            if (!n.isAlive() || !oldValue.equals(n.value))
+                return false;
+            n.value = newValue;
+            n.weight = weight;
+        }
+        afterWrite(new UpdateTask(n));
+        return true;
+    }
+
+    /**
+     * Removes all of the mappings from this map.
+     */
+    public void clear() {
+        for (K k : data.keySet())
+            remove(k);
+    }
+
+    /**
+     * Returns a {@link Set} view of the mappings contained in this
+     * map.  Iteration is in hash table order and does not affect the
+     * eviction order.  The entries' {@code setValue} writes through
+     * to the map.
+     *
+     * @return the set view
+     */
+    public Set<Map.Entry<K,V>> entrySet() {
+        EntrySetView es;
+        return (es = entrySet) != null ? es : (entrySet = new EntrySetView());
+    }
+
+    final class EntrySetView extends AbstractSet<Map.Entry<K,V>> {
+        public int size() { return data.size(); }
+        public void clear() { ConcurrentLinkedHashMap.this.clear(); }
+        public boolean contains(Object o) {
+            Object k, v, r; Map.Entry<?,?> e;
+            return ((o instanceof Map.Entry) &&
+                    (k = (e = (Map.Entry<?,?>)o).getKey()) != null &&
+                    (r = getQuietly(k)) != null &&
+                    (v = e.getValue()) != null &&
+                    (v == r || v.equals(r)));
+        }
+        public boolean remove(Object o) {
+            Object k, v; Map.Entry<?,?> e;
+            return ((o instanceof Map.Entry) &&
+                    (k = (e = (Map.Entry<?,?>)o).getKey()) != null &&
+                    (v = e.getValue()) != null &&
+                    ConcurrentLinkedHashMap.this.remove(k, v));
+        }
+        public Iterator<Map.Entry<K,V>> iterator() {
+            return new EntryIterator();
+        }
+    }
+
+    final class EntryIterator implements Iterator<Map.Entry<K,V>> {
+        final Iterator<Node<K,V>> it = data.values().iterator();
+        K lastKey;
+        public boolean hasNext() { return it.hasNext(); }
+        public Map.Entry<K,V> next() {
+            Node<K,V> n = it.next();
+            lastKey = n.key;
+            return new WriteThroughEntry(n.key, n.value);
+        }
+        public void remove() {
+            K k;
+            if ((k = lastKey) == null)
+                throw new IllegalStateException();
+            lastKey = null;
+            ConcurrentLinkedHashMap.this.remove(k);
+        }
+    }
+
+    final class WriteThroughEntry extends AbstractMap.SimpleEntry<K,V> {
+        private static final long serialVersionUID = -7475093237066016271L;
+        WriteThroughEntry(K key, V value) { super(key, value); }
+        public V setValue(V value) {
+            if (value == null) throw new NullPointerException();
+            V v = super.setValue(value);
+            put(getKey(), value);
+            return v;
+        }
+    }
+
+    /* ---------------- Policy -------------- */
+
+    private int weigh(K key, V value) {
+        int w = weigher.weightOf(key, value);
+        if (w < 0)
+            throw new IllegalArgumentException("Negative weight: " + w);
+        return w;
+    }
+
+    /** Records an access, draining if the buffer fills up. */
+    final void afterRead(Node<K,V> n) {
+        if (!accessOrder && sketch == null)
+            return;                     // reads do not affect the policy
+        int h;
+        if ((h = ThreadLocalRandom.getProbe()) == 0) {
+            ThreadLocalRandom.localInit();      // force initialization
+            h = ThreadLocalRandom.getProbe();
+        }
+        int pending = readBuffers[h & READ_BUFFERS_MASK].offer(n);
+        if (pending < 0)
+            ThreadLocalRandom.advanceProbe(h);  // contended; move on
+        else if (pending >= READ_BUFFER_THRESHOLD)
+            scheduleDrain();
+    }
+
+    /** Enqueues a write task and drains. */
+    final void afterWrite(Runnable task) {
+        writeBuffer.add(task);
+        scheduleDrain();
+    }
+
+    /**
+     * Replays the buffers if the eviction lock is available.  A
+     * thread that fails to acquire the lock leaves drainStatus
+     * REQUIRED, which makes the lock holder drain again.
+     */
+    final void scheduleDrain() {
+        ReentrantLock lock = evictionLock;
+        if (lock.isHeldByCurrentThread())
+            return;                     // reentered from removeEldestEntry
+        drainStatus = REQUIRED;
+        while (drainStatus == REQUIRED && lock.tryLock()) {
+            try {
+                drainStatus = PROCESSING;
+                drainBuffers();
+            } finally {
+                U.compareAndSwapInt(this, DRAINSTATUS, PROCESSING, IDLE);
+                lock.unlock();
+            }
+        }
+    }
+
+    /** Replays all buffered reads, then all buffered writes. */
+    final void drainBuffers() {
+        for (ReadBuffer<K,V> b : readBuffers)
+            b.drainTo(this);
+        Runnable task;
+        while ((task = writeBuffer.poll()) != null)
+            task.run();
+    }
+
+    /** Applies an access to a linked node. Called under evictionLock. */
+    final void onAccess(Node<K,V> n) {
+        if (sketch != null)
+            sketch.increment(n.key.hashCode());
+        if (accessOrder) {
+            if (n.queue == WINDOW)
+                window.moveToLast(n);
+            else if (n.queue == MAIN)
+                main.moveToLast(n);
+        }
+    }
+
+    /** Returns the next node that would be evicted, or null. */
+    final Node<K,V> eldest() {
+        Node<K,V> n;
+        return ((n = main.first) != null) ? n : window.first;
+    }
+
+    /**
+     * Evicts entries until the weighted size is within bounds.  With
+     * admission enabled, entries overflowing the window first compete
+     * with the main region's eldest entry on estimated frequency.
+     */
+    final void evict() {
+        if (sketch != null) {
+            Node<K,V> candidate;
+            while (windowWeight > windowMaximum &&
+                   (candidate = window.first) != null) {
+                window.unlink(candidate);
+                windowWeight -= candidate.policyWeight;
+                candidate.queue = MAIN;
+                main.addLast(candidate);
+                Node<K,V> victim;
+                if (weightedSize > maximumWeight &&
+                    (victim = main.first) != candidate) {
+                    if (sketch.frequency(candidate.key.hashCode()) >
+                        sketch.frequency(victim.key.hashCode()))
+                        evictNode(victim);
+                    else
+                        evictNode(candidate);
+                }
+            }
+        }
+        Node<K,V> n;
+        while (weightedSize > maximumWeight && (n = eldest()) != null)
+            evictNode(n);
+    }
+
+    /** Unlinks a node and removes it from the table if still mapped. */
+    final void evictNode(Node<K,V> n) {
+        unlinkNode(n);
+        if (data.remove(n.key, n)) {
+            synchronized (n) {
+                n.state = RETIRED;
+            }
+        }
+    }
+
+    final void unlinkNode(Node<K,V> n) {
+        if (n.queue == WINDOW) {
+            window.unlink(n);
+            windowWeight -= n.policyWeight;
+        }
+        else
+            main.unlink(n);
+        weightedSize -= n.policyWeight;
+        n.queue = NONE;
+    }
+
+    static int ceilingPowerOfTwo(int x) {
+        return 1 << -Integer.numberOfLeadingZeros(x - 1);
+    }
+
+    /**
+     * A count-min sketch of recent access frequencies, used to decide
+     * whether a candidate leaving the window is admitted to the main
+     * list.  Counters are four bits wide, sixteen to a long.  A key
+     * maps to one block of eight longs (a single cache line) and to
+     * one counter in each of the block's four pairs of longs, so its
+     * four counters are always distinct.  The estimate for a key is
+     * the least of its counters; an increment raises only the
+     * counters equal to that least value, which limits the
+     * overestimation caused by collisions.  After a number of
+     * increments proportional to the table size every counter is
+     * halved, so that the estimates favor recent activity.  Not
+     * thread-safe; guarded by the eviction lock.
+     */
+    static final class FrequencySketch {
+        /** Clears the bit shifted into each counter when halving. */
+        static final long HALVING_MASK = 0x7777777777777777L;
+
+        long[] table;
+        int blockMask;      // the number of blocks, minus one
+        int agingPeriod;    // increments between halvings
+        int increments;     // increments since the last halving
+
+        /** Grows the table (losing history) to cover maximum keys. */
+        void ensureCapacity(long maximum) {
+            int n = ceilingPowerOfTwo((int)Math.min(Math.max(maximum, 16L),
+                                                    1 << 30));
+            if (table != null && table.length >= n)
+                return;
+            table = new long[n];
+            blockMask = (n >>> 3) - 1;
+            agingPeriod = (int)Math.min(10L * n, Integer.MAX_VALUE);
+            increments = 0;
+        }
+
+        /** Returns the estimated number of recent accesses, at most 15. */
+        int frequency(int h) {
+            long x = spread(h);
+            int block = blockOf(x);
+            int f = 15;
+            for (int i = 0; i < 4; i++)
+                f = Math.min(f, (int)(table[indexOf(x, block, i)] >>>
+                                      shiftOf(x, i)) & 0xf);
+            return f;
+        }
+
+        /** Records an access to the key, halving counters if due. */
+        void increment(int h) {
+            long x = spread(h);
+            int block = blockOf(x);
+            long[] t = table;
+            int f = 15;
+            for (int i = 0; i < 4; i++)
+                f = Math.min(f, (int)(t[indexOf(x, block, i)] >>>
+                                      shiftOf(x, i)) & 0xf);
+            if (f == 15)
+                return;                 // saturated
+            for (int i = 0; i < 4; i++) {
+                int j = indexOf(x, block, i), s = shiftOf(x, i);
+                if (((int)(t[j] >>> s) & 0xf) == f)
+                    t[j] += 1L << s;
+            }
+            if (++increments >= agingPeriod)
+                halve();
+        }
+
+        /** Halves every counter, rounding down. */
+        private void halve() {
+            long[] t = table;
+            for (int i = 0; i < t.length; i++)
+                t[i] = (t[i] >>> 1) & HALVING_MASK;
+            increments >>>= 1;
+        }
+
+        /** Mixes the key's hash; the high half selects the block. */
+        private static long spread(int h) {
+            long x = (h & 0xffffffffL) * 0x9e3779b97f4a7c15L;
+            return x ^ (x >>> 29);
+        }
+
+        private int blockOf(long x) {
+            return ((int)(x >>> 32) & blockMask) << 3;
+        }
+
+        /** Bits 16-19 choose a long within the ith pair. */
+        private static int indexOf(long x, int block, int i) {
+            return block + (i << 1) + ((int)(x >>> (16 + i)) & 1);
+        }
+
+        /** Bits 0-15 choose the counter within that long. */
+        private static int shiftOf(long x, int i) {
+            return ((int)(x >>> (i << 2)) & 0xf) << 2;
+        }
+    }
+
+    // Unsafe mechanics
+    private static final sun.misc.Unsafe U;
+    private static final long DRAINSTATUS;
+
+    static {
+        try {
+            U = sun.misc.Unsafe.getUnsafe();
+            Class<?> k = ConcurrentLinkedHashMap.class;
+            DRAINSTATUS = U.objectFieldOffset
+                (k.getDeclaredField("drainStatus"));
+        } catch (Exception e) {
+            throw new Error(e);
+        }
+    }
+}
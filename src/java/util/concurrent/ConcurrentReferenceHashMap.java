@@ -0,0 +1,1157 @@
+/*
+ * Copyright (c) 2017, Oracle and/or its affiliates. All rights reserved.
+ * ORACLE PROPRIETARY/CONFIDENTIAL. Use is subject to license terms.
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ */
+
+package java.util.concurrent;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link ConcurrentMap} whose keys, and optionally values, are held
+ * by weak or soft references, so that the map does not prevent them
+ * from being garbage collected.  A mapping is removed once its key,
+ * or a weakly or softly held value, has been reclaimed.  This is the
+ * concurrent counterpart of {@link java.util.WeakHashMap}, suitable
+ * for caches of metadata keyed by classes or class loaders, and, with
+ * weak values, for interning tables.
+ *
+ * <p>The strength of keys and of values is chosen at construction.
+ * Keys may be compared by {@code equals} or, as in {@link
+ * java.util.IdentityHashMap}, by identity; identity comparison is
+ * usually appropriate for weak keys, since a key equal to a reclaimed
+ * one can otherwise still be used to look up its mapping until it is
+ * removed.  Neither keys nor values may be null.
+ *
+ * <p>Retrievals do not block and do not allocate.  Updates use the
+ * same bin-level synchronization, CAS insertion into empty bins and
+ * cooperative resizing as {@link ConcurrentHashMap}.  The table
+ * entries are themselves the references to the keys, so each mapping
+ * costs a single node (plus a reference object for each weakly or
+ * softly held value).  Mappings whose referents have been reclaimed
+ * are removed incrementally by updating operations and by {@link
+ * #size}, without a separate cleanup thread; until then they are
+ * invisible to retrievals and iteration, but still counted by {@link
+ * #mappingCount}.
+ *
+ * <p>Iterators are weakly consistent and never throw {@link
+ * java.util.ConcurrentModificationException}.  The entries they return
+ * hold their key and value strongly.
+ *
+ * @param <K> the type of keys maintained by this map
+ * @param <V> the type of mapped values
+ * @see java.util.WeakHashMap
+ * @see ConcurrentHashMap
+ */
+public class ConcurrentReferenceHashMap<K,V> extends AbstractMap<K,V>
+    implements ConcurrentMap<K,V> {
+
+    /*
+     * Overview:
+     *
+     * The table, resizing protocol (sizeCtl, transferIndex,
+     * ForwardingNodes, helpTransfer) and locking of bins are the same
+     * as in ConcurrentHashMap; see its internal documentation.  The
+     * differences are:
+     *
+     * Nodes are WeakReferences or SoftReferences to their keys (or
+     * plain objects for strong keys), registered with the map's
+     * queue, so they share the Node interface instead of a common
+     * superclass.  A node whose key has been cleared matches no key.
+     * Weakly or softly held values are wrapped in a ValueReference
+     * pointing back to its node, also registered with the queue.
+     *
+     * Since nodes are references that have already been registered,
+     * transfer cannot copy them as ConcurrentHashMap does; it relinks
+     * the existing nodes into the lo and hi lists instead, as in
+     * ConcurrentCounterMap.  A retrieval traversing a bin while it is
+     * relinked may be diverted into the other half and miss, so
+     * before relinking a bin transfer fills its two target bins in
+     * nextTable with placeholders (the ForwardingNode, which is never
+     * reached through them).  A retrieval that misses during a resize
+     * rechecks the bin: it follows a forwarding node if one is now
+     * present, and otherwise trusts the miss only if both target bins
+     * are still empty, waiting for the transfer of the bin to finish
+     * if not.  Retrievals take no locks.
+     * Iterators lock each bin briefly to copy out its nodes.
+     *
+     * Updating methods first poll a bounded number of cleared
+     * references from the queue and unlink their nodes, searching the
+     * bin for the node by identity.  A node that is not found has
+     * already been removed.  A cleared value reference only removes
+     * its node if the node still holds it, since the value may have
+     * been replaced in the meantime.  Until then, a node with a
+     * cleared value is treated as absent, and a put of its key reuses
+     * the node.
+     */
+
+    /* ---------------- Constants -------------- */
+
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final int MIN_TRANSFER_STRIDE = 16;
+    private static final int RESIZE_STAMP_BITS = 16;
+    private static final int MAX_RESIZERS = (1 << (32 - RESIZE_STAMP_BITS)) - 1;
+    private static final int RESIZE_STAMP_SHIFT = 32 - RESIZE_STAMP_BITS;
+
+    /**
+     * The largest number of cleared references removed by a single
+     * update.  Each update adds at most one mapping, so this keeps
+     * cleanup ahead of insertion while bounding the work per call.
+     */
+    static final int DRAIN_BATCH = 16;
+
+    static final int MOVED     = -1; // hash for forwarding nodes
+    static final int HASH_BITS = 0x7fffffff; // usable bits of normal node hash
+
+    static final int NCPU = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * The strength with which a map holds its keys or values.
+     */
+    public enum Strength {
+        /** Held by ordinary references. */
+        STRONG,
+        /** Held by {@link SoftReference}s. */
+        SOFT,
+        /** Held by {@link WeakReference}s. */
+        WEAK
+    }
+
+    /* ---------------- Nodes -------------- */
+
+    /**
+     * Table entry.  The val field holds either the value itself or,
+     * for maps with weak or soft values, a ValueReference to it.
+     */
+    interface Node<K,V> {
+        int hash();
+        K key();                       // null once reclaimed
+        Object val();
+        void setVal(Object v);
+        Node<K,V> next();
+        void setNext(Node<K,V> next);
+    }
+
+    static final class StrongNode<K,V> implements Node<K,V> {
+        final int hash;
+        final K key;
+        volatile Object val;
+        volatile Node<K,V> next;
+        StrongNode(int hash, K key, Node<K,V> next) {
+            this.hash = hash;
+            this.key = key;
+            this.next = next;
+        }
+        public int hash() { return hash; }
+        public K key() { return key; }
+        public Object val() { return val; }
+        public void setVal(Object v) { val = v; }
+        public Node<K,V> next() { return next; }
+        public void setNext(Node<K,V> n) { next = n; }
+    }
+
+    static final class WeakNode<K,V> extends WeakReference<K>
+        implements Node<K,V> {
+        final int hash;
+        volatile Object val;
+        volatile Node<K,V> next;
+        WeakNode(int hash, K key, Node<K,V> next, ReferenceQueue<Object> q) {
+            super(key, q);
+            this.hash = hash;
+            this.next = next;
+        }
+        public int hash() { return hash; }
+        public K key() { return get(); }
+        public Object val() { return val; }
+        public void setVal(Object v) { val = v; }
+        public Node<K,V> next() { return next; }
+        public void setNext(Node<K,V> n) { next = n; }
+    }
+
+    static final class SoftNode<K,V> extends SoftReference<K>
+        implements Node<K,V> {
+        final int hash;
+        volatile Object val;
+        volatile Node<K,V> next;
+        SoftNode(int hash, K key, Node<K,V> next, ReferenceQueue<Object> q) {
+            super(key, q);
+            this.hash = hash;
+            this.next = next;
+        }
+        public int hash() { return hash; }
+        public K key() { return get(); }
+        public Object val() { return val; }
+        public void setVal(Object v) { val = v; }
+        public Node<K,V> next() { return next; }
+        public void setNext(Node<K,V> n) { next = n; }
+    }
+
+    /**
+     * A node inserted at head of bins during transfer operations.
+     */
+    static final class ForwardingNode<K,V> implements Node<K,V> {
+        final Node<K,V>[] nextTable;
+        ForwardingNode(Node<K,V>[] tab) {
+            this.nextTable = tab;
+        }
+        public int hash() { return MOVED; }
+        public K key() { return null; }
+        public Object val() { return null; }
+        public void setVal(Object v) { throw new IllegalStateException(); }
+        public Node<K,V> next() { return null; }
+        public void setNext(Node<K,V> n) { throw new IllegalStateException(); }
+    }
+
+    /**
+     * A weakly or softly held value, pointing back to its node.
+     */
+    interface ValueReference<K,V> {
+        Node<K,V> node();
+    }
+
+    static final class WeakValue<K,V> extends WeakReference<V>
+        implements ValueReference<K,V> {
+        final Node<K,V> node;
+        WeakValue(V value, Node<K,V> node, ReferenceQueue<Object> q) {
+            super(value, q);
+            this.node = node;
+        }
+        public Node<K,V> node() { return node; }
+    }
+
+    static final class SoftValue<K,V> extends SoftReference<V>
+        implements ValueReference<K,V> {
+        final Node<K,V> node;
+        SoftValue(V value, Node<K,V> node, ReferenceQueue<Object> q) {
+            super(value, q);
+            this.node = node;
+        }
+        public Node<K,V> node() { return node; }
+    }
+
+    /**
+     * A reusable buffer of nodes copied out of bins by iterators.
+     */
+    static final class NodeBuffer<K,V> {
+        @SuppressWarnings("unchecked")
+        Node<K,V>[] nodes = (Node<K,V>[])new Node<?,?>[8];
+        int size;
+
+        void add(Node<K,V> p) {
+            if (size == nodes.length)
+                nodes = Arrays.copyOf(nodes, size << 1);
+            nodes[size++] = p;
+        }
+    }
+
+    /* ---------------- Static utilities -------------- */
+
+    static final int spread(int h) {
+        return (h ^ (h >>> 16)) & HASH_BITS;
+    }
+
+    private static final int tableSizeFor(int c) {
+        int n = c - 1;
+        n |= n >>> 1;
+        n |= n >>> 2;
+        n |= n >>> 4;
+        n |= n >>> 8;
+        n |= n >>> 16;
+        return (n < 0) ? 1 : (n >= MAXIMUM_CAPACITY) ? MAXIMUM_CAPACITY : n + 1;
+    }
+
+    /* ---------------- Table element access -------------- */
+
+    @SuppressWarnings("unchecked")
+    static final <K,V> Node<K,V> tabAt(Node<K,V>[] tab, int i) {
+        return (Node<K,V>)U.getObjectVolatile(tab, ((long)i << ASHIFT) + ABASE);
+    }
+
+    static final <K,V> boolean casTabAt(Node<K,V>[] tab, int i,
+                                        Node<K,V> c, Node<K,V> v) {
+        return U.compareAndSwapObject(tab, ((long)i << ASHIFT) + ABASE, c, v);
+    }
+
+    static final <K,V> void setTabAt(Node<K,V>[] tab, int i, Node<K,V> v) {
+        U.putObjectVolatile(tab, ((long)i << ASHIFT) + ABASE, v);
+    }
+
+    /* ---------------- Fields -------------- */
+
+    /** The array of bins. Lazily initialized upon first insertion. */
+    transient volatile Node<K,V>[] table;
+
+    /** The next table to use; non-null only while resizing. */
+    private transient volatile Node<K,V>[] nextTable;
+
+    /** Table initialization and resizing control; see ConcurrentHashMap. */
+    private transient volatile int sizeCtl;
+
+    /** The next table index (plus one) to split while resizing. */
+    private transient volatile int transferIndex;
+
+    /** Number of mappings, including reclaimed ones not yet removed. */
+    private final LongAdder counter = new LongAdder();
+
+    /** Queue of cleared node and value references. */
+    private final ReferenceQueue<Object> queue = new ReferenceQueue<Object>();
+
+    private final Strength keyStrength;
+    private final Strength valueStrength;
+
+    /** Whether keys are compared by identity rather than equals. */
+    private final boolean identity;
+
+    private transient EntrySetView entrySet;
+
+    /* ---------------- Public operations -------------- */
+
+    /**
+     * Creates a new, empty map with weak keys compared by {@code
+     * equals}, strong values, and the default initial table size (16).
+     */
+    public ConcurrentReferenceHashMap() {
+        this(DEFAULT_CAPACITY, Strength.WEAK, Strength.STRONG, false);
+    }
+
+    /**
+     * Creates a new, empty map with the given key and value
+     * strengths and the default initial table size (16).
+     *
+     * @param keyStrength the strength of keys
+     * @param valueStrength the strength of values
+     * @param identity whether keys are compared by identity rather
+     * than by {@code equals}
+     * @throws NullPointerException if either strength is null
+     */
+    public ConcurrentReferenceHashMap(Strength keyStrength,
+                                      Strength valueStrength,
+                                      boolean identity) {
+        this(DEFAULT_CAPACITY, keyStrength, valueStrength, identity);
+    }
+
+    /**
+     * Creates a new, empty map with the given key and value
+     * strengths and an initial table size accommodating the
+     * specified number of elements without the need to dynamically
+     * resize.
+     *
+     * @param initialCapacity the initial capacity
+     * @param keyStrength the strength of keys
+     * @param valueStrength the strength of values
+     * @param identity whether keys are compared by identity rather
+     * than by {@code equals}
+     * @throws IllegalArgumentException if the initial capacity is
+     *         negative
+     * @throws NullPointerException if either strength is null
+     */
+    public ConcurrentReferenceHashMap(int initialCapacity,
+                                      Strength keyStrength,
+                                      Strength valueStrength,
+                                      boolean identity) {
+        if (initialCapacity < 0)
+            throw new IllegalArgumentException();
+        if (keyStrength == null || valueStrength == null)
+            throw new NullPointerException();
+        this.keyStrength = keyStrength;
+        this.valueStrength = valueStrength;
+        this.identity = identity;
+        this.sizeCtl = ((initialCapacity >= (MAXIMUM_CAPACITY >>> 1)) ?
+                        MAXIMUM_CAPACITY :
+                        tableSizeFor(initialCapacity + (initialCapacity >>> 1) + 1));
+    }
+
+    /**
+     * Returns the number of mappings, after removing those whose keys
+     * or values have been reclaimed.
+     *
+     * @return the number of mappings in this map
+     */
+    public int size() {
+        expungeStaleEntries(Integer.MAX_VALUE);
+        long n = counter.sum();
+        return ((n < 0L) ? 0 :
+                (n > (long)Integer.MAX_VALUE) ? Integer.MAX_VALUE :
+                (int)n);
+    }
+
+    /**
+     * Returns the number of mappings, including any whose keys or
+     * values have been reclaimed but which have not yet been removed.
+     *
+     * @return the number of mappings
+     */
+    public long mappingCount() {
+        long n = counter.sum();
+        return (n < 0L) ? 0L : n;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Returns the value to which the specified key is mapped, or
+     * {@code null} if this map contains no mapping for the key.
+     *
+     * @throws NullPointerException if the specified key is null
+     */
+    public V get(Object key) {
+        Node<K,V> e = findNode(hash(key), key);
+        return (e == null) ? null : valueOf(e);
+    }
+
+    /**
+     * Tests if the specified object is a key in this table.
+     *
+     * @param  key possible key
+     * @return {@code true} if and only if the specified object
+     *         is a key in this table
+     * @throws NullPointerException if the specified key is null
+     */
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Maps the specified key to the specified value in this table.
+     *
+     * @param key key with which the specified value is to be associated
+     * @param value value to be associated with the specified key
+     * @return the previous value associated with {@code key}, or
+     *         {@code null} if there was no mapping for {@code key}
+     * @throws NullPointerException if the specified key or value is null
+     */
+    public V put(K key, V value) {
+        return putVal(key, value, false);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @return the previous value associated with the specified key,
+     *         or {@code null} if there was no mapping for the key
+     * @throws NullPointerException if the specified key or value is null
+     */
+    public V putIfAbsent(K key, V value) {
+        return putVal(key, value, true);
+    }
+
+    /**
+     * Removes the key (and its corresponding value) from this map.
+     * This method does nothing if the key is not in the map.
+     *
+     * @param  key the key that needs to be removed
+     * @return the previous value associated with {@code key}, or
+     *         {@code null} if there was no mapping for {@code key}
+     * @throws NullPointerException if the specified key is null
+     */
+    public V remove(Object key) {
+        return replaceNode(key, null, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException if the specified key is null
+     */
+    public boolean remove(Object key, Object value) {
+        if (key == null)
+            throw new NullPointerException();
+        return value != null && replaceNode(key, null, value) != null;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException if any of the arguments are null
+     */
+    public boolean replace(K key, V oldValue, V newValue) {
+        if (key == null || oldValue == null || newValue == null)
+            throw new NullPointerException();
+        return replaceNode(key, newValue, oldValue) != null;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @return the previous value associated with the specified key,
+     *         or {@code null} if there was no mapping for the key
+     * @throws NullPointerException if the specified key or value is null
+     */
+    public V replace(K key, V value) {
+        if (key == null || value == null)
+            throw new NullPointerException();
+        return replaceNode(key, value, null);
+    }
+
+    /**
+     * Removes all of the mappings from this map.
+     */
+    public void clear() {
+        long delta = 0L; // negative number of deletions
+        int i = 0;
+        Node<K,V>[] tab = table;
+        while (tab != null && i < tab.length) {
+            Node<K,V> f = tabAt(tab, i);
+            if (f == null)
+                ++i;
+            else if (f.hash() == MOVED) {
+                tab = helpTransfer(tab, f);
+                i = 0; // restart
+            }
+            else {
+                synchronized (f) {
+                    if (tabAt(tab, i) == f) {
+                        for (Node<K,V> p = f; p != null; p = p.next())
+                            --delta;
+                        setTabAt(tab, i++, null);
+                    }
+                }
+            }
+        }
+        if (delta != 0L)
+            addCount(delta, -1);
+    }
+
+    /**
+     * Returns a {@link Set} view of the mappings contained in this
+     * map.  The set is backed by the map and supports element
+     * removal.  Its iterators skip mappings whose keys or values have
+     * been reclaimed, and the entries they return hold their key and
+     * value strongly; their {@code setValue} writes through to the
+     * map.
+     *
+     * @return the set view
+     */
+    public Set<Map.Entry<K,V>> entrySet() {
+        EntrySetView es;
+        return (es = entrySet) != null ? es : (entrySet = new EntrySetView());
+    }
+
+    /**
+     * Removes mappings whose keys or values have been reclaimed.
+     * This happens incrementally during updates; calling this method
+     * removes all that are pending.
+     */
+    public void expungeStaleEntries() {
+        expungeStaleEntries(Integer.MAX_VALUE);
+    }
+
+    /* ---------------- Lookup and update -------------- */
+
+    final int hash(Object key) {
+        return spread(identity ? System.identityHashCode(key) :
+                      key.hashCode());
+    }
+
+    /**
+     * Returns true if e is a live node for the given key.
+     */
+    final boolean matches(Node<K,V> e, int h, Object key) {
+        K ek;
+        return (e.hash() == h && (ek = e.key()) != null &&
+                (ek == key || (!identity && key.equals(ek))));
+    }
+
+    /**
+     * Returns the value of e, or null if it has been reclaimed.
+     */
+    @SuppressWarnings("unchecked")
+    final V valueOf(Node<K,V> e) {
+        Object v = e.val();
+        return (valueStrength == Strength.STRONG || v == null) ? (V)v :
+            ((Reference<V>)v).get();
+    }
+
+    /**
+     * Returns the object to store in the val field of e for value.
+     */
+    final Object wrap(V value, Node<K,V> e) {
+        switch (valueStrength) {
+        case WEAK: return new WeakValue<K,V>(value, e, queue);
+        case SOFT: return new SoftValue<K,V>(value, e, queue);
+        default:   return value;
+        }
+    }
+
+    /**
+     * Creates a node holding the given key and value.
+     */
+    final Node<K,V> newNode(int h, K key, V value, Node<K,V> next) {
+        Node<K,V> e;
+        switch (keyStrength) {
+        case WEAK: e = new WeakNode<K,V>(h, key, next, queue); break;
+        case SOFT: e = new SoftNode<K,V>(h, key, next, queue); break;
+        default:   e = new StrongNode<K,V>(h, key, next); break;
+        }
+        e.setVal(wrap(value, e));
+        return e;
+    }
+
+    /**
+     * Returns the live node for the given key, or null if none.
+     * Forwarding nodes are followed into the next table.  Since
+     * transfer relinks nodes in place, a miss in a bin that may have
+     * been relinked meanwhile is rechecked: see the comments below.
+     */
+    final Node<K,V> findNode(int h, Object key) {
+        for (Node<K,V>[] tab = table;;) {
+            Node<K,V> f, e; int n, i;
+            if (tab == null || (n = tab.length) == 0 ||
+                (f = tabAt(tab, i = (n - 1) & h)) == null)
+                return null;
+            if (f.hash() == MOVED) {
+                tab = ((ForwardingNode<K,V>)f).nextTable;
+                continue;
+            }
+            e = f;
+            do {
+                if (matches(e, h, key))
+                    return e;
+            } while ((e = e.next()) != null);
+            // Bins of tab are only relinked while tab is the table
+            // and nextTable is set; finishing sets table before
+            // clearing nextTable, so read them in the other order.
+            Node<K,V>[] nt = nextTable;
+            boolean resizing = (table == tab && nt != null);
+            if ((f = tabAt(tab, i)) != null && f.hash() == MOVED) {
+                tab = ((ForwardingNode<K,V>)f).nextTable;
+                continue;               // relinked; search the new bins
+            }
+            if (!resizing)
+                return null;            // no relinking since tab was read
+            // transfer fills both target bins with placeholders before
+            // relinking, and a bin has nodes to fill at least one of
+            // them with, so both are null only if relinking had not
+            // started (or the key is absent from its new bin)
+            if (tabAt(nt, i) == null && tabAt(nt, i + n) == null)
+                return null;
+            Thread.yield(); // relinking in progress; wait for forwarding
+        }
+    }
+
+    /** Implementation for put and putIfAbsent */
+    final V putVal(K key, V value, boolean onlyIfAbsent) {
+        if (key == null || value == null) throw new NullPointerException();
+        expungeStaleEntries(DRAIN_BATCH);
+        int h = hash(key);
+        for (Node<K,V>[] tab = table;;) {
+            Node<K,V> f; int n, i;
+            if (tab == null || (n = tab.length) == 0)
+                tab = initTable();
+            else if ((f = tabAt(tab, i = (n - 1) & h)) == null) {
+                if (casTabAt(tab, i, null, newNode(h, key, value, null))) {
+                    addCount(1L, 1);
+                    return null;
+                }
+            }
+            else if (f.hash() == MOVED)
+                tab = helpTransfer(tab, f);
+            else {
+                V oldVal = null;
+                boolean found = false;
+                int binCount = 0;
+                synchronized (f) {
+                    if (tabAt(tab, i) == f) {
+                        binCount = 1;
+                        for (Node<K,V> e = f;; ++binCount) {
+                            Node<K,V> next;
+                            if (matches(e, h, key)) {
+                                found = true;
+                                oldVal = valueOf(e);
+                                if (oldVal == null || !onlyIfAbsent)
+                                    e.setVal(wrap(value, e));
+                                break;
+                            }
+                            if ((next = e.next()) == null) {
+                                e.setNext(newNode(h, key, value, null));
+                                break;
+                            }
+                            e = next;
+                        }
+                    }
+                }
+                if (binCount != 0) {
+                    if (found)
+                        return oldVal;
+                    addCount(1L, binCount);
+                    return null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Implementation for the four public remove/replace methods:
+     * Replaces node value with v, conditional upon match of cv if
+     * non-null.  If resulting value is null, delete.  A mapping whose
+     * value has been reclaimed is only ever deleted, and then only
+     * unconditionally.
+     */
+    final V replaceNode(Object key, V value, Object cv) {
+        if (key == null) throw new NullPointerException();
+        expungeStaleEntries(DRAIN_BATCH);
+        int h = hash(key);
+        for (Node<K,V>[] tab = table;;) {
+            Node<K,V> f; int n, i;
+            if (tab == null || (n = tab.length) == 0 ||
+                (f = tabAt(tab, i = (n - 1) & h)) == null)
+                return null;
+            else if (f.hash() == MOVED)
+                tab = helpTransfer(tab, f);
+            else {
+                V oldVal = null;
+                boolean validated = false, removed = false;
+                synchronized (f) {
+                    if (tabAt(tab, i) == f) {
+                        validated = true;
+                        for (Node<K,V> e = f, pred = null; e != null;
+                             pred = e, e = e.next()) {
+                            if (matches(e, h, key)) {
+                                V ev = valueOf(e);
+                                if (cv == null ?
+                                    (value == null || ev != null) :
+                                    (ev != null && (cv == ev || cv.equals(ev)))) {
+                                    oldVal = ev;
+                                    if (value != null)
+                                        e.setVal(wrap(value, e));
+                                    else {
+                                        removed = true;
+                                        if (pred != null)
+                                            pred.setNext(e.next());
+                                        else
+                                            setTabAt(tab, i, e.next());
+                                    }
+                                }
+                                break;
+                            }
+                        }
+                    }
+                }
+                if (validated) {
+                    if (removed)
+                        addCount(-1L, -1);
+                    return oldVal;
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the nodes of up to max cleared references.
+     */
+    @SuppressWarnings("unchecked")
+    final void expungeStaleEntries(int max) {
+        Reference<?> r;
+        for (int k = 0; k < max && (r = queue.poll()) != null; ++k) {
+            if (r instanceof ValueReference)
+                removeStale(((ValueReference<K,V>)r).node(), r);
+            else
+                removeStale((Node<K,V>)r, null);
+        }
+    }
+
+    /**
+     * Unlinks node e if still present and, if vr is non-null, still
+     * holding value reference vr.
+     */
+    private void removeStale(Node<K,V> e, Object vr) {
+        int h = e.hash();
+        for (Node<K,V>[] tab = table;;) {
+            Node<K,V> f; int n, i;
+            if (tab == null || (n = tab.length) == 0 ||
+                (f = tabAt(tab, i = (n - 1) & h)) == null)
+                return;
+            else if (f.hash() == MOVED)
+                tab = helpTransfer(tab, f);
+            else {
+                boolean validated = false, removed = false;
+                synchronized (f) {
+                    if (tabAt(tab, i) == f) {
+                        validated = true;
+                        for (Node<K,V> p = f, pred = null; p != null;
+                             pred = p, p = p.next()) {
+                            if (p == e) {
+                                if (vr == null || e.val() == vr) {
+                                    removed = true;
+                                    if (pred != null)
+                                        pred.setNext(e.next());
+                                    else
+                                        setTabAt(tab, i, e.next());
+                                }
+                                break;
+                            }
+                        }
+                    }
+                }
+                if (validated) {
+                    if (removed)
+                        addCount(-1L, -1);
+                    return;
+                }
+            }
+        }
+    }
+
+    /* ---------------- Table Initialization and Resizing -------------- */
+
+    static final int resizeStamp(int n) {
+        return Integer.numberOfLeadingZeros(n) | (1 << (RESIZE_STAMP_BITS - 1));
+    }
+
+    /**
+     * Initializes table, using the size recorded in sizeCtl.
+     */
+    private final Node<K,V>[] initTable() {
+        Node<K,V>[] tab; int sc;
+        while ((tab = table) == null || tab.length == 0) {
+            if ((sc = sizeCtl) < 0)
+                Thread.yield(); // lost initialization race; just spin
+            else if (U.compareAndSwapInt(this, SIZECTL, sc, -1)) {
+                try {
+                    if ((tab = table) == null || tab.length == 0) {
+                        int n = (sc > 0) ? sc : DEFAULT_CAPACITY;
+                        @SuppressWarnings("unchecked")
+                        Node<K,V>[] nt = (Node<K,V>[])new Node<?,?>[n];
+                        table = tab = nt;
+                        sc = n - (n >>> 2);
+                    }
+                } finally {
+                    sizeCtl = sc;
+                }
+                break;
+            }
+        }
+        return tab;
+    }
+
+    /**
+     * Adds to count, and if table is too small and not already
+     * resizing, initiates transfer. If already resizing, helps
+     * perform transfer if work is available.
+     *
+     * @param x the count to add
+     * @param check if <0, don't check resize
+     */
+    private final void addCount(long x, int check) {
+        counter.add(x);
+        if (check >= 0) {
+            Node<K,V>[] tab, nt; int n, sc; long s = counter.sum();
+            while (s >= (long)(sc = sizeCtl) && (tab = table) != null &&
+                   (n = tab.length) < MAXIMUM_CAPACITY) {
+                int rs = resizeStamp(n);
+                if (sc < 0) {
+                    if ((sc >>> RESIZE_STAMP_SHIFT) != rs || sc == rs + 1 ||
+                        sc == rs + MAX_RESIZERS || (nt = nextTable) == null ||
+                        transferIndex <= 0)
+                        break;
+                    if (U.compareAndSwapInt(this, SIZECTL, sc, sc + 1))
+                        transfer(tab, nt);
+                }
+                else if (U.compareAndSwapInt(this, SIZECTL, sc,
+                                             (rs << RESIZE_STAMP_SHIFT) + 2))
+                    transfer(tab, null);
+                s = counter.sum();
+            }
+        }
+    }
+
+    /**
+     * Helps transfer if a resize is in progress.
+     */
+    final Node<K,V>[] helpTransfer(Node<K,V>[] tab, Node<K,V> f) {
+        Node<K,V>[] nextTab; int sc;
+        if (tab != null && (f instanceof ForwardingNode) &&
+            (nextTab = ((ForwardingNode<K,V>)f).nextTable) != null) {
+            int rs = resizeStamp(tab.length);
+            while (nextTab == nextTable && table == tab &&
+                   (sc = sizeCtl) < 0) {
+                if ((sc >>> RESIZE_STAMP_SHIFT) != rs || sc == rs + 1 ||
+                    sc == rs + MAX_RESIZERS || transferIndex <= 0)
+                    break;
+                if (U.compareAndSwapInt(this, SIZECTL, sc, sc + 1)) {
+                    transfer(tab, nextTab);
+                    break;
+                }
+            }
+            return nextTab;
+        }
+        return table;
+    }
+
+    /**
+     * Relinks the nodes in each bin into the new table.  Nodes are
+     * never copied, since they are registered references.
+     */
+    private final void transfer(Node<K,V>[] tab, Node<K,V>[] nextTab) {
+        int n = tab.length, stride;
+        if ((stride = (NCPU > 1) ? (n >>> 3) / NCPU : n) < MIN_TRANSFER_STRIDE)
+            stride = MIN_TRANSFER_STRIDE; // subdivide range
+        if (nextTab == null) {            // initiating
+            try {
+                @SuppressWarnings("unchecked")
+                Node<K,V>[] nt = (Node<K,V>[])new Node<?,?>[n << 1];
+                nextTab = nt;
+            } catch (Throwable ex) {      // try to cope with OOME
+                sizeCtl = Integer.MAX_VALUE;
+                return;
+            }
+            nextTable = nextTab;
+            transferIndex = n;
+        }
+        int nextn = nextTab.length;
+        ForwardingNode<K,V> fwd = new ForwardingNode<K,V>(nextTab);
+        boolean advance = true;
+        boolean finishing = false; // to ensure sweep before committing nextTab
+        for (int i = 0, bound = 0;;) {
+            Node<K,V> f;
+            while (advance) {
+                int nextIndex, nextBound;
+                if (--i >= bound || finishing)
+                    advance = false;
+                else if ((nextIndex = transferIndex) <= 0) {
+                    i = -1;
+                    advance = false;
+                }
+                else if (U.compareAndSwapInt
+                         (this, TRANSFERINDEX, nextIndex,
+                          nextBound = (nextIndex > stride ?
+                                       nextIndex - stride : 0))) {
+                    bound = nextBound;
+                    i = nextIndex - 1;
+                    advance = false;
+                }
+            }
+            if (i < 0 || i >= n || i + n >= nextn) {
+                int sc;
+                if (finishing) {
+                    table = nextTab; // before nextTable; see findNode
+                    nextTable = null;
+                    sizeCtl = (n << 1) - (n >>> 1);
+                    return;
+                }
+                if (U.compareAndSwapInt(this, SIZECTL, sc = sizeCtl, sc - 1)) {
+                    if ((sc - 2) != resizeStamp(n) << RESIZE_STAMP_SHIFT)
+                        return;
+                    finishing = advance = true;
+                    i = n; // recheck before commit
+                }
+            }
+            else if ((f = tabAt(tab, i)) == null)
+                advance = casTabAt(tab, i, null, fwd);
+            else if (f.hash() == MOVED)
+                advance = true; // already processed
+            else {
+                synchronized (f) {
+                    if (tabAt(tab, i) == f) {
+                        setTabAt(nextTab, i, fwd); // placeholders; see findNode
+                        setTabAt(nextTab, i + n, fwd);
+                        Node<K,V> ln = null, lt = null, hn = null, ht = null;
+                        for (Node<K,V> p = f, next; p != null; p = next) {
+                            next = p.next();
+                            if ((p.hash() & n) == 0) {
+                                if (lt == null)
+                                    ln = p;
+                                else
+                                    lt.setNext(p);
+                                lt = p;
+                            }
+                            else {
+                                if (ht == null)
+                                    hn = p;
+                                else
+                                    ht.setNext(p);
+                                ht = p;
+                            }
+                        }
+                        if (lt != null)
+                            lt.setNext(null);
+                        if (ht != null)
+                            ht.setNext(null);
+                        setTabAt(nextTab, i, ln);
+                        setTabAt(nextTab, i + n, hn);
+                        setTabAt(tab, i, fwd);
+                        advance = true;
+                    }
+                }
+            }
+        }
+    }
+
+    /* ---------------- Iteration -------------- */
+
+    /**
+     * Appends the nodes of bin i of tab to buf, following forwarding
+     * nodes into the bins they were split into.  Each bin is read
+     * under its lock, so that no nodes are missed while they are
+     * being relinked.
+     */
+    static final <K,V> void collectBin(Node<K,V>[] tab, int i,
+                                       NodeBuffer<K,V> buf) {
+        for (Node<K,V> f;;) {
+            if ((f = tabAt(tab, i)) == null)
+                return;
+            if (f.hash() == MOVED) {
+                Node<K,V>[] nt = ((ForwardingNode<K,V>)f).nextTable;
+                collectBin(nt, i, buf);
+                collectBin(nt, i + tab.length, buf);
+                return;
+            }
+            synchronized (f) {
+                if (tabAt(tab, i) == f) {
+                    for (Node<K,V> e = f; e != null; e = e.next())
+                        buf.add(e);
+                    return;
+                }
+            }
+        }
+    }
+
+    final class EntrySetView extends AbstractSet<Map.Entry<K,V>> {
+        public int size() { return ConcurrentReferenceHashMap.this.size(); }
+        public void clear() { ConcurrentReferenceHashMap.this.clear(); }
+        public boolean contains(Object o) {
+            Object k, v, r; Map.Entry<?,?> e;
+            return ((o instanceof Map.Entry) &&
+                    (k = (e = (Map.Entry<?,?>)o).getKey()) != null &&
+                    (r = get(k)) != null &&
+                    (v = e.getValue()) != null &&
+                    (v == r || v.equals(r)));
+        }
+        public boolean remove(Object o) {
+            Object k, v; Map.Entry<?,?> e;
+            return ((o instanceof Map.Entry) &&
+                    (k = (e = (Map.Entry<?,?>)o).getKey()) != null &&
+                    (v = e.getValue()) != null &&
+                    ConcurrentReferenceHashMap.this.remove(k, v));
+        }
+        public Iterator<Map.Entry<K,V>> iterator() {
+            return new EntryIterator();
+        }
+    }
+
+    final class EntryIterator implements Iterator<Map.Entry<K,V>> {
+        final Node<K,V>[] tab = table;
+        final NodeBuffer<K,V> buf = new NodeBuffer<K,V>();
+        int index, pos;
+        K nextKey, lastKey;
+        V nextValue;
+
+        EntryIterator() { advance(); }
+
+        /** Finds the next node whose key and value are both live. */
+        private void advance() {
+            for (;;) {
+                while (pos < buf.size) {
+                    Node<K,V> e = buf.nodes[pos++];
+                    K k; V v;
+                    if ((k = e.key()) != null && (v = valueOf(e)) != null) {
+                        nextKey = k;
+                        nextValue = v;
+                        return;
+                    }
+                }
+                if (tab == null || index >= tab.length) {
+                    nextKey = null;
+                    nextValue = null;
+                    return;
+                }
+                buf.size = pos = 0;
+                collectBin(tab, index++, buf);
+            }
+        }
+
+        public boolean hasNext() { return nextKey != null; }
+
+        public Map.Entry<K,V> next() {
+            K k; V v;
+            if ((k = nextKey) == null)
+                throw new NoSuchElementException();
+            v = nextValue;
+            lastKey = k;
+            advance();
+            return new WriteThroughEntry(k, v);
+        }
+
+        public void remove() {
+            K k;
+            if ((k = lastKey) == null)
+                throw new IllegalStateException();
+            lastKey = null;
+            ConcurrentReferenceHashMap.this.remove(k);
+        }
+    }
+
+    final class WriteThroughEntry extends AbstractMap.SimpleEntry<K,V> {
+        private static final long serialVersionUID = 5306241318617839425L;
+        WriteThroughEntry(K key, V value) { super(key, value); }
+        public V setValue(V value) {
+            if (value == null) throw new NullPointerException();
+            V v = super.setValue(value);
+            put(getKey(), value);
+            return v;
+        }
+    }
+
+    // Unsafe mechanics
+    private static final sun.misc.Unsafe U;
+    private static final long SIZECTL;
+    private static final long TRANSFERINDEX;
+    private static final long ABASE;
+    private static final int ASHIFT;
+
+    static {
+        try {
+            U = sun.misc.Unsafe.getUnsafe();
+            Class<?> k = ConcurrentReferenceHashMap.class;
+            SIZECTL = U.objectFieldOffset
+                (k.getDeclaredField("sizeCtl"));
+            TRANSFERINDEX = U.objectFieldOffset
+                (k.getDeclaredField("transferIndex"));
+            Class<?> ak = Node[].class;
+            ABASE = U.arrayBaseOffset(ak);
+            int scale = U.arrayIndexScale(ak);
+            if ((scale & (scale - 1)) != 0)
+                throw new Error("data type scale not a power of two");
+            ASHIFT = 31 - Integer.numberOfLeadingZeros(scale);
+        } catch (Exception e) {
+            throw new Error(e);
+        }
+    }
+}
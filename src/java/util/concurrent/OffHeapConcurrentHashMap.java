@@ -0,0 +1,1536 @@
+/*
+ * Copyright (c) 2017, Oracle and/or its affiliates. All rights reserved.
+ * ORACLE PROPRIETARY/CONFIDENTIAL. Use is subject to license terms.
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ */
+
+package java.util.concurrent;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A hash table with the same concurrency properties as {@link
+ * ConcurrentHashMap}, whose keys and values are kept serialized in
+ * off-heap memory rather than as Java objects.  Only a small node
+ * holding the hash and the address of the serialized record is kept
+ * on the heap for each mapping, so very large caches of small values
+ * do not contribute to garbage collector marking or copying work.
+ *
+ * <p>Keys and values are converted to and from bytes by the {@link
+ * Serializer}s given at construction.  Two keys are considered equal
+ * if and only if their serialized forms are identical, so the key
+ * serializer must produce the same bytes for keys that are {@code
+ * equals}.  Values are deserialized on every retrieval, so {@code get}
+ * returns a fresh copy; mutating it has no effect on the map.  As with
+ * {@code ConcurrentHashMap}, neither keys nor values may be null.
+ *
+ * <p>Retrievals do not block.  Updates use the same bin-level
+ * synchronization, CAS insertion into empty bins and cooperative
+ * resizing as {@code ConcurrentHashMap}.  Iterators are weakly
+ * consistent and never throw {@link
+ * java.util.ConcurrentModificationException}.
+ *
+ * <p>Records are bump-allocated in direct {@link ByteBuffer} segments
+ * of a fixed size; records larger than a segment get a segment of
+ * their own.  Memory of removed or replaced records is reclaimed a
+ * whole segment at a time, once every record in it is dead, and the
+ * segment is then reused.  Long-lived records can keep an otherwise
+ * dead segment alive; {@link #compact} moves the survivors out of
+ * sparsely used segments so that they can be reused.  Recycled
+ * segments are pooled until {@link #close} releases them.
+ *
+ * @param <K> the type of keys maintained by this map
+ * @param <V> the type of mapped values
+ * @see ConcurrentHashMap
+ */
+public class OffHeapConcurrentHashMap<K,V> extends AbstractMap<K,V>
+    implements ConcurrentMap<K,V>, AutoCloseable {
+
+    /*
+     * Overview:
+     *
+     * The table, resizing protocol (sizeCtl, transferIndex,
+     * ForwardingNodes, helpTransfer) and locking of bins are the same
+     * as in ConcurrentHashMap; see its internal documentation.  The
+     * differences are:
+     *
+     * Nodes hold an encoded address instead of key and value
+     * references.  A record is laid out as [key length (int), value
+     * length (int), key bytes, value bytes] and is immutable once
+     * published; replacing a value writes a new record and swings
+     * node.address under the bin lock.  Records are written before
+     * the bin lock is taken so that (possibly slow) serialization
+     * never extends lock hold times.  Bins are never treeified since
+     * serialized keys carry no ordering, which is acceptable because
+     * hashes are computed over the full serialized key.
+     *
+     * Addresses encode a 16-bit segment generation, a 16-bit segment
+     * index and a 32-bit offset.  Writers only ever touch records
+     * reachable from the current table under the bin lock, and a
+     * record is released only after it has been unlinked, so writers
+     * never see freed memory.  Readers, however, may hold an address
+     * whose record is released and whose segment is then recycled
+     * and overwritten.  As in StampedLock, readers therefore
+     * validate after reading: a load fence followed by a check that
+     * the segment generation still matches the address.  On failure
+     * the lookup restarts from the table (where the stale node is
+     * no longer reachable).  All record access goes through
+     * bounds-checked ByteBuffer methods, so garbage read from a
+     * recycled segment can cause at most an exception, which is
+     * discarded when validation fails.
+     *
+     * Segment live byte counts are reserved before the bump pointer
+     * is advanced and released when records die.  A retired segment
+     * (no longer the allocation target) whose live count drops to
+     * zero is recycled exactly once, by whoever wins the CAS of its
+     * state from RETIRED to FREE.
+     */
+
+    /* ---------------- Constants -------------- */
+
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+    private static final int DEFAULT_CAPACITY = 16;
+
+    /** The default size of an off-heap segment (8MB). */
+    static final int DEFAULT_SEGMENT_SIZE = 1 << 23;
+
+    /** The smallest allowed segment size. */
+    static final int MIN_SEGMENT_SIZE = 1 << 12;
+
+    /** The maximum number of segments, bounded by the address encoding. */
+    static final int MAX_SEGMENTS = 1 << 16;
+
+    /** Bytes preceding the key in each record: key and value lengths. */
+    static final int HEADER_SIZE = 8;
+
+    private static final int MIN_TRANSFER_STRIDE = 16;
+    private static final int RESIZE_STAMP_BITS = 16;
+    private static final int MAX_RESIZERS = (1 << (32 - RESIZE_STAMP_BITS)) - 1;
+    private static final int RESIZE_STAMP_SHIFT = 32 - RESIZE_STAMP_BITS;
+
+    static final int MOVED = -1; // hash for forwarding nodes
+
+    static final int NCPU = Runtime.getRuntime().availableProcessors();
+
+    /** Segment states */
+    static final int ACTIVE  = 0; // current allocation target
+    static final int RETIRED = 1; // full; recycled when live drops to 0
+    static final int FREE    = 2; // recycled, awaiting reuse
+
+    /* ---------------- Serializers -------------- */
+
+    /**
+     * Converts keys or values to and from the bytes stored off-heap.
+     * Implementations must be thread-safe and, for keys, must produce
+     * identical bytes for equal objects.
+     *
+     * @param <T> the type of objects serialized
+     */
+    public interface Serializer<T> {
+        /**
+         * Returns the exact number of bytes that {@link #serialize}
+         * will write for the given object.
+         *
+         * @param t the object
+         * @return the serialized size, in bytes
+         */
+        int serializedSize(T t);
+
+        /**
+         * Writes the given object at the buffer's current position,
+         * advancing it by exactly {@code serializedSize(t)} bytes.
+         *
+         * @param t the object
+         * @param buf the destination buffer
+         */
+        void serialize(T t, ByteBuffer buf);
+
+        /**
+         * Reads an object from the bytes between the buffer's
+         * position and its limit.
+         *
+         * @param buf the source buffer
+         * @return the object
+         */
+        T deserialize(ByteBuffer buf);
+
+        /**
+         * Returns a serializer storing byte arrays as-is.
+         *
+         * @return a byte array serializer
+         */
+        static Serializer<byte[]> bytes() {
+            return ByteArraySerializer.INSTANCE;
+        }
+
+        /**
+         * Returns a serializer storing strings as UTF-8.
+         *
+         * @return a string serializer
+         */
+        static Serializer<String> utf8() {
+            return StringSerializer.INSTANCE;
+        }
+
+        /**
+         * Returns a serializer storing longs as 8 big-endian bytes.
+         *
+         * @return a long serializer
+         */
+        static Serializer<Long> longs() {
+            return LongSerializer.INSTANCE;
+        }
+    }
+
+    static final class ByteArraySerializer implements Serializer<byte[]> {
+        static final ByteArraySerializer INSTANCE = new ByteArraySerializer();
+        public int serializedSize(byte[] b) { return b.length; }
+        public void serialize(byte[] b, ByteBuffer buf) { buf.put(b); }
+        public byte[] deserialize(ByteBuffer buf) {
+            byte[] b = new byte[buf.remaining()];
+            buf.get(b);
+            return b;
+        }
+    }
+
+    static final class StringSerializer implements Serializer<String> {
+        static final StringSerializer INSTANCE = new StringSerializer();
+        // The encoding is cached by neither side; strings are assumed short
+        public int serializedSize(String s) {
+            return s.getBytes(StandardCharsets.UTF_8).length;
+        }
+        public void serialize(String s, ByteBuffer buf) {
+            buf.put(s.getBytes(StandardCharsets.UTF_8));
+        }
+        public String deserialize(ByteBuffer buf) {
+            byte[] b = new byte[buf.remaining()];
+            buf.get(b);
+            return new String(b, StandardCharsets.UTF_8);
+        }
+    }
+
+    static final class LongSerializer implements Serializer<Long> {
+        static final LongSerializer INSTANCE = new LongSerializer();
+        public int serializedSize(Long x) { return 8; }
+        public void serialize(Long x, ByteBuffer buf) { buf.putLong(x); }
+        public Long deserialize(ByteBuffer buf) { return buf.getLong(); }
+    }
+
+    /* ---------------- Nodes -------------- */
+
+    /**
+     * Table entry.  The key and value live in the record at address.
+     */
+    static class Node {
+        final int hash;
+        volatile long address;
+        volatile Node next;
+
+        Node(int hash, long address, Node next) {
+            this.hash = hash;
+            this.address = address;
+            this.next = next;
+        }
+    }
+
+    /**
+     * A node inserted at head of bins during transfer operations.
+     */
+    static final class ForwardingNode extends Node {
+        final Node[] nextTable;
+        ForwardingNode(Node[] tab) {
+            super(MOVED, 0L, null);
+            this.nextTable = tab;
+        }
+    }
+
+    /**
+     * A region of off-heap memory from which records are
+     * bump-allocated.  Segment objects are never discarded; a slot
+     * whose buffer has been released keeps its index and generation
+     * so that stale addresses into it fail validation.
+     */
+    static final class Segment {
+        final int index;
+        volatile ByteBuffer buffer;
+        volatile int capacity;
+        volatile int gen;
+        volatile int top;
+        volatile int live;
+        volatile int state;
+
+        Segment(int index) {
+            this.index = index;
+            this.state = FREE;
+        }
+    }
+
+    /* ---------------- Table element access -------------- */
+
+    static final Node tabAt(Node[] tab, int i) {
+        return (Node)U.getObjectVolatile(tab, ((long)i << ASHIFT) + ABASE);
+    }
+
+    static final boolean casTabAt(Node[] tab, int i, Node c, Node v) {
+        return U.compareAndSwapObject(tab, ((long)i << ASHIFT) + ABASE, c, v);
+    }
+
+    static final void setTabAt(Node[] tab, int i, Node v) {
+        U.putObjectVolatile(tab, ((long)i << ASHIFT) + ABASE, v);
+    }
+
+    /* ---------------- Fields -------------- */
+
+    /** The array of bins. Lazily initialized upon first insertion. */
+    transient volatile Node[] table;
+
+    /** The next table to use; non-null only while resizing. */
+    private transient volatile Node[] nextTable;
+
+    /** Table initialization and resizing control; see ConcurrentHashMap. */
+    private transient volatile int sizeCtl;
+
+    /** The next table index (plus one) to split while resizing. */
+    private transient volatile int transferIndex;
+
+    /** Number of mappings. */
+    private final LongAdder counter = new LongAdder();
+
+    private final Serializer<K> keySerializer;
+    private final Serializer<V> valueSerializer;
+
+    /** Size of regular segments. */
+    private final int segmentSize;
+
+    /** All segment slots, indexed by Segment.index. Grown under allocLock. */
+    private volatile Segment[] segments = new Segment[0];
+
+    /** The segment records are currently allocated from. */
+    private volatile Segment current;
+
+    /** Guards segment creation, retirement and the free lists. */
+    private final Object allocLock = new Object();
+
+    /** Recycled regular segments, with their buffers. Guarded by allocLock. */
+    private final ArrayDeque<Segment> freeSegments = new ArrayDeque<Segment>();
+
+    /** Slots whose (oversized) buffers were released. Guarded by allocLock. */
+    private final ArrayDeque<Segment> freeSlots = new ArrayDeque<Segment>();
+
+    private transient EntrySetView entrySet;
+
+    /* ---------------- Public operations -------------- */
+
+    /**
+     * Creates a new, empty map with the default initial table size
+     * (16) and segment size (8MB).
+     *
+     * @param keySerializer the serializer for keys
+     * @param valueSerializer the serializer for values
+     * @throws NullPointerException if either serializer is null
+     */
+    public OffHeapConcurrentHashMap(Serializer<K> keySerializer,
+                                    Serializer<V> valueSerializer) {
+        this(DEFAULT_CAPACITY, DEFAULT_SEGMENT_SIZE,
+             keySerializer, valueSerializer);
+    }
+
+    /**
+     * Creates a new, empty map with an initial table size
+     * accommodating the specified number of elements without the need
+     * to dynamically resize, allocating off-heap memory in segments
+     * of the given size.
+     *
+     * @param initialCapacity the initial capacity
+     * @param segmentSize the size in bytes of each off-heap segment
+     * @param keySerializer the serializer for keys
+     * @param valueSerializer the serializer for values
+     * @throws IllegalArgumentException if the initial capacity is
+     *         negative or the segment size is less than 4096
+     * @throws NullPointerException if either serializer is null
+     */
+    public OffHeapConcurrentHashMap(int initialCapacity, int segmentSize,
+                                    Serializer<K> keySerializer,
+                                    Serializer<V> valueSerializer) {
+        if (initialCapacity < 0 || segmentSize < MIN_SEGMENT_SIZE)
+            throw new IllegalArgumentException();
+        if (keySerializer == null || valueSerializer == null)
+            throw new NullPointerException();
+        this.keySerializer = keySerializer;
+        this.valueSerializer = valueSerializer;
+        this.segmentSize = segmentSize;
+        this.sizeCtl = ((initialCapacity >= (MAXIMUM_CAPACITY >>> 1)) ?
+                        MAXIMUM_CAPACITY :
+                        tableSizeFor(initialCapacity + (initialCapacity >>> 1) + 1));
+    }
+
+    private static final int tableSizeFor(int c) {
+        int n = c - 1;
+        n |= n >>> 1;
+        n |= n >>> 2;
+        n |= n >>> 4;
+        n |= n >>> 8;
+        n |= n >>> 16;
+        return (n < 0) ? 1 : (n >= MAXIMUM_CAPACITY) ? MAXIMUM_CAPACITY : n + 1;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int size() {
+        long n = counter.sum();
+        return ((n < 0L) ? 0 :
+                (n > (long)Integer.MAX_VALUE) ? Integer.MAX_VALUE :
+                (int)n);
+    }
+
+    /**
+     * Returns the number of mappings.  This method should be used
+     * instead of {@link #size} because a map may contain more
+     * mappings than can be represented as an int.
+     *
+     * @return the number of mappings
+     */
+    public long mappingCount() {
+        long n = counter.sum();
+        return (n < 0L) ? 0L : n;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isEmpty() {
+        return counter.sum() <= 0L;
+    }
+
+    /**
+     * Returns the value to which the specified key is mapped, or
+     * {@code null} if this map contains no mapping for the key.  The
+     * returned value is freshly deserialized.
+     *
+     * @throws NullPointerException if the specified key is null
+     * @throws ClassCastException if the key serializer rejects the key
+     */
+    public V get(Object key) {
+        byte[] kb = keyBytes(key);
+        int h = hashOf(kb);
+        outer: for (;;) {
+            Node[] tab = table;
+            for (;;) {
+                Node e; int n;
+                if (tab == null || (n = tab.length) == 0 ||
+                    (e = tabAt(tab, (n - 1) & h)) == null)
+                    return null;
+                if (e.hash == MOVED) {
+                    tab = ((ForwardingNode)e).nextTable;
+                    continue;
+                }
+                do {
+                    if (e.hash == h) {
+                        long a = e.address;
+                        int m = matchKey(a, kb);
+                        if (m < 0)
+                            continue outer;
+                        if (m > 0) {
+                            V v = readValue(a);
+                            if (v == null)
+                                continue outer;
+                            return v;
+                        }
+                    }
+                } while ((e = e.next) != null);
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Tests if the specified object is a key in this table.
+     *
+     * @param  key possible key
+     * @return {@code true} if and only if the serialized form of the
+     *         specified object is a key in this table
+     * @throws NullPointerException if the specified key is null
+     */
+    public boolean containsKey(Object key) {
+        byte[] kb = keyBytes(key);
+        int h = hashOf(kb);
+        outer: for (;;) {
+            Node[] tab = table;
+            for (;;) {
+                Node e; int n;
+                if (tab == null || (n = tab.length) == 0 ||
+                    (e = tabAt(tab, (n - 1) & h)) == null)
+                    return false;
+                if (e.hash == MOVED) {
+                    tab = ((ForwardingNode)e).nextTable;
+                    continue;
+                }
+                do {
+                    int m;
+                    if (e.hash == h && (m = matchKey(e.address, kb)) != 0) {
+                        if (m < 0)
+                            continue outer;
+                        return true;
+                    }
+                } while ((e = e.next) != null);
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Returns {@code true} if this map maps one or more keys to the
+     * specified value.  This method deserializes every value.
+     *
+     * @param value value whose presence in this map is to be tested
+     * @return {@code true} if this map maps one or more keys to the
+     *         specified value
+     * @throws NullPointerException if the specified value is null
+     */
+    public boolean containsValue(Object value) {
+        if (value == null)
+            throw new NullPointerException();
+        Node[] t;
+        if ((t = table) != null) {
+            Traverser it = new Traverser(t, t.length, 0, t.length);
+            for (Node p; (p = it.advance()) != null; ) {
+                V v;
+                if ((v = readValue(p.address)) != null && value.equals(v))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Maps the specified key to the specified value in this table.
+     * Neither the key nor the value can be null.
+     *
+     * @param key key with which the specified value is to be associated
+     * @param value value to be associated with the specified key
+     * @return the previous value associated with {@code key}, or
+     *         {@code null} if there was no mapping for {@code key}
+     * @throws NullPointerException if the specified key or value is null
+     */
+    public V put(K key, V value) {
+        return putVal(key, value, false);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @return the previous value associated with the specified key,
+     *         or {@code null} if there was no mapping for the key
+     * @throws NullPointerException if the specified key or value is null
+     */
+    public V putIfAbsent(K key, V value) {
+        return putVal(key, value, true);
+    }
+
+    /** Implementation for put and putIfAbsent */
+    final V putVal(K key, V value, boolean onlyIfAbsent) {
+        if (key == null || value == null) throw new NullPointerException();
+        byte[] kb = keyBytes(key);
+        int hash = hashOf(kb);
+        long a = writeRecord(kb, value); // serialize outside of any lock
+        int binCount = 0;
+        for (Node[] tab = table;;) {
+            Node f; int n, i, fh;
+            if (tab == null || (n = tab.length) == 0)
+                tab = initTable();
+            else if ((f = tabAt(tab, i = (n - 1) & hash)) == null) {
+                if (casTabAt(tab, i, null, new Node(hash, a, null)))
+                    break;                   // no lock when adding to empty bin
+            }
+            else if ((fh = f.hash) == MOVED)
+                tab = helpTransfer(tab, f);
+            else {
+                V oldVal = null;
+                long oldAddress = 0L;
+                synchronized (f) {
+                    if (tabAt(tab, i) == f) {
+                        binCount = 1;
+                        for (Node e = f;; ++binCount) {
+                            long ea;
+                            if (e.hash == hash &&
+                                matchKey(ea = e.address, kb) > 0) {
+                                oldVal = readValue(ea);
+                                if (!onlyIfAbsent) {
+                                    e.address = a;
+                                    oldAddress = ea;
+                                }
+                                break;
+                            }
+                            Node pred = e;
+                            if ((e = e.next) == null) {
+                                pred.next = new Node(hash, a, null);
+                                break;
+                            }
+                        }
+                    }
+                }
+                if (binCount != 0) {
+                    if (oldVal != null) {
+                        release(onlyIfAbsent ? a : oldAddress);
+                        return oldVal;
+                    }
+                    break;
+                }
+            }
+        }
+        addCount(1L, binCount);
+        return null;
+    }
+
+    /**
+     * Removes the key (and its corresponding value) from this map.
+     * This method does nothing if the key is not in the map.
+     *
+     * @param  key the key that needs to be removed
+     * @return the previous value associated with {@code key}, or
+     *         {@code null} if there was no mapping for {@code key}
+     * @throws NullPointerException if the specified key is null
+     */
+    public V remove(Object key) {
+        return replaceNode(key, null, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException if the specified key is null
+     */
+    public boolean remove(Object key, Object value) {
+        if (key == null)
+            throw new NullPointerException();
+        return value != null && replaceNode(key, null, value) != null;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException if any of the arguments are null
+     */
+    public boolean replace(K key, V oldValue, V newValue) {
+        if (key == null || oldValue == null || newValue == null)
+            throw new NullPointerException();
+        return replaceNode(key, newValue, oldValue) != null;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @return the previous value associated with the specified key,
+     *         or {@code null} if there was no mapping for the key
+     * @throws NullPointerException if the specified key or value is null
+     */
+    public V replace(K key, V value) {
+        if (key == null || value == null)
+            throw new NullPointerException();
+        return replaceNode(key, value, null);
+    }
+
+    /**
+     * Implementation for the four public remove/replace methods:
+     * Replaces node value with v, conditional upon match of cv if
+     * non-null.  If resulting value is null, delete.
+     */
+    final V replaceNode(Object key, V value, Object cv) {
+        byte[] kb = keyBytes(key);
+        int hash = hashOf(kb);
+        long a = (value == null) ? 0L : writeRecord(kb, value);
+        long dead = a;                  // record to release afterwards
+        V oldVal = null;
+        for (Node[] tab = table;;) {
+            Node f; int n, i, fh;
+            if (tab == null || (n = tab.length) == 0 ||
+                (f = tabAt(tab, i = (n - 1) & hash)) == null)
+                break;
+            else if ((fh = f.hash) == MOVED)
+                tab = helpTransfer(tab, f);
+            else {
+                boolean validated = false;
+                synchronized (f) {
+                    if (tabAt(tab, i) == f) {
+                        validated = true;
+                        for (Node e = f, pred = null;;) {
+                            long ea;
+                            if (e.hash == hash &&
+                                matchKey(ea = e.address, kb) > 0) {
+                                V ev = readValue(ea);
+                                if (cv == null || cv.equals(ev)) {
+                                    oldVal = ev;
+                                    dead = ea;
+                                    if (value != null)
+                                        e.address = a;
+                                    else if (pred != null)
+                                        pred.next = e.next;
+                                    else
+                                        setTabAt(tab, i, e.next);
+                                }
+                                break;
+                            }
+                            pred = e;
+                            if ((e = e.next) == null)
+                                break;
+                        }
+                    }
+                }
+                if (validated)
+                    break;
+            }
+        }
+        if (dead != 0L)
+            release(dead);
+        if (oldVal != null && value == null)
+            addCount(-1L, -1);
+        return oldVal;
+    }
+
+    /**
+     * Removes all of the mappings from this map and releases their
+     * records.  Off-heap segments are kept for reuse; see {@link
+     * #close}.
+     */
+    public void clear() {
+        long delta = 0L; // negative number of deletions
+        int i = 0;
+        Node[] tab = table;
+        while (tab != null && i < tab.length) {
+            Node f = tabAt(tab, i);
+            if (f == null)
+                ++i;
+            else if (f.hash == MOVED) {
+                tab = helpTransfer(tab, f);
+                i = 0; // restart
+            }
+            else {
+                synchronized (f) {
+                    if (tabAt(tab, i) == f) {
+                        setTabAt(tab, i++, null);
+                        for (Node p = f; p != null; p = p.next) {
+                            release(p.address);
+                            --delta;
+                        }
+                    }
+                }
+            }
+        }
+        if (delta != 0L)
+            addCount(delta, -1);
+    }
+
+    /**
+     * Removes all of the mappings from this map and releases all of
+     * its off-heap memory, including the segments kept for reuse.
+     * Buffers are dropped rather than freed explicitly, so that
+     * readers still holding stale addresses fail validation instead
+     * of touching freed memory; the memory is returned when the
+     * buffers are collected.  The map remains usable, and later
+     * insertions allocate new segments.
+     */
+    public void close() {
+        clear();
+        synchronized (allocLock) {
+            Segment s;
+            if ((s = current) != null) {
+                current = null;
+                retire(s);          // recycled now if empty
+            }
+            while ((s = freeSegments.poll()) != null) {
+                s.buffer = null;
+                s.capacity = 0;
+                freeSlots.push(s);
+            }
+        }
+    }
+
+    /**
+     * Moves records out of segments that are less than a quarter
+     * full, so that those segments can be recycled.  Concurrent
+     * updates are allowed; bins are locked one at a time.
+     */
+    public void compact() {
+        int i = 0;
+        Node[] tab = table;
+        while (tab != null && i < tab.length) {
+            Node f = tabAt(tab, i);
+            if (f == null)
+                ++i;
+            else if (f.hash == MOVED) {
+                tab = helpTransfer(tab, f);
+                i = 0;
+            }
+            else {
+                synchronized (f) {
+                    if (tabAt(tab, i) == f) {
+                        for (Node p = f; p != null; p = p.next) {
+                            long pa = p.address;
+                            if (isSparse(segmentOf(pa))) {
+                                p.address = copyRecord(pa);
+                                release(pa);
+                            }
+                        }
+                        ++i;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of bytes of off-heap memory currently
+     * reserved by this map, including unused and reclaimable space.
+     *
+     * @return the reserved off-heap size in bytes
+     */
+    public long offHeapCapacity() {
+        long sum = 0L;
+        for (Segment s : segments)
+            sum += s.capacity;
+        return sum;
+    }
+
+    /**
+     * Returns a {@link Set} view of the mappings contained in this
+     * map.  Keys and values of the returned entries are deserialized
+     * copies; {@code setValue} writes through to the map.  The view's
+     * iterators are weakly consistent.
+     *
+     * @return the set view
+     */
+    public Set<Map.Entry<K,V>> entrySet() {
+        EntrySetView es;
+        return (es = entrySet) != null ? es : (entrySet = new EntrySetView());
+    }
+
+    final class EntrySetView extends AbstractSet<Map.Entry<K,V>> {
+        public Iterator<Map.Entry<K,V>> iterator() {
+            Node[] t; int f = (t = table) == null ? 0 : t.length;
+            return new EntryIterator(t, f);
+        }
+        public int size() { return OffHeapConcurrentHashMap.this.size(); }
+        public boolean isEmpty() { return OffHeapConcurrentHashMap.this.isEmpty(); }
+        public void clear() { OffHeapConcurrentHashMap.this.clear(); }
+        public boolean contains(Object o) {
+            Object k, v, r; Map.Entry<?,?> e;
+            return ((o instanceof Map.Entry) &&
+                    (k = (e = (Map.Entry<?,?>)o).getKey()) != null &&
+                    (r = get(k)) != null &&
+                    (v = e.getValue()) != null &&
+                    (v == r || v.equals(r)));
+        }
+        public boolean remove(Object o) {
+            Object k, v; Map.Entry<?,?> e;
+            return ((o instanceof Map.Entry) &&
+                    (k = (e = (Map.Entry<?,?>)o).getKey()) != null &&
+                    (v = e.getValue()) != null &&
+                    OffHeapConcurrentHashMap.this.remove(k, v));
+        }
+    }
+
+    final class EntryIterator extends Traverser
+        implements Iterator<Map.Entry<K,V>> {
+        Map.Entry<K,V> nextEntry;
+        K lastKey;
+
+        EntryIterator(Node[] tab, int size) {
+            super(tab, size, 0, size);
+            advanceEntry();
+        }
+
+        /** Advances to the next node whose record is still readable. */
+        private void advanceEntry() {
+            Node p;
+            nextEntry = null;
+            while ((p = advance()) != null) {
+                long a = p.address;
+                K k = readKey(a);
+                V v = readValue(a);
+                if (k != null && v != null) {
+                    nextEntry = new MapEntry(k, v);
+                    break;
+                }
+            }
+        }
+
+        public boolean hasNext() { return nextEntry != null; }
+
+        public Map.Entry<K,V> next() {
+            Map.Entry<K,V> e;
+            if ((e = nextEntry) == null)
+                throw new NoSuchElementException();
+            lastKey = e.getKey();
+            advanceEntry();
+            return e;
+        }
+
+        public void remove() {
+            K k;
+            if ((k = lastKey) == null)
+                throw new IllegalStateException();
+            lastKey = null;
+            OffHeapConcurrentHashMap.this.remove(k);
+        }
+    }
+
+    /**
+     * Exported Entry for EntryIterator
+     */
+    final class MapEntry extends AbstractMap.SimpleEntry<K,V> {
+        private static final long serialVersionUID = -1346307451232125398L;
+        MapEntry(K key, V value) { super(key, value); }
+        public V setValue(V value) {
+            if (value == null) throw new NullPointerException();
+            V v = super.setValue(value);
+            put(getKey(), value);
+            return v;
+        }
+    }
+
+    /* ---------------- Records -------------- */
+
+    /** Serializes a key for hashing and comparison. */
+    @SuppressWarnings("unchecked")
+    private byte[] keyBytes(Object key) {
+        if (key == null)
+            throw new NullPointerException();
+        K k = (K)key;
+        int n = keySerializer.serializedSize(k);
+        ByteBuffer buf = ByteBuffer.allocate(n);
+        keySerializer.serialize(k, buf);
+        if (buf.position() != n)
+            throw new IllegalStateException("Key serializer wrote " +
+                                            buf.position() + " of " + n +
+                                            " bytes");
+        return buf.array();
+    }
+
+    /** Hashes serialized key bytes, spreading as ConcurrentHashMap does. */
+    static int hashOf(byte[] kb) {
+        int h = 1;
+        for (byte b : kb)
+            h = 31 * h + b;
+        return ConcurrentHashMap.spread(h);
+    }
+
+    private Segment segmentOf(long a) {
+        return segments[(int)(a >>> 32) & 0xffff];
+    }
+
+    /**
+     * Returns true if the segment holding the record at a has not
+     * been recycled since a was allocated.  Must be called after the
+     * reads it validates.
+     */
+    private static boolean validate(Segment s, long a) {
+        U.loadFence();
+        return (s.gen & 0xffff) == (int)(a >>> 48);
+    }
+
+    /**
+     * Compares the key of the record at a with kb.  Returns 1 on a
+     * match, 0 on a mismatch, and -1 if the record was recycled.
+     */
+    private int matchKey(long a, byte[] kb) {
+        Segment s = segmentOf(a);
+        ByteBuffer b = s.buffer;
+        int r = -1;
+        try {
+            if (b != null) {
+                int off = (int)a, n = kb.length;
+                r = 1;
+                if (b.getInt(off) != n)
+                    r = 0;
+                else {
+                    for (int i = 0, p = off + HEADER_SIZE; i < n; ++i, ++p) {
+                        if (b.get(p) != kb[i]) {
+                            r = 0;
+                            break;
+                        }
+                    }
+                }
+            }
+        } catch (RuntimeException ex) {
+            if (validate(s, a))
+                throw ex;
+            return -1;
+        }
+        return validate(s, a) ? r : -1;
+    }
+
+    /**
+     * Returns a buffer positioned and limited to the key (if key is
+     * true) or value of the record at a, or null if unreadable.
+     */
+    private static ByteBuffer recordView(ByteBuffer b, long a, boolean key) {
+        if (b == null)
+            return null;
+        ByteBuffer d = b.duplicate();
+        int off = (int)a;
+        int kl = d.getInt(off), vl = d.getInt(off + 4);
+        int p = off + HEADER_SIZE + (key ? 0 : kl);
+        d.limit(p + (key ? kl : vl));
+        d.position(p);
+        return d;
+    }
+
+    /**
+     * Deserializes the value at a, or returns null if recycled.
+     *
+     * @throws IllegalStateException if the serializer returns null
+     * for a valid record, which callers would otherwise retry forever
+     */
+    private V readValue(long a) {
+        Segment s = segmentOf(a);
+        V v = null;
+        try {
+            ByteBuffer d;
+            if ((d = recordView(s.buffer, a, false)) != null)
+                v = valueSerializer.deserialize(d);
+        } catch (RuntimeException ex) {
+            if (validate(s, a))
+                throw ex;
+            return null;
+        }
+        if (!validate(s, a))
+            return null;
+        if (v == null)
+            throw new IllegalStateException("Value serializer returned null");
+        return v;
+    }
+
+    /**
+     * Deserializes the key at a, or returns null if recycled.
+     *
+     * @throws IllegalStateException if the serializer returns null
+     * for a valid record
+     */
+    private K readKey(long a) {
+        Segment s = segmentOf(a);
+        K k = null;
+        try {
+            ByteBuffer d;
+            if ((d = recordView(s.buffer, a, true)) != null)
+                k = keySerializer.deserialize(d);
+        } catch (RuntimeException ex) {
+            if (validate(s, a))
+                throw ex;
+            return null;
+        }
+        if (!validate(s, a))
+            return null;
+        if (k == null)
+            throw new IllegalStateException("Key serializer returned null");
+        return k;
+    }
+
+    /** Allocates and writes a record, returning its address. */
+    private long writeRecord(byte[] kb, V value) {
+        int vl = valueSerializer.serializedSize(value);
+        if (vl < 0 || vl > Integer.MAX_VALUE - HEADER_SIZE - kb.length)
+            throw new IllegalArgumentException("Illegal value size: " + vl);
+        int size = HEADER_SIZE + kb.length + vl;
+        long a = allocate(size);
+        ByteBuffer d = segmentOf(a).buffer.duplicate();
+        int off = (int)a;
+        d.putInt(off, kb.length);
+        d.putInt(off + 4, vl);
+        d.position(off + HEADER_SIZE);
+        d.put(kb);
+        d.limit(off + size);
+        boolean written = false;
+        try {
+            valueSerializer.serialize(value, d);
+            if (d.position() != off + size)
+                throw new IllegalStateException("Value serializer wrote " +
+                                                (d.position() - off - HEADER_SIZE - kb.length) +
+                                                " of " + vl + " bytes");
+            written = true;
+        } finally {
+            if (!written)
+                release(a);
+        }
+        return a;
+    }
+
+    /** Copies the record at a (reachable under a held bin lock). */
+    private long copyRecord(long a) {
+        ByteBuffer src = segmentOf(a).buffer.duplicate();
+        int off = (int)a;
+        int size = HEADER_SIZE + src.getInt(off) + src.getInt(off + 4);
+        long na = allocate(size);
+        ByteBuffer dst = segmentOf(na).buffer.duplicate();
+        src.limit(off + size);
+        src.position(off);
+        dst.position((int)na);
+        dst.put(src);
+        return na;
+    }
+
+    /* ---------------- Segment allocation -------------- */
+
+    private static long address(Segment s, int offset) {
+        return ((long)(s.gen & 0xffff) << 48) |
+            ((long)s.index << 32) | (offset & 0xffffffffL);
+    }
+
+    /** Returns the address of a new record of the given size. */
+    private long allocate(int size) {
+        if (size > segmentSize)
+            return allocateLarge(size);
+        for (;;) {
+            Segment s = current;
+            int off;
+            if (s != null && (off = reserve(s, size)) >= 0)
+                return address(s, off);
+            synchronized (allocLock) {
+                if (current == s) {
+                    if (s != null)
+                        retire(s);
+                    current = takeSegment(segmentSize);
+                }
+            }
+        }
+    }
+
+    /** Allocates a record in a segment of its own. */
+    private long allocateLarge(int size) {
+        Segment s;
+        int off;
+        synchronized (allocLock) {
+            s = takeSegment(size);
+            off = reserve(s, size);  // cannot fail: fresh and unshared
+            retire(s);
+        }
+        return address(s, off);
+    }
+
+    /**
+     * Reserves size bytes in s, returning their offset, or -1 if s
+     * is full or no longer active.  Live bytes are counted before the
+     * bump pointer moves so a concurrent retire cannot recycle s
+     * under an allocation in progress.
+     */
+    private int reserve(Segment s, int size) {
+        U.getAndAddInt(s, LIVE, size);
+        for (;;) {
+            int t = s.top;
+            if (s.state != ACTIVE || size > s.capacity - t) {
+                unreserve(s, size);
+                return -1;
+            }
+            if (U.compareAndSwapInt(s, TOP, t, t + size))
+                return t;
+        }
+    }
+
+    /** Releases the record at a, which must no longer be reachable. */
+    private void release(long a) {
+        Segment s = segmentOf(a);
+        ByteBuffer b = s.buffer;
+        int off = (int)a;
+        unreserve(s, HEADER_SIZE + b.getInt(off) + b.getInt(off + 4));
+    }
+
+    private void unreserve(Segment s, int size) {
+        if (U.getAndAddInt(s, LIVE, -size) == size && s.state == RETIRED &&
+            U.compareAndSwapInt(s, STATE, RETIRED, FREE))
+            recycle(s);
+    }
+
+    /** Stops allocation from s. Called under allocLock. */
+    private void retire(Segment s) {
+        s.state = RETIRED;
+        if (s.live == 0 && U.compareAndSwapInt(s, STATE, RETIRED, FREE))
+            recycle(s);
+    }
+
+    /**
+     * Invalidates all addresses into s and makes it available for
+     * reuse.  Oversized buffers are dropped rather than pooled.
+     */
+    private void recycle(Segment s) {
+        U.getAndAddInt(s, GEN, 1); // full fence before any reuse
+        synchronized (allocLock) {
+            if (s.capacity == segmentSize)
+                freeSegments.push(s);
+            else {
+                s.buffer = null;
+                s.capacity = 0;
+                freeSlots.push(s);
+            }
+        }
+    }
+
+    /** Returns an active segment of the given capacity. Called under allocLock. */
+    private Segment takeSegment(int capacity) {
+        Segment s;
+        if (capacity != segmentSize || (s = freeSegments.poll()) == null) {
+            ByteBuffer b = ByteBuffer.allocateDirect(capacity);
+            if ((s = freeSlots.poll()) == null) {
+                Segment[] ss = segments;
+                int n = ss.length;
+                if (n >= MAX_SEGMENTS)
+                    throw new OutOfMemoryError("Off-heap segment limit reached");
+                ss = java.util.Arrays.copyOf(ss, n + 1);
+                ss[n] = s = new Segment(n);
+                segments = ss;
+            }
+            s.buffer = b;
+            s.capacity = capacity;
+        }
+        s.top = 0;
+        s.state = ACTIVE;
+        return s;
+    }
+
+    /** Returns true if s is a retired regular segment less than a quarter live. */
+    private boolean isSparse(Segment s) {
+        return (s.state == RETIRED && s.capacity == segmentSize &&
+                s.live < (segmentSize >>> 2));
+    }
+
+    /* ---------------- Table Initialization and Resizing -------------- */
+
+    static final int resizeStamp(int n) {
+        return Integer.numberOfLeadingZeros(n) | (1 << (RESIZE_STAMP_BITS - 1));
+    }
+
+    /**
+     * Initializes table, using the size recorded in sizeCtl.
+     */
+    private final Node[] initTable() {
+        Node[] tab; int sc;
+        while ((tab = table) == null || tab.length == 0) {
+            if ((sc = sizeCtl) < 0)
+                Thread.yield(); // lost initialization race; just spin
+            else if (U.compareAndSwapInt(this, SIZECTL, sc, -1)) {
+                try {
+                    if ((tab = table) == null || tab.length == 0) {
+                        int n = (sc > 0) ? sc : DEFAULT_CAPACITY;
+                        table = tab = new Node[n];
+                        sc = n - (n >>> 2);
+                    }
+                } finally {
+                    sizeCtl = sc;
+                }
+                break;
+            }
+        }
+        return tab;
+    }
+
+    /**
+     * Adds to count, and if table is too small and not already
+     * resizing, initiates transfer. If already resizing, helps
+     * perform transfer if work is available.
+     *
+     * @param x the count to add
+     * @param check if <0, don't check resize
+     */
+    private final void addCount(long x, int check) {
+        counter.add(x);
+        if (check >= 0) {
+            Node[] tab, nt; int n, sc; long s = counter.sum();
+            while (s >= (long)(sc = sizeCtl) && (tab = table) != null &&
+                   (n = tab.length) < MAXIMUM_CAPACITY) {
+                int rs = resizeStamp(n);
+                if (sc < 0) {
+                    if ((sc >>> RESIZE_STAMP_SHIFT) != rs || sc == rs + 1 ||
+                        sc == rs + MAX_RESIZERS || (nt = nextTable) == null ||
+                        transferIndex <= 0)
+                        break;
+                    if (U.compareAndSwapInt(this, SIZECTL, sc, sc + 1))
+                        transfer(tab, nt);
+                }
+                else if (U.compareAndSwapInt(this, SIZECTL, sc,
+                                             (rs << RESIZE_STAMP_SHIFT) + 2))
+                    transfer(tab, null);
+                s = counter.sum();
+            }
+        }
+    }
+
+    /**
+     * Helps transfer if a resize is in progress.
+     */
+    final Node[] helpTransfer(Node[] tab, Node f) {
+        Node[] nextTab; int sc;
+        if (tab != null && (f instanceof ForwardingNode) &&
+            (nextTab = ((ForwardingNode)f).nextTable) != null) {
+            int rs = resizeStamp(tab.length);
+            while (nextTab == nextTable && table == tab &&
+                   (sc = sizeCtl) < 0) {
+                if ((sc >>> RESIZE_STAMP_SHIFT) != rs || sc == rs + 1 ||
+                    sc == rs + MAX_RESIZERS || transferIndex <= 0)
+                    break;
+                if (U.compareAndSwapInt(this, SIZECTL, sc, sc + 1)) {
+                    transfer(tab, nextTab);
+                    break;
+                }
+            }
+            return nextTab;
+        }
+        return table;
+    }
+
+    /**
+     * Moves and/or copies the nodes in each bin to new table.  Copied
+     * nodes share their records with the originals, which remain
+     * readable by traversals of the old table.
+     */
+    private final void transfer(Node[] tab, Node[] nextTab) {
+        int n = tab.length, stride;
+        if ((stride = (NCPU > 1) ? (n >>> 3) / NCPU : n) < MIN_TRANSFER_STRIDE)
+            stride = MIN_TRANSFER_STRIDE; // subdivide range
+        if (nextTab == null) {            // initiating
+            try {
+                nextTab = new Node[n << 1];
+            } catch (Throwable ex) {      // try to cope with OOME
+                sizeCtl = Integer.MAX_VALUE;
+                return;
+            }
+            nextTable = nextTab;
+            transferIndex = n;
+        }
+        int nextn = nextTab.length;
+        ForwardingNode fwd = new ForwardingNode(nextTab);
+        boolean advance = true;
+        boolean finishing = false; // to ensure sweep before committing nextTab
+        for (int i = 0, bound = 0;;) {
+            Node f; int fh;
+            while (advance) {
+                int nextIndex, nextBound;
+                if (--i >= bound || finishing)
+                    advance = false;
+                else if ((nextIndex = transferIndex) <= 0) {
+                    i = -1;
+                    advance = false;
+                }
+                else if (U.compareAndSwapInt
+                         (this, TRANSFERINDEX, nextIndex,
+                          nextBound = (nextIndex > stride ?
+                                       nextIndex - stride : 0))) {
+                    bound = nextBound;
+                    i = nextIndex - 1;
+                    advance = false;
+                }
+            }
+            if (i < 0 || i >= n || i + n >= nextn) {
+                int sc;
+                if (finishing) {
+                    nextTable = null;
+                    table = nextTab;
+                    sizeCtl = (n << 1) - (n >>> 1);
+                    return;
+                }
+                if (U.compareAndSwapInt(this, SIZECTL, sc = sizeCtl, sc - 1)) {
+                    if ((sc - 2) != resizeStamp(n) << RESIZE_STAMP_SHIFT)
+                        return;
+                    finishing = advance = true;
+                    i = n; // recheck before commit
+                }
+            }
+            else if ((f = tabAt(tab, i)) == null)
+                advance = casTabAt(tab, i, null, fwd);
+            else if ((fh = f.hash) == MOVED)
+                advance = true; // already processed
+            else {
+                synchronized (f) {
+                    if (tabAt(tab, i) == f) {
+                        Node ln, hn;
+                        int runBit = fh & n;
+                        Node lastRun = f;
+                        for (Node p = f.next; p != null; p = p.next) {
+                            int b = p.hash & n;
+                            if (b != runBit) {
+                                runBit = b;
+                                lastRun = p;
+                            }
+                        }
+                        if (runBit == 0) {
+                            ln = lastRun;
+                            hn = null;
+                        }
+                        else {
+                            hn = lastRun;
+                            ln = null;
+                        }
+                        for (Node p = f; p != lastRun; p = p.next) {
+                            int ph = p.hash; long pa = p.address;
+                            if ((ph & n) == 0)
+                                ln = new Node(ph, pa, ln);
+                            else
+                                hn = new Node(ph, pa, hn);
+                        }
+                        setTabAt(nextTab, i, ln);
+                        setTabAt(nextTab, i + n, hn);
+                        setTabAt(tab, i, fwd);
+                        advance = true;
+                    }
+                }
+            }
+        }
+    }
+
+    /* ----------------Table Traversal -------------- */
+
+    /**
+     * Records the table, its length, and current traversal index for a
+     * traverser that must process a region of a forwarded table before
+     * proceeding with current table.
+     */
+    static final class TableStack {
+        int length;
+        int index;
+        Node[] tab;
+        TableStack next;
+    }
+
+    /**
+     * Weakly consistent traversal over the table, following
+     * forwarding nodes as ConcurrentHashMap.Traverser does.
+     */
+    static class Traverser {
+        Node[] tab;             // current table; updated if resized
+        Node next;              // the next entry to use
+        TableStack stack, spare; // to save/restore on ForwardingNodes
+        int index;              // index of bin to use next
+        int baseIndex;          // current index of initial table
+        int baseLimit;          // index bound for initial table
+        final int baseSize;     // initial table size
+
+        Traverser(Node[] tab, int size, int index, int limit) {
+            this.tab = tab;
+            this.baseSize = size;
+            this.baseIndex = this.index = index;
+            this.baseLimit = limit;
+            this.next = null;
+        }
+
+        /**
+         * Advances if possible, returning next valid node, or null if none.
+         */
+        final Node advance() {
+            Node e;
+            if ((e = next) != null)
+                e = e.next;
+            for (;;) {
+                Node[] t; int i, n;  // must use locals in checks
+                if (e != null)
+                    return next = e;
+                if (baseIndex >= baseLimit || (t = tab) == null ||
+                    (n = t.length) <= (i = index) || i < 0)
+                    return next = null;
+                if ((e = tabAt(t, i)) != null && e.hash < 0) {
+                    tab = ((ForwardingNode)e).nextTable;
+                    e = null;
+                    pushState(t, i, n);
+                    continue;
+                }
+                if (stack != null)
+                    recoverState(n);
+                else if ((index = i + baseSize) >= n)
+                    index = ++baseIndex; // visit upper slots if present
+            }
+        }
+
+        private void pushState(Node[] t, int i, int n) {
+            TableStack s = spare;  // reuse if possible
+            if (s != null)
+                spare = s.next;
+            else
+                s = new TableStack();
+            s.tab = t;
+            s.length = n;
+            s.index = i;
+            s.next = stack;
+            stack = s;
+        }
+
+        private void recoverState(int n) {
+            TableStack s; int len;
+            while ((s = stack) != null && (index += (len = s.length)) >= n) {
+                n = len;
+                index = s.index;
+                tab = s.tab;
+                s.tab = null;
+                TableStack next = s.next;
+                s.next = spare; // save for reuse
+                stack = next;
+                spare = s;
+            }
+            if (s == null && (index += baseSize) >= n)
+                index = ++baseIndex;
+        }
+    }
+
+    // Unsafe mechanics
+    private static final sun.misc.Unsafe U;
+    private static final long SIZECTL;
+    private static final long TRANSFERINDEX;
+    private static final long TOP;
+    private static final long LIVE;
+    private static final long STATE;
+    private static final long GEN;
+    private static final long ABASE;
+    private static final int ASHIFT;
+
+    static {
+        try {
+            U = sun.misc.Unsafe.getUnsafe();
+            Class<?> k = OffHeapConcurrentHashMap.class;
+            SIZECTL = U.objectFieldOffset
+                (k.getDeclaredField("sizeCtl"));
+            TRANSFERINDEX = U.objectFieldOffset
+                (k.getDeclaredField("transferIndex"));
+            Class<?> sk = Segment.class;
+            TOP = U.objectFieldOffset
+                (sk.getDeclaredField("top"));
+            LIVE = U.objectFieldOffset
+                (sk.getDeclaredField("live"));
+            STATE = U.objectFieldOffset
+                (sk.getDeclaredField("state"));
+            GEN = U.objectFieldOffset
+                (sk.getDeclaredField("gen"));
+            Class<?> ak = Node[].class;
+            ABASE = U.arrayBaseOffset(ak);
+            int scale = U.arrayIndexScale(ak);
+            if ((scale & (scale - 1)) != 0)
+                throw new Error("data type scale not a power of two");
+            ASHIFT = 31 - Integer.numberOfLeadingZeros(scale);
+        } catch (Exception e) {
+            throw new Error(e);
+        }
+    }
+}
@@ -0,0 +1,759 @@
+/*
+ * Copyright (c) 2017, Oracle and/or its affiliates. All rights reserved.
+ * ORACLE PROPRIETARY/CONFIDENTIAL. Use is subject to license terms.
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ */
+
+package java.util.concurrent;
+
+import java.io.Serializable;
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.LongBinaryOperator;
+import java.util.function.ToLongBiFunction;
+
+/**
+ * A {@link ConcurrentMap} that partitions its mappings over several
+ * independent {@link ConcurrentHashMap} shards, for maps that are too
+ * large for a single table.  A {@code ConcurrentHashMap} table has at
+ * most 2<sup>30</sup> bins, and each resize migrates every mapping in
+ * the table; a sharded map has that many bins per shard, and each
+ * shard resizes on its own, so that a resize only ever migrates the
+ * mappings of one shard and stalls only the writers of that shard.
+ *
+ * <p>The shard of a key is selected by the high bits of a scrambled
+ * form of its hash code, independent of the low bits each shard uses
+ * to select a bin.  The number of shards is fixed at construction.
+ * All operations on a single key have the same properties as the
+ * corresponding {@code ConcurrentHashMap} operations.  Operations
+ * spanning several shards, such as {@link #size}, {@link #clear},
+ * {@link #putAll} and iteration, are not atomic with respect to
+ * concurrent updates.  Neither keys nor values may be null.
+ *
+ * <p>{@link #size} saturates at {@code Integer.MAX_VALUE}; use
+ * {@link #mappingCount} for the number of mappings of maps larger
+ * than that.
+ *
+ * <p>The bulk operations ({@link #forEach(long, BiConsumer)}, {@link
+ * #search}, {@link #reduce} and {@link #reduceToLong}) take a
+ * parallelism threshold as in {@code ConcurrentHashMap}.  Above it,
+ * the shards are processed in parallel, each of them using the
+ * parallel bulk operation of its {@code ConcurrentHashMap}.  The
+ * spliterators of the collection views first split across shards and
+ * then within a shard.
+ *
+ * @param <K> the type of keys maintained by this map
+ * @param <V> the type of mapped values
+ * @see ConcurrentHashMap
+ */
+public class ShardedConcurrentHashMap<K,V> extends AbstractMap<K,V>
+    implements ConcurrentMap<K,V>, Serializable {
+    private static final long serialVersionUID = -3218904624870239012L;
+
+    /* ---------------- Constants -------------- */
+
+    /** The default number of shards. */
+    static final int DEFAULT_SHARDS = 16;
+
+    /** The largest number of shards. */
+    static final int MAXIMUM_SHARDS = 1 << 16;
+
+    /** The largest initial capacity requested from a shard. */
+    private static final int MAXIMUM_SHARD_CAPACITY = 1 << 30;
+
+    /** Multiplier scrambling hash codes for shard selection. */
+    private static final int SHARD_SEED = 0x9e3779b9;
+
+    /* ---------------- Fields -------------- */
+
+    /** The shards, a power of two of them. */
+    final ConcurrentHashMap<K,V>[] shards;
+
+    /** Shift bringing the top bits of a scrambled hash to the index. */
+    private final int shardShift;
+
+    // views
+    private transient KeySetView keySet;
+    private transient ValuesView values;
+    private transient EntrySetView entrySet;
+
+    /* ---------------- Public operations -------------- */
+
+    /**
+     * Creates a new, empty map with the default number of shards (16).
+     */
+    public ShardedConcurrentHashMap() {
+        this(0L, DEFAULT_SHARDS);
+    }
+
+    /**
+     * Creates a new, empty map with initial table sizes accommodating
+     * the specified number of elements, spread over the given number
+     * of shards, without the need to dynamically resize.
+     *
+     * @param initialCapacity the expected number of mappings
+     * @param shardCount the number of shards; rounded up to a power
+     * of two
+     * @throws IllegalArgumentException if the initial capacity is
+     * negative or the shard count is nonpositive or greater than
+     * 65536
+     */
+    public ShardedConcurrentHashMap(long initialCapacity, int shardCount) {
+        if (initialCapacity < 0L || shardCount <= 0 ||
+            shardCount > MAXIMUM_SHARDS)
+            throw new IllegalArgumentException();
+        int n = 1;
+        while (n < shardCount)
+            n <<= 1;
+        long c = initialCapacity / n;
+        int cap = (c >= MAXIMUM_SHARD_CAPACITY) ? MAXIMUM_SHARD_CAPACITY :
+            (int)c;
+        @SuppressWarnings("unchecked")
+        ConcurrentHashMap<K,V>[] s =
+            (ConcurrentHashMap<K,V>[])new ConcurrentHashMap<?,?>[n];
+        for (int i = 0; i < n; ++i)
+            s[i] = (cap == 0) ? new ConcurrentHashMap<K,V>() :
+                new ConcurrentHashMap<K,V>(cap);
+        this.shards = s;
+        this.shardShift = 32 - Integer.numberOfTrailingZeros(n);
+    }
+
+    /**
+     * Returns the shard holding the given key.
+     *
+     * @throws NullPointerException if the key is null
+     */
+    final ConcurrentHashMap<K,V> shardFor(Object key) {
+        int h = key.hashCode() * SHARD_SEED;
+        // shardShift is 32 for a single shard, which Java treats as 0
+        return shards[(h >>> shardShift) & (shards.length - 1)];
+    }
+
+    /**
+     * Returns the number of shards.
+     *
+     * @return the number of shards
+     */
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * Returns the number of mappings.  If the map contains more than
+     * {@code Integer.MAX_VALUE} mappings, returns {@code
+     * Integer.MAX_VALUE}.
+     *
+     * @return the number of mappings, at most {@code Integer.MAX_VALUE}
+     * @see #mappingCount
+     */
+    public int size() {
+        long n = mappingCount();
+        return (n > (long)Integer.MAX_VALUE) ? Integer.MAX_VALUE : (int)n;
+    }
+
+    /**
+     * Returns the number of mappings.  This method should be used
+     * instead of {@link #size} because a sharded map may contain
+     * more mappings than can be represented as an int.  The value
+     * returned is an estimate; the actual count may differ if there
+     * are concurrent insertions or removals.
+     *
+     * @return the number of mappings
+     */
+    public long mappingCount() {
+        long n = 0L;
+        for (ConcurrentHashMap<K,V> s : shards)
+            n += s.mappingCount();
+        return n;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isEmpty() {
+        for (ConcurrentHashMap<K,V> s : shards) {
+            if (!s.isEmpty())
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException if the specified key is null
+     */
+    public V get(Object key) {
+        return shardFor(key).get(key);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException if the specified key is null
+     */
+    public V getOrDefault(Object key, V defaultValue) {
+        return shardFor(key).getOrDefault(key, defaultValue);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException if the specified key is null
+     */
+    public boolean containsKey(Object key) {
+        return shardFor(key).containsKey(key);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException if the specified value is null
+     */
+    public boolean containsValue(Object value) {
+        if (value == null)
+            throw new NullPointerException();
+        for (ConcurrentHashMap<K,V> s : shards) {
+            if (s.containsValue(value))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException if the specified key or value is null
+     */
+    public V put(K key, V value) {
+        return shardFor(key).put(key, value);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException if the specified key or value is null
+     */
+    public V putIfAbsent(K key, V value) {
+        return shardFor(key).putIfAbsent(key, value);
+    }
+
+    /**
+     * Copies all of the mappings from the specified map to this one.
+     *
+     * @param m mappings to be stored in this map
+     */
+    public void putAll(Map<? extends K, ? extends V> m) {
+        for (Map.Entry<? extends K, ? extends V> e : m.entrySet())
+            put(e.getKey(), e.getValue());
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException if the specified key is null
+     */
+    public V remove(Object key) {
+        return shardFor(key).remove(key);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException if the specified key is null
+     */
+    public boolean remove(Object key, Object value) {
+        return shardFor(key).remove(key, value);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException if any of the arguments are null
+     */
+    public boolean replace(K key, V oldValue, V newValue) {
+        return shardFor(key).replace(key, oldValue, newValue);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException if the specified key or value is null
+     */
+    public V replace(K key, V value) {
+        return shardFor(key).replace(key, value);
+    }
+
+    /**
+     * Removes all of the mappings from this map.
+     */
+    public void clear() {
+        for (ConcurrentHashMap<K,V> s : shards)
+            s.clear();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException if the specified key or function
+     *         is null
+     */
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        return shardFor(key).computeIfAbsent(key, mappingFunction);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException if the specified key or function
+     *         is null
+     */
+    public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        return shardFor(key).computeIfPresent(key, remappingFunction);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException if the specified key or function
+     *         is null
+     */
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        return shardFor(key).compute(key, remappingFunction);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException if the specified key, value or
+     *         function is null
+     */
+    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        return shardFor(key).merge(key, value, remappingFunction);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        if (action == null) throw new NullPointerException();
+        for (ConcurrentHashMap<K,V> s : shards)
+            s.forEach(action);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function) {
+        if (function == null) throw new NullPointerException();
+        for (ConcurrentHashMap<K,V> s : shards)
+            s.replaceAll(function);
+    }
+
+    /**
+     * Returns a {@link Set} view of the keys contained in this map.
+     * The set is backed by the map and supports element removal.
+     * Its iterators and spliterators are weakly consistent.
+     *
+     * @return the set view
+     */
+    public Set<K> keySet() {
+        KeySetView ks;
+        return (ks = keySet) != null ? ks : (keySet = new KeySetView());
+    }
+
+    /**
+     * Returns a {@link Collection} view of the values contained in
+     * this map.  The collection is backed by the map and supports
+     * element removal.  Its iterators and spliterators are weakly
+     * consistent.
+     *
+     * @return the collection view
+     */
+    public Collection<V> values() {
+        ValuesView vs;
+        return (vs = values) != null ? vs : (values = new ValuesView());
+    }
+
+    /**
+     * Returns a {@link Set} view of the mappings contained in this
+     * map.  The set is backed by the map and supports element
+     * removal; the entries' {@code setValue} writes through to the
+     * map.  Its iterators and spliterators are weakly consistent.
+     *
+     * @return the set view
+     */
+    public Set<Map.Entry<K,V>> entrySet() {
+        EntrySetView es;
+        return (es = entrySet) != null ? es : (entrySet = new EntrySetView());
+    }
+
+    /* ---------------- Bulk operations -------------- */
+
+    /**
+     * Performs the given action for each (key, value).
+     *
+     * @param parallelismThreshold the (estimated) number of elements
+     * needed for this operation to be executed in parallel
+     * @param action the action
+     */
+    public void forEach(final long parallelismThreshold,
+                        final BiConsumer<? super K,? super V> action) {
+        if (action == null) throw new NullPointerException();
+        forEachShard(parallelismThreshold, new IntConsumer() {
+                public void accept(int i) {
+                    shards[i].forEach(parallelismThreshold, action);
+                }
+            });
+    }
+
+    /**
+     * Returns a non-null result from applying the given search
+     * function on each (key, value), or null if none.  Upon
+     * success, further element processing is suppressed and the
+     * results of any other parallel invocations of the search
+     * function are ignored.
+     *
+     * @param parallelismThreshold the (estimated) number of elements
+     * needed for this operation to be executed in parallel
+     * @param searchFunction a function returning a non-null
+     * result on success, else null
+     * @param <U> the return type of the search function
+     * @return a non-null result from applying the given search
+     * function on each (key, value), or null if none
+     */
+    public <U> U search(final long parallelismThreshold,
+                        final BiFunction<? super K, ? super V, ? extends U> searchFunction) {
+        if (searchFunction == null) throw new NullPointerException();
+        final AtomicReference<U> result = new AtomicReference<U>();
+        forEachShard(parallelismThreshold, new IntConsumer() {
+                public void accept(int i) {
+                    U u;
+                    if (result.get() == null &&
+                        (u = shards[i].search(parallelismThreshold,
+                                              searchFunction)) != null)
+                        result.compareAndSet(null, u);
+                }
+            });
+        return result.get();
+    }
+
+    /**
+     * Returns the result of accumulating the given transformation
+     * of all (key, value) pairs using the given reducer to
+     * combine values, or null if none.
+     *
+     * @param parallelismThreshold the (estimated) number of elements
+     * needed for this operation to be executed in parallel
+     * @param transformer a function returning the transformation
+     * for an element, or null if there is no transformation (in
+     * which case it is not combined)
+     * @param reducer a commutative associative combining function
+     * @param <U> the return type of the transformer
+     * @return the result of accumulating the given transformation
+     * of all (key, value) pairs
+     */
+    public <U> U reduce(final long parallelismThreshold,
+                        final BiFunction<? super K, ? super V, ? extends U> transformer,
+                        BiFunction<? super U, ? super U, ? extends U> reducer) {
+        if (transformer == null || reducer == null)
+            throw new NullPointerException();
+        final Object[] results = new Object[shards.length];
+        forEachShard(parallelismThreshold, new IntConsumer() {
+                public void accept(int i) {
+                    results[i] = shards[i].reduce(parallelismThreshold,
+                                                  transformer, reducer);
+                }
+            });
+        U r = null;
+        for (Object o : results) {
+            @SuppressWarnings("unchecked") U u = (U)o;
+            if (u != null)
+                r = (r == null) ? u : reducer.apply(r, u);
+        }
+        return r;
+    }
+
+    /**
+     * Returns the result of accumulating the given transformation
+     * of all (key, value) pairs using the given reducer to
+     * combine values, and the given basis as an identity value.
+     *
+     * @param parallelismThreshold the (estimated) number of elements
+     * needed for this operation to be executed in parallel
+     * @param transformer a function returning the transformation
+     * for an element
+     * @param basis the identity (initial default value) for the reduction
+     * @param reducer a commutative associative combining function
+     * @return the result of accumulating the given transformation
+     * of all (key, value) pairs
+     */
+    public long reduceToLong(final long parallelismThreshold,
+                             final ToLongBiFunction<? super K, ? super V> transformer,
+                             final long basis,
+                             final LongBinaryOperator reducer) {
+        if (transformer == null || reducer == null)
+            throw new NullPointerException();
+        final long[] results = new long[shards.length];
+        forEachShard(parallelismThreshold, new IntConsumer() {
+                public void accept(int i) {
+                    results[i] = shards[i].reduceToLong(parallelismThreshold,
+                                                        transformer, basis,
+                                                        reducer);
+                }
+            });
+        long r = basis;
+        for (long x : results)
+            r = reducer.applyAsLong(r, x);
+        return r;
+    }
+
+    /**
+     * Applies the action to each shard index, in parallel if the map
+     * holds at least parallelismThreshold mappings.
+     */
+    final void forEachShard(long parallelismThreshold, IntConsumer action) {
+        int n = shards.length;
+        if (n == 1 || parallelismThreshold == Long.MAX_VALUE ||
+            mappingCount() < Math.max(parallelismThreshold, 1L)) {
+            for (int i = 0; i < n; ++i)
+                action.accept(i);
+        }
+        else
+            new ShardTask(null, 0, n, action).invoke();
+    }
+
+    /**
+     * Applies an action to a range of shard indices, forking off the
+     * upper halves.
+     */
+    @SuppressWarnings("serial")
+    static final class ShardTask extends CountedCompleter<Void> {
+        final IntConsumer action;
+        final int lo;
+        int hi;
+        ShardTask(CountedCompleter<?> p, int lo, int hi, IntConsumer action) {
+            super(p);
+            this.lo = lo; this.hi = hi; this.action = action;
+        }
+        public final void compute() {
+            for (int h; (h = (lo + hi) >>> 1) > lo; ) {
+                addToPendingCount(1);
+                new ShardTask(this, h, hi, action).fork();
+                hi = h;
+            }
+            action.accept(lo);
+            propagateCompletion();
+        }
+    }
+
+    /* ---------------- Views -------------- */
+
+    /** View kinds */
+    static final int KEYS    = 0;
+    static final int VALUES  = 1;
+    static final int ENTRIES = 2;
+
+    final class KeySetView extends AbstractSet<K> {
+        public int size() { return ShardedConcurrentHashMap.this.size(); }
+        public boolean isEmpty() { return ShardedConcurrentHashMap.this.isEmpty(); }
+        public void clear() { ShardedConcurrentHashMap.this.clear(); }
+        public boolean contains(Object o) { return containsKey(o); }
+        public boolean remove(Object o) {
+            return ShardedConcurrentHashMap.this.remove(o) != null;
+        }
+        public Iterator<K> iterator() {
+            return new ShardIterator<K>(KEYS);
+        }
+        public Spliterator<K> spliterator() {
+            return new ShardSpliterator<K>(KEYS, 0, shards.length, null);
+        }
+    }
+
+    final class ValuesView extends AbstractCollection<V> {
+        public int size() { return ShardedConcurrentHashMap.this.size(); }
+        public boolean isEmpty() { return ShardedConcurrentHashMap.this.isEmpty(); }
+        public void clear() { ShardedConcurrentHashMap.this.clear(); }
+        public boolean contains(Object o) { return containsValue(o); }
+        public Iterator<V> iterator() {
+            return new ShardIterator<V>(VALUES);
+        }
+        public Spliterator<V> spliterator() {
+            return new ShardSpliterator<V>(VALUES, 0, shards.length, null);
+        }
+    }
+
+    final class EntrySetView extends AbstractSet<Map.Entry<K,V>> {
+        public int size() { return ShardedConcurrentHashMap.this.size(); }
+        public boolean isEmpty() { return ShardedConcurrentHashMap.this.isEmpty(); }
+        public void clear() { ShardedConcurrentHashMap.this.clear(); }
+        public boolean contains(Object o) {
+            Object k; Map.Entry<?,?> e;
+            return ((o instanceof Map.Entry) &&
+                    (k = (e = (Map.Entry<?,?>)o).getKey()) != null &&
+                    shardFor(k).entrySet().contains(e));
+        }
+        public boolean remove(Object o) {
+            Object k, v; Map.Entry<?,?> e;
+            return ((o instanceof Map.Entry) &&
+                    (k = (e = (Map.Entry<?,?>)o).getKey()) != null &&
+                    (v = e.getValue()) != null &&
+                    ShardedConcurrentHashMap.this.remove(k, v));
+        }
+        public Iterator<Map.Entry<K,V>> iterator() {
+            return new ShardIterator<Map.Entry<K,V>>(ENTRIES);
+        }
+        public Spliterator<Map.Entry<K,V>> spliterator() {
+            return new ShardSpliterator<Map.Entry<K,V>>
+                (ENTRIES, 0, shards.length, null);
+        }
+    }
+
+    /**
+     * Returns the view of the given kind of shard i.
+     */
+    @SuppressWarnings("unchecked")
+    final <T> Collection<T> shardView(int kind, int i) {
+        ConcurrentHashMap<K,V> s = shards[i];
+        return (Collection<T>)((kind == KEYS) ? s.keySet() :
+                               (kind == VALUES) ? s.values() :
+                               s.entrySet());
+    }
+
+    /**
+     * Iterates over the views of each shard in turn.  Removal is
+     * delegated to the iterator that returned the last element, which
+     * hasNext may already have moved past.
+     */
+    final class ShardIterator<T> implements Iterator<T> {
+        final int kind;
+        int index;
+        Iterator<T> it;
+        Iterator<T> lastIt;     // iterator of the last element returned
+        ShardIterator(int kind) {
+            this.kind = kind;
+            this.it = ShardedConcurrentHashMap.this.<T>shardView(kind, 0).iterator();
+        }
+        public boolean hasNext() {
+            while (!it.hasNext()) {
+                if (index + 1 >= shards.length)
+                    return false;
+                it = ShardedConcurrentHashMap.this.<T>shardView(kind, ++index).iterator();
+            }
+            return true;
+        }
+        public T next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Iterator<T> i = lastIt = it;
+            return i.next();
+        }
+        public void remove() {
+            Iterator<T> i = lastIt;
+            if (i == null)
+                throw new IllegalStateException();
+            lastIt = null;
+            i.remove();
+        }
+    }
+
+    /**
+     * Spliterator over the views of the shards in [index, fence).
+     * Splits off halves of the shard range while it holds more than
+     * one shard, and then splits within the remaining shard.
+     */
+    final class ShardSpliterator<T> implements Spliterator<T> {
+        final int kind;
+        int index, fence;
+        Spliterator<T> current; // spliterator for shard index, if started
+        ShardSpliterator(int kind, int index, int fence,
+                         Spliterator<T> current) {
+            this.kind = kind; this.index = index; this.fence = fence;
+            this.current = current;
+        }
+        private Spliterator<T> current() {
+            Spliterator<T> s;
+            if ((s = current) == null && index < fence)
+                current = s = ShardedConcurrentHashMap.this.<T>shardView
+                    (kind, index).spliterator();
+            return s;
+        }
+        public Spliterator<T> trySplit() {
+            int i = index, f = fence, h;
+            if (current == null && (h = (i + f) >>> 1) > i) {
+                fence = h;
+                return new ShardSpliterator<T>(kind, h, f, null);
+            }
+            if (f - i > 1) {   // started the first shard; hand off the rest
+                fence = i + 1;
+                return new ShardSpliterator<T>(kind, i + 1, f, null);
+            }
+            Spliterator<T> s = current();
+            return (s == null) ? null : s.trySplit();
+        }
+        public boolean tryAdvance(Consumer<? super T> action) {
+            if (action == null) throw new NullPointerException();
+            for (Spliterator<T> s; (s = current()) != null; ) {
+                if (s.tryAdvance(action))
+                    return true;
+                current = null;
+                ++index;
+            }
+            return false;
+        }
+        public void forEachRemaining(Consumer<? super T> action) {
+            if (action == null) throw new NullPointerException();
+            for (Spliterator<T> s; (s = current()) != null; ) {
+                s.forEachRemaining(action);
+                current = null;
+                ++index;
+            }
+        }
+        public long estimateSize() {
+            long n = 0L;
+            Spliterator<T> s = current;
+            for (int i = index; i < fence; ++i)
+                n += (i == index && s != null) ? s.estimateSize() :
+                    shards[i].mappingCount();
+            return n;
+        }
+        public int characteristics() {
+            return (kind == VALUES) ?
+                (Spliterator.CONCURRENT | Spliterator.NONNULL) :
+                (Spliterator.DISTINCT | Spliterator.CONCURRENT |
+                 Spliterator.NONNULL);
+        }
+    }
+}